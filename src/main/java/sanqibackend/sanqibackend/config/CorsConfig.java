@@ -17,6 +17,8 @@ public class CorsConfig {
                         .allowedOriginPatterns("http://localhost:8080", "http://127.0.0.1:5500")
                         .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
                         .allowedHeaders("*")
+                        // 下载接口需要让前端读取到断点续传相关的响应头
+                        .exposedHeaders("Content-Range", "Accept-Ranges", "ETag", "Content-Disposition")
                         .allowCredentials(true)
                         .maxAge(3600);  // 增加预检请求缓存时间
             }
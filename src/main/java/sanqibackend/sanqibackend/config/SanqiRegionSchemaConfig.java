@@ -0,0 +1,31 @@
+package sanqibackend.sanqibackend.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.DataSourceInitializer;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+
+/**
+ * 初始化三七种植区域的预计算表、维护函数与触发器
+ *
+ * 脚本含有 PL/pgSQL 函数体，不能像 raster_data.sql 那样按分号拆分，因此单独执行并使用 @@ 作为语句分隔符。
+ * 与 spring.sql.init.continue-on-error 一致，数据库缺少 PostGIS 或 sanqi 表时只记录错误，不影响启动。
+ */
+@Configuration
+public class SanqiRegionSchemaConfig {
+
+    @Bean
+    public DataSourceInitializer sanqiRegionSchemaInitializer(DataSource dataSource) {
+        ResourceDatabasePopulator populator = new ResourceDatabasePopulator(new ClassPathResource("SQL/sanqi_resolved.sql"));
+        populator.setSeparator("@@");
+        populator.setSqlScriptEncoding("UTF-8");
+        populator.setContinueOnError(true);
+        DataSourceInitializer initializer = new DataSourceInitializer();
+        initializer.setDataSource(dataSource);
+        initializer.setDatabasePopulator(populator);
+        return initializer;
+    }
+}
@@ -0,0 +1,117 @@
+package sanqibackend.sanqibackend.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import sanqibackend.sanqibackend.entity.BulkImportJob;
+import sanqibackend.sanqibackend.service.RasterBulkImportService;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 栅格批量导入接口
+ *
+ * ZIP 可以作为 multipart 文件上传，也可以直接作为请求体（application/zip）流式上传，后者不经过临时文件。
+ * 请求返回后可通过 /api/raster/import/bulk/{jobId} 查询每个文件的进度和失败原因。
+ */
+@RestController
+@RequestMapping("/api/raster/import/bulk")
+public class RasterBulkImportController {
+    private static final Logger log = LoggerFactory.getLogger(RasterBulkImportController.class);
+
+    @Autowired
+    private RasterBulkImportService rasterBulkImportService;
+
+    @PostMapping(value = "/zip", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> importZipFile(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "description", required = false) String description,
+            @RequestParam(value = "cog", required = false) Boolean cog,
+            @RequestParam(value = "keepOriginal", required = false) Boolean keepOriginal) {
+        try (InputStream in = file.getInputStream()) {
+            return jobResponse(rasterBulkImportService.importZip(in, description, cog, keepOriginal), HttpStatus.OK);
+        } catch (Exception e) {
+            return error("ZIP 批量导入失败", e);
+        }
+    }
+
+    @PostMapping(value = "/zip", consumes = {"application/zip", "application/x-zip-compressed",
+            MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<?> importZipStream(
+            HttpServletRequest request,
+            @RequestParam(value = "description", required = false) String description,
+            @RequestParam(value = "cog", required = false) Boolean cog,
+            @RequestParam(value = "keepOriginal", required = false) Boolean keepOriginal) {
+        try (InputStream in = request.getInputStream()) {
+            return jobResponse(rasterBulkImportService.importZip(in, description, cog, keepOriginal), HttpStatus.OK);
+        } catch (Exception e) {
+            return error("ZIP 批量导入失败", e);
+        }
+    }
+
+    /**
+     * 在后台导入服务器目录，立即返回任务
+     */
+    @PostMapping("/directory")
+    public ResponseEntity<?> importDirectory(
+            @RequestParam("directory") String directory,
+            @RequestParam(value = "recursive", defaultValue = "false") boolean recursive,
+            @RequestParam(value = "description", required = false) String description,
+            @RequestParam(value = "cog", required = false) Boolean cog,
+            @RequestParam(value = "keepOriginal", required = false) Boolean keepOriginal) {
+        try {
+            BulkImportJob job = rasterBulkImportService.importDirectory(directory, recursive, description,
+                    cog, keepOriginal);
+            return jobResponse(job, HttpStatus.ACCEPTED);
+        } catch (Exception e) {
+            return error("目录批量导入失败", e);
+        }
+    }
+
+    @GetMapping("/{jobId}")
+    public ResponseEntity<?> getJob(@PathVariable String jobId) {
+        BulkImportJob job = rasterBulkImportService.getJob(jobId);
+        if (job == null) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", "批量导入任务不存在或已过期");
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+        return jobResponse(job, HttpStatus.OK);
+    }
+
+    @GetMapping
+    public ResponseEntity<?> listJobs() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", rasterBulkImportService.listJobs());
+        return ResponseEntity.ok(response);
+    }
+
+    private ResponseEntity<?> jobResponse(BulkImportJob job, HttpStatus status) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", job);
+        return ResponseEntity.status(status).body(response);
+    }
+
+    private ResponseEntity<?> error(String message, Exception e) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        if (e instanceof IllegalArgumentException) {
+            response.put("error", e.getMessage());
+        } else {
+            log.error(message, e);
+            response.put("error", message + ": " + e.getMessage());
+        }
+        return ResponseEntity.badRequest().body(response);
+    }
+}
@@ -1,14 +1,32 @@
 package sanqibackend.sanqibackend.controller;
 
+import sanqibackend.sanqibackend.entity.RasterBandStats;
 import sanqibackend.sanqibackend.entity.RasterData;
+import sanqibackend.sanqibackend.entity.RasterWarp;
+import sanqibackend.sanqibackend.service.RasterBandStatsService;
+import sanqibackend.sanqibackend.service.RasterClipService;
+import sanqibackend.sanqibackend.service.RasterDataQueryService;
 import sanqibackend.sanqibackend.service.RasterDataService;
+import sanqibackend.sanqibackend.service.RasterWarpService;
+import sanqibackend.sanqibackend.utils.CrsTransforms;
+import sanqibackend.sanqibackend.utils.Resampling;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -21,23 +39,41 @@ import java.nio.file.Paths;
 public class RasterDataController {
     private static final Logger log = LoggerFactory.getLogger(RasterDataController.class);
 
+    /** 与 Tomcat DefaultServlet 的默认阈值一致，更小的响应直接写出比 sendfile 更省事 */
+    private static final long SENDFILE_MIN_BYTES = 48 * 1024;
+
     @Autowired
     private RasterDataService rasterDataService;
 
+    @Autowired
+    private RasterDataQueryService rasterDataQueryService;
+
+    @Autowired
+    private RasterBandStatsService rasterBandStatsService;
+
+    @Autowired
+    private RasterClipService rasterClipService;
+
+    @Autowired
+    private RasterWarpService rasterWarpService;
+
     @PostMapping("/import")
     public ResponseEntity<?> importRaster(
             @RequestParam("files") MultipartFile file,
             @RequestParam(value = "description", required = false) String description,
-            @RequestParam(value = "directory", required = false) String directory) {
+            @RequestParam(value = "directory", required = false) String directory,
+            @RequestParam(value = "cog", required = false) Boolean cog,
+            @RequestParam(value = "keepOriginal", required = false) Boolean keepOriginal) {
         try {
             log.info("开始导入栅格数据: {}", file.getOriginalFilename());
-            RasterData rasterData = rasterDataService.importRaster(file, description, directory);
+            RasterData rasterData = rasterDataService.importRaster(file, description, cog, keepOriginal);
             log.info("栅格数据导入成功, ID: {}", rasterData.getId());
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("message", "栅格数据导入成功");
             response.put("id", rasterData.getId());
             response.put("name", rasterData.getName());
+            response.put("cog", rasterData.getCog());
             return ResponseEntity.ok().body(response);
         } catch (Exception e) {
             log.error("栅格数据导入失败", e);
@@ -72,6 +108,257 @@ public class RasterDataController {
         }
     }
     
+    /**
+     * 直接以 HTTP 流的形式下载栅格原始文件，支持 Range / If-Range 断点续传
+     */
+    @GetMapping("/{id}/download")
+    public void downloadRaster(
+            @PathVariable Long id,
+            @RequestParam(value = "original", defaultValue = "false") boolean original,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        RasterData rasterData;
+        try {
+            rasterData = rasterDataService.getRasterDataById(id);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpStatus.NOT_FOUND.value(), e.getMessage());
+            return;
+        }
+        if (rasterData.getLoOid() == null || rasterData.getFileSize() == null) {
+            response.sendError(HttpStatus.NOT_FOUND.value(), "数据库未保存大对象 OID，无法下载");
+            return;
+        }
+        if (original && rasterData.getOriginalLoOid() == null) {
+            response.sendError(HttpStatus.NOT_FOUND.value(), "该栅格数据未保留原始文件");
+            return;
+        }
+
+        Long oid = original ? rasterData.getOriginalLoOid() : rasterData.getLoOid();
+        long fileSize = original ? rasterData.getOriginalFileSize() : rasterData.getFileSize();
+        // 大对象写入后内容不再变化，OID + 大小即可作为强校验值
+        String etag = "\"" + oid + "-" + fileSize + "\"";
+        long lastModified = rasterData.getCreatedAt() != null
+                ? rasterData.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : -1;
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.ETAG, etag);
+        if (lastModified > 0) {
+            response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        }
+        response.setContentType(rasterContentType(rasterData.getRasterType()));
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename(rasterData.getName(), StandardCharsets.UTF_8)
+                .build()
+                .toString());
+
+        long start = 0;
+        long end = fileSize - 1;
+        if (rangeHeader != null && isIfRangeSatisfied(ifRange, etag, lastModified)) {
+            long[] range = parseSingleRange(rangeHeader, fileSize);
+            if (range != null) {
+                start = range[0];
+                end = range[1];
+                if (fileSize == 0 || start >= fileSize || start > end) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
+                    response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                    return;
+                }
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileSize);
+            }
+        }
+
+        long length = end - start + 1;
+        response.setContentLengthLong(length);
+        if ("HEAD".equalsIgnoreCase(request.getMethod()) || length <= 0) {
+            return;
+        }
+        log.info("开始下载栅格数据, ID: {}, 区间: {}-{}/{}", id, start, end, fileSize);
+        sendRange(request, response, oid, start, length);
+    }
+
+    /**
+     * 按外包框或三七种植区域裁剪栅格，以 GeoTIFF 流式返回
+     *
+     * @param bbox 外包框 "minX,minY,maxX,maxY"，坐标系由 crs 指定，与 gid 二选一
+     * @param gid  三七种植区域 ID
+     * @param mask 是否把区域（或外包框）以外的像元写为 nodata
+     * @param epsg 输出坐标系，为空时保持影像原坐标系
+     * @param resolution 输出分辨率（输出坐标系单位），为空时自动估算
+     * @param resampling 重采样方法 nearest / bilinear / cubic
+     */
+    @GetMapping("/{id}/clip")
+    public void clipRaster(
+            @PathVariable Long id,
+            @RequestParam(value = "bbox", required = false) String bbox,
+            @RequestParam(value = "crs", defaultValue = "EPSG:4326") String crs,
+            @RequestParam(value = "gid", required = false) Long gid,
+            @RequestParam(value = "mask", defaultValue = "false") boolean mask,
+            @RequestParam(value = "epsg", required = false) String epsg,
+            @RequestParam(value = "resolution", required = false) Double resolution,
+            @RequestParam(value = "resampling", required = false) String resampling,
+            HttpServletResponse response) throws IOException {
+        RasterClipService.ClipPlan plan;
+        try {
+            double[] box = null;
+            if (bbox != null) {
+                String[] parts = bbox.split(",");
+                if (parts.length != 4) {
+                    throw new IllegalArgumentException("bbox 须为 minX,minY,maxX,maxY");
+                }
+                box = new double[4];
+                for (int i = 0; i < 4; i++) {
+                    box[i] = Double.parseDouble(parts[i].trim());
+                }
+            }
+            Integer targetEpsg = epsg != null ? CrsTransforms.parseEpsg(epsg) : null;
+            plan = rasterClipService.plan(id, box, CrsTransforms.parseEpsg(crs), gid, mask,
+                    targetEpsg, resolution, Resampling.parse(resampling));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+            return;
+        } catch (Exception e) {
+            log.error("裁剪栅格数据失败, ID: {}", id, e);
+            response.sendError(HttpStatus.INTERNAL_SERVER_ERROR.value(), "裁剪栅格数据失败: " + e.getMessage());
+            return;
+        }
+        response.setContentType("image/tiff");
+        response.setContentLengthLong(plan.getLength());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename(plan.getFileName(), StandardCharsets.UTF_8)
+                .build()
+                .toString());
+        log.info("开始裁剪导出栅格数据, ID: {}, bbox: {}, gid: {}, mask: {}, epsg: {}", id, bbox, gid, mask, epsg);
+        rasterClipService.write(plan, response.getOutputStream());
+    }
+
+    /**
+     * 下载重投影到指定坐标系的整幅影像，结果按 (坐标系, 分辨率, 重采样方法) 缓存
+     *
+     * @param epsg       输出坐标系，如 EPSG:3857
+     * @param resolution 输出分辨率（输出坐标系单位），为空时自动估算
+     * @param resampling 重采样方法 nearest / bilinear / cubic
+     */
+    @GetMapping("/{id}/warp")
+    public void warpRaster(
+            @PathVariable Long id,
+            @RequestParam("epsg") String epsg,
+            @RequestParam(value = "resolution", required = false) Double resolution,
+            @RequestParam(value = "resampling", required = false) String resampling,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        RasterWarp warp;
+        String fileName;
+        try {
+            int targetEpsg = CrsTransforms.parseEpsg(epsg);
+            warp = rasterWarpService.getWarped(id, targetEpsg, resolution, Resampling.parse(resampling));
+            fileName = rasterDataService.getRasterDataById(id).getName().replaceFirst("\\.[^.]*$", "")
+                    + "_EPSG" + targetEpsg + ".tif";
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+            return;
+        } catch (Exception e) {
+            log.error("重投影栅格数据失败, ID: {}", id, e);
+            response.sendError(HttpStatus.INTERNAL_SERVER_ERROR.value(), "重投影栅格数据失败: " + e.getMessage());
+            return;
+        }
+        String etag = "\"" + warp.getLoOid() + "-" + warp.getFileSize() + "\"";
+        response.setHeader(HttpHeaders.ETAG, etag);
+        if (etag.equals(ifNoneMatch)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+        response.setContentType("image/tiff");
+        response.setContentLengthLong(warp.getFileSize());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename(fileName, StandardCharsets.UTF_8)
+                .build()
+                .toString());
+        sendRange(request, response, warp.getLoOid(), 0, warp.getFileSize());
+    }
+
+    /**
+     * 写出存储对象中从 start 开始的 length 个字节
+     *
+     * 文件系统存储的对象在连接器支持时交给 Tomcat 的 sendfile，请求处理结束后由内核直接从文件发往套接字；
+     * 大对象存储或不支持 sendfile 时经输出流复制。
+     */
+    private void sendRange(HttpServletRequest request, HttpServletResponse response,
+                           long oid, long start, long length) throws IOException {
+        if (length >= SENDFILE_MIN_BYTES
+                && Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))) {
+            Path file = rasterDataService.localRasterFile(oid);
+            if (file != null) {
+                request.setAttribute("org.apache.tomcat.sendfile.filename", file.toAbsolutePath().toString());
+                request.setAttribute("org.apache.tomcat.sendfile.start", start);
+                request.setAttribute("org.apache.tomcat.sendfile.end", start + length);
+                return;
+            }
+        }
+        rasterDataService.streamRaster(oid, start, length, response.getOutputStream());
+    }
+
+    /**
+     * 解析 Range 头，返回单段区间 {start, end}（含两端）
+     *
+     * 无法解析的 Range 头按规范忽略，多段 Range 不常见，两者都返回 null，按完整内容返回；
+     * start 不小于文件大小或大于 end 时由调用方返回 416。
+     */
+    static long[] parseSingleRange(String rangeHeader, long fileSize) {
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (ranges.size() != 1) {
+            return null;
+        }
+        HttpRange range = ranges.get(0);
+        return new long[]{range.getRangeStart(fileSize), range.getRangeEnd(fileSize)};
+    }
+
+    /**
+     * If-Range 可以是 ETag 或 HTTP 日期，只有与当前资源一致时才按 Range 返回部分内容
+     */
+    static boolean isIfRangeSatisfied(String ifRange, String etag, long lastModified) {
+        if (ifRange == null || ifRange.isBlank()) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return value.equals(etag);
+        }
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.IF_RANGE, value);
+            long date = headers.getFirstDate(HttpHeaders.IF_RANGE);
+            return lastModified > 0 && lastModified / 1000 == date / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private String rasterContentType(String rasterType) {
+        if (rasterType == null) {
+            return MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        }
+        switch (rasterType) {
+            case "TIFF":
+                return "image/tiff";
+            case "JPEG":
+                return MediaType.IMAGE_JPEG_VALUE;
+            case "PNG":
+                return MediaType.IMAGE_PNG_VALUE;
+            default:
+                return MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        }
+    }
+    
     @GetMapping("/exportDirectories")
     public ResponseEntity<?> getExportDirectories() {
         try {
@@ -106,16 +393,30 @@ public class RasterDataController {
         }
     }
     
+    /**
+     * 分页列出栅格数据摘要（不含缩略图），hasMore 为 true 时把 nextCursor 作为 cursor 参数查询下一页
+     */
     @GetMapping("/list")
-    public ResponseEntity<?> listRasterData() {
+    public ResponseEntity<?> listRasterData(
+            @RequestParam(value = "limit", defaultValue = "" + RasterDataQueryService.DEFAULT_LIMIT) int limit,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "sort", required = false) String sort,
+            @RequestParam(value = "order", defaultValue = "desc") String order,
+            @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "type", required = false) String type,
+            @RequestParam(value = "createdFrom", required = false) String createdFrom,
+            @RequestParam(value = "createdTo", required = false) String createdTo) {
         try {
             log.info("获取栅格数据列表");
-            List<RasterData> rasterDataList = (List<RasterData>) rasterDataService.getAllRasterData();
-            log.info("成功获取栅格数据列表, 共 {} 条记录", rasterDataList.size());
+            RasterDataQueryService.Page page = rasterDataQueryService.list(sort, "asc".equalsIgnoreCase(order),
+                    cursor, limit, name, type, createdFrom, createdTo);
+            log.info("成功获取栅格数据列表, 本页 {} 条记录", page.getItems().size());
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
-            response.put("data", rasterDataList);
-            response.put("count", rasterDataList.size());
+            response.put("data", page.getItems());
+            response.put("count", page.getItems().size());
+            response.put("nextCursor", page.getNextCursor());
+            response.put("hasMore", page.isHasMore());
             return ResponseEntity.ok().body(response);
         } catch (Exception e) {
             log.error("获取栅格数据列表失败", e);
@@ -175,6 +476,27 @@ public class RasterDataController {
         }
     }
 
+    /**
+     * 各波段的全分辨率统计值与直方图，尚未计算时同步计算并保存
+     */
+    @GetMapping("/{id}/stats")
+    public ResponseEntity<?> getRasterBandStats(@PathVariable Long id) {
+        try {
+            List<RasterBandStats> stats = rasterBandStatsService.getStats(id);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("id", id);
+            response.put("data", stats);
+            return ResponseEntity.ok().body(response);
+        } catch (Exception e) {
+            log.error("获取栅格波段统计失败, ID: {}", id, e);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", "获取栅格波段统计失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
     private String formatFileSize(long size) {
         if (size < 1024) {
             return size + " B";
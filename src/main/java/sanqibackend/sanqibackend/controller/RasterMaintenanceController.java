@@ -0,0 +1,109 @@
+package sanqibackend.sanqibackend.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import sanqibackend.sanqibackend.entity.LargeObjectReclaimReport;
+import sanqibackend.sanqibackend.entity.StorageMigrationJob;
+import sanqibackend.sanqibackend.service.LargeObjectReclaimer;
+import sanqibackend.sanqibackend.service.RasterStorageMigrator;
+import sanqibackend.sanqibackend.service.RoutingRasterStorage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 栅格存储维护接口
+ */
+@RestController
+@RequestMapping("/api/raster/maintenance")
+public class RasterMaintenanceController {
+    private static final Logger log = LoggerFactory.getLogger(RasterMaintenanceController.class);
+
+    @Autowired
+    private LargeObjectReclaimer largeObjectReclaimer;
+
+    @Autowired
+    private RoutingRasterStorage rasterStorage;
+
+    @Autowired
+    private RasterStorageMigrator rasterStorageMigrator;
+
+    /**
+     * 孤立大对象回收的状态与最近一次结果
+     */
+    @GetMapping("/lo-reclaim")
+    public ResponseEntity<?> getReclaimStatus() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", largeObjectReclaimer.getStatus());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 立即执行一次孤立大对象回收
+     */
+    @PostMapping("/lo-reclaim")
+    public ResponseEntity<?> reclaim() {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            LargeObjectReclaimReport report = largeObjectReclaimer.reclaim();
+            response.put("success", report.getErrorMessage() == null);
+            response.put("data", report);
+            return ResponseEntity.ok(response);
+        } catch (IllegalStateException e) {
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (Exception e) {
+            log.error("孤立大对象回收失败", e);
+            response.put("success", false);
+            response.put("error", "孤立大对象回收失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * 当前存储后端与最近一次迁移任务的进度
+     */
+    @GetMapping("/storage")
+    public ResponseEntity<?> getStorage() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("type", rasterStorage.getType());
+        data.put("migration", rasterStorageMigrator.getCurrent());
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", data);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 在后台把栅格文件迁移到指定的存储后端
+     *
+     * @param target 目标后端：postgres 或 filesystem
+     * @param limit  本次最多迁移的对象数，0 表示不限
+     */
+    @PostMapping("/storage/migrate")
+    public ResponseEntity<?> migrateStorage(
+            @RequestParam("target") String target,
+            @RequestParam(value = "limit", defaultValue = "0") int limit) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            StorageMigrationJob job = rasterStorageMigrator.start(target, limit);
+            response.put("success", true);
+            response.put("data", job);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        } catch (IllegalStateException e) {
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        }
+    }
+}
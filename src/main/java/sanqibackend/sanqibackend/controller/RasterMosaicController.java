@@ -0,0 +1,235 @@
+package sanqibackend.sanqibackend.controller;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import sanqibackend.sanqibackend.entity.RasterMosaic;
+import sanqibackend.sanqibackend.service.RasterClipService;
+import sanqibackend.sanqibackend.service.RasterMosaicService;
+import sanqibackend.sanqibackend.utils.CrsTransforms;
+import sanqibackend.sanqibackend.utils.Resampling;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 虚拟镶嵌接口：镶嵌的增删改查、瓦片与裁剪导出（采样见 RasterSampleController）
+ */
+@RestController
+@RequestMapping("/api/raster/mosaic")
+public class RasterMosaicController {
+    private static final Logger log = LoggerFactory.getLogger(RasterMosaicController.class);
+
+    @Autowired
+    private RasterMosaicService rasterMosaicService;
+
+    @Autowired
+    private RasterClipService rasterClipService;
+
+    @GetMapping
+    public ResponseEntity<?> list() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", rasterMosaicService.list());
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<?> get(@PathVariable Long id) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            response.put("success", true);
+            response.put("data", rasterMosaicService.get(id));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+    }
+
+    /**
+     * 创建镶嵌，请求体 {"name": "...", "description": "...", "rasterIds": [1, 2, 3]}，rasterIds 的顺序即优先级
+     */
+    @PostMapping
+    public ResponseEntity<?> create(@RequestBody MosaicRequest request) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            RasterMosaic mosaic = rasterMosaicService.create(request.getName(), request.getDescription(),
+                    request.getRasterIds());
+            response.put("success", true);
+            response.put("data", mosaic);
+            response.put("message", "镶嵌创建成功");
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            log.error("创建镶嵌失败", e);
+            response.put("success", false);
+            response.put("error", "创建镶嵌失败: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    /**
+     * 替换镶嵌成员，请求体 {"rasterIds": [...]}
+     */
+    @PutMapping("/{id}/members")
+    public ResponseEntity<?> updateMembers(@PathVariable Long id, @RequestBody MosaicRequest request) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            response.put("success", true);
+            response.put("data", rasterMosaicService.updateMembers(id, request.getRasterIds()));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            log.error("更新镶嵌成员失败, ID: {}", id, e);
+            response.put("success", false);
+            response.put("error", "更新镶嵌成员失败: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<?> delete(@PathVariable Long id) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            rasterMosaicService.delete(id);
+            response.put("success", true);
+            response.put("message", "镶嵌删除成功");
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+    }
+
+    @GetMapping("/{id}/tiles/{z}/{x}/{y}.png")
+    public ResponseEntity<?> getTile(
+            @PathVariable Long id,
+            @PathVariable int z,
+            @PathVariable int x,
+            @PathVariable int y,
+            @RequestParam(required = false) String resampling) {
+        try {
+            byte[] tile = rasterMosaicService.getTile(id, z, x, y, Resampling.parse(resampling));
+            // 镶嵌成员可以修改，浏览器缓存时间比单幅栅格的瓦片短
+            return ResponseEntity.ok()
+                    .contentType(MediaType.IMAGE_PNG)
+                    .cacheControl(CacheControl.maxAge(1, TimeUnit.HOURS).cachePublic())
+                    .body(tile);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            return ResponseEntity.status(404).body(response);
+        } catch (Exception e) {
+            log.error("镶嵌瓦片渲染失败, ID: {}, {}/{}/{}", id, z, x, y, e);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", "镶嵌瓦片渲染失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * 按外包框或三七种植区域裁剪镶嵌，只读取与范围相交的成员，以 GeoTIFF 流式返回
+     *
+     * @param epsg 输出坐标系，为空时使用优先级最高的相交成员的坐标系
+     */
+    @GetMapping("/{id}/clip")
+    public void clip(
+            @PathVariable Long id,
+            @RequestParam(value = "bbox", required = false) String bbox,
+            @RequestParam(value = "crs", defaultValue = "EPSG:4326") String crs,
+            @RequestParam(value = "gid", required = false) Long gid,
+            @RequestParam(value = "mask", defaultValue = "false") boolean mask,
+            @RequestParam(value = "epsg", required = false) String epsg,
+            @RequestParam(value = "resolution", required = false) Double resolution,
+            @RequestParam(value = "resampling", required = false) String resampling,
+            HttpServletResponse response) throws IOException {
+        RasterClipService.ClipPlan plan;
+        try {
+            double[] box = null;
+            if (bbox != null) {
+                String[] parts = bbox.split(",");
+                if (parts.length != 4) {
+                    throw new IllegalArgumentException("bbox 须为 minX,minY,maxX,maxY");
+                }
+                box = new double[4];
+                for (int i = 0; i < 4; i++) {
+                    box[i] = Double.parseDouble(parts[i].trim());
+                }
+            }
+            Integer targetEpsg = epsg != null ? CrsTransforms.parseEpsg(epsg) : null;
+            plan = rasterMosaicService.planClip(id, box, CrsTransforms.parseEpsg(crs), gid, mask,
+                    targetEpsg, resolution, Resampling.parse(resampling));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+            return;
+        } catch (Exception e) {
+            log.error("裁剪镶嵌失败, ID: {}", id, e);
+            response.sendError(HttpStatus.INTERNAL_SERVER_ERROR.value(), "裁剪镶嵌失败: " + e.getMessage());
+            return;
+        }
+        response.setContentType("image/tiff");
+        response.setContentLengthLong(plan.getLength());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename(plan.getFileName(), StandardCharsets.UTF_8)
+                .build()
+                .toString());
+        log.info("开始裁剪导出镶嵌, ID: {}, bbox: {}, gid: {}, mask: {}, epsg: {}", id, bbox, gid, mask, epsg);
+        rasterClipService.write(plan, response.getOutputStream());
+    }
+
+    /**
+     * 创建或修改镶嵌的请求体
+     */
+    public static class MosaicRequest {
+        private String name;
+        private String description;
+        private List<Long> rasterIds;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public void setDescription(String description) {
+            this.description = description;
+        }
+
+        public List<Long> getRasterIds() {
+            return rasterIds;
+        }
+
+        public void setRasterIds(List<Long> rasterIds) {
+            this.rasterIds = rasterIds;
+        }
+    }
+}
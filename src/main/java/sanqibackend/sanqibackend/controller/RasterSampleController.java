@@ -0,0 +1,188 @@
+package sanqibackend.sanqibackend.controller;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import sanqibackend.sanqibackend.entity.SamplePoint;
+import sanqibackend.sanqibackend.service.RasterMosaicService;
+import sanqibackend.sanqibackend.service.RasterSampleService;
+import sanqibackend.sanqibackend.utils.CrsTransforms;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 栅格像元值批量采样接口
+ *
+ * 请求体可以是 JSON：{"points": [{"id": "p1", "lon": 105.1, "lat": 23.5}, ...]}，
+ * 也可以是带表头的 CSV（text/csv）：经度列名为 lon/lng/longitude/x，纬度列名为 lat/latitude/y，可选 id 列。
+ * 坐标系由 crs 参数指定，默认 EPSG:4326。
+ */
+@RestController
+@RequestMapping("/api/raster")
+public class RasterSampleController {
+    private static final Logger log = LoggerFactory.getLogger(RasterSampleController.class);
+
+    private static final String[] LON_COLUMNS = {"lon", "lng", "longitude", "x"};
+    private static final String[] LAT_COLUMNS = {"lat", "latitude", "y"};
+
+    @Autowired
+    private RasterSampleService rasterSampleService;
+
+    @Autowired
+    private RasterMosaicService rasterMosaicService;
+
+    @PostMapping(value = "/{id}/sample", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> sampleJson(
+            @PathVariable Long id,
+            @RequestParam(value = "crs", defaultValue = "EPSG:4326") String crs,
+            @RequestBody SampleRequest request) {
+        return sample(id, crs, request.getPoints());
+    }
+
+    @PostMapping(value = "/{id}/sample", consumes = {"text/csv", MediaType.TEXT_PLAIN_VALUE})
+    public ResponseEntity<?> sampleCsv(
+            @PathVariable Long id,
+            @RequestParam(value = "crs", defaultValue = "EPSG:4326") String crs,
+            HttpServletRequest request) {
+        List<SamplePoint> points;
+        try {
+            points = parseCsv(request.getReader());
+        } catch (IllegalArgumentException | IOException e) {
+            return error("CSV 解析失败: " + e.getMessage());
+        }
+        return sample(id, crs, points);
+    }
+
+    /**
+     * 对虚拟镶嵌采样，请求体格式与单幅栅格相同，结果中的 rasterId 为取值所在的成员
+     */
+    @PostMapping(value = "/mosaic/{id}/sample", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> sampleMosaicJson(
+            @PathVariable Long id,
+            @RequestParam(value = "crs", defaultValue = "EPSG:4326") String crs,
+            @RequestBody SampleRequest request) {
+        return sampleMosaic(id, crs, request.getPoints());
+    }
+
+    @PostMapping(value = "/mosaic/{id}/sample", consumes = {"text/csv", MediaType.TEXT_PLAIN_VALUE})
+    public ResponseEntity<?> sampleMosaicCsv(
+            @PathVariable Long id,
+            @RequestParam(value = "crs", defaultValue = "EPSG:4326") String crs,
+            HttpServletRequest request) {
+        List<SamplePoint> points;
+        try {
+            points = parseCsv(request.getReader());
+        } catch (IllegalArgumentException | IOException e) {
+            return error("CSV 解析失败: " + e.getMessage());
+        }
+        return sampleMosaic(id, crs, points);
+    }
+
+    private ResponseEntity<?> sampleMosaic(Long id, String crs, List<SamplePoint> points) {
+        try {
+            RasterMosaicService.MosaicSampleBatch batch =
+                    rasterMosaicService.sample(id, points, CrsTransforms.parseEpsg(crs));
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("data", batch.getResults());
+            response.put("count", batch.getResults().size());
+            response.put("blocksRead", batch.getBlocksRead());
+            response.put("rastersRead", batch.getRastersRead());
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return error(e.getMessage());
+        } catch (Exception e) {
+            log.error("镶嵌采样失败, ID: {}", id, e);
+            return error("镶嵌采样失败: " + e.getMessage());
+        }
+    }
+
+    private ResponseEntity<?> sample(Long id, String crs, List<SamplePoint> points) {
+        try {
+            RasterSampleService.SampleBatch batch = rasterSampleService.sample(id, points, CrsTransforms.parseEpsg(crs));
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("data", batch.getResults());
+            response.put("count", batch.getResults().size());
+            response.put("blocksRead", batch.getBlocksRead());
+            response.put("rasterCrs", "EPSG:" + batch.getRasterEpsg());
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return error(e.getMessage());
+        } catch (Exception e) {
+            log.error("栅格采样失败, ID: {}", id, e);
+            return error("栅格采样失败: " + e.getMessage());
+        }
+    }
+
+    private List<SamplePoint> parseCsv(Reader reader) throws IOException {
+        CSVFormat format = CSVFormat.DEFAULT.builder()
+                .setHeader()
+                .setSkipHeaderRecord(true)
+                .setIgnoreHeaderCase(true)
+                .setIgnoreEmptyLines(true)
+                .setTrim(true)
+                .build();
+        try (CSVParser parser = format.parse(reader)) {
+            String lonColumn = findColumn(parser, LON_COLUMNS);
+            String latColumn = findColumn(parser, LAT_COLUMNS);
+            boolean hasId = parser.getHeaderMap().keySet().stream().anyMatch("id"::equalsIgnoreCase);
+            List<SamplePoint> points = new ArrayList<>();
+            for (CSVRecord record : parser) {
+                SamplePoint point = new SamplePoint();
+                point.setLon(Double.parseDouble(record.get(lonColumn)));
+                point.setLat(Double.parseDouble(record.get(latColumn)));
+                if (hasId) {
+                    point.setId(record.get("id"));
+                }
+                points.add(point);
+            }
+            return points;
+        }
+    }
+
+    private String findColumn(CSVParser parser, String[] candidates) {
+        for (String name : parser.getHeaderNames()) {
+            for (String candidate : candidates) {
+                if (candidate.equalsIgnoreCase(name)) {
+                    return name;
+                }
+            }
+        }
+        throw new IllegalArgumentException("缺少坐标列，可用列名: " + String.join("/", candidates));
+    }
+
+    private ResponseEntity<?> error(String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("error", message);
+        return ResponseEntity.badRequest().body(response);
+    }
+
+    /**
+     * JSON 请求体
+     */
+    public static class SampleRequest {
+        private List<SamplePoint> points;
+
+        public List<SamplePoint> getPoints() {
+            return points;
+        }
+
+        public void setPoints(List<SamplePoint> points) {
+            this.points = points;
+        }
+    }
+}
@@ -1,50 +1,135 @@
 package sanqibackend.sanqibackend.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import sanqibackend.sanqibackend.entity.RasterData;
+import org.springframework.web.context.request.WebRequest;
+import sanqibackend.sanqibackend.entity.RasterThumbnail;
+import sanqibackend.sanqibackend.entity.ThumbnailJob;
 import sanqibackend.sanqibackend.repository.RasterDataRepository;
 import sanqibackend.sanqibackend.service.RasterThumbnailService;
-import org.springframework.transaction.annotation.Transactional;
+import sanqibackend.sanqibackend.service.ThumbnailJobService;
+import sanqibackend.sanqibackend.service.ThumbnailVariantService;
 
+import java.io.IOException;
+import java.time.ZoneId;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/raster/thumbnail")
 public class RasterThumbnailController {
     @Autowired
-    private RasterThumbnailService rasterThumbnailService;
+    private ThumbnailJobService thumbnailJobService;
     @Autowired
     private RasterDataRepository rasterDataRepository;
+    @Autowired
+    private RasterThumbnailService rasterThumbnailService;
+    @Autowired
+    private ThumbnailVariantService thumbnailVariantService;
 
-    // 为指定影像生成缩略图
+    @Value("${raster.thumbnail.http-max-age:86400}")
+    private long cacheMaxAge;
+
+    // 为指定影像提交缩略图生成任务
     @PostMapping("/generate/{id}")
     public ResponseEntity<?> generateThumbnail(@PathVariable Long id) {
-        try {
-            rasterThumbnailService.generateAndSaveThumbnail(id);
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("message", "缩略图生成成功");
-            return ResponseEntity.ok(response);
-        } catch (Exception e) {
+        if (!rasterDataRepository.existsById(id)) {
             Map<String, Object> response = new HashMap<>();
             response.put("success", false);
-            response.put("error", "缩略图生成失败: " + e.getMessage());
+            response.put("error", "缩略图生成失败: 未找到对应的影像数据");
             return ResponseEntity.badRequest().body(response);
         }
+        ThumbnailJob job = thumbnailJobService.submit(id);
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("message", "缩略图任务已提交");
+        response.put("job", job);
+        return ResponseEntity.ok(response);
     }
 
-    // 获取缩略图内容
+    // 查询缩略图任务状态
+    @GetMapping("/status/{id}")
+    public ResponseEntity<?> getThumbnailStatus(@PathVariable Long id) {
+        ThumbnailJob job = thumbnailJobService.getJob(id).orElse(null);
+        if (job == null) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", "未找到该影像的缩略图任务");
+            return ResponseEntity.status(404).body(response);
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("job", job);
+        response.put("queueSize", thumbnailJobService.getQueueSize());
+        response.put("activeWorkers", thumbnailJobService.getActiveCount());
+        return ResponseEntity.ok(response);
+    }
+
+    // 获取缩略图内容：以图片内容哈希作为强 ETag，支持 If-None-Match / If-Modified-Since 返回 304；
+    // 请求带 v=内容哈希 时（列表中的 thumbnailHash）内容不会再变化，可长期缓存。
+    // 指定 w/h/format 时返回缩放到该范围内的变体（保持宽高比），未指定时返回原始缩略图
     @GetMapping("/view/{id}")
-    public ResponseEntity<byte[]> viewThumbnail(@PathVariable Long id) {
-        RasterData data = rasterDataRepository.findById(id).orElse(null);
-        if (data == null || data.getThumbnail() == null) {
+    public ResponseEntity<?> viewThumbnail(
+            @PathVariable Long id,
+            @RequestParam(value = "w", required = false) Integer width,
+            @RequestParam(value = "h", required = false) Integer height,
+            @RequestParam(value = "format", required = false) String format,
+            @RequestParam(value = "v", required = false) String version,
+            WebRequest request) {
+        RasterThumbnail base = rasterThumbnailService.getThumbnail(id);
+        RasterThumbnail thumbnail;
+        if (width == null && height == null && format == null) {
+            thumbnail = base;
+        } else {
+            try {
+                thumbnail = thumbnailVariantService.getVariant(id, width != null ? width : 0,
+                        height != null ? height : 0, ThumbnailVariantService.normalizeFormat(format));
+            } catch (IllegalArgumentException e) {
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", false);
+                response.put("error", e.getMessage());
+                return ResponseEntity.badRequest().body(response);
+            } catch (IOException e) {
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", false);
+                response.put("error", "缩略图生成失败: " + e.getMessage());
+                return ResponseEntity.internalServerError().body(response);
+            }
+        }
+        if (thumbnail == null) {
             return ResponseEntity.notFound().build();
         }
+        String etag = "\"" + thumbnail.getContentHash() + "\"";
+        long lastModified = thumbnail.getUpdatedAt() != null
+                ? thumbnail.getUpdatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : -1;
+        CacheControl cacheControl = base != null && base.getContentHash().equals(version)
+                ? CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable()
+                : CacheControl.maxAge(cacheMaxAge, TimeUnit.SECONDS).cachePublic();
+        if (request.checkNotModified(etag, lastModified)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl).build();
+        }
         return ResponseEntity.ok()
-                .header("Content-Type", "image/jpeg")
-                .body(data.getThumbnail());
+                .eTag(etag)
+                .lastModified(lastModified)
+                .cacheControl(cacheControl)
+                .contentType(MediaType.parseMediaType(thumbnail.getContentType()))
+                .body(thumbnail.getImage());
+    }
+
+    // 缩略图内存缓存统计
+    @GetMapping("/cache/stats")
+    public ResponseEntity<?> getCacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("cache", rasterThumbnailService.getCacheStats());
+        response.put("variantCache", thumbnailVariantService.getCacheStats());
+        return ResponseEntity.ok(response);
     }
 }
@@ -0,0 +1,71 @@
+package sanqibackend.sanqibackend.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import sanqibackend.sanqibackend.service.RasterTileService;
+import sanqibackend.sanqibackend.utils.Resampling;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 栅格 XYZ 瓦片接口（Web Mercator）
+ */
+@RestController
+@RequestMapping("/api/raster")
+public class RasterTileController {
+    private static final Logger log = LoggerFactory.getLogger(RasterTileController.class);
+
+    @Autowired
+    private RasterTileService rasterTileService;
+
+    @GetMapping("/{id}/tiles/{z}/{x}/{y}.png")
+    public ResponseEntity<?> getTile(
+            @PathVariable Long id,
+            @PathVariable int z,
+            @PathVariable int x,
+            @PathVariable int y,
+            @RequestParam(required = false) String resampling) {
+        try {
+            byte[] tile = rasterTileService.getTile(id, z, x, y, Resampling.parse(resampling));
+            return ResponseEntity.ok()
+                    .contentType(MediaType.IMAGE_PNG)
+                    .cacheControl(CacheControl.maxAge(1, TimeUnit.DAYS).cachePublic())
+                    .body(tile);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            return ResponseEntity.status(404).body(response);
+        } catch (Exception e) {
+            log.error("瓦片渲染失败, ID: {}, {}/{}/{}", id, z, x, y, e);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", "瓦片渲染失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    @DeleteMapping("/{id}/tiles")
+    public ResponseEntity<?> clearTiles(@PathVariable Long id) {
+        int removed = rasterTileService.invalidate(id);
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("removed", removed);
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/tiles/cache/stats")
+    public ResponseEntity<?> getCacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", rasterTileService.getCacheStats());
+        return ResponseEntity.ok(response);
+    }
+}
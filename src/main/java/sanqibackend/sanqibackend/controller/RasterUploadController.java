@@ -0,0 +1,143 @@
+package sanqibackend.sanqibackend.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import sanqibackend.sanqibackend.entity.RasterData;
+import sanqibackend.sanqibackend.entity.RasterUpload;
+import sanqibackend.sanqibackend.service.RasterUploadService;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分块断点续传接口
+ */
+@RestController
+@RequestMapping("/api/raster/upload")
+public class RasterUploadController {
+    private static final Logger log = LoggerFactory.getLogger(RasterUploadController.class);
+
+    @Autowired
+    private RasterUploadService rasterUploadService;
+
+    @PostMapping("/init")
+    public ResponseEntity<?> initUpload(
+            @RequestParam("name") String name,
+            @RequestParam("totalSize") long totalSize,
+            @RequestParam(value = "chunkSize", required = false) Long chunkSize,
+            @RequestParam(value = "description", required = false) String description) {
+        try {
+            RasterUpload upload = rasterUploadService.initUpload(name, description, totalSize, chunkSize);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("uploadId", upload.getId());
+            response.put("chunkSize", upload.getChunkSize());
+            response.put("chunkCount", upload.getChunkCount());
+            return ResponseEntity.ok().body(response);
+        } catch (Exception e) {
+            log.error("创建分块上传失败", e);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", "创建分块上传失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * 上传单个分块，请求体为分块的原始字节（application/octet-stream），可并发调用
+     */
+    @PutMapping("/{uploadId}/chunks/{index}")
+    public ResponseEntity<?> uploadChunk(
+            @PathVariable String uploadId,
+            @PathVariable int index,
+            HttpServletRequest request) {
+        try (InputStream body = request.getInputStream()) {
+            rasterUploadService.writeChunk(uploadId, index, body);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("index", index);
+            return ResponseEntity.ok().body(response);
+        } catch (Exception e) {
+            log.error("分块上传失败, uploadId: {}, index: {}", uploadId, index, e);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", "分块上传失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * 查询上传进度，客户端据此续传缺失的分块
+     */
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<?> getUploadStatus(@PathVariable String uploadId) {
+        try {
+            RasterUpload upload = rasterUploadService.getUpload(uploadId);
+            List<Integer> missing = rasterUploadService.getMissingChunks(upload);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("uploadId", upload.getId());
+            response.put("name", upload.getName());
+            response.put("status", upload.getStatus());
+            response.put("totalSize", upload.getTotalSize());
+            response.put("chunkSize", upload.getChunkSize());
+            response.put("chunkCount", upload.getChunkCount());
+            response.put("receivedCount", upload.getChunkCount() - missing.size());
+            response.put("missingChunks", missing);
+            response.put("rasterId", upload.getRasterId());
+            return ResponseEntity.ok().body(response);
+        } catch (Exception e) {
+            log.error("查询分块上传状态失败", e);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", "查询分块上传状态失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<?> completeUpload(
+            @PathVariable String uploadId,
+            @RequestParam(value = "cog", required = false) Boolean cog,
+            @RequestParam(value = "keepOriginal", required = false) Boolean keepOriginal) {
+        try {
+            RasterData rasterData = rasterUploadService.completeUpload(uploadId, cog, keepOriginal);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", "栅格数据导入成功");
+            response.put("id", rasterData.getId());
+            response.put("name", rasterData.getName());
+            response.put("cog", rasterData.getCog());
+            return ResponseEntity.ok().body(response);
+        } catch (Exception e) {
+            log.error("完成分块上传失败", e);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", "完成分块上传失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<?> abortUpload(@PathVariable String uploadId) {
+        try {
+            rasterUploadService.abortUpload(uploadId);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", "已取消上传");
+            return ResponseEntity.ok().body(response);
+        } catch (Exception e) {
+            log.error("取消分块上传失败", e);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", "取消分块上传失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+}
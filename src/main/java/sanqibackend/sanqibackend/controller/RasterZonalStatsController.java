@@ -0,0 +1,65 @@
+package sanqibackend.sanqibackend.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import sanqibackend.sanqibackend.entity.ZonalStats;
+import sanqibackend.sanqibackend.service.RasterZonalStatsService;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 栅格在三七种植区域上的分区统计接口
+ */
+@RestController
+@RequestMapping("/api/raster")
+public class RasterZonalStatsController {
+    private static final Logger log = LoggerFactory.getLogger(RasterZonalStatsController.class);
+
+    @Autowired
+    private RasterZonalStatsService rasterZonalStatsService;
+
+    /**
+     * 每个区域各波段的 min/max/mean/stddev/count 与直方图
+     *
+     * @param bins 直方图分箱数
+     * @param min  直方图下限（可选，需与 max 同时给出）
+     * @param max  直方图上限（可选）
+     */
+    @GetMapping("/{id}/zonal-stats")
+    public ResponseEntity<?> getZonalStats(
+            @PathVariable Long id,
+            @RequestParam(value = "bins", defaultValue = "64") int bins,
+            @RequestParam(value = "min", required = false) Double min,
+            @RequestParam(value = "max", required = false) Double max) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            List<ZonalStats> stats = rasterZonalStatsService.compute(id, bins, min, max);
+            response.put("success", true);
+            response.put("data", stats);
+            response.put("count", stats.size());
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            log.error("分区统计失败, ID: {}", id, e);
+            response.put("success", false);
+            response.put("error", "分区统计失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    @GetMapping("/zonal-stats/cache/stats")
+    public ResponseEntity<?> getCacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("cache", rasterZonalStatsService.getCacheStats());
+        return ResponseEntity.ok(response);
+    }
+}
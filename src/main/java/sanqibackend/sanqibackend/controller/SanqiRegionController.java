@@ -1,26 +1,240 @@
 package sanqibackend.sanqibackend.controller;
 
 
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import sanqibackend.sanqibackend.entity.GeoJsonFeature;
-import sanqibackend.sanqibackend.entity.GeoJsonResponse;
+import sanqibackend.sanqibackend.entity.SamplePoint;
+import sanqibackend.sanqibackend.service.SanqiRegionLocator;
 import sanqibackend.sanqibackend.service.SanqiRegionService;
+import sanqibackend.sanqibackend.service.SanqiRegionTileService;
+import sanqibackend.sanqibackend.utils.CrsTransforms;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/SanqiRegion")
 public class SanqiRegionController {
+  private static final Logger logger = LoggerFactory.getLogger(SanqiRegionController.class);
+
+  private static final MediaType MVT = MediaType.parseMediaType("application/vnd.mapbox-vector-tile");
+
   @Autowired
   private SanqiRegionService sanqiService;
 
+  @Autowired
+  private SanqiRegionTileService sanqiTileService;
+
+  @Autowired
+  private SanqiRegionLocator sanqiLocator;
+
+  /**
+   * 查询区域，参数均为空时返回全部区域的原始几何；结果以 GeoJSON FeatureCollection 流式写出
+   *
+   * @param bbox      查询范围 minX,minY,maxX,maxY，只返回外包框与之相交的区域
+   * @param crs       bbox 的坐标系
+   * @param zoom      地图缩放级别，用于选择预先简化的几何层级
+   * @param precision GeoJSON 坐标保留的小数位数，为空时按缩放级别确定
+   */
   @GetMapping
-  public GeoJsonResponse getAllSanqis() {
-    return sanqiService.getAllSanqis();
+  public void getAllSanqis(
+      @RequestParam(value = "bbox", required = false) String bbox,
+      @RequestParam(value = "crs", defaultValue = "EPSG:4326") String crs,
+      @RequestParam(value = "zoom", required = false) Integer zoom,
+      @RequestParam(value = "precision", required = false) Integer precision,
+      HttpServletResponse response) throws IOException {
+    try {
+      double[] box = null;
+      if (bbox != null) {
+        String[] parts = bbox.split(",");
+        if (parts.length != 4) {
+          throw new IllegalArgumentException("bbox 须为 minX,minY,maxX,maxY");
+        }
+        box = new double[4];
+        for (int i = 0; i < 4; i++) {
+          box[i] = Double.parseDouble(parts[i].trim());
+        }
+      }
+      int srid = CrsTransforms.parseEpsg(crs);
+      response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+      response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+      sanqiService.writeSanqis(box, srid, zoom, precision, response.getOutputStream());
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+    }
   }
 
   @GetMapping("/{id}")
-  public GeoJsonFeature getSanqiById(@PathVariable Long id) {
-    return sanqiService.getSanqiById(id);
+  public void getSanqiById(@PathVariable Long id, HttpServletResponse response) throws IOException {
+    try {
+      response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+      response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+      sanqiService.writeSanqi(id, response.getOutputStream());
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpStatus.NOT_FOUND.value(), e.getMessage());
+    }
+  }
+
+  /**
+   * 全量重算去重叠后的区域几何
+   */
+  @PostMapping("/rebuild")
+  public ResponseEntity<?> rebuild() {
+    Map<String, Object> response = new HashMap<>();
+    response.put("success", true);
+    response.put("count", sanqiService.rebuildResolved());
+    return ResponseEntity.ok(response);
+  }
+
+  @GetMapping("/cache/stats")
+  public ResponseEntity<?> getCacheStats() {
+    Map<String, Object> response = new HashMap<>();
+    response.put("success", true);
+    response.put("stats", sanqiService.getCacheStats());
+    return ResponseEntity.ok(response);
+  }
+
+  /**
+   * 区域矢量瓦片（图层 sanqi，属性 gid、name），区域可能随时修改，浏览器每次用 ETag 重新验证
+   */
+  @GetMapping("/tiles/{z}/{x}/{y}.mvt")
+  public ResponseEntity<?> getTile(
+      @PathVariable int z,
+      @PathVariable int x,
+      @PathVariable int y,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+    try {
+      byte[] tile = sanqiTileService.getTile(z, x, y);
+      String etag = SanqiRegionTileService.etag(tile);
+      if (etag.equals(ifNoneMatch)) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(CacheControl.noCache()).build();
+      }
+      return ResponseEntity.ok()
+          .contentType(MVT)
+          .eTag(etag)
+          .cacheControl(CacheControl.noCache())
+          .body(tile);
+    } catch (IllegalArgumentException e) {
+      Map<String, Object> response = new HashMap<>();
+      response.put("success", false);
+      response.put("error", e.getMessage());
+      return ResponseEntity.status(404).body(response);
+    } catch (Exception e) {
+      logger.error("区域矢量瓦片生成失败, {}/{}/{}", z, x, y, e);
+      Map<String, Object> response = new HashMap<>();
+      response.put("success", false);
+      response.put("error", "区域矢量瓦片生成失败: " + e.getMessage());
+      return ResponseEntity.internalServerError().body(response);
+    }
+  }
+
+  /**
+   * 清除与区域当前范围相交的矢量瓦片，区域修改后的失效通常由变更日志自动完成
+   */
+  @DeleteMapping("/{id}/tiles")
+  public ResponseEntity<?> clearRegionTiles(@PathVariable Long id) {
+    Map<String, Object> response = new HashMap<>();
+    try {
+      response.put("success", true);
+      response.put("removed", sanqiTileService.invalidateRegion(id));
+      return ResponseEntity.ok(response);
+    } catch (IllegalArgumentException e) {
+      response.put("success", false);
+      response.put("error", e.getMessage());
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+    }
+  }
+
+  @DeleteMapping("/tiles")
+  public ResponseEntity<?> clearTiles() {
+    Map<String, Object> response = new HashMap<>();
+    response.put("success", true);
+    response.put("removed", sanqiTileService.invalidateAll());
+    return ResponseEntity.ok(response);
+  }
+
+  @GetMapping("/tiles/cache/stats")
+  public ResponseEntity<?> getTileCacheStats() {
+    Map<String, Object> response = new HashMap<>();
+    response.put("success", true);
+    response.put("stats", sanqiTileService.getCacheStats());
+    return ResponseEntity.ok(response);
+  }
+
+  /**
+   * 查找经纬度所在的区域，只查询内存中的索引；不在任何区域内时 gid 为空
+   */
+  @GetMapping("/locate")
+  public ResponseEntity<?> locate(@RequestParam double lon, @RequestParam double lat) {
+    Map<String, Object> response = new HashMap<>();
+    try {
+      response.put("success", true);
+      response.put("data", sanqiLocator.locate(lon, lat));
+      return ResponseEntity.ok(response);
+    } catch (IllegalArgumentException e) {
+      response.put("success", false);
+      response.put("error", e.getMessage());
+      return ResponseEntity.badRequest().body(response);
+    } catch (IllegalStateException e) {
+      response.put("success", false);
+      response.put("error", e.getMessage());
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+    }
+  }
+
+  /**
+   * 批量查找，请求体 {"points": [{"id": "...", "lon": 104.1, "lat": 23.4}, ...]}，结果与输入顺序一致
+   */
+  @PostMapping("/locate")
+  public ResponseEntity<?> locateBatch(@RequestBody LocateRequest request) {
+    Map<String, Object> response = new HashMap<>();
+    try {
+      response.put("success", true);
+      response.put("data", sanqiLocator.locate(request.getPoints()));
+      return ResponseEntity.ok(response);
+    } catch (IllegalArgumentException e) {
+      response.put("success", false);
+      response.put("error", e.getMessage());
+      return ResponseEntity.badRequest().body(response);
+    } catch (IllegalStateException e) {
+      response.put("success", false);
+      response.put("error", e.getMessage());
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+    }
+  }
+
+  @GetMapping("/locate/stats")
+  public ResponseEntity<?> getLocateStats() {
+    Map<String, Object> response = new HashMap<>();
+    response.put("success", true);
+    response.put("stats", sanqiLocator.getStats());
+    return ResponseEntity.ok(response);
+  }
+
+  /**
+   * 批量查找的请求体
+   */
+  public static class LocateRequest {
+    private List<SamplePoint> points;
+
+    public List<SamplePoint> getPoints() {
+      return points;
+    }
+
+    public void setPoints(List<SamplePoint> points) {
+      this.points = points;
+    }
   }
 }
\ No newline at end of file
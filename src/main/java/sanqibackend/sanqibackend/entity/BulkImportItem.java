@@ -0,0 +1,25 @@
+package sanqibackend.sanqibackend.entity;
+
+import lombok.Data;
+
+/**
+ * 批量导入中单个文件的进度
+ */
+@Data
+public class BulkImportItem {
+    public static final String STATUS_QUEUED = "QUEUED";
+    public static final String STATUS_WRITING = "WRITING";
+    public static final String STATUS_PROCESSING = "PROCESSING";
+    public static final String STATUS_DONE = "DONE";
+    public static final String STATUS_FAILED = "FAILED";
+
+    private String name;
+    private String status;
+    private long bytesWritten;
+    /**
+     * 内容与已有栅格相同，复用了已有存储
+     */
+    private boolean duplicate;
+    private Long rasterId;
+    private String errorMessage;
+}
@@ -0,0 +1,33 @@
+package sanqibackend.sanqibackend.entity;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 批量导入任务的进度（只保存在内存中），items 按文件登记顺序排列
+ */
+@Data
+public class BulkImportJob {
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_DONE = "DONE";
+    public static final String STATUS_FAILED = "FAILED";
+
+    private String jobId;
+    /**
+     * zip 或 directory
+     */
+    private String source;
+    private String status;
+    private int total;
+    private int succeeded;
+    private int duplicates;
+    private int failed;
+    private long bytesWritten;
+    private String errorMessage;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private List<BulkImportItem> items = new CopyOnWriteArrayList<>();
+}
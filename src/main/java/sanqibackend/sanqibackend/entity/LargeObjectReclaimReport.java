@@ -0,0 +1,27 @@
+package sanqibackend.sanqibackend.entity;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 一次孤立大对象回收的结果
+ */
+@Data
+public class LargeObjectReclaimReport {
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private long durationMs;
+    /**
+     * 当前未被引用的大对象数（含仍在宽限期内的）
+     */
+    private int orphans;
+    /**
+     * 超过宽限期、本次计划删除的数量
+     */
+    private int due;
+    private int reclaimed;
+    private long reclaimedBytes;
+    private int failed;
+    private String errorMessage;
+}
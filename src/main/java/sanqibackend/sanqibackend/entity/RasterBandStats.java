@@ -0,0 +1,28 @@
+package sanqibackend.sanqibackend.entity;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 栅格单个波段的全分辨率统计值（raster_band_stats 表），导入后或首次读取时计算一次
+ *
+ * 直方图为等宽分箱，范围 [histogramMin, histogramMax)；p2/p98 由直方图估算，用于渲染拉伸。
+ */
+@Data
+public class RasterBandStats {
+    private Long rasterId;
+    private int band;
+    private long validCount;
+    private long nodataCount;
+    private Double min;
+    private Double max;
+    private Double mean;
+    private Double stddev;
+    private Double p2;
+    private Double p98;
+    private Double histogramMin;
+    private Double histogramMax;
+    private long[] histogram;
+    private LocalDateTime computedAt;
+}
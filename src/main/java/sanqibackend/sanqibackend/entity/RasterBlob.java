@@ -0,0 +1,39 @@
+package sanqibackend.sanqibackend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * 按内容 SHA-256 去重后的栅格文件存储，ref_count 为引用它的 raster_data 记录数
+ */
+@Entity
+@Table(name = "raster_blob")
+@Data
+public class RasterBlob {
+
+    @Id
+    @Column(name = "content_hash")
+    private String contentHash;
+
+    @Column(name = "lo_oid", nullable = false)
+    private Long loOid;
+
+    @Column(name = "file_size")
+    private Long fileSize;
+
+    @Column
+    private Boolean cog;
+
+    @Column(name = "original_lo_oid")
+    private Long originalLoOid;
+
+    @Column(name = "original_file_size")
+    private Long originalFileSize;
+
+    @Column(name = "ref_count", nullable = false)
+    private Integer refCount;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+}
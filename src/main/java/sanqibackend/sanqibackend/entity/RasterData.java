@@ -30,9 +30,54 @@ public class RasterData {
     
     @Column
     private Integer bands;
+
+    @Column(name = "data_type")
+    private String dataType;
+
+    @Column
+    private Integer width;
+
+    @Column
+    private Integer height;
+
+    @Column(name = "pixel_size_x")
+    private Double pixelSizeX;
+
+    @Column(name = "pixel_size_y")
+    private Double pixelSizeY;
+
+    @Column
+    private String crs;
+
+    @Column
+    private Double nodata;
+
+    @Column(name = "min_x")
+    private Double minX;
+
+    @Column(name = "min_y")
+    private Double minY;
+
+    @Column(name = "max_x")
+    private Double maxX;
+
+    @Column(name = "max_y")
+    private Double maxY;
     
     @Column(name = "lo_oid")
     private Long loOid;
+
+    @Column(name = "content_hash")
+    private String contentHash;
+
+    @Column(name = "cog")
+    private Boolean cog;
+
+    @Column(name = "original_lo_oid")
+    private Long originalLoOid;
+
+    @Column(name = "original_file_size")
+    private Long originalFileSize;
     
     @Column(name = "created_at")
     private LocalDateTime createdAt;
@@ -40,9 +85,6 @@ public class RasterData {
     @Column(name = "updated_at")
     private LocalDateTime updatedAt;
     
-    @Column(name = "thumbnail")
-    private byte[] thumbnail;
-    
     @PrePersist
     protected void onCreate() {
         createdAt = LocalDateTime.now();
@@ -0,0 +1,34 @@
+package sanqibackend.sanqibackend.entity;
+
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * 栅格列表使用的轻量视图，不包含缩略图等大字段
+ */
+@Data
+public class RasterDataSummary {
+    private Long id;
+    private String name;
+    private String description;
+    private Long fileSize;
+    private String rasterType;
+    private String dataType;
+    private Integer bands;
+    private Integer width;
+    private Integer height;
+    private Double resolution;
+    private String crs;
+    private Double minX;
+    private Double minY;
+    private Double maxX;
+    private Double maxY;
+    private Boolean cog;
+    private Boolean hasThumbnail;
+    /**
+     * 缩略图内容哈希，可作为 /api/raster/thumbnail/view/{id}?v= 的版本参数以便长期缓存
+     */
+    private String thumbnailHash;
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,19 @@
+package sanqibackend.sanqibackend.entity;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 虚拟镶嵌（raster_mosaic 表），成员按 sortOrder 排列，靠前的成员优先
+ */
+@Data
+public class RasterMosaic {
+    private Long id;
+    private String name;
+    private String description;
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+    private List<RasterMosaicMember> members;
+}
@@ -0,0 +1,18 @@
+package sanqibackend.sanqibackend.entity;
+
+import lombok.Data;
+
+/**
+ * 镶嵌成员（raster_mosaic_member 表），外包框为 EPSG:4326 经纬度
+ */
+@Data
+public class RasterMosaicMember {
+    private Long mosaicId;
+    private Long rasterId;
+    private Integer sortOrder;
+    private Integer epsg;
+    private Double minLon;
+    private Double minLat;
+    private Double maxLon;
+    private Double maxLat;
+}
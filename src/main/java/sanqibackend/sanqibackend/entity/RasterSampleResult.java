@@ -0,0 +1,28 @@
+package sanqibackend.sanqibackend.entity;
+
+import lombok.Data;
+
+/**
+ * 单个点的采样结果；点落在影像范围外时 inside 为 false、values 为空
+ */
+@Data
+public class RasterSampleResult {
+    private String id;
+    /**
+     * 取值所在的栅格，镶嵌采样时返回
+     */
+    private Long rasterId;
+    private Double lon;
+    private Double lat;
+    private Integer col;
+    private Integer row;
+    private boolean inside;
+    /**
+     * 所有波段均为 NoData 或 NaN
+     */
+    private boolean nodata;
+    /**
+     * 各波段的像元值
+     */
+    private double[] values;
+}
@@ -0,0 +1,33 @@
+package sanqibackend.sanqibackend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * 栅格缩略图，独立于 raster_data 存放，content_hash 为图片内容的 SHA-256，用作 HTTP ETag
+ */
+@Entity
+@Table(name = "raster_thumbnail")
+@Data
+public class RasterThumbnail {
+
+    @Id
+    @Column(name = "raster_id")
+    private Long rasterId;
+
+    @Column(name = "content_hash", nullable = false)
+    private String contentHash;
+
+    @Column(name = "content_type", nullable = false)
+    private String contentType;
+
+    @Column(nullable = false)
+    private byte[] image;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
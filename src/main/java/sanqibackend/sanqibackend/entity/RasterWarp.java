@@ -0,0 +1,19 @@
+package sanqibackend.sanqibackend.entity;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 缓存的重投影结果（raster_warp 表），lo_oid 指向存储中的 GeoTIFF
+ */
+@Data
+public class RasterWarp {
+    private Long rasterId;
+    private Integer epsg;
+    private Double resolution;
+    private String resampling;
+    private Long loOid;
+    private Long fileSize;
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,13 @@
+package sanqibackend.sanqibackend.entity;
+
+import lombok.Data;
+
+/**
+ * 采样点坐标，id 为调用方自定义的点标识，原样返回
+ */
+@Data
+public class SamplePoint {
+    private String id;
+    private Double lon;
+    private Double lat;
+}
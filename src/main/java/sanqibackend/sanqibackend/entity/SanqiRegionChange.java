@@ -0,0 +1,16 @@
+package sanqibackend.sanqibackend.entity;
+
+import lombok.Data;
+
+/**
+ * 区域变更日志（sanqi_resolved_change），外包框为经纬度；gid 为空表示全部区域都已变化
+ */
+@Data
+public class SanqiRegionChange {
+  private Long id;
+  private Long gid;
+  private Double minLon;
+  private Double minLat;
+  private Double maxLon;
+  private Double maxLat;
+}
@@ -0,0 +1,15 @@
+package sanqibackend.sanqibackend.entity;
+
+import lombok.Data;
+
+/**
+ * 点所在的三七种植区域，id 为调用方自定义的点标识，原样返回；不在任何区域内时 gid 与 name 为空
+ */
+@Data
+public class SanqiRegionLocation {
+  private String id;
+  private Double lon;
+  private Double lat;
+  private Long gid;
+  private String name;
+}
@@ -0,0 +1,26 @@
+package sanqibackend.sanqibackend.entity;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 存储后端迁移任务的进度（只保存在内存中）
+ */
+@Data
+public class StorageMigrationJob {
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_DONE = "DONE";
+    public static final String STATUS_FAILED = "FAILED";
+
+    private String target;
+    private String status;
+    private int total;
+    private int migrated;
+    private int skipped;
+    private int failed;
+    private long bytesCopied;
+    private String errorMessage;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+}
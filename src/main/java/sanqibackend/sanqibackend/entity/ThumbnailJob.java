@@ -0,0 +1,41 @@
+package sanqibackend.sanqibackend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * 缩略图生成任务的状态，每个栅格数据只保留最近一次任务
+ */
+@Entity
+@Table(name = "raster_thumbnail_job")
+@Data
+public class ThumbnailJob {
+
+    public static final String STATUS_QUEUED = "QUEUED";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_DONE = "DONE";
+    public static final String STATUS_FAILED = "FAILED";
+
+    @Id
+    @Column(name = "raster_id")
+    private Long rasterId;
+
+    @Column(nullable = false)
+    private String status;
+
+    @Column(name = "queued_at")
+    private LocalDateTime queuedAt;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+
+    @Column(name = "duration_ms")
+    private Long durationMs;
+
+    @Column(name = "error_message")
+    private String errorMessage;
+}
@@ -0,0 +1,22 @@
+package sanqibackend.sanqibackend.entity;
+
+import lombok.Data;
+
+/**
+ * 区域内单个波段的统计值，NoData 与 NaN 像元不参与统计
+ */
+@Data
+public class ZonalBandStats {
+    private int band;
+    private long count;
+    private Double min;
+    private Double max;
+    private Double mean;
+    private Double stddev;
+    /**
+     * 直方图范围 [histogramMin, histogramMax]，等宽分箱，最大值计入最后一箱
+     */
+    private Double histogramMin;
+    private Double histogramMax;
+    private long[] histogram;
+}
@@ -0,0 +1,19 @@
+package sanqibackend.sanqibackend.entity;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 单个三七种植区域的栅格分区统计结果
+ */
+@Data
+public class ZonalStats {
+    private Long gid;
+    private String name;
+    /**
+     * 区域覆盖的像元数（含 NoData）
+     */
+    private long pixelCount;
+    private List<ZonalBandStats> bands;
+}
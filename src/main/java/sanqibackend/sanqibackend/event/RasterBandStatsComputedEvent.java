@@ -0,0 +1,16 @@
+package sanqibackend.sanqibackend.event;
+
+/**
+ * 栅格的波段统计已重新计算并保存，依赖统计值（如渲染拉伸范围）的缓存需要失效
+ */
+public class RasterBandStatsComputedEvent {
+    private final Long rasterDataId;
+
+    public RasterBandStatsComputedEvent(Long rasterDataId) {
+        this.rasterDataId = rasterDataId;
+    }
+
+    public Long getRasterDataId() {
+        return rasterDataId;
+    }
+}
@@ -0,0 +1,23 @@
+package sanqibackend.sanqibackend.event;
+
+public class RasterDataDeletedEvent {
+    private final Long rasterDataId;
+    private final String contentHash;
+
+    public RasterDataDeletedEvent(Long rasterDataId) {
+        this(rasterDataId, null);
+    }
+
+    public RasterDataDeletedEvent(Long rasterDataId, String contentHash) {
+        this.rasterDataId = rasterDataId;
+        this.contentHash = contentHash;
+    }
+
+    public Long getRasterDataId() {
+        return rasterDataId;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+}
@@ -0,0 +1,30 @@
+package sanqibackend.sanqibackend.event;
+
+import java.util.List;
+
+/**
+ * 栅格文件已迁移到另一个存储后端，旧句柄已删除，内存中持有旧句柄的状态需要丢弃
+ */
+public class RasterStorageMigratedEvent {
+    private final List<Long> rasterDataIds;
+    private final long oldHandle;
+    private final long newHandle;
+
+    public RasterStorageMigratedEvent(List<Long> rasterDataIds, long oldHandle, long newHandle) {
+        this.rasterDataIds = rasterDataIds;
+        this.oldHandle = oldHandle;
+        this.newHandle = newHandle;
+    }
+
+    public List<Long> getRasterDataIds() {
+        return rasterDataIds;
+    }
+
+    public long getOldHandle() {
+        return oldHandle;
+    }
+
+    public long getNewHandle() {
+        return newHandle;
+    }
+}
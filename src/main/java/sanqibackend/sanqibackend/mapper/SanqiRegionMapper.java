@@ -2,92 +2,191 @@ package sanqibackend.sanqibackend.mapper;
 
 
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.session.ResultHandler;
 import sanqibackend.sanqibackend.entity.SanqiRegion;
+import sanqibackend.sanqibackend.entity.SanqiRegionChange;
 import java.util.List;
 
 /**
  * 三七种植区域数据访问接口
+ *
+ * 去除重叠部分后的几何预先计算并保存在 sanqi_resolved 表中（见 SQL/sanqi_resolved.sql），
+ * 由 public.sanqi 上的触发器在区域增删改时增量维护，查询只读取该表。
+ *
+ * 返回全部区域的查询以 ResultHandler 逐行回调，配合 fetchSize 在事务内用数据库游标分批读取，不在内存中保留整个列表。
  */
 @Mapper
 public interface SanqiRegionMapper{
   /**
    * 查询所有区域信息
-   * 
-   * SQL处理步骤:
+   *
+   * sanqi_resolved 中的几何在写入时的处理步骤:
    * 1. ST_SetSRID: 设置几何数据的空间参考标识符为4326(WGS84)
    * 2. ST_Transform: 确保坐标系统为WGS84
    * 3. ST_Difference: 处理区域间的重叠部分，移除与其他区域相交的部分
    * 4. ST_MakeValid: 修复任何无效的几何图形
    * 5. ST_CollectionExtract: 提取所有多边形要素(type=3表示多边形)
    * 6. ST_Multi: 确保返回MultiPolygon类型
-   * 7. ST_AsGeoJSON: 将几何数据转换为GeoJSON格式
-   * - 参数15: 坐标精度(小数位数)
-   * - 参数2: 包含边界框信息
+   * 7. ST_AsGeoJSON: 将几何数据转换为GeoJSON格式（坐标精度15位，包含边界框）
    *
-   * @return 所有区域的列表
+   * @param handler 逐行接收区域
    */
-  @Select("SELECT gid, name,  " +
-      "ST_AsGeoJSON(" +
-      "  ST_Multi(" + // 确保返回MultiPolygon类型
-      "    ST_CollectionExtract(" + // 提取多边形要素
-      "      ST_MakeValid(" + // 修复无效几何图形
-      "        ST_Difference(" + // 处理重叠区域
-      "          ST_Transform(" + // 转换坐标系统
-      "            ST_SetSRID(geom, 4326), " + // 设置空间参考
-      "            4326" +
-      "          )," +
-      "          COALESCE(" + // 处理NULL值情况
-      "            (SELECT ST_Union(ST_Transform(ST_SetSRID(geom, 4326), 4326)) " +
-      "             FROM public.sanqi s2 " +
-      "             WHERE s2.gid != sanqi.gid " + // 排除自身
-      "             AND ST_Intersects(s2.geom, sanqi.geom)" + // 找出相交区域
-      "            ), " +
-      "            ST_GeomFromText('POLYGON EMPTY')" + // 如果没有相交则返回空多边形
-      "          )" +
-      "        )" +
-      "      ), " +
-      "      3" + // 3表示多边形类型
-      "    )" +
-      "  )" +
-      ", 15, 2)::json as geom " + // 转换为JSON格式
-      "FROM public.sanqi")
-  List<SanqiRegion> findAll();
+  @Select("SELECT gid, name, geojson AS geom FROM sanqi_resolved ORDER BY gid")
+  @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = 100)
+  void streamAll(ResultHandler<SanqiRegion> handler);
 
   /**
    * 根据ID查询特定区域信息
-   * 
-   * SQL处理过程与findAll相同，但只返回指定ID的记录
-   * 处理步骤详见findAll方法的注释
    *
    * @param id 区域ID
    * @return 指定ID的区域信息
    */
-  @Select("SELECT gid, name, " +
-      "ST_AsGeoJSON(" +
-      "  ST_Multi(" +
-      "    ST_CollectionExtract(" +
-      "      ST_MakeValid(" +
-      "        ST_Difference(" +
-      "          ST_Transform(" +
-      "            ST_SetSRID(geom, 4326), " +
-      "            4326" +
-      "          )," +
-      "          COALESCE(" +
-      "            (SELECT ST_Union(ST_Transform(ST_SetSRID(geom, 4326), 4326)) " +
-      "             FROM public.sanqi s2 " +
-      "             WHERE s2.gid != #{id} " +
-      "             AND ST_Intersects(s2.geom, sanqi.geom)" +
-      "            ), " +
-      "            ST_GeomFromText('POLYGON EMPTY')" +
-      "          )" +
-      "        )" +
-      "      ), " +
-      "      3" +
-      "    )" +
-      "  )" +
-      ", 15, 2)::json as geom " +
-      "FROM public.sanqi " +
-      "WHERE gid = #{id}")
+  @Select("SELECT gid, name, geojson AS geom FROM sanqi_resolved WHERE gid = #{id}")
   SanqiRegion findById(Long id);
-}
\ No newline at end of file
+
+  /**
+   * 查询所有区域的指定简化层级
+   *
+   * @param level     简化层级，为空时使用原始几何
+   * @param precision GeoJSON 坐标保留的小数位数
+   * @param handler   逐行接收区域，geom 字段为 GeoJSON
+   */
+  @Select("SELECT r.gid, r.name, ST_AsGeoJSON(COALESCE(s.geom, r.geom), #{precision}, 2) AS geom "
+      + "FROM sanqi_resolved r "
+      + "LEFT JOIN sanqi_resolved_simplified s ON s.gid = r.gid AND s.level = #{level,jdbcType=INTEGER} "
+      + "ORDER BY r.gid")
+  @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = 100)
+  void streamSimplified(@Param("level") Integer level, @Param("precision") int precision,
+                        ResultHandler<SanqiRegion> handler);
+
+  /**
+   * 查询外包框与给定范围相交的区域（走 sanqi_resolved.geom 上的 GIST 索引）
+   *
+   * @param srid      范围坐标的 EPSG 代码，查询时转换到 4326
+   * @param level     简化层级，为空时使用原始几何
+   * @param precision GeoJSON 坐标保留的小数位数
+   * @param handler   逐行接收相交的区域，geom 字段为 GeoJSON
+   */
+  @Select("SELECT r.gid, r.name, ST_AsGeoJSON(COALESCE(s.geom, r.geom), #{precision}, 2) AS geom "
+      + "FROM sanqi_resolved r "
+      + "LEFT JOIN sanqi_resolved_simplified s ON s.gid = r.gid AND s.level = #{level,jdbcType=INTEGER} "
+      + "WHERE r.geom && ST_Transform(ST_MakeEnvelope(#{minX}, #{minY}, #{maxX}, #{maxY}, #{srid}), 4326) "
+      + "ORDER BY r.gid")
+  @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = 100)
+  void streamSimplifiedInBbox(@Param("minX") double minX, @Param("minY") double minY,
+                              @Param("maxX") double maxX, @Param("maxY") double maxY,
+                              @Param("srid") int srid, @Param("level") Integer level,
+                              @Param("precision") int precision, ResultHandler<SanqiRegion> handler);
+
+  /**
+   * 缩放级别对应的简化层级：max_zoom 不小于该级别的最粗一级
+   *
+   * @param zoom 地图缩放级别
+   * @return 简化层级，超过所有层级时为空（使用原始几何）
+   */
+  @Select("SELECT level FROM sanqi_simplify_level WHERE max_zoom >= #{zoom} ORDER BY max_zoom LIMIT 1")
+  Integer findSimplifyLevel(int zoom);
+
+  /**
+   * 生成 Mapbox 矢量瓦片，图层名为 sanqi，要素属性为 gid 与 name
+   *
+   * 先用瓦片外扩缓冲区后的经纬度外包框通过 GIST 索引筛选区域，再投影到 EPSG:3857 并裁剪、量化到瓦片坐标。
+   *
+   * @param level  简化层级，为空时使用原始几何
+   * @param extent 瓦片坐标范围
+   * @param buffer 瓦片四周保留的缓冲宽度（瓦片坐标），避免相邻瓦片拼接处出现线条
+   * @return MVT 编码的瓦片，没有区域时为空数组
+   */
+  @Select("SELECT COALESCE(ST_AsMVT(t, 'sanqi', #{extent}, 'geom'), ''::bytea) FROM ("
+      + "SELECT r.gid, r.name, "
+      + "ST_AsMVTGeom(ST_Transform(COALESCE(s.geom, r.geom), 3857), b.env, #{extent}, #{buffer}, true) AS geom "
+      + "FROM (SELECT ST_TileEnvelope(#{z}, #{x}, #{y}) AS env) b "
+      + "JOIN sanqi_resolved r ON r.geom && ST_Transform("
+      + "ST_Expand(b.env, (ST_XMax(b.env) - ST_XMin(b.env)) * #{buffer} / #{extent}), 4326) "
+      + "LEFT JOIN sanqi_resolved_simplified s ON s.gid = r.gid AND s.level = #{level,jdbcType=INTEGER}"
+      + ") t WHERE t.geom IS NOT NULL")
+  byte[] findTile(@Param("z") int z, @Param("x") int x, @Param("y") int y,
+                  @Param("level") Integer level, @Param("extent") int extent, @Param("buffer") int buffer);
+
+  /**
+   * 区域当前的经纬度外包框，用于按区域清除矢量瓦片缓存
+   *
+   * @param id 区域ID
+   * @return 外包框，区域不存在时为空
+   */
+  @Select("SELECT gid, ST_XMin(geom) AS minLon, ST_YMin(geom) AS minLat, ST_XMax(geom) AS maxLon, "
+      + "ST_YMax(geom) AS maxLat FROM sanqi_resolved WHERE gid = #{id} AND NOT ST_IsEmpty(geom)")
+  SanqiRegionChange findExtentById(Long id);
+
+  /**
+   * 查询 id 大于 afterId 的变更日志
+   *
+   * @param afterId 已处理的最大日志 id
+   * @param limit   最多返回的条数
+   * @return 按 id 升序的变更日志
+   */
+  @Select("SELECT id, gid, min_lon AS minLon, min_lat AS minLat, max_lon AS maxLon, max_lat AS maxLat "
+      + "FROM sanqi_resolved_change WHERE id > #{afterId} ORDER BY id LIMIT #{limit}")
+  List<SanqiRegionChange> findChangesAfter(@Param("afterId") long afterId, @Param("limit") int limit);
+
+  /**
+   * 变更日志中最小的 id，日志为空时为空；大于已处理 id + 1 说明中间的日志已被清理
+   */
+  @Select("SELECT min(id) FROM sanqi_resolved_change")
+  Long findOldestChangeId();
+
+  /**
+   * 变更日志中最大的 id，日志为空时为 0
+   */
+  @Select("SELECT COALESCE(max(id), 0) FROM sanqi_resolved_change")
+  long findLatestChangeId();
+
+  /**
+   * 查询所有区域的 WKT 几何，用于栅格分区统计
+   *
+   * 几何与streamAll相同（去除重叠部分），保证统计范围与地图上显示的区域一致
+   *
+   * @return 所有区域的列表，geom 字段为 WKT
+   */
+  @Select("SELECT gid, name, ST_AsText(geom) AS geom FROM sanqi_resolved ORDER BY gid")
+  List<SanqiRegion> findAllWkt();
+
+  /**
+   * 根据ID查询区域的 WKT 几何，用于按区域裁剪栅格
+   *
+   * @param id 区域ID
+   * @return 指定ID的区域，geom 字段为 WKT
+   */
+  @Select("SELECT gid, name, ST_AsText(geom) AS geom FROM sanqi_resolved WHERE gid = #{id}")
+  SanqiRegion findWktById(Long id);
+
+  /**
+   * 批量查询区域的 WKT 几何，用于增量更新内存中的区域索引
+   *
+   * @param ids 区域ID
+   * @return 仍然存在的区域，geom 字段为 WKT
+   */
+  @Select("SELECT gid, name, ST_AsText(geom) AS geom FROM sanqi_resolved "
+      + "WHERE gid = ANY (#{ids,typeHandler=org.apache.ibatis.type.ArrayTypeHandler}) ORDER BY gid")
+  List<SanqiRegion> findWktByIds(@Param("ids") Long[] ids);
+
+  /**
+   * 区域集合的版本标识：sanqi_resolved 每次重算后版本号加一
+   *
+   * @return 区域集合的版本号
+   */
+  @Select("SELECT version::text FROM sanqi_resolved_version WHERE id = 1")
+  String findVersion();
+
+  /**
+   * 全量重算 sanqi_resolved
+   *
+   * @return 重算的区域数
+   */
+  @Select("SELECT sanqi_rebuild()")
+  int rebuildResolved();
+}
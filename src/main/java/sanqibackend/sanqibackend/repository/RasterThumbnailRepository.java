@@ -0,0 +1,9 @@
+package sanqibackend.sanqibackend.repository;
+
+import sanqibackend.sanqibackend.entity.RasterThumbnail;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface RasterThumbnailRepository extends JpaRepository<RasterThumbnail, Long> {
+}
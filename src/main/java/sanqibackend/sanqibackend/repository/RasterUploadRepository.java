@@ -0,0 +1,9 @@
+package sanqibackend.sanqibackend.repository;
+
+import sanqibackend.sanqibackend.entity.RasterUpload;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface RasterUploadRepository extends JpaRepository<RasterUpload, String> {
+}
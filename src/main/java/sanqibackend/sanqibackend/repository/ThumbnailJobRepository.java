@@ -0,0 +1,13 @@
+package sanqibackend.sanqibackend.repository;
+
+import sanqibackend.sanqibackend.entity.ThumbnailJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ThumbnailJobRepository extends JpaRepository<ThumbnailJob, Long> {
+    List<ThumbnailJob> findByStatusIn(Collection<String> statuses);
+}
@@ -0,0 +1,235 @@
+package sanqibackend.sanqibackend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import sanqibackend.sanqibackend.utils.MappedFileImageInputStream;
+
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * 本地文件系统上的栅格存储
+ *
+ * 每个对象是根目录下按句柄十六进制前四位分两级目录存放的一个文件。读取不经过数据库：
+ * 随机访问通过内存映射（MappedFileImageInputStream）。HTTP 区间下载经 localFile 交给 Tomcat 的 sendfile
+ * 由内核直接发送；read 写入文件输出流时用 FileChannel.transferTo 在内核中拷贝，写入其它输出流时经缓冲区复制。
+ * 内容去重仍由 raster_blob 按内容哈希完成，相同内容只对应一个文件。
+ */
+@Component
+public class FileSystemRasterStorage implements RasterStorage {
+
+    private static final Logger log = LoggerFactory.getLogger(FileSystemRasterStorage.class);
+
+    /**
+     * 文件系统句柄的下限，PostgreSQL 的 OID 都小于该值
+     */
+    public static final long MIN_HANDLE = 1L << 32;
+
+    private static final String SUFFIX = ".bin";
+
+    @Value("${raster.storage.fs.root:${java.io.tmpdir}/sanqi/raster-store}")
+    private String root;
+
+    @Value("${raster.io.buffer-size:1048576}")
+    private int ioBufferSize;
+
+    /**
+     * 以随机句柄新建空文件，CREATE_NEW 保证并发创建时不会重复
+     */
+    @Override
+    public long create() throws IOException {
+        while (true) {
+            long handle = ThreadLocalRandom.current().nextLong(MIN_HANDLE, Long.MAX_VALUE);
+            Path path = path(handle);
+            Files.createDirectories(path.getParent());
+            try {
+                Files.createFile(path);
+                return handle;
+            } catch (FileAlreadyExistsException e) {
+                // 句柄冲突，重新生成
+            }
+        }
+    }
+
+    /**
+     * 按位置写入，多个线程可同时写入同一文件的不同区间；写完后落盘
+     */
+    @Override
+    public long write(long handle, long offset, InputStream in, long maxBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(existing(handle), StandardOpenOption.WRITE)) {
+            byte[] buf = new byte[ioBufferSize];
+            long written = 0;
+            int s;
+            while ((s = in.read(buf, 0, buf.length)) > 0) {
+                if (written + s > maxBytes) {
+                    throw new IOException("写入数据超出预期长度 " + maxBytes + " 字节");
+                }
+                ByteBuffer bb = ByteBuffer.wrap(buf, 0, s);
+                while (bb.hasRemaining()) {
+                    channel.write(bb, offset + written + bb.position());
+                }
+                written += s;
+            }
+            channel.force(false);
+            return written;
+        }
+    }
+
+    @Override
+    public void read(long handle, long offset, long length, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(existing(handle), StandardOpenOption.READ)) {
+            if (offset + length > channel.size()) {
+                throw new IOException("存储文件数据不完整，请求区间超出文件长度 " + channel.size());
+            }
+            out.flush();
+            WritableByteChannel target = out instanceof FileOutputStream fos ? fos.getChannel() : Channels.newChannel(out);
+            long position = offset;
+            long remaining = length;
+            while (remaining > 0) {
+                long n = channel.transferTo(position, remaining, target);
+                if (n <= 0) {
+                    throw new IOException("存储文件数据不完整，剩余 " + remaining + " 字节未读取");
+                }
+                position += n;
+                remaining -= n;
+            }
+            out.flush();
+        }
+    }
+
+    @Override
+    public Path localFile(long handle) throws IOException {
+        return existing(handle);
+    }
+
+    @Override
+    public <T> T readStream(long handle, StreamCallback<T> callback) throws IOException {
+        try (InputStream in = Files.newInputStream(existing(handle))) {
+            return callback.doWithStream(in);
+        }
+    }
+
+    @Override
+    public <T> T readImage(long handle, ImageStreamCallback<T> callback) throws IOException {
+        try (FileChannel channel = FileChannel.open(existing(handle), StandardOpenOption.READ);
+             ImageInputStream in = new MappedFileImageInputStream(channel)) {
+            return callback.doWithStream(in);
+        }
+    }
+
+    @Override
+    public long transform(long sourceHandle, ImageTransformCallback callback) throws IOException {
+        long targetHandle = create();
+        try (FileChannel channel = FileChannel.open(existing(sourceHandle), StandardOpenOption.READ);
+             ImageInputStream in = new MappedFileImageInputStream(channel);
+             RandomAccessFile file = new RandomAccessFile(path(targetHandle).toFile(), "rw");
+             ImageOutputStream out = new FileImageOutputStream(file)) {
+            callback.transform(in, out);
+            out.flush();
+            file.getFD().sync();
+            return targetHandle;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(path(targetHandle));
+            throw e;
+        }
+    }
+
+    @Override
+    public long size(long handle) throws IOException {
+        return Files.size(existing(handle));
+    }
+
+    @Override
+    public void unlink(long handle) throws IOException {
+        Files.deleteIfExists(path(handle));
+    }
+
+    /**
+     * 文件删除无法回滚，在事务提交后才执行；没有事务时立即删除
+     */
+    @Override
+    public void unlinkInTransaction(long handle) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            unlinkQuietly(handle);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                unlinkQuietly(handle);
+            }
+        });
+    }
+
+    private void unlinkQuietly(long handle) {
+        try {
+            unlink(handle);
+        } catch (IOException e) {
+            log.warn("删除存储文件 {} 失败: {}", path(handle), e.getMessage());
+        }
+    }
+
+    @Override
+    public List<Long> listObjects() throws IOException {
+        List<Long> handles = new ArrayList<>();
+        Path base = Paths.get(root);
+        if (!Files.isDirectory(base)) {
+            return handles;
+        }
+        try (Stream<Path> files = Files.walk(base, 3)) {
+            files.filter(Files::isRegularFile).forEach(p -> {
+                String name = p.getFileName().toString();
+                if (name.endsWith(SUFFIX)) {
+                    try {
+                        handles.add(Long.parseUnsignedLong(name.substring(0, name.length() - SUFFIX.length()), 16));
+                    } catch (NumberFormatException e) {
+                        // 非本存储创建的文件
+                    }
+                }
+            });
+        }
+        return handles;
+    }
+
+    @Override
+    public boolean owns(long handle) {
+        return handle >= MIN_HANDLE;
+    }
+
+    private Path existing(long handle) throws IOException {
+        Path path = path(handle);
+        if (!Files.exists(path)) {
+            throw new NoSuchFileException(path.toString(), null, "存储文件不存在，句柄 " + handle);
+        }
+        return path;
+    }
+
+    private Path path(long handle) {
+        String hex = String.format("%016x", handle);
+        return Paths.get(root, hex.substring(0, 2), hex.substring(2, 4), hex + SUFFIX);
+    }
+}
@@ -0,0 +1,189 @@
+package sanqibackend.sanqibackend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import sanqibackend.sanqibackend.entity.LargeObjectReclaimReport;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 后台回收孤立的大对象
+ *
+ * 导入失败回滚、进程中断等情况会留下没有任何记录引用的大对象。回收分两步：先把存储后端中本应用拥有
+ * （PostgreSQL 大对象限当前数据库用户）且未被 raster_data / raster_blob / raster_upload 引用的对象
+ * 登记为候选并记下首次发现时间，超过宽限期后仍未被引用的才分批删除，每批之间暂停以限制对数据库的压力。
+ * 宽限期保证正在导入（已写入大对象、尚未登记记录）的文件不会被误删。
+ */
+@Service
+public class LargeObjectReclaimer {
+
+    private static final Logger log = LoggerFactory.getLogger(LargeObjectReclaimer.class);
+
+    // 所有引用大对象的列
+    private static final String REFERENCED_OIDS =
+            "SELECT lo_oid FROM raster_data WHERE lo_oid IS NOT NULL "
+                    + "UNION ALL SELECT original_lo_oid FROM raster_data WHERE original_lo_oid IS NOT NULL "
+                    + "UNION ALL SELECT raster_data::bigint FROM raster_data WHERE raster_data IS NOT NULL "
+                    + "UNION ALL SELECT lo_oid FROM raster_blob "
+                    + "UNION ALL SELECT original_lo_oid FROM raster_blob WHERE original_lo_oid IS NOT NULL "
+                    + "UNION ALL SELECT lo_oid FROM raster_upload "
+                    + "UNION ALL SELECT lo_oid FROM raster_warp";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private RasterStorage rasterStorage;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${raster.lo-reclaim.enabled:true}")
+    private boolean enabled;
+
+    @Value("${raster.lo-reclaim.grace-period-minutes:1440}")
+    private long gracePeriodMinutes;
+
+    @Value("${raster.lo-reclaim.batch-size:100}")
+    private int batchSize;
+
+    @Value("${raster.lo-reclaim.batch-pause-ms:500}")
+    private long batchPauseMs;
+
+    @Value("${raster.lo-reclaim.max-per-run:10000}")
+    private int maxPerRun;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile LargeObjectReclaimReport lastReport;
+
+    private long totalReclaimed;
+
+    private long totalReclaimedBytes;
+
+    @Scheduled(initialDelayString = "${raster.lo-reclaim.initial-delay-ms:600000}",
+            fixedDelayString = "${raster.lo-reclaim.interval-ms:3600000}")
+    public void scheduledReclaim() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            reclaim();
+        } catch (IllegalStateException e) {
+            log.info("上一次大对象回收尚未结束，跳过本次");
+        }
+    }
+
+    /**
+     * 执行一次回收，已有回收在执行时抛出 IllegalStateException
+     */
+    public LargeObjectReclaimReport reclaim() {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("大对象回收正在执行");
+        }
+        LargeObjectReclaimReport report = new LargeObjectReclaimReport();
+        report.setStartedAt(LocalDateTime.now());
+        long start = System.currentTimeMillis();
+        try {
+            // 登记新发现的孤立对象，移除已重新被引用或已不存在的候选
+            Long[] objects = rasterStorage.listObjects().toArray(new Long[0]);
+            jdbcTemplate.update("INSERT INTO raster_lo_orphan (oid, first_seen_at) "
+                    + "SELECT o, now() FROM unnest(CAST(? AS BIGINT[])) o "
+                    + "WHERE o NOT IN (" + REFERENCED_OIDS + ") ON CONFLICT (oid) DO NOTHING", (Object) objects);
+            jdbcTemplate.update("DELETE FROM raster_lo_orphan WHERE NOT (oid = ANY(CAST(? AS BIGINT[]))) "
+                    + "OR oid IN (" + REFERENCED_OIDS + ")", (Object) objects);
+            Integer orphans = jdbcTemplate.queryForObject("SELECT count(*) FROM raster_lo_orphan", Integer.class);
+            report.setOrphans(orphans != null ? orphans : 0);
+
+            Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minusMinutes(gracePeriodMinutes));
+            List<Long> due = jdbcTemplate.queryForList(
+                    "SELECT oid FROM raster_lo_orphan WHERE first_seen_at < ? ORDER BY oid LIMIT ?",
+                    Long.class, cutoff, maxPerRun);
+            report.setDue(due.size());
+
+            for (int i = 0; i < due.size(); i += batchSize) {
+                if (i > 0 && batchPauseMs > 0) {
+                    Thread.sleep(batchPauseMs);
+                }
+                reclaimBatch(due.subList(i, Math.min(due.size(), i + batchSize)), report);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            report.setErrorMessage("回收被中断");
+        } catch (Exception e) {
+            log.error("大对象回收失败: {}", e.getMessage(), e);
+            report.setErrorMessage(e.getMessage());
+        } finally {
+            report.setFinishedAt(LocalDateTime.now());
+            report.setDurationMs(System.currentTimeMillis() - start);
+            synchronized (this) {
+                totalReclaimed += report.getReclaimed();
+                totalReclaimedBytes += report.getReclaimedBytes();
+            }
+            lastReport = report;
+            running.set(false);
+        }
+        log.info("大对象回收完成: 孤立 {} 个，到期 {} 个，已删除 {} 个（{} 字节），失败 {} 个，耗时 {} ms",
+                report.getOrphans(), report.getDue(), report.getReclaimed(), report.getReclaimedBytes(),
+                report.getFailed(), report.getDurationMs());
+        return report;
+    }
+
+    /**
+     * 删除一批到期候选，删除前记下大小
+     */
+    private void reclaimBatch(List<Long> batch, LargeObjectReclaimReport report) {
+        Map<Long, Long> sizes = new HashMap<>();
+        for (Long oid : batch) {
+            try {
+                sizes.put(oid, rasterStorage.size(oid));
+            } catch (IOException e) {
+                sizes.put(oid, 0L);
+            }
+        }
+        try {
+            // 移除候选时再次确认未被引用，删除随同一事务提交
+            List<Long> unlinked = transactionTemplate.execute(status -> {
+                List<Long> removed = jdbcTemplate.queryForList(
+                        "DELETE FROM raster_lo_orphan c WHERE c.oid = ANY(CAST(? AS BIGINT[])) "
+                                + "AND c.oid NOT IN (" + REFERENCED_OIDS + ") RETURNING c.oid",
+                        Long.class, (Object) batch.toArray(new Long[0]));
+                removed.forEach(rasterStorage::unlinkInTransaction);
+                return removed;
+            });
+            report.setReclaimed(report.getReclaimed() + unlinked.size());
+            for (Long oid : unlinked) {
+                report.setReclaimedBytes(report.getReclaimedBytes() + sizes.getOrDefault(oid, 0L));
+            }
+        } catch (Exception e) {
+            log.warn("删除一批孤立大对象失败: {}", e.getMessage());
+            report.setFailed(report.getFailed() + batch.size());
+        }
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        status.put("running", running.get());
+        status.put("gracePeriodMinutes", gracePeriodMinutes);
+        status.put("lastReport", lastReport);
+        synchronized (this) {
+            status.put("totalReclaimed", totalReclaimed);
+            status.put("totalReclaimedBytes", totalReclaimedBytes);
+        }
+        return status;
+    }
+}
@@ -0,0 +1,240 @@
+package sanqibackend.sanqibackend.service;
+
+import org.postgresql.PGConnection;
+import org.postgresql.largeobject.LargeObject;
+import org.postgresql.largeobject.LargeObjectManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import sanqibackend.sanqibackend.utils.LargeObjectImageInputStream;
+import sanqibackend.sanqibackend.utils.LargeObjectImageOutputStream;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.util.List;
+
+/**
+ * PostgreSQL 大对象的基础读写操作
+ *
+ * 每次调用独占一个连接并在独立事务中完成，可被多个线程并发调用；句柄即大对象 OID
+ */
+@Component
+public class LargeObjectStore implements RasterStorage {
+
+    /**
+     * pg_largeobject 的页大小（LOBLKSIZE），并发写入同一大对象时各写入区间需按此对齐
+     */
+    public static final int PAGE_SIZE = 2048;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${raster.io.buffer-size:1048576}")
+    private int ioBufferSize;
+
+    @Value("${raster.io.image-buffer-size:262144}")
+    private int imageBufferSize;
+
+    /**
+     * 创建一个空的大对象并立即提交
+     */
+    @Override
+    public long create() throws IOException {
+        return execute(lobj -> lobj.createLO(LargeObjectManager.READ | LargeObjectManager.WRITE));
+    }
+
+    /**
+     * 从 offset 开始把输入流写入大对象，最多写入 maxBytes 字节
+     *
+     * @return 实际写入的字节数
+     */
+    @Override
+    public long write(long oid, long offset, InputStream in, long maxBytes) throws IOException {
+        return execute(lobj -> {
+            LargeObject obj = lobj.open(oid, LargeObjectManager.WRITE);
+            try {
+                obj.seek64(offset, LargeObject.SEEK_SET);
+                byte[] buf = new byte[ioBufferSize];
+                long written = 0;
+                int s;
+                while ((s = in.read(buf, 0, buf.length)) > 0) {
+                    if (written + s > maxBytes) {
+                        throw new IOException("写入数据超出预期长度 " + maxBytes + " 字节");
+                    }
+                    obj.write(buf, 0, s);
+                    written += s;
+                }
+                return written;
+            } finally {
+                obj.close();
+            }
+        });
+    }
+
+    /**
+     * 将大对象中从 offset 开始的 length 个字节写入输出流
+     */
+    @Override
+    public void read(long oid, long offset, long length, OutputStream out) throws IOException {
+        execute(lobj -> {
+            LargeObject obj = lobj.open(oid, LargeObjectManager.READ);
+            try {
+                obj.seek64(offset, LargeObject.SEEK_SET);
+                byte[] buf = new byte[ioBufferSize];
+                long remaining = length;
+                while (remaining > 0) {
+                    int s = obj.read(buf, 0, (int) Math.min(buf.length, remaining));
+                    if (s <= 0) {
+                        throw new IOException("大对象数据不完整，剩余 " + remaining + " 字节未读取");
+                    }
+                    out.write(buf, 0, s);
+                    remaining -= s;
+                }
+                out.flush();
+                return null;
+            } finally {
+                obj.close();
+            }
+        });
+    }
+
+    @Override
+    public <T> T readStream(long oid, StreamCallback<T> callback) throws IOException {
+        return execute(lobj -> {
+            LargeObject obj = lobj.open(oid, LargeObjectManager.READ);
+            try (InputStream in = obj.getInputStream()) {
+                return callback.doWithStream(in);
+            } finally {
+                obj.close();
+            }
+        });
+    }
+
+    /**
+     * 以随机访问的 ImageInputStream 打开大对象，供 ImageIO 读取器按需读取所需区间
+     */
+    @Override
+    public <T> T readImage(long oid, ImageStreamCallback<T> callback) throws IOException {
+        return execute(lobj -> {
+            LargeObject obj = lobj.open(oid, LargeObjectManager.READ);
+            try (ImageInputStream in = new LargeObjectImageInputStream(obj, imageBufferSize)) {
+                return callback.doWithStream(in);
+            } finally {
+                obj.close();
+            }
+        });
+    }
+
+    /**
+     * 以源大对象为输入、新建的大对象为输出执行转写，成功后提交并返回新大对象的 OID；
+     * 转写失败时事务回滚，新建的大对象随之消失，源大对象保持不变
+     */
+    @Override
+    public long transform(long sourceOid, ImageTransformCallback callback) throws IOException {
+        return execute(lobj -> {
+            long targetOid = lobj.createLO(LargeObjectManager.READ | LargeObjectManager.WRITE);
+            LargeObject source = lobj.open(sourceOid, LargeObjectManager.READ);
+            LargeObject target = lobj.open(targetOid, LargeObjectManager.READ | LargeObjectManager.WRITE);
+            try (ImageInputStream in = new LargeObjectImageInputStream(source, imageBufferSize);
+                 ImageOutputStream out = new LargeObjectImageOutputStream(target, ioBufferSize)) {
+                callback.transform(in, out);
+            } finally {
+                target.close();
+                source.close();
+            }
+            return targetOid;
+        });
+    }
+
+    /**
+     * 获取大对象的当前长度
+     */
+    @Override
+    public long size(long oid) throws IOException {
+        return execute(lobj -> {
+            LargeObject obj = lobj.open(oid, LargeObjectManager.READ);
+            try {
+                return obj.size64();
+            } finally {
+                obj.close();
+            }
+        });
+    }
+
+    /**
+     * 删除大对象
+     */
+    @Override
+    public void unlink(long oid) throws IOException {
+        execute(lobj -> {
+            lobj.delete(oid);
+            return null;
+        });
+    }
+
+    /**
+     * 通过调用方事务的连接执行 lo_unlink，大对象随事务提交一起删除
+     */
+    @Override
+    public void unlinkInTransaction(long oid) {
+        jdbcTemplate.query("SELECT lo_unlink(m.oid) FROM pg_largeobject_metadata m WHERE m.oid = CAST(? AS BIGINT)::oid",
+                rs -> null, oid);
+    }
+
+    /**
+     * 当前数据库用户拥有的大对象，其他用户创建的大对象不在本应用管理范围内
+     */
+    @Override
+    public List<Long> listObjects() {
+        return jdbcTemplate.queryForList("SELECT m.oid::bigint FROM pg_largeobject_metadata m "
+                + "WHERE m.lomowner = (SELECT r.oid FROM pg_roles r WHERE r.rolname = current_user)", Long.class);
+    }
+
+    @Override
+    public boolean owns(long handle) {
+        return handle > 0 && handle < FileSystemRasterStorage.MIN_HANDLE;
+    }
+
+    private <T> T execute(LargeObjectCallback<T> callback) throws IOException {
+        Connection conn = null;
+        try {
+            // 不使用 DataSourceUtils：即使在调用方事务（或其提交回调）中也要拿到独立的连接
+            conn = dataSource.getConnection();
+            conn.setAutoCommit(false);
+            LargeObjectManager lobj = conn.unwrap(PGConnection.class).getLargeObjectAPI();
+            T result = callback.doWithLargeObjects(lobj);
+            conn.commit();
+            return result;
+        } catch (IOException e) {
+            rollbackQuietly(conn);
+            throw e;
+        } catch (Exception e) {
+            rollbackQuietly(conn);
+            throw new IOException("大对象操作失败: " + e.getMessage(), e);
+        } finally {
+            if (conn != null) {
+                try { conn.close(); } catch (Exception e) { /* 忽略 */ }
+            }
+        }
+    }
+
+    private void rollbackQuietly(Connection conn) {
+        if (conn != null) {
+            try { conn.rollback(); } catch (Exception ex) { /* 忽略 */ }
+        }
+    }
+
+    @FunctionalInterface
+    private interface LargeObjectCallback<T> {
+        T doWithLargeObjects(LargeObjectManager lobj) throws Exception;
+    }
+}
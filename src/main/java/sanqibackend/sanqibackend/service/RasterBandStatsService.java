@@ -0,0 +1,354 @@
+package sanqibackend.sanqibackend.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import sanqibackend.sanqibackend.entity.RasterBandStats;
+import sanqibackend.sanqibackend.entity.RasterData;
+import sanqibackend.sanqibackend.event.RasterBandStatsComputedEvent;
+import sanqibackend.sanqibackend.event.RasterDataImportedEvent;
+import sanqibackend.sanqibackend.utils.GeoTiffHeader;
+import sanqibackend.sanqibackend.utils.RasterImages;
+import sanqibackend.sanqibackend.utils.StreamingHistogram;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 栅格波段统计
+ *
+ * 导入事务提交后在后台线程中按分块高度逐段读取全分辨率像元，单遍计算各波段的 min/max/mean/stddev、
+ * 直方图和近似 2%/98% 百分位数并保存到 raster_band_stats；后台任务未完成时首次查询会同步计算
+ * （与后台任务合并为同一次计算）。同内容的栅格直接复制已有统计值。
+ */
+@Service
+public class RasterBandStatsService implements ApplicationEventPublisherAware {
+
+    private static final Logger log = LoggerFactory.getLogger(RasterBandStatsService.class);
+
+    // 单次窗口读取的像元数上限，按分块高度取整
+    private static final long READ_WINDOW_PIXELS = 4L * 1024 * 1024;
+
+    private static final String COLUMNS = "raster_id, band, valid_count, nodata_count, min_value, max_value, "
+            + "mean_value, stddev_value, p2, p98, histogram_min, histogram_max, histogram, computed_at";
+
+    @Autowired
+    private RasterDataService rasterDataService;
+
+    @Autowired
+    private RasterStorage rasterStorage;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${raster.stats.histogram-bins:1024}")
+    private int histogramBins;
+
+    @Value("${raster.stats.workers:1}")
+    private int workers;
+
+    @Value("${raster.stats.queue-capacity:100}")
+    private int queueCapacity;
+
+    private ApplicationEventPublisher eventPublisher;
+
+    private ThreadPoolExecutor executor;
+
+    private final Map<Long, CompletableFuture<List<RasterBandStats>>> computing = new ConcurrentHashMap<>();
+
+    private final RowMapper<RasterBandStats> rowMapper = (rs, rowNum) -> {
+        RasterBandStats stats = new RasterBandStats();
+        stats.setRasterId(rs.getLong("raster_id"));
+        stats.setBand(rs.getInt("band"));
+        stats.setValidCount(rs.getLong("valid_count"));
+        stats.setNodataCount(rs.getLong("nodata_count"));
+        stats.setMin(rs.getObject("min_value", Double.class));
+        stats.setMax(rs.getObject("max_value", Double.class));
+        stats.setMean(rs.getObject("mean_value", Double.class));
+        stats.setStddev(rs.getObject("stddev_value", Double.class));
+        stats.setP2(rs.getObject("p2", Double.class));
+        stats.setP98(rs.getObject("p98", Double.class));
+        stats.setHistogramMin(rs.getObject("histogram_min", Double.class));
+        stats.setHistogramMax(rs.getObject("histogram_max", Double.class));
+        Object[] histogram = (Object[]) rs.getArray("histogram").getArray();
+        stats.setHistogram(Arrays.stream(histogram).mapToLong(v -> ((Number) v).longValue()).toArray());
+        Timestamp computedAt = rs.getTimestamp("computed_at");
+        stats.setComputedAt(computedAt != null ? computedAt.toLocalDateTime() : null);
+        return stats;
+    };
+
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
+        this.eventPublisher = applicationEventPublisher;
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "band-stats-worker-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 导入事务提交后在后台计算；队列满时放弃，留到首次查询时计算
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void handleRasterDataImportedEvent(RasterDataImportedEvent event) {
+        Long rasterId = event.getRasterDataId();
+        try {
+            executor.execute(() -> {
+                try {
+                    getStats(rasterId);
+                } catch (Exception e) {
+                    log.error("波段统计计算失败, ID: {}: {}", rasterId, e.getMessage(), e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("波段统计任务队列已满，改为首次查询时计算, ID: {}", rasterId);
+        }
+    }
+
+    /**
+     * 获取各波段统计值，尚未计算时先尝试复制同内容栅格的统计值，否则同步计算并保存
+     */
+    public List<RasterBandStats> getStats(Long rasterId) throws IOException {
+        List<RasterBandStats> stats = findStats(rasterId);
+        if (!stats.isEmpty()) {
+            return stats;
+        }
+        if (copySharedStats(rasterId)) {
+            return findStats(rasterId);
+        }
+
+        CompletableFuture<List<RasterBandStats>> future = new CompletableFuture<>();
+        CompletableFuture<List<RasterBandStats>> existing = computing.putIfAbsent(rasterId, future);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw new IOException("波段统计计算失败: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        try {
+            List<RasterBandStats> computed = computeAndSave(rasterId);
+            future.complete(computed);
+            return computed;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            computing.remove(rasterId);
+        }
+    }
+
+    /**
+     * 第一波段的 2%/98% 百分位拉伸范围，尚未计算时返回 null（不触发计算）
+     */
+    public double[] findStretch(Long rasterId) {
+        List<double[]> rows = jdbcTemplate.query(
+                "SELECT p2, p98 FROM raster_band_stats WHERE raster_id = ? AND band = 1 AND p2 IS NOT NULL",
+                (rs, rowNum) -> new double[]{rs.getDouble("p2"), rs.getDouble("p98")},
+                rasterId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    public List<RasterBandStats> findStats(Long rasterId) {
+        return jdbcTemplate.query("SELECT " + COLUMNS + " FROM raster_band_stats WHERE raster_id = ? ORDER BY band",
+                rowMapper, rasterId);
+    }
+
+    /**
+     * 从内容哈希相同的另一条栅格记录复制统计值
+     */
+    private boolean copySharedStats(Long rasterId) {
+        int copied = jdbcTemplate.update(
+                "INSERT INTO raster_band_stats (" + COLUMNS + ") "
+                        + "SELECT ?, s.band, s.valid_count, s.nodata_count, s.min_value, s.max_value, s.mean_value, "
+                        + "s.stddev_value, s.p2, s.p98, s.histogram_min, s.histogram_max, s.histogram, s.computed_at "
+                        + "FROM raster_band_stats s WHERE s.raster_id = ("
+                        + "  SELECT r.id FROM raster_data r JOIN raster_data self ON self.content_hash = r.content_hash "
+                        + "  WHERE self.id = ? AND r.id <> ? "
+                        + "  AND EXISTS (SELECT 1 FROM raster_band_stats x WHERE x.raster_id = r.id) LIMIT 1) "
+                        + "ON CONFLICT (raster_id, band) DO NOTHING",
+                rasterId, rasterId, rasterId);
+        return copied > 0;
+    }
+
+    private List<RasterBandStats> computeAndSave(Long rasterId) throws IOException {
+        RasterData rasterData = rasterDataService.getRasterDataById(rasterId);
+        if (rasterData.getLoOid() == null) {
+            throw new IllegalStateException("数据库未保存大对象 OID，无法计算统计值");
+        }
+        long start = System.currentTimeMillis();
+        List<RasterBandStats> stats = rasterStorage.readImage(rasterData.getLoOid(), this::compute);
+        LocalDateTime now = LocalDateTime.now();
+        for (RasterBandStats band : stats) {
+            band.setRasterId(rasterId);
+            band.setComputedAt(now);
+        }
+        save(stats);
+        log.info("波段统计完成, ID: {}, 波段数: {}, 耗时: {} ms",
+                rasterId, stats.size(), System.currentTimeMillis() - start);
+        eventPublisher.publishEvent(new RasterBandStatsComputedEvent(rasterId));
+        return stats;
+    }
+
+    /**
+     * 按分块高度对齐、整幅宽度逐段读取全分辨率像元，单遍累加各波段统计
+     */
+    private List<RasterBandStats> compute(ImageInputStream in) throws IOException {
+        byte[] magic = new byte[4];
+        in.seek(0);
+        int magicLength = in.read(magic);
+        GeoTiffHeader header = GeoTiffHeader.isTiff(magic, magicLength) ? GeoTiffHeader.read(in) : null;
+        Double nodata = header != null ? header.getNoData() : null;
+
+        ImageReader reader = RasterImages.openReader(in);
+        try {
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            int blockHeight = header != null ? Math.max(1, header.getBlockHeight()) : 1;
+            int rowsPerRead = (int) Math.max(blockHeight, READ_WINDOW_PIXELS / width / blockHeight * blockHeight);
+            // TIFF 读取原始样本值，其他格式按解码后的像元统计
+            boolean raw = header != null && reader.canReadRaster();
+            ImageReadParam param = reader.getDefaultReadParam();
+
+            StreamingHistogram[] histograms = null;
+            long[] nodataCounts = null;
+            double[] row = new double[width];
+            for (int y = 0; y < height; y += rowsPerRead) {
+                param.setSourceRegion(new Rectangle(0, y, width, Math.min(rowsPerRead, height - y)));
+                Raster raster = raw ? reader.readRaster(0, param) : reader.read(0, param).getRaster();
+                if (histograms == null) {
+                    int bands = raster.getNumBands();
+                    boolean byteData = raster.getSampleModel().getDataType() == DataBuffer.TYPE_BYTE;
+                    histograms = new StreamingHistogram[bands];
+                    nodataCounts = new long[bands];
+                    for (int b = 0; b < bands; b++) {
+                        histograms[b] = byteData ? new StreamingHistogram(256, 0, 256)
+                                : new StreamingHistogram(histogramBins);
+                    }
+                }
+                for (int b = 0; b < histograms.length; b++) {
+                    StreamingHistogram histogram = histograms[b];
+                    for (int r = 0; r < raster.getHeight(); r++) {
+                        raster.getSamples(raster.getMinX(), raster.getMinY() + r, width, 1, b, row);
+                        for (double v : row) {
+                            if (Double.isFinite(v) && (nodata == null || v != nodata)) {
+                                histogram.add(v);
+                            } else {
+                                nodataCounts[b]++;
+                            }
+                        }
+                    }
+                }
+            }
+
+            List<RasterBandStats> result = new ArrayList<>();
+            for (int b = 0; histograms != null && b < histograms.length; b++) {
+                StreamingHistogram histogram = histograms[b];
+                RasterBandStats stats = new RasterBandStats();
+                stats.setBand(b + 1);
+                stats.setValidCount(histogram.getCount());
+                stats.setNodataCount(nodataCounts[b]);
+                if (histogram.getCount() > 0) {
+                    stats.setMin(histogram.getMin());
+                    stats.setMax(histogram.getMax());
+                    stats.setMean(histogram.getMean());
+                    stats.setStddev(histogram.getStddev());
+                    stats.setP2(histogram.percentile(2));
+                    stats.setP98(histogram.percentile(98));
+                    stats.setHistogramMin(histogram.getLower());
+                    stats.setHistogramMax(histogram.getUpper());
+                }
+                stats.setHistogram(histogram.getBins());
+                result.add(stats);
+            }
+            return result;
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private void save(List<RasterBandStats> stats) {
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO raster_band_stats (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+                        + "ON CONFLICT (raster_id, band) DO UPDATE SET valid_count = EXCLUDED.valid_count, "
+                        + "nodata_count = EXCLUDED.nodata_count, min_value = EXCLUDED.min_value, "
+                        + "max_value = EXCLUDED.max_value, mean_value = EXCLUDED.mean_value, "
+                        + "stddev_value = EXCLUDED.stddev_value, p2 = EXCLUDED.p2, p98 = EXCLUDED.p98, "
+                        + "histogram_min = EXCLUDED.histogram_min, histogram_max = EXCLUDED.histogram_max, "
+                        + "histogram = EXCLUDED.histogram, computed_at = EXCLUDED.computed_at",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        RasterBandStats s = stats.get(i);
+                        ps.setLong(1, s.getRasterId());
+                        ps.setInt(2, s.getBand());
+                        ps.setLong(3, s.getValidCount());
+                        ps.setLong(4, s.getNodataCount());
+                        ps.setObject(5, s.getMin(), Types.DOUBLE);
+                        ps.setObject(6, s.getMax(), Types.DOUBLE);
+                        ps.setObject(7, s.getMean(), Types.DOUBLE);
+                        ps.setObject(8, s.getStddev(), Types.DOUBLE);
+                        ps.setObject(9, s.getP2(), Types.DOUBLE);
+                        ps.setObject(10, s.getP98(), Types.DOUBLE);
+                        ps.setObject(11, s.getHistogramMin(), Types.DOUBLE);
+                        ps.setObject(12, s.getHistogramMax(), Types.DOUBLE);
+                        Array histogram = ps.getConnection().createArrayOf("bigint",
+                                Arrays.stream(s.getHistogram()).boxed().toArray());
+                        ps.setArray(13, histogram);
+                        ps.setTimestamp(14, Timestamp.valueOf(s.getComputedAt()));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return stats.size();
+                    }
+                });
+    }
+}
@@ -0,0 +1,145 @@
+package sanqibackend.sanqibackend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import sanqibackend.sanqibackend.entity.RasterBlob;
+import sanqibackend.sanqibackend.entity.RasterData;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * 按内容 SHA-256 对栅格大对象做引用计数
+ *
+ * 相同内容的多次上传共用同一组大对象，每条 raster_data 记录持有一个引用，
+ * 最后一个引用随记录删除在同一事务中释放时才删除大对象。计数的增减都在单条 SQL 中完成，并发导入/删除安全。
+ */
+@Service
+public class RasterBlobService {
+
+    private static final Logger log = LoggerFactory.getLogger(RasterBlobService.class);
+
+    private static final String RETURNING_COLUMNS =
+            " RETURNING content_hash, lo_oid, file_size, cog, original_lo_oid, original_file_size, ref_count, created_at";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private RasterStorage rasterStorage;
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前 JVM 不支持 SHA-256", e);
+        }
+    }
+
+    public static String toHex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * 顺序读取整个大对象计算 SHA-256，用于无法在写入时同步计算摘要的分块上传
+     */
+    public String digest(long oid, long size) throws IOException {
+        MessageDigest digest = newDigest();
+        try (OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+            rasterStorage.read(oid, 0, size, out);
+        }
+        return toHex(digest);
+    }
+
+    /**
+     * 内容已存在时增加一个引用并返回已有的存储，否则返回 null
+     */
+    public RasterBlob acquire(String contentHash) {
+        List<RasterBlob> rows = jdbcTemplate.query(
+                "UPDATE raster_blob SET ref_count = ref_count + 1 WHERE content_hash = ?" + RETURNING_COLUMNS,
+                new BeanPropertyRowMapper<>(RasterBlob.class), contentHash);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * 登记新内容的存储并持有一个引用；若并发导入已先登记了相同内容，则改为引用对方的存储并返回它，
+     * 调用方需比较返回的 lo_oid 判断自己写入的大对象是否成为多余
+     */
+    public RasterBlob register(String contentHash, RasterData stored) {
+        return jdbcTemplate.queryForObject(
+                "INSERT INTO raster_blob (content_hash, lo_oid, file_size, cog, original_lo_oid, original_file_size, ref_count, created_at) "
+                        + "VALUES (?, ?, ?, ?, ?, ?, 1, now()) "
+                        + "ON CONFLICT (content_hash) DO UPDATE SET ref_count = raster_blob.ref_count + 1"
+                        + RETURNING_COLUMNS,
+                new BeanPropertyRowMapper<>(RasterBlob.class),
+                contentHash, stored.getLoOid(), stored.getFileSize(), stored.getCog(),
+                stored.getOriginalLoOid(), stored.getOriginalFileSize());
+    }
+
+    /**
+     * 释放一个引用，引用数归零时删除登记并删除大对象
+     *
+     * 在调用方事务中执行时大对象随事务一起删除（PostgreSQL 大对象走同一连接，文件在提交后删除），事务回滚时引用和大对象都保持不变
+     */
+    @Transactional
+    public void release(String contentHash) {
+        jdbcTemplate.update("UPDATE raster_blob SET ref_count = ref_count - 1 WHERE content_hash = ?", contentHash);
+        List<RasterBlob> removed = jdbcTemplate.query(
+                "DELETE FROM raster_blob WHERE content_hash = ? AND ref_count <= 0" + RETURNING_COLUMNS,
+                new BeanPropertyRowMapper<>(RasterBlob.class), contentHash);
+        for (RasterBlob blob : removed) {
+            unlinkInTransaction(blob.getLoOid());
+            unlinkInTransaction(blob.getOriginalLoOid());
+            log.info("内容 {} 已无引用，删除大对象 {}", contentHash, blob.getLoOid());
+        }
+    }
+
+    /**
+     * 删除未登记内容哈希的旧记录的大对象，仍被其他记录引用时保留；在调用方事务中执行
+     */
+    @Transactional
+    public void releaseUnmanaged(Long rasterId, Long loOid, Long originalLoOid) {
+        for (Long oid : new Long[]{loOid, originalLoOid}) {
+            if (oid == null) {
+                continue;
+            }
+            Integer references = jdbcTemplate.queryForObject(
+                    "SELECT (SELECT count(*) FROM raster_data WHERE id <> ? AND (lo_oid = ? OR original_lo_oid = ?)) "
+                            + "+ (SELECT count(*) FROM raster_blob WHERE lo_oid = ? OR original_lo_oid = ?)",
+                    Integer.class, rasterId, oid, oid, oid, oid);
+            if (references == null || references == 0) {
+                unlinkInTransaction(oid);
+            }
+        }
+    }
+
+    private void unlinkInTransaction(Long oid) {
+        if (oid != null) {
+            rasterStorage.unlinkInTransaction(oid);
+        }
+    }
+
+    /**
+     * 删除大对象，失败只记录日志（孤立的大对象由后续清理处理）
+     */
+    public void unlinkQuietly(Long oid) {
+        if (oid == null) {
+            return;
+        }
+        try {
+            rasterStorage.unlink(oid);
+        } catch (IOException e) {
+            log.warn("删除大对象 {} 失败: {}", oid, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,559 @@
+package sanqibackend.sanqibackend.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import sanqibackend.sanqibackend.entity.BulkImportItem;
+import sanqibackend.sanqibackend.entity.BulkImportJob;
+import sanqibackend.sanqibackend.entity.RasterData;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * 批量导入：ZIP 流或白名单内的服务器目录
+ *
+ * ZIP 在请求线程中顺序解压，每个条目的数据经有界内存管道交给工作线程写入大对象，不落地到磁盘；
+ * 目录中的文件由工作线程直接并发读取写入。同时写入的文件数（即占用的数据库连接数）由 workers 限定。
+ * 每个文件写入后各自完成元数据解析、去重和 COG 转写，栅格记录按 batch-size 用 JDBC 批量插入。
+ */
+@Service
+public class RasterBulkImportService {
+
+    private static final Logger log = LoggerFactory.getLogger(RasterBulkImportService.class);
+
+    private static final Set<String> RASTER_EXTENSIONS = Set.of("tif", "tiff", "png", "jpg", "jpeg");
+
+    // ZIP 条目管道中每块数据的大小
+    private static final int PIPE_CHUNK_SIZE = 256 * 1024;
+
+    @Autowired
+    private RasterDataService rasterDataService;
+
+    @Autowired
+    private RasterStorage rasterStorage;
+
+    @Value("${raster.import.bulk.workers:4}")
+    private int workers;
+
+    @Value("${raster.import.bulk.batch-size:50}")
+    private int batchSize;
+
+    @Value("${raster.import.bulk.pipe-chunks:16}")
+    private int pipeChunks;
+
+    @Value("${raster.import.bulk.allowed-directories:}")
+    private String allowedDirectories;
+
+    @Value("${raster.import.bulk.job-retention-minutes:1440}")
+    private long jobRetentionMinutes;
+
+    @Value("${raster.import.header-capture-bytes:1048576}")
+    private int headerCaptureBytes;
+
+    private ExecutorService executor;
+
+    private final Map<String, BulkImportJob> jobs = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "bulk-import-worker-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 导入 ZIP 流中的全部栅格文件；流读取完毕后返回，剩余的处理和登记在后台完成
+     */
+    public BulkImportJob importZip(InputStream in, String description, Boolean cog, Boolean keepOriginal)
+            throws IOException {
+        ImportRun run = start("zip", description, cog, keepOriginal);
+        try (ZipInputStream zip = new ZipInputStream(in)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = fileName(entry.getName());
+                if (entry.isDirectory() || !isRasterFile(name) || entry.getName().startsWith("__MACOSX/")) {
+                    continue;
+                }
+                BulkImportItem item = run.addItem(name);
+                run.acquire();
+                ChunkPipe pipe = new ChunkPipe(pipeChunks);
+                submit(run, item, () -> pipe);
+                try {
+                    pipe.copyFrom(zip);
+                    pipe.finish();
+                } catch (IOException e) {
+                    // 条目未读完，写入方收到错误而不是正常结束，避免登记截断的文件
+                    pipe.abort();
+                    throw e;
+                }
+            }
+        } catch (IOException e) {
+            run.fail("读取 ZIP 流失败: " + e.getMessage());
+            throw e;
+        } finally {
+            run.intakeDone();
+        }
+        return run.job;
+    }
+
+    /**
+     * 在后台导入服务器目录中的栅格文件，目录必须位于 raster.import.bulk.allowed-directories 之内
+     */
+    public BulkImportJob importDirectory(String directory, boolean recursive, String description,
+                                         Boolean cog, Boolean keepOriginal) throws IOException {
+        Path root = resolveAllowedDirectory(directory);
+        List<Path> files;
+        try (Stream<Path> walk = recursive ? Files.walk(root) : Files.list(root)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(path -> isRasterFile(path.getFileName().toString()))
+                    .sorted(Comparator.naturalOrder())
+                    .collect(Collectors.toList());
+        }
+        ImportRun run = start("directory", description, cog, keepOriginal);
+        List<BulkImportItem> items = new ArrayList<>(files.size());
+        for (Path file : files) {
+            items.add(run.addItem(file.getFileName().toString()));
+        }
+        Thread intake = new Thread(() -> {
+            try {
+                for (int i = 0; i < files.size(); i++) {
+                    Path file = files.get(i);
+                    run.acquire();
+                    submit(run, items.get(i), () -> Files.newInputStream(file));
+                }
+            } catch (IOException e) {
+                run.fail(e.getMessage());
+            } finally {
+                run.intakeDone();
+            }
+        }, "bulk-import-intake-" + run.job.getJobId());
+        intake.setDaemon(true);
+        intake.start();
+        log.info("开始批量导入目录 {}，文件数: {}, 任务: {}", root, files.size(), run.job.getJobId());
+        return run.job;
+    }
+
+    public BulkImportJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    public List<BulkImportJob> listJobs() {
+        return jobs.values().stream()
+                .sorted(Comparator.comparing(BulkImportJob::getStartedAt).reversed())
+                .collect(Collectors.toList());
+    }
+
+    private ImportRun start(String source, String description, Boolean cog, Boolean keepOriginal) {
+        LocalDateTime expiry = LocalDateTime.now().minusMinutes(jobRetentionMinutes);
+        jobs.values().removeIf(job -> job.getFinishedAt() != null && job.getFinishedAt().isBefore(expiry));
+
+        BulkImportJob job = new BulkImportJob();
+        job.setJobId(UUID.randomUUID().toString());
+        job.setSource(source);
+        job.setStatus(BulkImportJob.STATUS_RUNNING);
+        job.setStartedAt(LocalDateTime.now());
+        jobs.put(job.getJobId(), job);
+        return new ImportRun(job, description, cog, keepOriginal);
+    }
+
+    private Path resolveAllowedDirectory(String directory) throws IOException {
+        if (directory == null || directory.isBlank()) {
+            throw new IllegalArgumentException("目录不能为空");
+        }
+        Path path = Paths.get(directory);
+        if (!Files.isDirectory(path)) {
+            throw new IllegalArgumentException("目录不存在: " + directory);
+        }
+        Path real = path.toRealPath();
+        for (String allowed : allowedDirectories.split(",")) {
+            if (allowed.isBlank()) {
+                continue;
+            }
+            Path allowedPath = Paths.get(allowed.trim());
+            if (Files.isDirectory(allowedPath) && real.startsWith(allowedPath.toRealPath())) {
+                return real;
+            }
+        }
+        throw new IllegalArgumentException("目录不在允许批量导入的范围内: " + directory);
+    }
+
+    private static boolean isRasterFile(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && !name.startsWith("._")
+                && RASTER_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static String fileName(String entryName) {
+        String name = entryName.replace('\\', '/');
+        return name.substring(name.lastIndexOf('/') + 1);
+    }
+
+    @FunctionalInterface
+    private interface SourceOpener {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * 在工作线程中写入大对象并完成导入流水线中登记之前的阶段；调用方已取得写入许可，写入结束后释放
+     */
+    private void submit(ImportRun run, BulkImportItem item, SourceOpener opener) {
+        run.outstanding.incrementAndGet();
+        executor.execute(() -> {
+            Long oid = null;
+            RasterDataService.StagedRaster staged = null;
+            boolean permitHeld = true;
+            try (InputStream source = opener.open()) {
+                item.setStatus(BulkImportItem.STATUS_WRITING);
+                MessageDigest digest = RasterBlobService.newDigest();
+                ProgressInputStream in = new ProgressInputStream(new DigestInputStream(source, digest),
+                        headerCaptureBytes, item, run.job);
+                oid = rasterStorage.create();
+                long written = rasterStorage.write(oid, 0, in, Long.MAX_VALUE);
+                // 写入结束即释放名额，元数据处理不占用写入并发数
+                run.permits.release();
+                permitHeld = false;
+
+                item.setStatus(BulkImportItem.STATUS_PROCESSING);
+                staged = rasterDataService.stageStoredRaster(item.getName(), run.description, oid, written,
+                        RasterBlobService.toHex(digest), in.head, in.headLength, run.cog, run.keepOriginal);
+            } catch (Exception e) {
+                if (permitHeld) {
+                    run.permits.release();
+                    permitHeld = false;
+                }
+                if (oid != null) {
+                    try {
+                        rasterStorage.unlink(oid);
+                    } catch (IOException ex) {
+                        log.warn("删除大对象 {} 失败: {}", oid, ex.getMessage());
+                    }
+                }
+                log.error("批量导入文件失败: {}: {}", item.getName(), e.getMessage());
+                run.itemFailed(item, e.getMessage());
+            }
+            try {
+                if (staged != null) {
+                    run.addStaged(item, staged);
+                }
+            } finally {
+                run.taskDone();
+            }
+        });
+    }
+
+    /**
+     * 一次批量导入的运行状态：写入许可、未完成文件计数和待批量登记的记录
+     */
+    private class ImportRun {
+        final BulkImportJob job;
+        final String description;
+        final Boolean cog;
+        final Boolean keepOriginal;
+        final Semaphore permits = new Semaphore(workers);
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicBoolean intakeDone = new AtomicBoolean();
+        final AtomicBoolean finished = new AtomicBoolean();
+        final List<BulkImportItem> pendingItems = new ArrayList<>();
+        final List<RasterDataService.StagedRaster> pending = new ArrayList<>();
+
+        ImportRun(BulkImportJob job, String description, Boolean cog, Boolean keepOriginal) {
+            this.job = job;
+            this.description = description;
+            this.cog = cog;
+            this.keepOriginal = keepOriginal;
+        }
+
+        BulkImportItem addItem(String name) {
+            BulkImportItem item = new BulkImportItem();
+            item.setName(name);
+            item.setStatus(BulkImportItem.STATUS_QUEUED);
+            job.getItems().add(item);
+            synchronized (job) {
+                job.setTotal(job.getTotal() + 1);
+            }
+            return item;
+        }
+
+        void acquire() throws IOException {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("批量导入被中断");
+            }
+        }
+
+        void addStaged(BulkImportItem item, RasterDataService.StagedRaster staged) {
+            List<BulkImportItem> flushItems = null;
+            List<RasterDataService.StagedRaster> flushStaged = null;
+            synchronized (this) {
+                pendingItems.add(item);
+                pending.add(staged);
+                if (pending.size() >= batchSize) {
+                    flushItems = new ArrayList<>(pendingItems);
+                    flushStaged = new ArrayList<>(pending);
+                    pendingItems.clear();
+                    pending.clear();
+                }
+            }
+            if (flushItems != null) {
+                flush(flushItems, flushStaged);
+            }
+        }
+
+        void flush(List<BulkImportItem> items, List<RasterDataService.StagedRaster> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<RasterData> saved;
+            try {
+                saved = rasterDataService.registerStagedBatch(batch);
+            } catch (Exception e) {
+                // 批量插入整批回滚，registerStagedBatch 已放弃全部记录，这里只标记失败
+                log.error("批量登记栅格数据失败: {}", e.getMessage(), e);
+                for (BulkImportItem item : items) {
+                    itemFailed(item, "登记栅格数据失败: " + e.getMessage());
+                }
+                return;
+            }
+            for (int i = 0; i < items.size(); i++) {
+                BulkImportItem item = items.get(i);
+                item.setRasterId(saved.get(i).getId());
+                item.setDuplicate(batch.get(i).isDuplicate());
+                item.setStatus(BulkImportItem.STATUS_DONE);
+                synchronized (job) {
+                    job.setSucceeded(job.getSucceeded() + 1);
+                    if (item.isDuplicate()) {
+                        job.setDuplicates(job.getDuplicates() + 1);
+                    }
+                }
+            }
+        }
+
+        void itemFailed(BulkImportItem item, String message) {
+            item.setStatus(BulkImportItem.STATUS_FAILED);
+            item.setErrorMessage(message);
+            synchronized (job) {
+                job.setFailed(job.getFailed() + 1);
+            }
+        }
+
+        void fail(String message) {
+            synchronized (job) {
+                job.setErrorMessage(message);
+            }
+        }
+
+        void taskDone() {
+            if (outstanding.decrementAndGet() == 0 && intakeDone.get()) {
+                complete();
+            }
+        }
+
+        void intakeDone() {
+            intakeDone.set(true);
+            if (outstanding.get() == 0) {
+                complete();
+            }
+        }
+
+        /**
+         * 所有文件处理完毕后登记剩余记录并结束任务；由最后完成的线程执行一次
+         */
+        void complete() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            List<BulkImportItem> flushItems;
+            List<RasterDataService.StagedRaster> flushStaged;
+            synchronized (this) {
+                flushItems = new ArrayList<>(pendingItems);
+                flushStaged = new ArrayList<>(pending);
+                pendingItems.clear();
+                pending.clear();
+            }
+            flush(flushItems, flushStaged);
+            synchronized (job) {
+                job.setStatus(job.getErrorMessage() != null && job.getSucceeded() == 0
+                        ? BulkImportJob.STATUS_FAILED : BulkImportJob.STATUS_DONE);
+                job.setFinishedAt(LocalDateTime.now());
+            }
+            log.info("批量导入完成, 任务: {}, 文件数: {}, 成功: {}（其中重复内容 {}）, 失败: {}", job.getJobId(),
+                    job.getTotal(), job.getSucceeded(), job.getDuplicates(), job.getFailed());
+        }
+    }
+
+    /**
+     * 统计写入进度并截留文件开头字节的输入流
+     */
+    private static class ProgressInputStream extends FilterInputStream {
+        final byte[] head;
+        int headLength;
+        final BulkImportItem item;
+        final BulkImportJob job;
+
+        ProgressInputStream(InputStream in, int headCapacity, BulkImportItem item, BulkImportJob job) {
+            super(in);
+            this.head = new byte[headCapacity];
+            this.item = item;
+            this.job = job;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == 1 ? one[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                if (headLength < head.length) {
+                    int copy = Math.min(n, head.length - headLength);
+                    System.arraycopy(b, off, head, headLength, copy);
+                    headLength += copy;
+                }
+                item.setBytesWritten(item.getBytesWritten() + n);
+                synchronized (job) {
+                    job.setBytesWritten(job.getBytesWritten() + n);
+                }
+            }
+            return n;
+        }
+    }
+
+    /**
+     * 解压线程与写入线程之间的有界内存管道；写入方出错关闭管道后，剩余数据直接丢弃
+     */
+    private static class ChunkPipe extends InputStream {
+        private static final byte[] EOF = new byte[0];
+        private static final byte[] ABORTED = new byte[0];
+
+        private final BlockingQueue<byte[]> queue;
+        private volatile boolean closed;
+        private byte[] current;
+        private int position;
+
+        ChunkPipe(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        }
+
+        void copyFrom(InputStream in) throws IOException {
+            byte[] buf = new byte[PIPE_CHUNK_SIZE];
+            int n;
+            while ((n = in.readNBytes(buf, 0, buf.length)) > 0) {
+                put(Arrays.copyOf(buf, n));
+            }
+        }
+
+        void finish() throws IOException {
+            put(EOF);
+        }
+
+        void abort() throws IOException {
+            put(ABORTED);
+        }
+
+        private void put(byte[] chunk) throws IOException {
+            try {
+                while (!closed) {
+                    if (queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("批量导入被中断");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == 1 ? one[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (current == ABORTED) {
+                throw new IOException("ZIP 条目读取中断");
+            }
+            if (current == null || position == current.length) {
+                if (current == EOF) {
+                    return -1;
+                }
+                try {
+                    current = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("批量导入被中断");
+                }
+                position = 0;
+                if (current == EOF) {
+                    return -1;
+                }
+                if (current == ABORTED) {
+                    throw new IOException("ZIP 条目读取中断");
+                }
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            queue.clear();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package sanqibackend.sanqibackend.service;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import sanqibackend.sanqibackend.entity.RasterData;
+import sanqibackend.sanqibackend.entity.SanqiRegion;
+import sanqibackend.sanqibackend.mapper.SanqiRegionMapper;
+import sanqibackend.sanqibackend.utils.CrsTransforms;
+import sanqibackend.sanqibackend.utils.GeoTiffHeader;
+import sanqibackend.sanqibackend.utils.PolygonRasterizer;
+import sanqibackend.sanqibackend.utils.RasterImages;
+import sanqibackend.sanqibackend.utils.Resampling;
+import sanqibackend.sanqibackend.utils.StreamingGeoTiffWriter;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 按外包框或三七种植区域裁剪栅格并导出为 GeoTIFF
+ *
+ * 只读取与裁剪窗口相交的分块：窗口按分块高度对齐逐段读取，每段读出后逐行写入 StreamingGeoTiffWriter，
+ * 输出直接写入响应流，内存占用由读取段的大小决定，与输出文件大小无关。
+ * 指定 mask 时，多边形（或外包框在影像坐标系中的形状）以外的像元写为 nodata。
+ * 指定目标坐标系时改由 RasterWarpService 重投影输出，裁剪范围在目标坐标系中计算。
+ */
+@Service
+public class RasterClipService {
+
+    private static final Logger log = LoggerFactory.getLogger(RasterClipService.class);
+
+    /**
+     * 外包框每条边加密的点数，外包框坐标系与影像不同时投影后的边可能是曲线
+     */
+    private static final int BBOX_EDGE_POINTS = 16;
+
+    @Autowired
+    private RasterDataService rasterDataService;
+
+    @Autowired
+    private RasterStorage rasterStorage;
+
+    @Autowired
+    private SanqiRegionMapper sanqiRegionMapper;
+
+    @Autowired
+    private RasterWarpService rasterWarpService;
+
+    @Value("${raster.clip.read-window-pixels:4194304}")
+    private long readWindowPixels;
+
+    /**
+     * 确定裁剪窗口和输出格式，此时尚未写出任何内容，参数错误可以正常返回错误响应
+     *
+     * @param bbox     外包框 [minX, minY, maxX, maxY]，与 gid 二选一
+     * @param bboxEpsg 外包框坐标系
+     * @param gid      三七种植区域 ID
+     * @param mask     是否把多边形以外的像元写为 nodata
+     * @param targetEpsg 输出坐标系，为空时保持影像原坐标系和分辨率
+     * @param resolution 输出分辨率，仅在指定输出坐标系时有效，为空时自动估算
+     */
+    public ClipPlan plan(Long rasterId, double[] bbox, int bboxEpsg, Long gid, boolean mask,
+                         Integer targetEpsg, Double resolution, Resampling resampling) throws IOException {
+        if ((bbox == null) == (gid == null)) {
+            throw new IllegalArgumentException("须指定 bbox 或 gid 之一");
+        }
+        if (targetEpsg != null) {
+            ClipPlan plan = new ClipPlan();
+            plan.warp = rasterWarpService.plan(rasterId, targetEpsg, resolution, resampling,
+                    clipRings(bbox, bboxEpsg, gid, targetEpsg), mask);
+            plan.fileName = plan.warp.getFileName().replaceFirst("\\.tif$", "")
+                    + (gid != null ? "_region" + gid : "_clip") + ".tif";
+            return plan;
+        }
+        RasterData rasterData = rasterDataService.getRasterDataById(rasterId);
+        if (rasterData.getLoOid() == null) {
+            throw new IllegalStateException("数据库未保存大对象 OID，无法裁剪");
+        }
+        GeoTiffHeader header = rasterStorage.readImage(rasterData.getLoOid(), GeoTiffHeader::read);
+        if (!header.isGeoreferenced()) {
+            throw new IllegalStateException("影像缺少地理参考，无法裁剪");
+        }
+        Integer epsg = header.getEpsgCode();
+        if (epsg == null) {
+            throw new IllegalStateException("影像坐标系不是 EPSG 坐标系，无法裁剪");
+        }
+        int bits = header.getBitsPerSample()[0];
+        if (bits < 8) {
+            throw new IllegalStateException("不支持裁剪 " + header.getDataType() + " 类型的影像");
+        }
+
+        double[] gt = header.getGeoTransform();
+        List<double[]> rings = gid != null ? regionRings(gid, epsg, gt) : bboxRing(bbox, bboxEpsg, epsg, gt);
+        int[] window = new PolygonRasterizer(rings).pixelBounds(header.getWidth(), header.getHeight());
+        if (window[2] <= window[0] || window[3] <= window[1]) {
+            throw new IllegalArgumentException("裁剪范围与影像不相交");
+        }
+
+        int width = window[2] - window[0];
+        int height = window[3] - window[1];
+        StreamingGeoTiffWriter writer = new StreamingGeoTiffWriter(width, height, header.getSamplesPerPixel(),
+                bits, header.getSampleFormat(), header.getPhotometric());
+        double[] origin = {window[0], window[1]};
+        GeoTiffHeader.pixelToWorld(gt, origin, 1);
+        writer.setGeoTransform(new double[]{origin[0], gt[1], gt[2], origin[1], gt[4], gt[5]});
+        writer.setGeoKeys(new HashMap<>(header.getGeoKeys()));
+        Double nodata = header.getNoData();
+        if (mask && nodata == null) {
+            // 原影像未定义 nodata 时，浮点数据用 NaN、整数数据用 0 表示掩膜以外的像元
+            nodata = header.getSampleFormat() == 3 ? Double.NaN : 0.0;
+        }
+        writer.setNoData(nodata);
+
+        String baseName = rasterData.getName().replaceFirst("\\.[^.]*$", "");
+        ClipPlan plan = new ClipPlan();
+        plan.oid = rasterData.getLoOid();
+        plan.header = header;
+        plan.window = window;
+        plan.rings = mask ? rings : null;
+        plan.fill = nodata != null ? nodata : 0;
+        plan.writer = writer;
+        plan.fileName = baseName + (gid != null ? "_region" + gid : "_clip") + ".tif";
+        return plan;
+    }
+
+    /**
+     * 把多幅影像按优先级镶嵌后裁剪，输出到 targetEpsg 坐标系
+     *
+     * @param baseName 输出文件名前缀
+     */
+    public ClipPlan planMosaic(List<Long> rasterIds, String baseName, double[] bbox, int bboxEpsg, Long gid,
+                               boolean mask, int targetEpsg, Double resolution, Resampling resampling)
+            throws IOException {
+        if ((bbox == null) == (gid == null)) {
+            throw new IllegalArgumentException("须指定 bbox 或 gid 之一");
+        }
+        ClipPlan plan = new ClipPlan();
+        plan.warp = rasterWarpService.plan(rasterIds, targetEpsg, resolution, resampling,
+                clipRings(bbox, bboxEpsg, gid, targetEpsg), mask);
+        plan.fileName = baseName + "_EPSG" + targetEpsg + (gid != null ? "_region" + gid : "_clip") + ".tif";
+        return plan;
+    }
+
+    /**
+     * 裁剪多边形在 epsg 坐标系中的坐标
+     */
+    public List<double[]> clipRings(double[] bbox, int bboxEpsg, Long gid, int epsg) throws IOException {
+        return gid != null ? regionRings(gid, epsg, null) : bboxRing(bbox, bboxEpsg, epsg, null);
+    }
+
+    /**
+     * 按计划读取窗口并写出 GeoTIFF
+     */
+    public void write(ClipPlan plan, OutputStream out) throws IOException {
+        if (plan.warp != null) {
+            rasterWarpService.write(plan.warp, out);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        rasterStorage.readImage(plan.oid, in -> {
+            ImageReader reader = RasterImages.openReader(in);
+            try {
+                writeWindow(reader, plan, out);
+            } finally {
+                reader.dispose();
+            }
+            return null;
+        });
+        log.info("栅格裁剪导出完成: {}, 窗口 {}x{}, {} 字节, 耗时 {} ms", plan.fileName,
+                plan.window[2] - plan.window[0], plan.window[3] - plan.window[1], plan.getLength(),
+                System.currentTimeMillis() - start);
+    }
+
+    private void writeWindow(ImageReader reader, ClipPlan plan, OutputStream out) throws IOException {
+        int[] window = plan.window;
+        int width = window[2] - window[0];
+        int blockHeight = Math.max(1, plan.header.getBlockHeight());
+        // 每段读取整数个分块行；单个分块行就超出预算时（如整幅一个条带）按预算行数读取
+        long blockRowPixels = (long) blockHeight * width;
+        int rowsPerRead = blockRowPixels <= readWindowPixels
+                ? (int) (readWindowPixels / blockRowPixels) * blockHeight
+                : (int) Math.max(1, readWindowPixels / width);
+        PolygonRasterizer rasterizer = plan.rings != null ? new PolygonRasterizer(plan.rings) : null;
+        BitSet mask = rasterizer != null ? new BitSet(width) : null;
+        ImageReadParam param = reader.getDefaultReadParam();
+        StreamingGeoTiffWriter writer = plan.writer;
+        writer.begin(out);
+        for (int row = window[1]; row < window[3]; ) {
+            int end = Math.min(window[3], (row / rowsPerRead + 1) * rowsPerRead);
+            Rectangle region = new Rectangle(window[0], row, width, end - row);
+            param.setSourceRegion(region);
+            Raster raster = reader.canReadRaster() ? reader.readRaster(0, param) : reader.read(0, param).getRaster();
+            for (int r = row; r < end; r++) {
+                if (rasterizer != null) {
+                    mask.clear();
+                    rasterizer.spans(r, window[0], window[2], (s, e) -> mask.set(s - window[0], e - window[0]));
+                }
+                writer.writeRow(raster, raster.getMinX(), raster.getMinY() + r - row, mask, plan.fill);
+            }
+            row = end;
+        }
+        writer.finish();
+    }
+
+    private List<double[]> regionRings(Long gid, int epsg, double[] gt) throws IOException {
+        SanqiRegion region = sanqiRegionMapper.findWktById(gid);
+        if (region == null || region.getGeom() == null) {
+            throw new IllegalArgumentException("未找到ID为" + gid + "的区域");
+        }
+        Geometry geometry;
+        try {
+            geometry = new WKTReader().read(region.getGeom());
+        } catch (ParseException e) {
+            throw new IOException("区域几何解析失败, gid: " + gid + ": " + e.getMessage(), e);
+        }
+        List<double[]> rings = new ArrayList<>();
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            Polygon polygon = (Polygon) geometry.getGeometryN(i);
+            rings.add(toPixels(polygon.getExteriorRing(), epsg, gt));
+            for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+                rings.add(toPixels(polygon.getInteriorRingN(j), epsg, gt));
+            }
+        }
+        return rings;
+    }
+
+    private static double[] toPixels(LineString ring, int epsg, double[] gt) throws IOException {
+        int n = ring.getNumPoints();
+        double[] xy = new double[n * 2];
+        for (int i = 0; i < n; i++) {
+            xy[2 * i] = ring.getCoordinateN(i).x;
+            xy[2 * i + 1] = ring.getCoordinateN(i).y;
+        }
+        CrsTransforms.transform(CrsTransforms.WGS84, epsg, xy, n);
+        if (gt != null) {
+            GeoTiffHeader.worldToPixel(gt, xy, n);
+        }
+        return xy;
+    }
+
+    private static List<double[]> bboxRing(double[] bbox, int bboxEpsg, int epsg, double[] gt) throws IOException {
+        if (bbox.length != 4 || !(bbox[0] < bbox[2]) || !(bbox[1] < bbox[3])) {
+            throw new IllegalArgumentException("bbox 须为 minX,minY,maxX,maxY 且最小值小于最大值");
+        }
+        int n = BBOX_EDGE_POINTS * 4;
+        double[] xy = new double[n * 2];
+        double[][] corners = {{bbox[0], bbox[1]}, {bbox[2], bbox[1]}, {bbox[2], bbox[3]}, {bbox[0], bbox[3]}};
+        for (int edge = 0; edge < 4; edge++) {
+            double[] a = corners[edge];
+            double[] b = corners[(edge + 1) % 4];
+            for (int i = 0; i < BBOX_EDGE_POINTS; i++) {
+                double t = (double) i / BBOX_EDGE_POINTS;
+                int k = edge * BBOX_EDGE_POINTS + i;
+                xy[2 * k] = a[0] + (b[0] - a[0]) * t;
+                xy[2 * k + 1] = a[1] + (b[1] - a[1]) * t;
+            }
+        }
+        CrsTransforms.transform(bboxEpsg, epsg, xy, n);
+        if (gt != null) {
+            GeoTiffHeader.worldToPixel(gt, xy, n);
+        }
+        List<double[]> rings = new ArrayList<>();
+        rings.add(xy);
+        return rings;
+    }
+
+    /**
+     * 裁剪计划：源对象、像元窗口 {minCol, minRow, maxCol, maxRow}、掩膜多边形与输出写入器，
+     * 重投影输出时只有 warp
+     */
+    public static class ClipPlan {
+        private long oid;
+        private GeoTiffHeader header;
+        private int[] window;
+        private List<double[]> rings;
+        private double fill;
+        private StreamingGeoTiffWriter writer;
+        private String fileName;
+        private RasterWarpService.WarpPlan warp;
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getLength() {
+            return warp != null ? warp.getLength() : writer.length();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package sanqibackend.sanqibackend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import sanqibackend.sanqibackend.utils.OverviewBuilder;
+import sanqibackend.sanqibackend.utils.ReaderBackedImage;
+import sanqibackend.sanqibackend.utils.StripCachedImage;
+import sanqibackend.sanqibackend.utils.StripFileImage;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.tiff.BaselineTIFFTagSet;
+import javax.imageio.plugins.tiff.TIFFDirectory;
+import javax.imageio.plugins.tiff.TIFFField;
+import javax.imageio.plugins.tiff.TIFFImageReadParam;
+import javax.imageio.plugins.tiff.TIFFTag;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+
+/**
+ * 将 GeoTIFF 转写为 Cloud-Optimized GeoTIFF 布局：内部分块 + 逐级 2 倍缩小的内部概览
+ *
+ * 使用 JDK 自带的 TIFF 读写插件（需要其 TIFFDirectory 元数据来复制 GeoTIFF 标签），
+ * 像元按瓦片行流式读取、写出，不会整体载入内存。源影像只在写出主影像时解码一次，
+ * 每一级概览在上一级写出的同时由其条带最近邻抽稀生成（暂存于临时文件），
+ * 一直生成到概览能装进单个分块为止；概览 IFD 的 NewSubfileType 为 1，不携带地理标签，与 GDAL 一致。
+ */
+@Component
+public class RasterCogConverter {
+
+    private static final Logger log = LoggerFactory.getLogger(RasterCogConverter.class);
+
+    private static final String JDK_TIFF_METADATA_FORMAT = "javax_imageio_tiff_image_1.0";
+
+    /**
+     * JDK TIFF 写出器不支持 BigTIFF，未压缩数据（含概览）超过该大小时放弃转换
+     */
+    private static final long CLASSIC_TIFF_LIMIT = 0xFFFFFFFFL - (64L << 20);
+
+    /**
+     * 需要从源文件复制到主影像的标签：GeoTIFF 的像元比例/控制点/变换矩阵/GeoKey，GDAL 的元数据与 NoData
+     */
+    private static final int[] GEO_TAGS = {33550, 33922, 34264, 34735, 34736, 34737, 42112, 42113};
+
+    private static final int TAG_GDAL_NODATA = 42113;
+
+    @Autowired
+    private RasterStorage rasterStorage;
+
+    @Value("${raster.import.cog.block-size:512}")
+    private int blockSize;
+
+    @Value("${raster.import.cog.compression:Deflate}")
+    private String compression;
+
+    /**
+     * 读取 sourceOid 中的 GeoTIFF，转写为 COG 并写入新的大对象
+     *
+     * @return 新大对象的 OID
+     */
+    public long convert(long sourceOid) throws IOException {
+        long start = System.currentTimeMillis();
+        long oid = rasterStorage.transform(sourceOid, this::convert);
+        log.info("已将大对象 {} 转写为 COG（新 OID: {}），耗时 {} ms", sourceOid, oid, System.currentTimeMillis() - start);
+        return oid;
+    }
+
+    /**
+     * 将输入流中的 TIFF 转写为 COG 布局写入输出流
+     */
+    public void convert(ImageInputStream in, ImageOutputStream out) throws IOException {
+        ImageReader reader = null;
+        ImageWriter writer = null;
+        OverviewBuilder builder = null;
+        StripFileImage overview = null;
+        try {
+            in.seek(0);
+            reader = jdkTiffReader();
+            reader.setInput(in, false, false);
+            TIFFDirectory source = readDirectory(reader);
+
+            ReaderBackedImage full = new ReaderBackedImage(reader, 0, 1, blockSize);
+            int levels = overviewCount(full.getWidth(), full.getHeight());
+            checkClassicTiffSize(full, levels);
+
+            writer = jdkTiffWriter();
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setTiling(blockSize, blockSize, 0, 0);
+            if (compression != null && !compression.isBlank()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionType(compression);
+            }
+
+            writer.prepareWriteSequence(null);
+            TIFFDirectory main = TIFFDirectory.createFromMetadata(
+                    writer.getDefaultImageMetadata(full.getImageType(), param));
+            for (int tag : GEO_TAGS) {
+                copyField(source, main, tag);
+            }
+            builder = nextLevel(full, levels > 0);
+            writer.writeToSequence(new IIOImage(full, null, main.getAsMetadata()), param);
+
+            for (int level = 1; level <= levels; level++) {
+                overview = builder.finish(blockSize);
+                builder = nextLevel(overview, level < levels);
+                writer.writeToSequence(new IIOImage(overview, null, overviewMetadata(writer, overview, param, source)), param);
+                overview.close();
+                overview = null;
+            }
+            writer.endWriteSequence();
+            out.flush();
+            log.info("COG 转写完成: {}x{}，分块 {}，压缩 {}，概览 {} 级",
+                    full.getWidth(), full.getHeight(), blockSize, compression, levels);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            closeQuietly(builder);
+            closeQuietly(overview);
+            if (writer != null) {
+                writer.dispose();
+            }
+            if (reader != null) {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 概览级数：逐级缩小一半，直到长边不超过一个分块
+     */
+    int overviewCount(int width, int height) {
+        int levels = 0;
+        long size = Math.max(width, height);
+        while (size > blockSize) {
+            size = (size + 1) / 2;
+            levels++;
+        }
+        return levels;
+    }
+
+    /**
+     * 需要下一级概览时，在 image 写出的同时由其条带生成
+     */
+    private OverviewBuilder nextLevel(StripCachedImage image, boolean needed) throws IOException {
+        if (!needed) {
+            return null;
+        }
+        OverviewBuilder builder = new OverviewBuilder(image.getImageType(), image.getWidth(), image.getHeight());
+        image.setStripListener(builder);
+        return builder;
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            log.warn("删除概览临时文件失败: {}", e.getMessage());
+        }
+    }
+
+    private void checkClassicTiffSize(ReaderBackedImage full, int levels) throws IOException {
+        int bits = 0;
+        for (int size : full.getSampleModel().getSampleSize()) {
+            bits += size;
+        }
+        // 概览总量约为原图的 1/3
+        long bytes = (long) full.getWidth() * full.getHeight() * ((bits + 7) / 8) * (levels > 0 ? 4 : 3) / 3;
+        if (bytes > CLASSIC_TIFF_LIMIT) {
+            throw new IOException("影像过大（约 " + (bytes >> 20) + " MB），超出经典 TIFF 的 4GB 上限，无法转写为 COG");
+        }
+    }
+
+    private IIOMetadata overviewMetadata(ImageWriter writer, StripCachedImage overview, ImageWriteParam param,
+                                         TIFFDirectory source) throws IOException {
+        TIFFDirectory dir = TIFFDirectory.createFromMetadata(
+                writer.getDefaultImageMetadata(overview.getImageType(), param));
+        BaselineTIFFTagSet baseline = BaselineTIFFTagSet.getInstance();
+        dir.addTIFFField(new TIFFField(baseline.getTag(BaselineTIFFTagSet.TAG_NEW_SUBFILE_TYPE), TIFFTag.TIFF_LONG, 1,
+                new long[]{BaselineTIFFTagSet.NEW_SUBFILE_TYPE_REDUCED_RESOLUTION}));
+        copyField(source, dir, TAG_GDAL_NODATA);
+        return dir.getAsMetadata();
+    }
+
+    /**
+     * 读取首个 IFD。JDK 读取器默认丢弃未登记的标签（GDAL_METADATA / GDAL_NODATA），
+     * 且只在 read 时接收 TIFFImageReadParam，因此先按保留未知标签的参数读取一个像元，使元数据按该参数解析
+     */
+    private TIFFDirectory readDirectory(ImageReader reader) throws IOException {
+        TIFFImageReadParam param = new TIFFImageReadParam();
+        param.setReadUnknownTags(true);
+        param.setSourceRegion(new Rectangle(0, 0, 1, 1));
+        reader.read(0, param);
+        return TIFFDirectory.createFromMetadata(reader.getImageMetadata(0));
+    }
+
+    private void copyField(TIFFDirectory from, TIFFDirectory to, int tag) {
+        TIFFField field = from.getTIFFField(tag);
+        if (field != null) {
+            to.addTIFFField(field);
+        }
+    }
+
+    private ImageReader jdkTiffReader() throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("tiff");
+        while (readers.hasNext()) {
+            ImageReader reader = readers.next();
+            if (JDK_TIFF_METADATA_FORMAT.equals(reader.getOriginatingProvider().getNativeImageMetadataFormatName())) {
+                return reader;
+            }
+        }
+        throw new IOException("未找到 JDK TIFF 读取插件");
+    }
+
+    private ImageWriter jdkTiffWriter() throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("tiff");
+        while (writers.hasNext()) {
+            ImageWriter writer = writers.next();
+            if (JDK_TIFF_METADATA_FORMAT.equals(writer.getOriginatingProvider().getNativeImageMetadataFormatName())
+                    && writer.canWriteSequence()) {
+                return writer;
+            }
+        }
+        throw new IOException("未找到 JDK TIFF 写出插件");
+    }
+}
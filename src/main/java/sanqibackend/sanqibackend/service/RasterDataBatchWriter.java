@@ -0,0 +1,73 @@
+package sanqibackend.sanqibackend.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import sanqibackend.sanqibackend.entity.RasterData;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 批量插入 raster_data 记录
+ *
+ * 单独作为一个 Bean，使 RasterDataService 的调用经过事务代理：一批记录要么全部插入，要么全部回滚，
+ * 调用方据此决定放弃整批还是继续收尾
+ */
+@Service
+public class RasterDataBatchWriter {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * 从序列中预取 ID 后用一次 JDBC 批量插入写入所有记录，ID 和创建时间回填到传入的对象上
+     */
+    @Transactional
+    public void insert(List<RasterData> rows) {
+        List<Long> ids = jdbcTemplate.queryForList(
+                "SELECT nextval('raster_data_id_seq') FROM generate_series(1, ?)", Long.class, rows.size());
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < rows.size(); i++) {
+            RasterData rasterData = rows.get(i);
+            rasterData.setId(ids.get(i));
+            rasterData.setCreatedAt(now);
+            rasterData.setUpdatedAt(now);
+        }
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO raster_data (id, name, description, file_size, raster_type, resolution, bands, data_type, "
+                        + "width, height, pixel_size_x, pixel_size_y, crs, nodata, min_x, min_y, max_x, max_y, lo_oid, "
+                        + "content_hash, cog, original_lo_oid, original_file_size, created_at, updated_at) "
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                rows, rows.size(), (ps, r) -> {
+                    ps.setLong(1, r.getId());
+                    ps.setString(2, r.getName());
+                    ps.setString(3, r.getDescription());
+                    ps.setObject(4, r.getFileSize(), Types.BIGINT);
+                    ps.setString(5, r.getRasterType());
+                    ps.setObject(6, r.getResolution(), Types.DOUBLE);
+                    ps.setObject(7, r.getBands(), Types.INTEGER);
+                    ps.setString(8, r.getDataType());
+                    ps.setObject(9, r.getWidth(), Types.INTEGER);
+                    ps.setObject(10, r.getHeight(), Types.INTEGER);
+                    ps.setObject(11, r.getPixelSizeX(), Types.DOUBLE);
+                    ps.setObject(12, r.getPixelSizeY(), Types.DOUBLE);
+                    ps.setString(13, r.getCrs());
+                    ps.setObject(14, r.getNodata(), Types.DOUBLE);
+                    ps.setObject(15, r.getMinX(), Types.DOUBLE);
+                    ps.setObject(16, r.getMinY(), Types.DOUBLE);
+                    ps.setObject(17, r.getMaxX(), Types.DOUBLE);
+                    ps.setObject(18, r.getMaxY(), Types.DOUBLE);
+                    ps.setObject(19, r.getLoOid(), Types.BIGINT);
+                    ps.setString(20, r.getContentHash());
+                    ps.setObject(21, r.getCog(), Types.BOOLEAN);
+                    ps.setObject(22, r.getOriginalLoOid(), Types.BIGINT);
+                    ps.setObject(23, r.getOriginalFileSize(), Types.BIGINT);
+                    ps.setTimestamp(24, Timestamp.valueOf(r.getCreatedAt()));
+                    ps.setTimestamp(25, Timestamp.valueOf(r.getUpdatedAt()));
+                });
+    }
+}
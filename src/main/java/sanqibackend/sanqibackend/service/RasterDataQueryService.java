@@ -0,0 +1,201 @@
+package sanqibackend.sanqibackend.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import sanqibackend.sanqibackend.entity.RasterDataSummary;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 栅格列表查询：只查询列表需要的列，按 (排序列, id) 做键集分页
+ *
+ * 游标编码了上一页最后一条记录的排序值和 id，翻页时用行比较
+ * (sort_col, id) &lt; (?, ?) 直接定位，不用 OFFSET，深翻页的代价与第一页相同。
+ * created_at 可能为空，排序与比较都按 1970-01-01 处理（见 idx_raster_data_created_at_sort），空值行排在最早。
+ */
+@Service
+public class RasterDataQueryService {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+
+    /**
+     * created_at 为空时参与排序和游标比较的值，须与 SortKey.CREATED_AT 的表达式一致
+     */
+    static final LocalDateTime NULL_CREATED_AT = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private static final String SUMMARY_COLUMNS = "r.id, r.name, r.description, r.file_size, r.raster_type, "
+            + "r.data_type, r.bands, r.width, r.height, r.resolution, r.crs, r.min_x, r.min_y, r.max_x, r.max_y, r.cog, "
+            + "t.raster_id IS NOT NULL AS has_thumbnail, t.content_hash AS thumbnail_hash, r.created_at, r.updated_at";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * 查询一页栅格摘要
+     *
+     * @param sort        排序字段：createdAt（默认）、id、name
+     * @param ascending   是否升序，默认按降序（最新的在前）
+     * @param cursor      上一页返回的 nextCursor，为空时从头查询
+     * @param name        名称包含的关键字（不区分大小写）
+     * @param rasterType  栅格类型，如 TIFF
+     * @param createdFrom 创建时间下限（含），可为日期或日期时间
+     * @param createdTo   创建时间上限，为日期时包含当天，为日期时间时不含
+     */
+    public Page list(String sort, boolean ascending, String cursor, int limit,
+                     String name, String rasterType, String createdFrom, String createdTo) {
+        SortKey key = SortKey.of(sort);
+        int size = Math.max(1, Math.min(limit, MAX_LIMIT));
+        StringBuilder sql = new StringBuilder("SELECT ").append(SUMMARY_COLUMNS)
+                .append(" FROM raster_data r LEFT JOIN raster_thumbnail t ON t.raster_id = r.id WHERE 1 = 1");
+        List<Object> args = new ArrayList<>();
+
+        if (name != null && !name.isBlank()) {
+            sql.append(" AND r.name ILIKE ? ESCAPE '\\'");
+            args.add("%" + name.trim().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+        }
+        if (rasterType != null && !rasterType.isBlank()) {
+            sql.append(" AND r.raster_type = ?");
+            args.add(rasterType.trim().toUpperCase(Locale.ROOT));
+        }
+        if (createdFrom != null && !createdFrom.isBlank()) {
+            sql.append(" AND r.created_at >= ?");
+            args.add(Timestamp.valueOf(parseDateTime(createdFrom, false)));
+        }
+        if (createdTo != null && !createdTo.isBlank()) {
+            sql.append(" AND r.created_at < ?");
+            args.add(Timestamp.valueOf(parseDateTime(createdTo, true)));
+        }
+        if (cursor != null && !cursor.isBlank()) {
+            Object[] position = decodeCursor(key, cursor);
+            String op = ascending ? ">" : "<";
+            if (key == SortKey.ID) {
+                sql.append(" AND r.id ").append(op).append(" ?");
+                args.add(position[1]);
+            } else {
+                sql.append(" AND (").append(key.expression).append(", r.id) ").append(op).append(" (?, ?)");
+                args.add(position[0]);
+                args.add(position[1]);
+            }
+        }
+        String direction = ascending ? " ASC" : " DESC";
+        sql.append(" ORDER BY ");
+        if (key != SortKey.ID) {
+            sql.append(key.expression).append(direction).append(", ");
+        }
+        sql.append("r.id").append(direction).append(" LIMIT ?");
+        args.add(size + 1);
+
+        List<RasterDataSummary> rows = jdbcTemplate.query(sql.toString(),
+                new BeanPropertyRowMapper<>(RasterDataSummary.class), args.toArray());
+        boolean hasMore = rows.size() > size;
+        List<RasterDataSummary> items = hasMore ? rows.subList(0, size) : rows;
+        String nextCursor = hasMore ? encodeCursor(key, items.get(items.size() - 1)) : null;
+        return new Page(new ArrayList<>(items), nextCursor, hasMore);
+    }
+
+    private static LocalDateTime parseDateTime(String value, boolean upperBound) {
+        String text = value.trim();
+        if (text.length() == 10) {
+            LocalDate date = LocalDate.parse(text);
+            return upperBound ? date.plusDays(1).atStartOfDay() : date.atStartOfDay();
+        }
+        return LocalDateTime.parse(text.replace(' ', 'T'));
+    }
+
+    static String encodeCursor(SortKey key, RasterDataSummary last) {
+        String value;
+        switch (key) {
+            case NAME:
+                value = last.getName();
+                break;
+            case CREATED_AT:
+                value = (last.getCreatedAt() != null ? last.getCreatedAt() : NULL_CREATED_AT).toString();
+                break;
+            default:
+                value = "";
+        }
+        String raw = last.getId() + ":" + value;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Object[] decodeCursor(SortKey key, String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.indexOf(':');
+            long id = Long.parseLong(raw.substring(0, sep));
+            String value = raw.substring(sep + 1);
+            switch (key) {
+                case NAME:
+                    return new Object[]{value, id};
+                case CREATED_AT:
+                    return new Object[]{Timestamp.valueOf(LocalDateTime.parse(value)), id};
+                default:
+                    return new Object[]{null, id};
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("无效的分页游标");
+        }
+    }
+
+    enum SortKey {
+        CREATED_AT("COALESCE(r.created_at, TIMESTAMP '1970-01-01 00:00:00')"),
+        ID("r.id"),
+        NAME("r.name");
+
+        private final String expression;
+
+        SortKey(String expression) {
+            this.expression = expression;
+        }
+
+        static SortKey of(String sort) {
+            if (sort == null || sort.isBlank() || "createdAt".equalsIgnoreCase(sort) || "created_at".equalsIgnoreCase(sort)) {
+                return CREATED_AT;
+            }
+            if ("id".equalsIgnoreCase(sort)) {
+                return ID;
+            }
+            if ("name".equalsIgnoreCase(sort)) {
+                return NAME;
+            }
+            throw new IllegalArgumentException("不支持的排序字段: " + sort);
+        }
+    }
+
+    /**
+     * 一页查询结果，hasMore 为 true 时用 nextCursor 查询下一页
+     */
+    public static class Page {
+        private final List<RasterDataSummary> items;
+        private final String nextCursor;
+        private final boolean hasMore;
+
+        public Page(List<RasterDataSummary> items, String nextCursor, boolean hasMore) {
+            this.items = items;
+            this.nextCursor = nextCursor;
+            this.hasMore = hasMore;
+        }
+
+        public List<RasterDataSummary> getItems() {
+            return items;
+        }
+
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
+        public boolean isHasMore() {
+            return hasMore;
+        }
+    }
+}
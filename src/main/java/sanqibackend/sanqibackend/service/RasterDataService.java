@@ -1,25 +1,30 @@
 package sanqibackend.sanqibackend.service;
 
+import sanqibackend.sanqibackend.entity.RasterBlob;
 import sanqibackend.sanqibackend.entity.RasterData;
 import sanqibackend.sanqibackend.repository.RasterDataRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.transaction.annotation.Transactional;
-import org.postgresql.largeobject.LargeObject;
-import org.postgresql.largeobject.LargeObjectManager;
-import org.springframework.jdbc.datasource.DataSourceUtils;
-import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.sql.Connection;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.io.OutputStream;
 import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
+import sanqibackend.sanqibackend.event.RasterDataDeletedEvent;
 import sanqibackend.sanqibackend.event.RasterDataImportedEvent;
 
 @Service
@@ -34,10 +39,31 @@ public class RasterDataService implements ApplicationEventPublisherAware {
     private JdbcTemplate jdbcTemplate;
     
     @Autowired
-    private DataSource dataSource;
-    
+    private RasterStorage rasterStorage;
+
+    @Autowired
+    private RasterCogConverter rasterCogConverter;
+
+    @Autowired
+    private RasterMetadataExtractor rasterMetadataExtractor;
+
+    @Autowired
+    private RasterBlobService rasterBlobService;
+
     @Autowired
     private RasterThumbnailService rasterThumbnailService;
+
+    @Autowired
+    private RasterDataBatchWriter rasterDataBatchWriter;
+
+    @Value("${raster.import.header-capture-bytes:1048576}")
+    private int headerCaptureBytes;
+
+    @Value("${raster.import.cog.enabled:false}")
+    private boolean cogEnabled;
+
+    @Value("${raster.import.cog.keep-original:true}")
+    private boolean cogKeepOriginal;
     
     private ApplicationEventPublisher eventPublisher;
 
@@ -49,79 +75,221 @@ public class RasterDataService implements ApplicationEventPublisherAware {
     /**
      * 导入栅格数据到数据库
      */
-    @Transactional
     public RasterData importRaster(MultipartFile file, String description) throws IOException {
+        return importRaster(file, description, null, null);
+    }
+
+    /**
+     * 导入栅格数据到数据库
+     *
+     * 大对象写入和 COG 转写各自在独立连接中提交，不放在同一个长事务里
+     *
+     * @param cog          是否转写为 COG，为空时使用配置默认值
+     * @param keepOriginal 转写为 COG 后是否保留原始文件，为空时使用配置默认值
+     */
+    public RasterData importRaster(MultipartFile file, String description, Boolean cog, Boolean keepOriginal) throws IOException {
         String originalFilename = file.getOriginalFilename();
         if (originalFilename == null) {
             throw new IllegalArgumentException("文件名不能为空");
         }
         log.info("开始导入栅格数据: {}", originalFilename);
         Long oid = null;
-        Connection conn = null;
-        long totalBytesWritten = 0;
-        try {
-            conn = DataSourceUtils.getConnection(dataSource);
-            conn.setAutoCommit(false);
-            LargeObjectManager lobj = conn.unwrap(org.postgresql.PGConnection.class).getLargeObjectAPI();
-            oid = lobj.createLO(LargeObjectManager.READ | LargeObjectManager.WRITE);
-            LargeObject obj = lobj.open(oid, LargeObjectManager.WRITE);
-            try (InputStream inputStream = file.getInputStream()) {
-                byte[] buf = new byte[4096];
-                int s;
-                while ((s = inputStream.read(buf, 0, buf.length)) > 0) {
-                    obj.write(buf, 0, s);
-                    totalBytesWritten += s;
-                }
+        long totalBytesWritten;
+        // 截留文件开头的字节用于解析元数据，避免导入后再读一遍大对象
+        byte[] head = new byte[headerCaptureBytes];
+        int headLength;
+        MessageDigest digest = RasterBlobService.newDigest();
+        try (InputStream inputStream = file.getInputStream()) {
+            headLength = inputStream.readNBytes(head, 0, head.length);
+            InputStream in = new DigestInputStream(new SequenceInputStream(
+                    new ByteArrayInputStream(head, 0, headLength), inputStream), digest);
+            oid = rasterStorage.create();
+            totalBytesWritten = rasterStorage.write(oid, 0, in, file.getSize());
+            if (totalBytesWritten != file.getSize()) {
+                log.error("导入文件大小不一致，原始: {}, 实际写入: {}", file.getSize(), totalBytesWritten);
+                throw new IOException("导入文件大小不一致，数据可能损坏");
             }
-            obj.close();
-            conn.commit();
         } catch (Exception e) {
-            if (conn != null) {
-                try { conn.rollback(); } catch (Exception ex) { log.error("回滚失败", ex); }
+            if (oid != null) {
+                rasterBlobService.unlinkQuietly(oid);
             }
             log.error("导入大对象失败: {}", e.getMessage(), e);
-            throw new IOException("导入大对象失败: " + e.getMessage(), e);
-        } finally {
-            if (conn != null) {
-                try { conn.close(); } catch (Exception e) { log.error("关闭连接失败", e); }
-            }
-        }
-        if (totalBytesWritten != file.getSize()) {
-            log.error("导入文件大小不一致，原始: {}, 实际写入: {}", file.getSize(), totalBytesWritten);
-            throw new IOException("导入文件大小不一致，数据可能损坏");
+            throw e instanceof IOException io ? io : new IOException("导入大对象失败: " + e.getMessage(), e);
         }
+        return importStoredRaster(originalFilename, description, oid, file.getSize(),
+                RasterBlobService.toHex(digest), head, headLength, cog, keepOriginal);
+    }
+
+    /**
+     * 对已写入大对象的文件执行导入流水线的后续阶段（解析元数据、内容去重、按需转写为 COG），然后登记栅格元数据
+     *
+     * 内容已存在时删除刚写入的大对象，新记录直接引用已有存储并沿用其缩略图。
+     * COG 转写失败时保留原始文件继续导入；不保留原始文件时，在元数据登记成功后才删除原始大对象
+     *
+     * @param contentHash 文件内容的 SHA-256（十六进制）
+     * @param head        写入时截留的文件开头字节，为空时从大对象读取文件头
+     * @param headLength  head 中的有效字节数
+     */
+    public RasterData importStoredRaster(String name, String description, Long oid, long fileSize,
+                                         String contentHash, byte[] head, int headLength,
+                                         Boolean cog, Boolean keepOriginal) throws IOException {
+        return registerStaged(stageStoredRaster(name, description, oid, fileSize, contentHash, head, headLength,
+                cog, keepOriginal));
+    }
+
+    /**
+     * 执行导入流水线中登记元数据之前的阶段，返回待登记的记录；此时已持有内容引用，
+     * 之后须调用 registerStaged / registerStagedBatch 登记，或在放弃时调用 abandonStaged
+     */
+    public StagedRaster stageStoredRaster(String name, String description, Long oid, long fileSize,
+                                          String contentHash, byte[] head, int headLength,
+                                          Boolean cog, Boolean keepOriginal) throws IOException {
         RasterData rasterData = new RasterData();
-        rasterData.setName(originalFilename);
+        rasterData.setName(name);
         rasterData.setDescription(description);
         rasterData.setLoOid(oid);
-        rasterData.setFileSize(file.getSize());
+        rasterData.setFileSize(fileSize);
+        rasterData.setCog(false);
+        rasterData.setContentHash(contentHash);
+
+        // 先按扩展名判断类型，能解析文件头时以文件头为准
+        rasterData.setRasterType(readRasterType(name));
+        rasterMetadataExtractor.extract(rasterData, head, headLength, oid);
+        String rasterType = rasterData.getRasterType();
+
+        RasterBlob existing = rasterBlobService.acquire(contentHash);
+        if (existing != null) {
+            log.info("文件内容已存在（SHA-256: {}），复用大对象 {}", contentHash, existing.getLoOid());
+            rasterBlobService.unlinkQuietly(oid);
+            return StagedRaster.duplicate(rasterData, existing);
+        }
+
+        boolean convert = cog != null ? cog : cogEnabled;
+        boolean keep = keepOriginal != null ? keepOriginal : cogKeepOriginal;
+        if (convert && "TIFF".equals(rasterType)) {
+            try {
+                long cogOid = rasterCogConverter.convert(oid);
+                rasterData.setLoOid(cogOid);
+                rasterData.setFileSize(rasterStorage.size(cogOid));
+                rasterData.setCog(true);
+                if (keep) {
+                    rasterData.setOriginalLoOid(oid);
+                    rasterData.setOriginalFileSize(fileSize);
+                }
+            } catch (IOException e) {
+                log.warn("COG 转写失败，按原始文件导入 {}: {}", name, e.getMessage());
+            }
+        }
+
+        RasterBlob blob = rasterBlobService.register(contentHash, rasterData);
+        if (!blob.getLoOid().equals(rasterData.getLoOid())) {
+            // 并发导入了相同内容且对方先完成登记，本次写入的大对象全部作废
+            log.info("文件内容已由并发导入登记（SHA-256: {}），复用大对象 {}", contentHash, blob.getLoOid());
+            rasterBlobService.unlinkQuietly(rasterData.getLoOid());
+            rasterBlobService.unlinkQuietly(rasterData.getOriginalLoOid());
+            if (!oid.equals(rasterData.getLoOid()) && !oid.equals(rasterData.getOriginalLoOid())) {
+                rasterBlobService.unlinkQuietly(oid);
+            }
+            return StagedRaster.duplicate(rasterData, blob);
+        }
+        return new StagedRaster(rasterData, false, rasterData.getCog() && !keep ? oid : null);
+    }
+
+    /**
+     * 登记一条待登记记录，元数据保存失败时放弃该记录，释放其内容引用
+     */
+    public RasterData registerStaged(StagedRaster staged) {
+        RasterData savedRasterData;
+        try {
+            savedRasterData = registerRaster(staged.getRasterData(), !staged.isDuplicate());
+        } catch (RuntimeException e) {
+            abandonStaged(staged);
+            throw e;
+        }
+        finishStaged(staged);
+        return savedRasterData;
+    }
+
+    /**
+     * 用一次 JDBC 批量插入登记多条待登记记录
+     *
+     * 插入在一个事务中完成，失败时整批回滚并放弃全部记录后抛出异常；插入成功后记录都已存在，
+     * 之后的事件发布与收尾失败只记录日志，不会放弃记录
+     */
+    public List<RasterData> registerStagedBatch(List<StagedRaster> batch) {
+        if (batch.isEmpty()) {
+            return List.of();
+        }
+        List<RasterData> rows = new ArrayList<>(batch.size());
+        for (StagedRaster staged : batch) {
+            rows.add(staged.getRasterData());
+        }
+        try {
+            rasterDataBatchWriter.insert(rows);
+        } catch (RuntimeException e) {
+            for (StagedRaster staged : batch) {
+                abandonStaged(staged);
+            }
+            throw e;
+        }
+        log.info("批量登记栅格数据 {} 条，ID: {} - {}", rows.size(), rows.get(0).getId(), rows.get(rows.size() - 1).getId());
+        for (StagedRaster staged : batch) {
+            if (!staged.isDuplicate()) {
+                try {
+                    eventPublisher.publishEvent(new RasterDataImportedEvent(staged.getRasterData().getId()));
+                } catch (RuntimeException e) {
+                    log.warn("栅格数据 {} 发布导入事件失败: {}", staged.getRasterData().getId(), e.getMessage());
+                }
+            }
+            finishStaged(staged);
+        }
+        return rows;
+    }
 
-        // 读取栅格数据的类型
-        String rasterType = readRasterType(file);
-        rasterData.setRasterType(rasterType);
+    /**
+     * 放弃一条待登记记录：释放其内容引用（引用归零时删除大对象）并删除不再保留的原始大对象
+     */
+    public void abandonStaged(StagedRaster staged) {
+        rasterBlobService.release(staged.getRasterData().getContentHash());
+        rasterBlobService.unlinkQuietly(staged.getObsoleteOid());
+    }
 
+    /**
+     * 登记之后的收尾：同内容的记录已有缩略图时直接复制，不再生成；删除不再保留的原始大对象。
+     * 此时记录已经提交，收尾失败只记录日志，不能再放弃该记录
+     */
+    private void finishStaged(StagedRaster staged) {
+        RasterData rasterData = staged.getRasterData();
+        try {
+            if (staged.isDuplicate()
+                    && !rasterThumbnailService.copySharedThumbnail(rasterData.getId(), rasterData.getContentHash())) {
+                eventPublisher.publishEvent(new RasterDataImportedEvent(rasterData.getId()));
+            }
+        } catch (RuntimeException e) {
+            log.warn("栅格数据 {} 复用缩略图失败: {}", rasterData.getId(), e.getMessage());
+        }
+        rasterBlobService.unlinkQuietly(staged.getObsoleteOid());
+    }
+
+    /**
+     * 保存栅格元数据，按需发布导入事件触发缩略图生成等后续处理
+     */
+    public RasterData registerRaster(RasterData rasterData, boolean generateThumbnail) {
         RasterData savedRasterData = rasterDataRepository.save(rasterData);
         log.info("栅格数据已成功导入到数据库，ID: {}", savedRasterData.getId());
         
-        // 发布事件
-        eventPublisher.publishEvent(new RasterDataImportedEvent(savedRasterData.getId()));
-        
-        // 触发缩略图生成
-        try {
-            rasterThumbnailService.generateAndSaveThumbnail(savedRasterData.getId());
-            log.info("缩略图生成成功");
-        } catch (Exception e) {
-            log.error("缩略图生成失败: {}", e.getMessage(), e);
+        if (generateThumbnail) {
+            // save 已在自身事务中提交，监听器没有外层事务时立即执行，由缩略图任务队列异步生成缩略图
+            eventPublisher.publishEvent(new RasterDataImportedEvent(savedRasterData.getId()));
         }
-        
+
         return savedRasterData;
     }
 
     /**
      * 新增方法：读取栅格数据的类型
      */
-    private String readRasterType(MultipartFile file) throws IOException {
-        String originalFilename = file.getOriginalFilename();
+    private String readRasterType(String originalFilename) {
         if (originalFilename == null) {
             return ""; // 如果没有文件名，返回空字符串
         }
@@ -150,7 +318,7 @@ public class RasterDataService implements ApplicationEventPublisherAware {
      */
     public RasterData importRaster(MultipartFile file, String description, String directory) throws IOException {
         log.info("使用三参数版本的importRaster方法，directory参数将被忽略");
-        return importRaster(file, description);
+        return importRaster(file, description, null, null);
     }
     
     /**
@@ -165,34 +333,30 @@ public class RasterDataService implements ApplicationEventPublisherAware {
             throw new IllegalStateException("数据库未保存大对象 OID，无法导出");
         }
 
-        Connection conn = null;
-        try {
-            conn = DataSourceUtils.getConnection(dataSource);
-            conn.setAutoCommit(false);
-            LargeObjectManager lobj = conn.unwrap(org.postgresql.PGConnection.class).getLargeObjectAPI();
-            LargeObject obj = lobj.open(oid, LargeObjectManager.READ);
-            try (OutputStream out = new FileOutputStream(outputPath)) {
-                byte[] buf = new byte[4096];
-                int s;
-                while ((s = obj.read(buf, 0, buf.length)) > 0) {
-                    out.write(buf, 0, s);
-                }
-            }
-            obj.close();
-            conn.commit();
-        } catch (Exception e) {
-            if (conn != null) {
-                try { conn.rollback(); } catch (Exception ex) { /* 忽略 */ }
-            }
+        try (OutputStream out = new FileOutputStream(outputPath)) {
+            rasterStorage.read(oid, 0, rasterStorage.size(oid), out);
+        } catch (IOException e) {
             throw new IOException("导出大对象失败: " + e.getMessage(), e);
-        } finally {
-            if (conn != null) {
-                try { conn.close(); } catch (Exception e) { /* 忽略 */ }
-            }
         }
         return outputPath;
     }
     
+    /**
+     * 将大对象中从 offset 开始的 length 个字节直接写入输出流，用于 HTTP 下载。
+     * 大对象通过 seek64 定位并按 raster.io.buffer-size 分块读取；文件系统存储不占用数据库连接，
+     * 但 Servlet 输出流不是通道，仍经缓冲区复制，能走 sendfile 时应优先使用 localRasterFile。
+     */
+    public void streamRaster(long oid, long offset, long length, OutputStream out) throws IOException {
+        rasterStorage.read(oid, offset, length, out);
+    }
+
+    /**
+     * 存储对象以本地文件保存时返回其路径，否则返回 null
+     */
+    public Path localRasterFile(long oid) throws IOException {
+        return rasterStorage.localFile(oid);
+    }
+    
     /**
      * 获取所有栅格数据
      */
@@ -214,9 +378,17 @@ public class RasterDataService implements ApplicationEventPublisherAware {
     @Transactional
     public void deleteRasterData(Long id) {
         try {
-            // 直接删除主表记录
+            RasterData rasterData = rasterDataRepository.findById(id).orElse(null);
+            String contentHash = rasterData != null ? rasterData.getContentHash() : null;
             rasterDataRepository.deleteById(id);
+            // 在同一事务中释放内容引用并删除不再被引用的大对象，删除失败回滚时大对象也保留
+            if (contentHash != null) {
+                rasterBlobService.release(contentHash);
+            } else if (rasterData != null) {
+                rasterBlobService.releaseUnmanaged(id, rasterData.getLoOid(), rasterData.getOriginalLoOid());
+            }
             log.info("成功删除栅格数据记录，ID: {}", id);
+            eventPublisher.publishEvent(new RasterDataDeletedEvent(id, contentHash));
         } catch (Exception e) {
             log.error("删除栅格数据失败: {}", e.getMessage(), e);
             throw new RuntimeException("删除栅格数据失败: " + e.getMessage(), e);
@@ -229,4 +401,46 @@ public class RasterDataService implements ApplicationEventPublisherAware {
     public RasterData saveRasterData(RasterData rasterData) {
         return rasterDataRepository.save(rasterData);
     }
-}
\ No newline at end of file
+
+    /**
+     * 已完成存储阶段、等待登记元数据的栅格记录
+     */
+    public static class StagedRaster {
+        private final RasterData rasterData;
+        private final boolean duplicate;
+        private final Long obsoleteOid;
+
+        public StagedRaster(RasterData rasterData, boolean duplicate, Long obsoleteOid) {
+            this.rasterData = rasterData;
+            this.duplicate = duplicate;
+            this.obsoleteOid = obsoleteOid;
+        }
+
+        /**
+         * 引用已有存储的记录
+         */
+        static StagedRaster duplicate(RasterData rasterData, RasterBlob blob) {
+            rasterData.setLoOid(blob.getLoOid());
+            rasterData.setFileSize(blob.getFileSize());
+            rasterData.setCog(Boolean.TRUE.equals(blob.getCog()));
+            rasterData.setOriginalLoOid(blob.getOriginalLoOid());
+            rasterData.setOriginalFileSize(blob.getOriginalFileSize());
+            return new StagedRaster(rasterData, true, null);
+        }
+
+        public RasterData getRasterData() {
+            return rasterData;
+        }
+
+        public boolean isDuplicate() {
+            return duplicate;
+        }
+
+        /**
+         * 转写为 COG 且不保留原始文件时，登记成功后需删除的原始大对象
+         */
+        public Long getObsoleteOid() {
+            return obsoleteOid;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package sanqibackend.sanqibackend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import sanqibackend.sanqibackend.entity.RasterData;
+import sanqibackend.sanqibackend.utils.GeoTiffHeader;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * 从文件头解析栅格元数据：格式、波段数、数据类型、尺寸、像元大小、坐标系、NoData 与外包框
+ *
+ * 导入时文件开头的字节在写入大对象的同一遍流式读取中被截留下来，优先只解析这段内存数据；
+ * 只有 TIFF 的 IFD 或标签值位于截留范围之外时，才按偏移从大对象中读取头部所需的少量字节。
+ */
+@Component
+public class RasterMetadataExtractor {
+
+    private static final Logger log = LoggerFactory.getLogger(RasterMetadataExtractor.class);
+
+    @Autowired
+    private RasterStorage rasterStorage;
+
+    /**
+     * 解析元数据并填充到 rasterData，解析失败时只记录日志，保留按扩展名判断的类型
+     *
+     * @param head       导入时截留的文件开头字节，为空时直接从大对象读取
+     * @param headLength head 中的有效字节数
+     * @param oid        文件所在的大对象
+     */
+    public void extract(RasterData rasterData, byte[] head, int headLength, long oid) {
+        if (head != null && headLength > 0) {
+            try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(head, 0, headLength))) {
+                extract(rasterData, in);
+                return;
+            } catch (IOException e) {
+                log.debug("文件头超出截留范围，改为从大对象读取: {}", e.getMessage());
+            }
+        }
+        try {
+            rasterStorage.readImage(oid, in -> {
+                extract(rasterData, in);
+                return null;
+            });
+        } catch (IOException e) {
+            log.warn("解析栅格元数据失败 {}: {}", rasterData.getName(), e.getMessage());
+        }
+    }
+
+    private void extract(RasterData rasterData, ImageInputStream in) throws IOException {
+        byte[] magic = new byte[8];
+        in.seek(0);
+        int n = in.read(magic);
+        if (GeoTiffHeader.isTiff(magic, n)) {
+            applyTiff(rasterData, GeoTiffHeader.read(in));
+        } else if (n >= 8 && (magic[0] & 0xff) == 0x89 && magic[1] == 'P' && magic[2] == 'N' && magic[3] == 'G') {
+            rasterData.setRasterType("PNG");
+            applyImage(rasterData, in);
+        } else if (n >= 3 && (magic[0] & 0xff) == 0xFF && (magic[1] & 0xff) == 0xD8 && (magic[2] & 0xff) == 0xFF) {
+            rasterData.setRasterType("JPEG");
+            applyImage(rasterData, in);
+        }
+    }
+
+    private void applyTiff(RasterData rasterData, GeoTiffHeader header) {
+        rasterData.setRasterType("TIFF");
+        rasterData.setWidth(header.getWidth());
+        rasterData.setHeight(header.getHeight());
+        rasterData.setBands(header.getSamplesPerPixel());
+        rasterData.setDataType(header.getDataType());
+        rasterData.setNodata(header.getNoData());
+        Integer epsg = header.getEpsgCode();
+        rasterData.setCrs(epsg != null ? "EPSG:" + epsg : null);
+        double[] gt = header.getGeoTransform();
+        if (gt != null) {
+            // 带旋转的仿射变换按行列方向的长度计算像元大小
+            double pixelSizeX = Math.hypot(gt[1], gt[4]);
+            double pixelSizeY = Math.hypot(gt[2], gt[5]);
+            rasterData.setPixelSizeX(pixelSizeX);
+            rasterData.setPixelSizeY(pixelSizeY);
+            rasterData.setResolution(pixelSizeX);
+            double[] bounds = header.getBounds();
+            rasterData.setMinX(bounds[0]);
+            rasterData.setMinY(bounds[1]);
+            rasterData.setMaxX(bounds[2]);
+            rasterData.setMaxY(bounds[3]);
+        }
+    }
+
+    private void applyImage(RasterData rasterData, ImageInputStream in) throws IOException {
+        in.seek(0);
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            return;
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(in, true, true);
+            rasterData.setWidth(reader.getWidth(0));
+            rasterData.setHeight(reader.getHeight(0));
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            if (types.hasNext()) {
+                ImageTypeSpecifier type = types.next();
+                rasterData.setBands(type.getNumBands());
+                rasterData.setDataType(type.getBitsPerBand(0) > 8 ? "UInt16" : "Byte");
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+}
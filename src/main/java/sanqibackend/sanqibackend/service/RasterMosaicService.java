@@ -0,0 +1,560 @@
+package sanqibackend.sanqibackend.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import sanqibackend.sanqibackend.entity.RasterData;
+import sanqibackend.sanqibackend.entity.RasterMosaic;
+import sanqibackend.sanqibackend.entity.RasterMosaicMember;
+import sanqibackend.sanqibackend.entity.RasterSampleResult;
+import sanqibackend.sanqibackend.entity.SamplePoint;
+import sanqibackend.sanqibackend.event.RasterDataDeletedEvent;
+import sanqibackend.sanqibackend.utils.CrsTransforms;
+import sanqibackend.sanqibackend.utils.GeoTiffHeader;
+import sanqibackend.sanqibackend.utils.RasterImages;
+import sanqibackend.sanqibackend.utils.Resampling;
+import sanqibackend.sanqibackend.utils.WebMercator;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 虚拟镶嵌：把多幅相邻的栅格当作一幅影像提供瓦片、采样和裁剪
+ *
+ * 镶嵌只保存成员列表和各成员的经纬度外包框，不生成合并文件。每个镶嵌在内存中按成员外包框建立 STR 树，
+ * 请求先用请求范围查询出相交的成员，只读取这些成员，多个成员并行处理；
+ * 成员重叠时 sortOrder 靠前的成员优先，其 nodata 像元由后面的成员补齐。
+ */
+@Service
+public class RasterMosaicService {
+
+    private static final Logger log = LoggerFactory.getLogger(RasterMosaicService.class);
+
+    /**
+     * 影像每条边加密的点数，用于计算成员的经纬度外包框
+     */
+    private static final int EDGE_SAMPLES = 16;
+
+    private static final String MOSAIC_COLUMNS = "id, name, description, created_at, updated_at";
+
+    private static final String MEMBER_COLUMNS =
+            "mosaic_id, raster_id, sort_order, epsg, min_lon, min_lat, max_lon, max_lat";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private RasterDataService rasterDataService;
+
+    @Autowired
+    private RasterStorage rasterStorage;
+
+    @Autowired
+    private RasterTileService rasterTileService;
+
+    @Autowired
+    private RasterSampleService rasterSampleService;
+
+    @Autowired
+    private RasterClipService rasterClipService;
+
+    @Value("${raster.mosaic.parallelism:8}")
+    private int parallelism;
+
+    @Value("${raster.mosaic.max-members:1000}")
+    private int maxMembers;
+
+    @Value("${raster.sample.max-points:100000}")
+    private int maxPoints;
+
+    private ExecutorService executor;
+
+    private final Map<Long, MosaicIndex> indexes = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread t = new Thread(r, "raster-mosaic-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 创建镶嵌，成员顺序即优先级
+     */
+    public RasterMosaic create(String name, String description, List<Long> rasterIds) throws IOException {
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("镶嵌名称不能为空");
+        }
+        List<RasterMosaicMember> members = buildMembers(rasterIds);
+        Long id;
+        try {
+            id = transactionTemplate.execute(status -> {
+                Long mosaicId = jdbcTemplate.queryForObject(
+                        "INSERT INTO raster_mosaic (name, description, created_at, updated_at) "
+                                + "VALUES (?, ?, now(), now()) RETURNING id",
+                        Long.class, name.trim(), description);
+                insertMembers(mosaicId, members);
+                return mosaicId;
+            });
+        } catch (DuplicateKeyException e) {
+            throw new IllegalArgumentException("镶嵌名称已存在: " + name);
+        }
+        log.info("创建镶嵌 {}（{}），成员 {} 幅", id, name, members.size());
+        return get(id);
+    }
+
+    /**
+     * 替换镶嵌的全部成员
+     */
+    public RasterMosaic updateMembers(Long id, List<Long> rasterIds) throws IOException {
+        get(id);
+        List<RasterMosaicMember> members = buildMembers(rasterIds);
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("DELETE FROM raster_mosaic_member WHERE mosaic_id = ?", id);
+            insertMembers(id, members);
+            jdbcTemplate.update("UPDATE raster_mosaic SET updated_at = now() WHERE id = ?", id);
+        });
+        indexes.remove(id);
+        log.info("更新镶嵌 {} 的成员，共 {} 幅", id, members.size());
+        return get(id);
+    }
+
+    public RasterMosaic get(Long id) {
+        List<RasterMosaic> mosaics = jdbcTemplate.query(
+                "SELECT " + MOSAIC_COLUMNS + " FROM raster_mosaic WHERE id = ?",
+                new BeanPropertyRowMapper<>(RasterMosaic.class), id);
+        if (mosaics.isEmpty()) {
+            throw new IllegalArgumentException("未找到ID为" + id + "的镶嵌");
+        }
+        RasterMosaic mosaic = mosaics.get(0);
+        mosaic.setMembers(findMembers(id));
+        return mosaic;
+    }
+
+    public List<RasterMosaic> list() {
+        List<RasterMosaic> mosaics = jdbcTemplate.query(
+                "SELECT " + MOSAIC_COLUMNS + " FROM raster_mosaic ORDER BY id",
+                new BeanPropertyRowMapper<>(RasterMosaic.class));
+        Map<Long, RasterMosaic> byId = new HashMap<>();
+        for (RasterMosaic mosaic : mosaics) {
+            mosaic.setMembers(new ArrayList<>());
+            byId.put(mosaic.getId(), mosaic);
+        }
+        for (RasterMosaicMember member : jdbcTemplate.query(
+                "SELECT " + MEMBER_COLUMNS + " FROM raster_mosaic_member ORDER BY mosaic_id, sort_order",
+                new BeanPropertyRowMapper<>(RasterMosaicMember.class))) {
+            RasterMosaic mosaic = byId.get(member.getMosaicId());
+            if (mosaic != null) {
+                mosaic.getMembers().add(member);
+            }
+        }
+        return mosaics;
+    }
+
+    public void delete(Long id) {
+        if (jdbcTemplate.update("DELETE FROM raster_mosaic WHERE id = ?", id) == 0) {
+            throw new IllegalArgumentException("未找到ID为" + id + "的镶嵌");
+        }
+        indexes.remove(id);
+        log.info("删除镶嵌 {}", id);
+    }
+
+    /**
+     * 镶嵌的 PNG 瓦片：并行获取相交成员的瓦片（沿用单幅栅格的瓦片缓存），按优先级叠加
+     */
+    public byte[] getTile(Long id, int z, int x, int y, Resampling resampling) throws IOException {
+        if (!WebMercator.isValidTile(z, x, y)) {
+            throw new IllegalArgumentException("无效的瓦片行列号: " + z + "/" + x + "/" + y);
+        }
+        double[] bounds = WebMercator.tileBounds(z, x, y);
+        double[] corners = {bounds[0], bounds[1], bounds[2], bounds[3]};
+        CrsTransforms.transform(CrsTransforms.WEB_MERCATOR, CrsTransforms.WGS84, corners, 2);
+        List<RasterMosaicMember> members = index(id).query(new Envelope(corners[0], corners[2], corners[1], corners[3]));
+        if (members.isEmpty()) {
+            return rasterTileService.getEmptyTile();
+        }
+        if (members.size() == 1) {
+            return rasterTileService.getTile(members.get(0).getRasterId(), z, x, y, resampling);
+        }
+
+        List<CompletableFuture<byte[]>> tiles = new ArrayList<>(members.size());
+        for (RasterMosaicMember member : members) {
+            tiles.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return rasterTileService.getTile(member.getRasterId(), z, x, y, resampling);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        BufferedImage composite = new BufferedImage(WebMercator.TILE_SIZE, WebMercator.TILE_SIZE,
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = composite.createGraphics();
+        try {
+            // 从优先级最低的成员开始绘制，靠前成员的有效像元覆盖在上面，透明（nodata）处露出下层
+            for (int i = tiles.size() - 1; i >= 0; i--) {
+                byte[] png = join(tiles.get(i));
+                if (png != rasterTileService.getEmptyTile()) {
+                    g.drawImage(ImageIO.read(new ByteArrayInputStream(png)), 0, 0, null);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        return RasterImages.encodePng(composite);
+    }
+
+    /**
+     * 镶嵌采样：点按外包框分配给相交的成员，各成员并行采样；
+     * 点落在成员范围外或取到 nodata 时依次尝试下一个相交的成员
+     */
+    public MosaicSampleBatch sample(Long id, List<SamplePoint> points, int sourceEpsg) throws IOException {
+        if (points == null || points.isEmpty()) {
+            throw new IllegalArgumentException("采样点不能为空");
+        }
+        if (points.size() > maxPoints) {
+            throw new IllegalArgumentException("采样点数量超过上限 " + maxPoints);
+        }
+        MosaicIndex index = index(id);
+        long start = System.currentTimeMillis();
+        int n = points.size();
+        double[] xy = new double[n * 2];
+        for (int i = 0; i < n; i++) {
+            SamplePoint point = points.get(i);
+            if (point.getLon() == null || point.getLat() == null) {
+                throw new IllegalArgumentException("第 " + (i + 1) + " 个采样点缺少坐标");
+            }
+            xy[2 * i] = point.getLon();
+            xy[2 * i + 1] = point.getLat();
+        }
+        CrsTransforms.transform(sourceEpsg, CrsTransforms.WGS84, xy, n);
+
+        RasterSampleResult[] results = new RasterSampleResult[n];
+        List<List<RasterMosaicMember>> candidates = new ArrayList<>(n);
+        int[] cursor = new int[n];
+        for (int i = 0; i < n; i++) {
+            candidates.add(index.query(new Envelope(xy[2 * i], xy[2 * i], xy[2 * i + 1], xy[2 * i + 1])));
+        }
+        int blocksRead = 0;
+        LinkedHashSet<Long> rastersRead = new LinkedHashSet<>();
+        while (true) {
+            // 本轮每个未决的点交给其下一个候选成员
+            Map<Long, List<Integer>> groups = new LinkedHashMap<>();
+            for (int i = 0; i < n; i++) {
+                if (cursor[i] < candidates.get(i).size()) {
+                    groups.computeIfAbsent(candidates.get(i).get(cursor[i]).getRasterId(), k -> new ArrayList<>()).add(i);
+                }
+            }
+            if (groups.isEmpty()) {
+                break;
+            }
+            Map<Long, CompletableFuture<RasterSampleService.SampleBatch>> batches = new LinkedHashMap<>();
+            for (Map.Entry<Long, List<Integer>> group : groups.entrySet()) {
+                List<SamplePoint> subset = new ArrayList<>(group.getValue().size());
+                for (int i : group.getValue()) {
+                    subset.add(points.get(i));
+                }
+                batches.put(group.getKey(), CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return rasterSampleService.sample(group.getKey(), subset, sourceEpsg);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, executor));
+            }
+            for (Map.Entry<Long, List<Integer>> group : groups.entrySet()) {
+                RasterSampleService.SampleBatch batch = join(batches.get(group.getKey()));
+                blocksRead += batch.getBlocksRead();
+                rastersRead.add(group.getKey());
+                List<Integer> indices = group.getValue();
+                for (int k = 0; k < indices.size(); k++) {
+                    int i = indices.get(k);
+                    RasterSampleResult result = batch.getResults().get(k);
+                    result.setRasterId(group.getKey());
+                    if (results[i] == null || result.isInside() && !results[i].isInside()) {
+                        results[i] = result;
+                    }
+                    if (result.isInside() && !result.isNodata()) {
+                        results[i] = result;
+                        cursor[i] = candidates.get(i).size();
+                    } else {
+                        cursor[i]++;
+                    }
+                }
+            }
+        }
+        List<RasterSampleResult> merged = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            RasterSampleResult result = results[i];
+            if (result == null) {
+                SamplePoint point = points.get(i);
+                result = new RasterSampleResult();
+                result.setId(point.getId());
+                result.setLon(point.getLon());
+                result.setLat(point.getLat());
+            }
+            merged.add(result);
+        }
+        log.info("镶嵌采样完成, ID: {}, 点数: {}, 读取栅格: {}, 读取分块: {}, 耗时: {} ms",
+                id, n, rastersRead.size(), blocksRead, System.currentTimeMillis() - start);
+        return new MosaicSampleBatch(merged, blocksRead, rastersRead.size());
+    }
+
+    /**
+     * 镶嵌裁剪：只把与裁剪范围相交的成员交给重投影输出，未指定坐标系时使用优先级最高的成员的坐标系
+     */
+    public RasterClipService.ClipPlan planClip(Long id, double[] bbox, int bboxEpsg, Long gid, boolean mask,
+                                               Integer targetEpsg, Double resolution, Resampling resampling)
+            throws IOException {
+        if ((bbox == null) == (gid == null)) {
+            throw new IllegalArgumentException("须指定 bbox 或 gid 之一");
+        }
+        RasterMosaic mosaic = get(id);
+        Envelope window = new Envelope();
+        for (double[] ring : rasterClipService.clipRings(bbox, bboxEpsg, gid, CrsTransforms.WGS84)) {
+            for (int i = 0; i + 1 < ring.length; i += 2) {
+                if (Double.isFinite(ring[i]) && Double.isFinite(ring[i + 1])) {
+                    window.expandToInclude(ring[i], ring[i + 1]);
+                }
+            }
+        }
+        List<RasterMosaicMember> members = index(id).query(window);
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("裁剪范围内没有镶嵌成员");
+        }
+        List<Long> rasterIds = members.stream().map(RasterMosaicMember::getRasterId).toList();
+        int epsg = targetEpsg != null ? targetEpsg : members.get(0).getEpsg();
+        log.info("镶嵌 {} 裁剪范围内有 {} 幅成员", id, rasterIds.size());
+        return rasterClipService.planMosaic(rasterIds, mosaic.getName(), bbox, bboxEpsg, gid, mask,
+                epsg, resolution, resampling);
+    }
+
+    /**
+     * 栅格删除后成员记录随之级联删除，丢弃全部空间索引
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void handleRasterDataDeletedEvent(RasterDataDeletedEvent event) {
+        indexes.clear();
+    }
+
+    private MosaicIndex index(Long id) {
+        MosaicIndex index = indexes.get(id);
+        if (index == null) {
+            get(id);
+            index = new MosaicIndex(findMembers(id));
+            indexes.put(id, index);
+        }
+        return index;
+    }
+
+    private List<RasterMosaicMember> findMembers(Long mosaicId) {
+        return jdbcTemplate.query(
+                "SELECT " + MEMBER_COLUMNS + " FROM raster_mosaic_member WHERE mosaic_id = ? ORDER BY sort_order",
+                new BeanPropertyRowMapper<>(RasterMosaicMember.class), mosaicId);
+    }
+
+    private void insertMembers(Long mosaicId, List<RasterMosaicMember> members) {
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO raster_mosaic_member (" + MEMBER_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+                members, members.size(), (ps, member) -> {
+                    ps.setLong(1, mosaicId);
+                    ps.setLong(2, member.getRasterId());
+                    ps.setInt(3, member.getSortOrder());
+                    ps.setInt(4, member.getEpsg());
+                    ps.setDouble(5, member.getMinLon());
+                    ps.setDouble(6, member.getMinLat());
+                    ps.setDouble(7, member.getMaxLon());
+                    ps.setDouble(8, member.getMaxLat());
+                });
+    }
+
+    /**
+     * 读取各成员的头信息，计算经纬度外包框并检查波段数与数据类型一致
+     */
+    private List<RasterMosaicMember> buildMembers(List<Long> rasterIds) throws IOException {
+        if (rasterIds == null || rasterIds.isEmpty()) {
+            throw new IllegalArgumentException("镶嵌成员不能为空");
+        }
+        if (rasterIds.size() > maxMembers) {
+            throw new IllegalArgumentException("镶嵌成员数量超过上限 " + maxMembers);
+        }
+        if (new LinkedHashSet<>(rasterIds).size() != rasterIds.size()) {
+            throw new IllegalArgumentException("镶嵌成员不能重复");
+        }
+        List<RasterMosaicMember> members = new ArrayList<>(rasterIds.size());
+        GeoTiffHeader first = null;
+        for (Long rasterId : rasterIds) {
+            RasterData rasterData = rasterDataService.getRasterDataById(rasterId);
+            if (rasterData.getLoOid() == null) {
+                throw new IllegalStateException("栅格 " + rasterId + " 未保存大对象 OID");
+            }
+            GeoTiffHeader header = rasterStorage.readImage(rasterData.getLoOid(), GeoTiffHeader::read);
+            Integer epsg = header.getEpsgCode();
+            if (!header.isGeoreferenced() || epsg == null) {
+                throw new IllegalStateException("栅格 " + rasterId + " 缺少地理参考或 EPSG 坐标系信息");
+            }
+            if (first == null) {
+                first = header;
+            } else if (first.getSamplesPerPixel() != header.getSamplesPerPixel()
+                    || first.getBitsPerSample()[0] != header.getBitsPerSample()[0]
+                    || first.getSampleFormat() != header.getSampleFormat()) {
+                throw new IllegalStateException("栅格 " + rasterId + " 的波段数或数据类型与第一幅成员不一致");
+            }
+            double[] bounds = lonLatBounds(header, epsg);
+            RasterMosaicMember member = new RasterMosaicMember();
+            member.setRasterId(rasterId);
+            member.setSortOrder(members.size());
+            member.setEpsg(epsg);
+            member.setMinLon(bounds[0]);
+            member.setMinLat(bounds[1]);
+            member.setMaxLon(bounds[2]);
+            member.setMaxLat(bounds[3]);
+            members.add(member);
+        }
+        return members;
+    }
+
+    /**
+     * 沿影像四边加密采样后投影到 EPSG:4326 的外包框
+     */
+    private static double[] lonLatBounds(GeoTiffHeader header, int epsg) throws IOException {
+        int w = header.getWidth();
+        int h = header.getHeight();
+        double[] xy = new double[EDGE_SAMPLES * 4 * 2];
+        int n = 0;
+        for (int i = 0; i < EDGE_SAMPLES; i++) {
+            double t = (double) i / (EDGE_SAMPLES - 1);
+            double[][] edge = {{t * w, 0}, {t * w, h}, {0, t * h}, {w, t * h}};
+            for (double[] p : edge) {
+                xy[n++] = p[0];
+                xy[n++] = p[1];
+            }
+        }
+        int count = n / 2;
+        GeoTiffHeader.pixelToWorld(header.getGeoTransform(), xy, count);
+        CrsTransforms.transform(epsg, CrsTransforms.WGS84, xy, count);
+        double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i < count; i++) {
+            double x = xy[2 * i];
+            double y = xy[2 * i + 1];
+            if (!Double.isFinite(x) || !Double.isFinite(y)) {
+                continue;
+            }
+            bounds[0] = Math.min(bounds[0], x);
+            bounds[1] = Math.min(bounds[1], y);
+            bounds[2] = Math.max(bounds[2], x);
+            bounds[3] = Math.max(bounds[3], y);
+        }
+        if (!(bounds[0] <= bounds[2] && bounds[1] <= bounds[3])) {
+            throw new IOException("无法计算影像的经纬度范围");
+        }
+        return bounds;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 一个镶嵌的成员空间索引，构建后只读，可并发查询
+     */
+    private static class MosaicIndex {
+        private final STRtree tree = new STRtree();
+
+        MosaicIndex(List<RasterMosaicMember> members) {
+            for (RasterMosaicMember member : members) {
+                tree.insert(new Envelope(member.getMinLon(), member.getMaxLon(), member.getMinLat(), member.getMaxLat()),
+                        member);
+            }
+            tree.build();
+        }
+
+        /**
+         * 与范围相交的成员，按优先级排列
+         */
+        @SuppressWarnings("unchecked")
+        List<RasterMosaicMember> query(Envelope envelope) {
+            List<RasterMosaicMember> members = new ArrayList<>(tree.query(envelope));
+            members.sort(Comparator.comparing(RasterMosaicMember::getSortOrder));
+            return members;
+        }
+    }
+
+    /**
+     * 镶嵌采样结果及实际读取的栅格数、分块数
+     */
+    public static class MosaicSampleBatch {
+        private final List<RasterSampleResult> results;
+        private final int blocksRead;
+        private final int rastersRead;
+
+        public MosaicSampleBatch(List<RasterSampleResult> results, int blocksRead, int rastersRead) {
+            this.results = results;
+            this.blocksRead = blocksRead;
+            this.rastersRead = rastersRead;
+        }
+
+        public List<RasterSampleResult> getResults() {
+            return results;
+        }
+
+        public int getBlocksRead() {
+            return blocksRead;
+        }
+
+        public int getRastersRead() {
+            return rastersRead;
+        }
+    }
+}
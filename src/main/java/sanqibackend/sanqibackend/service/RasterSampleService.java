@@ -0,0 +1,182 @@
+package sanqibackend.sanqibackend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import sanqibackend.sanqibackend.entity.RasterData;
+import sanqibackend.sanqibackend.entity.RasterSampleResult;
+import sanqibackend.sanqibackend.entity.SamplePoint;
+import sanqibackend.sanqibackend.utils.CrsTransforms;
+import sanqibackend.sanqibackend.utils.GeoTiffHeader;
+import sanqibackend.sanqibackend.utils.RasterImages;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 按坐标批量读取栅格像元值
+ *
+ * 点先转换到影像坐标系再换算为行列号，按 TIFF 内部分块（瓦片或条带）分组，
+ * 每个含有点的分块只做一次窗口读取，不含点的分块不会被读取。
+ */
+@Service
+public class RasterSampleService {
+
+    private static final Logger log = LoggerFactory.getLogger(RasterSampleService.class);
+
+    @Autowired
+    private RasterDataService rasterDataService;
+
+    @Autowired
+    private RasterStorage rasterStorage;
+
+    @Value("${raster.sample.max-points:100000}")
+    private int maxPoints;
+
+    /**
+     * 对一批点采样，坐标为 sourceEpsg 坐标系（通常为 4326 经纬度）
+     */
+    public SampleBatch sample(Long rasterId, List<SamplePoint> points, int sourceEpsg) throws IOException {
+        if (points == null || points.isEmpty()) {
+            throw new IllegalArgumentException("采样点不能为空");
+        }
+        if (points.size() > maxPoints) {
+            throw new IllegalArgumentException("采样点数量超过上限 " + maxPoints);
+        }
+        RasterData rasterData = rasterDataService.getRasterDataById(rasterId);
+        if (rasterData.getLoOid() == null) {
+            throw new IllegalStateException("数据库未保存大对象 OID，无法采样");
+        }
+        long start = System.currentTimeMillis();
+        SampleBatch batch = rasterStorage.readImage(rasterData.getLoOid(), in -> sample(in, points, sourceEpsg));
+        log.info("栅格采样完成, ID: {}, 点数: {}, 读取分块: {}, 耗时: {} ms",
+                rasterId, points.size(), batch.getBlocksRead(), System.currentTimeMillis() - start);
+        return batch;
+    }
+
+    /**
+     * 从影像流中采样；超出影像坐标系定义域、无法转换的点与影像范围外的点一样标记为不在影像内
+     */
+    static SampleBatch sample(ImageInputStream in, List<SamplePoint> points, int sourceEpsg)
+            throws IOException {
+        GeoTiffHeader header = GeoTiffHeader.read(in);
+        if (!header.isGeoreferenced()) {
+            throw new IOException("影像缺少地理参考，无法按坐标采样");
+        }
+        Integer epsg = header.getEpsgCode();
+        if (epsg == null) {
+            throw new IOException("影像坐标系不是 EPSG 坐标系，无法按坐标采样");
+        }
+
+        int n = points.size();
+        double[] xy = new double[n * 2];
+        List<RasterSampleResult> results = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            SamplePoint point = points.get(i);
+            if (point.getLon() == null || point.getLat() == null) {
+                throw new IllegalArgumentException("第 " + (i + 1) + " 个采样点缺少坐标");
+            }
+            xy[2 * i] = point.getLon();
+            xy[2 * i + 1] = point.getLat();
+            RasterSampleResult result = new RasterSampleResult();
+            result.setId(point.getId());
+            result.setLon(point.getLon());
+            result.setLat(point.getLat());
+            results.add(result);
+        }
+        CrsTransforms.transformOrNaN(sourceEpsg, epsg, xy, n);
+        GeoTiffHeader.worldToPixel(header.getGeoTransform(), xy, n);
+
+        // 按分块分组，TreeMap 使分块按文件中的行序依次读取
+        int width = header.getWidth();
+        int height = header.getHeight();
+        int blockWidth = header.getBlockWidth();
+        int blockHeight = header.getBlockHeight();
+        int blocksAcross = (width + blockWidth - 1) / blockWidth;
+        Map<Long, List<Integer>> blocks = new TreeMap<>();
+        for (int i = 0; i < n; i++) {
+            double col = Math.floor(xy[2 * i]);
+            double row = Math.floor(xy[2 * i + 1]);
+            // 取反的写法使 NaN 也被跳过
+            if (!(col >= 0 && col < width && row >= 0 && row < height)) {
+                continue;
+            }
+            RasterSampleResult result = results.get(i);
+            result.setCol((int) col);
+            result.setRow((int) row);
+            result.setInside(true);
+            long key = (long) (result.getRow() / blockHeight) * blocksAcross + result.getCol() / blockWidth;
+            blocks.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+        }
+
+        Double nodata = header.getNoData();
+        ImageReader reader = RasterImages.openReader(in);
+        try {
+            ImageReadParam param = reader.getDefaultReadParam();
+            for (Map.Entry<Long, List<Integer>> entry : blocks.entrySet()) {
+                int bx = (int) (entry.getKey() % blocksAcross);
+                int by = (int) (entry.getKey() / blocksAcross);
+                Rectangle window = new Rectangle(bx * blockWidth, by * blockHeight, blockWidth, blockHeight)
+                        .intersection(new Rectangle(0, 0, width, height));
+                param.setSourceRegion(window);
+                Raster raster = reader.canReadRaster() ? reader.readRaster(0, param) : reader.read(0, param).getRaster();
+                int bands = raster.getNumBands();
+                for (int i : entry.getValue()) {
+                    RasterSampleResult result = results.get(i);
+                    double[] values = new double[bands];
+                    boolean allNodata = true;
+                    for (int b = 0; b < bands; b++) {
+                        values[b] = raster.getSampleDouble(
+                                result.getCol() - window.x + raster.getMinX(),
+                                result.getRow() - window.y + raster.getMinY(), b);
+                        if (!Double.isNaN(values[b]) && (nodata == null || values[b] != nodata)) {
+                            allNodata = false;
+                        }
+                    }
+                    result.setValues(values);
+                    result.setNodata(allNodata);
+                }
+            }
+        } finally {
+            reader.dispose();
+        }
+        return new SampleBatch(results, blocks.size(), epsg);
+    }
+
+    /**
+     * 一批采样的结果及实际读取的分块数
+     */
+    public static class SampleBatch {
+        private final List<RasterSampleResult> results;
+        private final int blocksRead;
+        private final int rasterEpsg;
+
+        public SampleBatch(List<RasterSampleResult> results, int blocksRead, int rasterEpsg) {
+            this.results = results;
+            this.blocksRead = blocksRead;
+            this.rasterEpsg = rasterEpsg;
+        }
+
+        public List<RasterSampleResult> getResults() {
+            return results;
+        }
+
+        public int getBlocksRead() {
+            return blocksRead;
+        }
+
+        public int getRasterEpsg() {
+            return rasterEpsg;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package sanqibackend.sanqibackend.service;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * 栅格文件字节的存储后端
+ *
+ * 每个存储对象用一个 long 句柄标识，句柄保存在 raster_data / raster_blob / raster_upload 的 lo_oid 等列中。
+ * PostgreSQL 大对象的句柄就是 OID（小于 2^32），文件系统存储的句柄从 2^32 起分配，两者互不重叠，
+ * 因此迁移过程中两种句柄可以同时存在。除 unlinkInTransaction 外，各方法都不参与调用方事务。
+ */
+public interface RasterStorage {
+
+    /**
+     * 创建一个空的存储对象并返回句柄
+     */
+    long create() throws IOException;
+
+    /**
+     * 从 offset 开始把输入流写入存储对象，最多写入 maxBytes 字节
+     *
+     * @return 实际写入的字节数
+     */
+    long write(long handle, long offset, InputStream in, long maxBytes) throws IOException;
+
+    /**
+     * 将存储对象中从 offset 开始的 length 个字节写入输出流
+     */
+    void read(long handle, long offset, long length, OutputStream out) throws IOException;
+
+    /**
+     * 存储对象以本地文件保存时返回文件路径，供 Servlet 容器以 sendfile 直接发送；其它后端返回 null
+     */
+    default Path localFile(long handle) throws IOException {
+        return null;
+    }
+
+    /**
+     * 以顺序读取的输入流打开整个存储对象
+     */
+    <T> T readStream(long handle, StreamCallback<T> callback) throws IOException;
+
+    /**
+     * 以随机访问的 ImageInputStream 打开存储对象，供 ImageIO 读取器按需读取所需区间
+     */
+    <T> T readImage(long handle, ImageStreamCallback<T> callback) throws IOException;
+
+    /**
+     * 以源对象为输入、新建的对象为输出执行转写，成功后返回新对象的句柄；
+     * 转写失败时新对象被删除，源对象保持不变
+     */
+    long transform(long sourceHandle, ImageTransformCallback callback) throws IOException;
+
+    /**
+     * 获取存储对象的当前长度
+     */
+    long size(long handle) throws IOException;
+
+    /**
+     * 立即删除存储对象
+     */
+    void unlink(long handle) throws IOException;
+
+    /**
+     * 随调用方事务删除存储对象：事务提交时才生效，回滚时对象保留；对象已不存在时忽略
+     */
+    void unlinkInTransaction(long handle);
+
+    /**
+     * 列出本应用在该后端拥有的全部存储对象，用于孤立对象回收
+     */
+    List<Long> listObjects() throws IOException;
+
+    /**
+     * 句柄是否属于该后端
+     */
+    boolean owns(long handle);
+
+    @FunctionalInterface
+    interface StreamCallback<T> {
+        T doWithStream(InputStream in) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface ImageStreamCallback<T> {
+        T doWithStream(ImageInputStream in) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface ImageTransformCallback {
+        void transform(ImageInputStream in, ImageOutputStream out) throws IOException;
+    }
+}
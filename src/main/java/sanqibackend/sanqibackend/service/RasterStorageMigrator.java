@@ -0,0 +1,167 @@
+package sanqibackend.sanqibackend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import sanqibackend.sanqibackend.entity.RasterUpload;
+import sanqibackend.sanqibackend.entity.StorageMigrationJob;
+import sanqibackend.sanqibackend.event.RasterStorageMigratedEvent;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 在 PostgreSQL 大对象与文件系统存储之间迁移栅格文件
+ *
+ * 逐个对象复制到目标后端并校验长度，然后在一个事务中把 raster_data / raster_blob / raster_upload / raster_warp
+ * 中的旧句柄替换为新句柄，同一事务中删除源对象。迁移可随时中断并重新执行：已迁移的句柄属于目标后端，
+ * 不会被再次选中；复制过程中记录被删除时，新副本随即删除。正在上传中的会话不迁移：替换前锁定引用该对象的上传会话，
+ * 会话仍在接收分块或正在完成时放弃本次替换（复制之后写入的分块不在副本中），留待下次迁移。
+ * 替换提交后发布 RasterStorageMigratedEvent，瓦片数据源等持有旧句柄的内存状态随即失效。
+ * 新导入的文件写入 raster.storage.type 指定的后端，迁移完成后应同步修改该配置。
+ */
+@Service
+public class RasterStorageMigrator implements ApplicationEventPublisherAware {
+
+    private static final Logger log = LoggerFactory.getLogger(RasterStorageMigrator.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private RoutingRasterStorage rasterStorage;
+
+    private ApplicationEventPublisher eventPublisher;
+
+    private volatile StorageMigrationJob current;
+
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
+        this.eventPublisher = applicationEventPublisher;
+    }
+
+    /**
+     * 在后台线程中启动迁移
+     *
+     * @param target 目标后端（postgres / filesystem）
+     * @param limit  本次最多迁移的对象数，不大于 0 表示不限
+     */
+    public synchronized StorageMigrationJob start(String target, int limit) {
+        RasterStorage destination = rasterStorage.backend(target);
+        if (current != null && StorageMigrationJob.STATUS_RUNNING.equals(current.getStatus())) {
+            throw new IllegalStateException("已有迁移任务正在执行");
+        }
+        StorageMigrationJob job = new StorageMigrationJob();
+        job.setTarget(target.toLowerCase());
+        job.setStatus(StorageMigrationJob.STATUS_RUNNING);
+        job.setStartedAt(LocalDateTime.now());
+        current = job;
+        Thread worker = new Thread(() -> run(job, destination, limit), "raster-storage-migrate");
+        worker.setDaemon(true);
+        worker.start();
+        return job;
+    }
+
+    public StorageMigrationJob getCurrent() {
+        return current;
+    }
+
+    private void run(StorageMigrationJob job, RasterStorage destination, int limit) {
+        try {
+            List<Long> handles = jdbcTemplate.queryForList(
+                    "SELECT DISTINCT h FROM ("
+                            + "SELECT lo_oid AS h FROM raster_data UNION ALL SELECT original_lo_oid FROM raster_data "
+                            + "UNION ALL SELECT lo_oid FROM raster_blob UNION ALL SELECT original_lo_oid FROM raster_blob "
+                            + "UNION ALL SELECT lo_oid FROM raster_warp) r "
+                            + "WHERE h IS NOT NULL AND h NOT IN (SELECT lo_oid FROM raster_upload WHERE status = ?) ORDER BY h",
+                    Long.class, RasterUpload.STATUS_UPLOADING);
+            handles.removeIf(destination::owns);
+            if (limit > 0 && handles.size() > limit) {
+                handles = handles.subList(0, limit);
+            }
+            job.setTotal(handles.size());
+            log.info("开始迁移栅格存储到 {}，共 {} 个对象", job.getTarget(), handles.size());
+            for (Long handle : handles) {
+                try {
+                    if (migrate(handle, destination, job)) {
+                        job.setMigrated(job.getMigrated() + 1);
+                    } else {
+                        job.setSkipped(job.getSkipped() + 1);
+                    }
+                } catch (Exception e) {
+                    job.setFailed(job.getFailed() + 1);
+                    log.warn("迁移存储对象 {} 失败: {}", handle, e.getMessage());
+                }
+            }
+            job.setStatus(StorageMigrationJob.STATUS_DONE);
+        } catch (Exception e) {
+            log.error("栅格存储迁移失败: {}", e.getMessage(), e);
+            job.setErrorMessage(e.getMessage());
+            job.setStatus(StorageMigrationJob.STATUS_FAILED);
+        } finally {
+            job.setFinishedAt(LocalDateTime.now());
+            log.info("栅格存储迁移结束: 迁移 {} 个，跳过 {} 个，失败 {} 个，复制 {} 字节",
+                    job.getMigrated(), job.getSkipped(), job.getFailed(), job.getBytesCopied());
+        }
+    }
+
+    /**
+     * 迁移一个对象
+     *
+     * @return 是否替换了引用；复制期间引用已消失时返回 false
+     */
+    private boolean migrate(long handle, RasterStorage destination, StorageMigrationJob job) throws IOException {
+        RasterStorage source = rasterStorage.backendOf(handle);
+        long size = source.size(handle);
+        long copy = destination.create();
+        try {
+            long written = source.readStream(handle, in -> destination.write(copy, 0, in, size));
+            if (written != size || destination.size(copy) != size) {
+                throw new IOException("复制后长度不一致，源 " + size + " 字节，目标 " + written + " 字节");
+            }
+            Integer updated = transactionTemplate.execute(status -> {
+                List<String> uploads = jdbcTemplate.queryForList(
+                        "SELECT status FROM raster_upload WHERE lo_oid = ? FOR UPDATE", String.class, handle);
+                if (uploads.contains(RasterUpload.STATUS_UPLOADING) || uploads.contains(RasterUpload.STATUS_COMPLETING)) {
+                    return 0;
+                }
+                List<Long> rasterIds = jdbcTemplate.queryForList(
+                        "SELECT id FROM raster_data WHERE lo_oid = ? OR original_lo_oid = ?", Long.class, handle, handle);
+                int rows = jdbcTemplate.update("UPDATE raster_data SET lo_oid = ? WHERE lo_oid = ?", copy, handle)
+                        + jdbcTemplate.update("UPDATE raster_data SET original_lo_oid = ? WHERE original_lo_oid = ?", copy, handle)
+                        + jdbcTemplate.update("UPDATE raster_blob SET lo_oid = ? WHERE lo_oid = ?", copy, handle)
+                        + jdbcTemplate.update("UPDATE raster_blob SET original_lo_oid = ? WHERE original_lo_oid = ?", copy, handle)
+                        + jdbcTemplate.update("UPDATE raster_upload SET lo_oid = ? WHERE lo_oid = ?", copy, handle)
+                        + jdbcTemplate.update("UPDATE raster_warp SET lo_oid = ? WHERE lo_oid = ?", copy, handle);
+                if (rows > 0) {
+                    source.unlinkInTransaction(handle);
+                    // 监听方在事务提交后处理
+                    eventPublisher.publishEvent(new RasterStorageMigratedEvent(rasterIds, handle, copy));
+                }
+                return rows;
+            });
+            if (updated == null || updated == 0) {
+                destination.unlink(copy);
+                return false;
+            }
+            job.setBytesCopied(job.getBytesCopied() + size);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            try {
+                destination.unlink(copy);
+            } catch (IOException ex) {
+                log.warn("删除迁移副本 {} 失败: {}", copy, ex.getMessage());
+            }
+            throw e;
+        }
+    }
+}
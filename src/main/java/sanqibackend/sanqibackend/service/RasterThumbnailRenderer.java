@@ -0,0 +1,179 @@
+package sanqibackend.sanqibackend.service;
+
+import org.springframework.stereotype.Component;
+import sanqibackend.sanqibackend.utils.RasterImages;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 在 JVM 内生成栅格缩略图，替代原来的 tiff_thumbnail.py 子进程
+ *
+ * 只读取内部概览或抽稀后的像元，处理流程与 Python 脚本一致：
+ * 第一波段 2%~98% 百分位线性拉伸 -> 直方图均衡化 -> 按长边缩放 -> JPEG 输出
+ */
+@Component
+public class RasterThumbnailRenderer {
+
+    private static final float JPEG_QUALITY = 0.95f;
+
+    /**
+     * 从影像输入流生成长边为 maxSize 的 JPEG 缩略图
+     */
+    public byte[] render(ImageInputStream in, int maxSize) throws IOException {
+        return encodeJpeg(renderImage(in, maxSize));
+    }
+
+    /**
+     * 从影像输入流生成长边为 maxSize 的 8 位灰度图（未编码）
+     */
+    public BufferedImage renderImage(ImageInputStream in, int maxSize) throws IOException {
+        ImageReader reader = RasterImages.openReader(in);
+        try {
+            BufferedImage source = RasterImages.readDecimated(reader, maxSize);
+            BufferedImage gray = equalize(source.getRaster());
+            return scaleToFit(gray, maxSize);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * 把图像缩放到 width x height；缩小超过一半时先逐级减半，避免一次性大比例缩放产生的锯齿
+     */
+    public BufferedImage resize(BufferedImage image, int width, int height) {
+        BufferedImage current = image;
+        while (current.getWidth() / 2 >= width && current.getHeight() / 2 >= height) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2);
+        }
+        if (current.getWidth() == width && current.getHeight() == height) {
+            return current;
+        }
+        return draw(current, width, height);
+    }
+
+    /**
+     * 按格式编码图像，format 为 png 或 jpeg
+     */
+    public byte[] encode(BufferedImage image, String format) throws IOException {
+        return "png".equals(format) ? RasterImages.encodePng(image) : encodeJpeg(image);
+    }
+
+    /**
+     * 第一波段百分位拉伸并做直方图均衡化，输出 8 位灰度图
+     */
+    BufferedImage equalize(Raster raster) {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        double[] values = RasterImages.bandValues(raster, 0);
+        BufferedImage gray = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+
+        double[] valid = Arrays.stream(values).filter(Double::isFinite).toArray();
+        if (valid.length == 0) {
+            return gray;
+        }
+        Arrays.sort(valid);
+        double min = RasterImages.percentile(valid, 2);
+        double max = RasterImages.percentile(valid, 98);
+        // 数据范围太小时改用均值 ± 2 倍标准差
+        if (max - min < 1e-6) {
+            double mean = Arrays.stream(valid).average().orElse(0);
+            double variance = Arrays.stream(valid).map(v -> (v - mean) * (v - mean)).average().orElse(0);
+            double std = Math.sqrt(variance);
+            min = mean - 2 * std;
+            max = mean + 2 * std;
+        }
+        double scale = max > min ? 255.0 / (max - min) : 0;
+
+        int[] levels = new int[values.length];
+        long[] hist = new long[256];
+        for (int i = 0; i < values.length; i++) {
+            double v = Double.isFinite(values[i]) ? values[i] : min;
+            int level = (int) Math.max(0, Math.min(255, (v - min) * scale));
+            levels[i] = level;
+            hist[level]++;
+        }
+
+        // 累积分布映射，忽略计数为 0 的前缀
+        long[] cdf = new long[256];
+        long sum = 0;
+        for (int k = 0; k < 256; k++) {
+            sum += hist[k];
+            cdf[k] = sum;
+        }
+        long cdfMin = 0;
+        for (long c : cdf) {
+            if (c > 0) {
+                cdfMin = c;
+                break;
+            }
+        }
+        long cdfMax = cdf[255];
+        int[] lut = new int[256];
+        for (int k = 0; k < 256; k++) {
+            if (cdfMax == cdfMin) {
+                lut[k] = k;
+            } else if (cdf[k] > 0) {
+                lut[k] = (int) ((cdf[k] - cdfMin) * 255.0 / (cdfMax - cdfMin));
+            }
+        }
+        for (int i = 0; i < levels.length; i++) {
+            pixels[i] = (byte) lut[levels[i]];
+        }
+        return gray;
+    }
+
+    private BufferedImage scaleToFit(BufferedImage image, int maxSize) {
+        double ratio = Math.min((double) maxSize / image.getWidth(), (double) maxSize / image.getHeight());
+        int width = Math.max(1, (int) (image.getWidth() * ratio));
+        int height = Math.max(1, (int) (image.getHeight() * ratio));
+        if (width == image.getWidth() && height == image.getHeight()) {
+            return image;
+        }
+        return draw(image, width, height);
+    }
+
+    private BufferedImage draw(BufferedImage image, int width, int height) {
+        int type = image.getType() == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_RGB : image.getType();
+        BufferedImage scaled = new BufferedImage(width, height, type);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
@@ -1,90 +1,60 @@
 package sanqibackend.sanqibackend.service;
 
+import jakarta.annotation.PostConstruct;
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.event.TransactionalEventListener;
+import sanqibackend.sanqibackend.event.RasterDataDeletedEvent;
 import sanqibackend.sanqibackend.repository.RasterDataRepository;
+import sanqibackend.sanqibackend.repository.RasterThumbnailRepository;
 import sanqibackend.sanqibackend.entity.RasterData;
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
-import sanqibackend.sanqibackend.event.RasterDataImportedEvent;
-import org.springframework.context.event.EventListener;
+import sanqibackend.sanqibackend.entity.RasterThumbnail;
+import sanqibackend.sanqibackend.utils.WeightedLruCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.context.annotation.Lazy;
+
+import java.security.MessageDigest;
+import java.util.Map;
 
 @Service
 public class RasterThumbnailService {
 
     private static final Logger log = LoggerFactory.getLogger(RasterThumbnailService.class);
 
-    @Value("${python.script.path}")
-    private String pythonScriptPath;
+    private static final String CONTENT_TYPE_JPEG = "image/jpeg";
+
+    @Value("${raster.thumbnail.max-size:800}")
+    private int thumbnailMaxSize;
 
-    @Value("${python.executable}")
-    private String pythonExecutable;
+    @Value("${raster.thumbnail.cache-max-bytes:67108864}")
+    private long cacheMaxBytes;
 
     @Autowired
     private RasterDataRepository rasterDataRepository;
 
     @Autowired
-    @Lazy
-    private RasterDataService rasterDataService;
-
-    public boolean generateThumbnail(String inputPath, String outputPath) {
-        try {
-            // 构建Python命令
-            List<String> command = new ArrayList<>();
-            command.add(pythonExecutable);
-            command.add(pythonScriptPath);
-            command.add(inputPath);
-            command.add(outputPath);
-
-            // 创建进程构建器
-            ProcessBuilder processBuilder = new ProcessBuilder(command);
-            processBuilder.redirectErrorStream(true);
-
-            // 启动进程
-            Process process = processBuilder.start();
-
-            // 读取进程输出
-            StringBuilder output = new StringBuilder();
-            try (java.io.BufferedReader reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-            }
+    private RasterThumbnailRepository rasterThumbnailRepository;
 
-            // 等待进程完成
-            int exitCode = process.waitFor();
-
-            // 检查输出目录是否存在
-            File outputFile = new File(outputPath);
-            if (exitCode != 0 || !outputFile.exists()) {
-                System.err.println("Python script execution failed:");
-                System.err.println("Command: " + String.join(" ", command));
-                System.err.println("Exit code: " + exitCode);
-                System.err.println("Output: " + output.toString());
-                return false;
-            }
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
 
-            return true;
+    @Autowired
+    private RasterStorage rasterStorage;
 
-        } catch (IOException | InterruptedException e) {
-            System.err.println("Error executing Python script: " + e.getMessage());
-            e.printStackTrace();
-            return false;
-        }
+    @Autowired
+    private RasterThumbnailRenderer thumbnailRenderer;
+
+    // 热点缩略图的内存缓存，按图片字节数限定容量
+    private WeightedLruCache<Long, RasterThumbnail> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = new WeightedLruCache<>(cacheMaxBytes, thumbnail -> thumbnail.getImage().length);
     }
 
-    // 新增方法：根据id生成缩略图并保存到数据库
+    // 根据id生成缩略图并保存到数据库，直接从大对象读取概览或抽稀像元，不再导出临时文件
     public void generateAndSaveThumbnail(Long id) throws Exception {
         RasterData rasterData = rasterDataRepository.findById(id)
             .orElseThrow(() -> new Exception("未找到对应的影像数据"));
@@ -93,59 +63,75 @@ public class RasterThumbnailService {
             throw new Exception("影像数据不完整，缺少原始文件");
         }
 
-        String tempDir = System.getProperty("java.io.tmpdir");
-        String inputPath = tempDir + File.separator + "raster_" + id + ".tif";
-        String outputPath = inputPath + ".thumbnail.jpg";
-
-        try {
-            System.out.println("正在导出原始文件到: " + inputPath);
-            rasterDataService.exportRaster(id, inputPath);
+        long start = System.currentTimeMillis();
+        byte[] thumbnailBytes = rasterStorage.readImage(rasterData.getLoOid(),
+                in -> thumbnailRenderer.render(in, thumbnailMaxSize));
+        if (thumbnailBytes == null || thumbnailBytes.length == 0) {
+            throw new Exception("缩略图生成失败：输出为空");
+        }
 
-            File inputFile = new File(inputPath);
-            if (!inputFile.exists()) {
-                throw new Exception("导出原始文件失败：文件不存在");
-            }
-            if (inputFile.length() == 0) {
-                throw new Exception("导出原始文件失败：文件为空");
-            }
+        saveThumbnail(id, thumbnailBytes, CONTENT_TYPE_JPEG);
+        log.info("缩略图保存成功, ID: {}, 大小: {} 字节, 耗时: {} ms",
+                id, thumbnailBytes.length, System.currentTimeMillis() - start);
+    }
 
-            System.out.println("开始生成缩略图...");
-            boolean success = generateThumbnail(inputPath, outputPath);
-            if (!success) {
-                throw new Exception("Python脚本生成缩略图失败，请检查日志获取详细信息");
-            }
+    /**
+     * 保存（覆盖）缩略图；内容未变化时保留原来的修改时间，客户端缓存仍然有效
+     */
+    public void saveThumbnail(Long rasterId, byte[] image, String contentType) {
+        MessageDigest digest = RasterBlobService.newDigest();
+        digest.update(image);
+        String contentHash = RasterBlobService.toHex(digest);
+        jdbcTemplate.update(
+                "INSERT INTO raster_thumbnail (raster_id, content_hash, content_type, image, created_at, updated_at) "
+                        + "VALUES (?, ?, ?, ?, now(), now()) "
+                        + "ON CONFLICT (raster_id) DO UPDATE SET content_hash = EXCLUDED.content_hash, "
+                        + "content_type = EXCLUDED.content_type, image = EXCLUDED.image, "
+                        + "updated_at = CASE WHEN raster_thumbnail.content_hash = EXCLUDED.content_hash "
+                        + "THEN raster_thumbnail.updated_at ELSE now() END",
+                rasterId, contentHash, contentType, image);
+        cache.remove(rasterId);
+    }
 
-            File outputFile = new File(outputPath);
-            if (!outputFile.exists() || outputFile.length() == 0) {
-                throw new Exception("缩略图生成失败：输出文件无效");
-            }
+    /**
+     * 从内容相同（content_hash 相同）的其他栅格复制已有缩略图
+     *
+     * @return 是否复制成功，没有可用的缩略图时返回 false
+     */
+    public boolean copySharedThumbnail(Long rasterId, String rasterContentHash) {
+        int copied = jdbcTemplate.update(
+                "INSERT INTO raster_thumbnail (raster_id, content_hash, content_type, image, created_at, updated_at) "
+                        + "SELECT ?, t.content_hash, t.content_type, t.image, now(), now() "
+                        + "FROM raster_thumbnail t JOIN raster_data r ON r.id = t.raster_id "
+                        + "WHERE r.content_hash = ? AND r.id <> ? LIMIT 1 "
+                        + "ON CONFLICT (raster_id) DO NOTHING",
+                rasterId, rasterContentHash, rasterId);
+        return copied > 0;
+    }
 
-            System.out.println("正在保存缩略图到数据库...");
-            byte[] thumbnailBytes = Files.readAllBytes(Paths.get(outputPath));
-            rasterData.setThumbnail(thumbnailBytes);
-            rasterDataRepository.save(rasterData);
-            System.out.println("缩略图保存成功");
-
-        } catch (Exception e) {
-            System.err.println("生成缩略图过程中发生错误: " + e.getMessage());
-            throw e;
-        } finally {
-            try {
-                new File(inputPath).delete();
-                new File(outputPath).delete();
-            } catch (Exception e) {
-                System.err.println("清理临时文件时发生错误: " + e.getMessage());
+    /**
+     * 获取缩略图，优先从内存缓存读取，不存在时返回 null
+     */
+    public RasterThumbnail getThumbnail(Long rasterId) {
+        RasterThumbnail thumbnail = cache.get(rasterId);
+        if (thumbnail == null) {
+            thumbnail = rasterThumbnailRepository.findById(rasterId).orElse(null);
+            if (thumbnail != null) {
+                cache.put(rasterId, thumbnail);
             }
         }
+        return thumbnail;
     }
 
-    @EventListener
-    public void handleRasterDataImportedEvent(RasterDataImportedEvent event) {
-        try {
-            generateAndSaveThumbnail(event.getRasterDataId());
-            log.info("缩略图生成成功");
-        } catch (Exception e) {
-            log.error("缩略图生成失败: {}", e.getMessage(), e);
-        }
+    public Map<String, Object> getCacheStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * 栅格删除后缩略图记录随外键级联删除，这里只需清理缓存
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void handleRasterDataDeletedEvent(RasterDataDeletedEvent event) {
+        cache.remove(event.getRasterDataId());
     }
-} 
+}
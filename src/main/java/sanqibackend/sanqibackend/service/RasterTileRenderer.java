@@ -0,0 +1,159 @@
+package sanqibackend.sanqibackend.service;
+
+import org.springframework.stereotype.Component;
+import sanqibackend.sanqibackend.utils.CrsTransforms;
+import sanqibackend.sanqibackend.utils.GeoTiffHeader;
+import sanqibackend.sanqibackend.utils.Resampling;
+import sanqibackend.sanqibackend.utils.WebMercator;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.IOException;
+
+/**
+ * 从 GeoTIFF 渲染 256x256 的 Web Mercator 瓦片
+ *
+ * 先把瓦片像元中心反算到影像像元坐标，只按其覆盖的窗口读取数据；
+ * 根据每个输出像元对应的源像元数选择最合适的概览层，剩余倍率用抽稀读取补足。
+ * 非最近邻重采样时读取窗口向外扩展插值邻域的宽度。
+ */
+@Component
+public class RasterTileRenderer {
+
+    private static final int TILE = WebMercator.TILE_SIZE;
+
+    /**
+     * 渲染瓦片，与影像不相交时返回 null
+     */
+    public BufferedImage render(ImageReader reader, RasterTileSource source, int z, int x, int y,
+                                Resampling resampling) throws IOException {
+        double[] tileBounds = WebMercator.tileBounds(z, x, y);
+        if (!source.intersects(tileBounds)) {
+            return null;
+        }
+        double res = (tileBounds[2] - tileBounds[0]) / TILE;
+        double[] mb = source.getMercatorBounds();
+        // 只处理瓦片中落在影像外包框内的像元，避免把远离影像的坐标投影到影像坐标系
+        int col0 = clamp((int) Math.floor((mb[0] - tileBounds[0]) / res), 0, TILE - 1);
+        int col1 = clamp((int) Math.ceil((mb[2] - tileBounds[0]) / res), 0, TILE - 1);
+        int row0 = clamp((int) Math.floor((tileBounds[3] - mb[3]) / res), 0, TILE - 1);
+        int row1 = clamp((int) Math.ceil((tileBounds[3] - mb[1]) / res), 0, TILE - 1);
+        int cols = col1 - col0 + 1;
+        int rows = row1 - row0 + 1;
+
+        double[] coords = new double[cols * rows * 2];
+        int n = 0;
+        for (int r = row0; r <= row1; r++) {
+            double cy = tileBounds[3] - (r + 0.5) * res;
+            for (int c = col0; c <= col1; c++) {
+                coords[n++] = tileBounds[0] + (c + 0.5) * res;
+                coords[n++] = cy;
+            }
+        }
+        int count = cols * rows;
+        CrsTransforms.transform(CrsTransforms.WEB_MERCATOR, source.getEpsg(), coords, count);
+        GeoTiffHeader.worldToPixel(source.getGeoTransform(), coords, count);
+
+        int width = source.getHeader().getWidth();
+        int height = source.getHeader().getHeight();
+        double minCol = Double.POSITIVE_INFINITY, maxCol = Double.NEGATIVE_INFINITY;
+        double minRow = Double.POSITIVE_INFINITY, maxRow = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            double col = coords[2 * i];
+            double row = coords[2 * i + 1];
+            if (col >= 0 && col < width && row >= 0 && row < height) {
+                minCol = Math.min(minCol, col);
+                maxCol = Math.max(maxCol, col);
+                minRow = Math.min(minRow, row);
+                maxRow = Math.max(maxRow, row);
+            }
+        }
+        if (minCol > maxCol) {
+            return null;
+        }
+
+        // 每个输出像元对应的源像元数（取相邻输出像元在影像上的间距）
+        double resolution = sourcePixelsPerOutputPixel(coords, cols, rows);
+        int[] level = source.getLevels().get(0);
+        double factor = 1;
+        for (int[] candidate : source.getLevels()) {
+            double f = (double) width / candidate[1];
+            if (f <= resolution && f > factor) {
+                level = candidate;
+                factor = f;
+            }
+        }
+        int step = Math.max(1, (int) Math.floor(resolution / factor));
+        int margin = resampling.getRadius() * step;
+
+        int lx0 = clamp((int) Math.floor(minCol / factor) - margin, 0, level[1] - 1);
+        int lx1 = clamp((int) Math.floor(maxCol / factor) + margin, 0, level[1] - 1);
+        int ly0 = clamp((int) Math.floor(minRow / factor) - margin, 0, level[2] - 1);
+        int ly1 = clamp((int) Math.floor(maxRow / factor) + margin, 0, level[2] - 1);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(lx0, ly0, lx1 - lx0 + 1, ly1 - ly0 + 1));
+        param.setSourceSubsampling(step, step, 0, 0);
+        Raster data = reader.read(level[0], param).getRaster();
+
+        boolean rgb = RasterTileSource.isRgb(source.getHeader());
+        int bands = data.getNumBands();
+        Double noData = source.getHeader().getNoData();
+        double[] stretch = source.getStretch();
+        double scale = stretch != null && stretch[1] > stretch[0] ? 255.0 / (stretch[1] - stretch[0]) : 0;
+        double[] pixel = new double[bands];
+
+        BufferedImage tile = new BufferedImage(TILE, TILE, BufferedImage.TYPE_INT_ARGB);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int i = r * cols + c;
+                double col = coords[2 * i];
+                double row = coords[2 * i + 1];
+                if (!(col >= 0 && col < width && row >= 0 && row < height)) {
+                    continue;
+                }
+                double px = (col / factor - 0.5 - lx0) / step + 0.5;
+                double py = (row / factor - 0.5 - ly0) / step + 0.5;
+                for (int b = 0; b < bands; b++) {
+                    pixel[b] = resampling.sample(data, b, px, py, noData);
+                }
+                double v = pixel[0];
+                if (Double.isNaN(v) || noData != null && v == noData) {
+                    continue;
+                }
+                int argb;
+                if (rgb) {
+                    int alpha = bands >= 4 ? clamp((int) Math.rint(pixel[3]), 0, 255) : 0xff;
+                    argb = alpha << 24 | clamp((int) Math.rint(pixel[0]), 0, 255) << 16
+                            | clamp((int) Math.rint(pixel[1]), 0, 255) << 8 | clamp((int) Math.rint(pixel[2]), 0, 255);
+                } else {
+                    int g = clamp((int) ((v - stretch[0]) * scale), 0, 255);
+                    argb = 0xff000000 | g << 16 | g << 8 | g;
+                }
+                tile.setRGB(col0 + c, row0 + r, argb);
+            }
+        }
+        return tile;
+    }
+
+    private double sourcePixelsPerOutputPixel(double[] coords, int cols, int rows) {
+        int c = cols / 2;
+        int r = rows / 2;
+        int i = r * cols + c;
+        double best = 0;
+        if (c + 1 < cols) {
+            best = Math.max(best, Math.hypot(coords[2 * (i + 1)] - coords[2 * i], coords[2 * (i + 1) + 1] - coords[2 * i + 1]));
+        }
+        if (r + 1 < rows) {
+            int j = i + cols;
+            best = Math.max(best, Math.hypot(coords[2 * j] - coords[2 * i], coords[2 * j + 1] - coords[2 * i + 1]));
+        }
+        return Double.isFinite(best) && best > 0 ? best : 1;
+    }
+
+    private static int clamp(int v, int min, int max) {
+        return Math.max(min, Math.min(max, v));
+    }
+}
@@ -0,0 +1,250 @@
+package sanqibackend.sanqibackend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import sanqibackend.sanqibackend.entity.RasterData;
+import sanqibackend.sanqibackend.event.RasterBandStatsComputedEvent;
+import sanqibackend.sanqibackend.event.RasterDataDeletedEvent;
+import sanqibackend.sanqibackend.event.RasterStorageMigratedEvent;
+import sanqibackend.sanqibackend.repository.RasterDataRepository;
+import sanqibackend.sanqibackend.utils.GeoTiffHeader;
+import sanqibackend.sanqibackend.utils.RasterImages;
+import sanqibackend.sanqibackend.utils.Resampling;
+import sanqibackend.sanqibackend.utils.TieredByteCache;
+import sanqibackend.sanqibackend.utils.WebMercator;
+
+import javax.imageio.ImageReader;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * XYZ 瓦片服务
+ *
+ * 瓦片按需从大对象中的 GeoTIFF 渲染，结果写入内存 + 磁盘两级缓存；
+ * 同一瓦片的并发请求只渲染一次，同时渲染的数量受限，避免占满数据库连接池。
+ * 缓存键以文件内容的 SHA-256 开头而不是栅格 id：启动时会重排 raster_data.id，
+ * 重启后磁盘缓存中按 id 保存的瓦片会对应到别的栅格；没有内容哈希的旧记录改用大对象句柄。
+ */
+@Service
+public class RasterTileService {
+
+    private static final Logger log = LoggerFactory.getLogger(RasterTileService.class);
+
+    @Autowired
+    private RasterDataRepository rasterDataRepository;
+
+    @Autowired
+    private RasterStorage rasterStorage;
+
+    @Autowired
+    private RasterTileRenderer rasterTileRenderer;
+
+    @Autowired
+    private RasterBandStatsService rasterBandStatsService;
+
+    @Value("${raster.tile.memory-cache-max-bytes:268435456}")
+    private long memoryCacheMaxBytes;
+
+    @Value("${raster.tile.disk-cache-dir:${java.io.tmpdir}/sanqi/tile-cache}")
+    private String diskCacheDir;
+
+    @Value("${raster.tile.disk-cache-max-bytes:10737418240}")
+    private long diskCacheMaxBytes;
+
+    @Value("${raster.tile.max-concurrent-renders:4}")
+    private int maxConcurrentRenders;
+
+    private TieredByteCache cache;
+
+    private Semaphore renderPermits;
+
+    private byte[] emptyTile;
+
+    private final Map<Long, RasterTileSource> sources = new ConcurrentHashMap<>();
+
+    // 栅格 id -> 缓存键前缀
+    private final Map<Long, String> cachePrefixes = new ConcurrentHashMap<>();
+
+    private final Map<String, CompletableFuture<byte[]>> rendering = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() throws IOException {
+        cache = new TieredByteCache(memoryCacheMaxBytes, Paths.get(diskCacheDir), diskCacheMaxBytes);
+        renderPermits = new Semaphore(maxConcurrentRenders);
+        emptyTile = RasterImages.encodePng(
+                new BufferedImage(WebMercator.TILE_SIZE, WebMercator.TILE_SIZE, BufferedImage.TYPE_INT_ARGB));
+        // 清除早期按栅格 id 保存的瓦片
+        int legacy = cache.removeIf(key -> key.matches("\\d+/.*"));
+        if (legacy > 0) {
+            log.info("已清除 {} 个按栅格 id 缓存的旧瓦片", legacy);
+        }
+    }
+
+    /**
+     * 获取 PNG 瓦片，与影像不相交时返回透明瓦片
+     */
+    public byte[] getTile(Long id, int z, int x, int y, Resampling resampling) throws IOException {
+        if (!WebMercator.isValidTile(z, x, y)) {
+            throw new IllegalArgumentException("无效的瓦片行列号: " + z + "/" + x + "/" + y);
+        }
+        // 最近邻沿用原有缓存键，其余方法单独缓存
+        String key = cachePrefix(id) + "/" + z + "/" + x + "/" + y
+                + (resampling == Resampling.NEAREST ? "" : "-" + resampling.name().toLowerCase()) + ".png";
+        byte[] cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = rendering.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw new IOException("瓦片渲染失败: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        try {
+            byte[] tile = renderTile(id, z, x, y, resampling);
+            cache.put(key, tile);
+            future.complete(tile);
+            return tile;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            rendering.remove(key);
+        }
+    }
+
+    private byte[] renderTile(Long id, int z, int x, int y, Resampling resampling) throws IOException {
+        RasterTileSource known = sources.get(id);
+        if (known != null && !known.intersects(WebMercator.tileBounds(z, x, y))) {
+            return emptyTile;
+        }
+        long oid = known != null ? known.getLoOid() : getLoOid(id);
+        double[] stretch = known == null ? rasterBandStatsService.findStretch(id) : null;
+
+        try {
+            renderPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("瓦片渲染被中断", e);
+        }
+        try {
+            return rasterStorage.readImage(oid, in -> {
+                RasterTileSource source = sources.get(id);
+                GeoTiffHeader header = source == null ? GeoTiffHeader.read(in) : null;
+                ImageReader reader = RasterImages.openReader(in);
+                try {
+                    if (source == null) {
+                        source = RasterTileSource.create(oid, header, reader, stretch);
+                        sources.put(id, source);
+                    }
+                    BufferedImage tile = rasterTileRenderer.render(reader, source, z, x, y, resampling);
+                    return tile == null ? emptyTile : RasterImages.encodePng(tile);
+                } finally {
+                    reader.dispose();
+                }
+            });
+        } finally {
+            renderPermits.release();
+        }
+    }
+
+    private long getLoOid(Long id) {
+        return getRasterData(id).getLoOid();
+    }
+
+    private RasterData getRasterData(Long id) {
+        RasterData rasterData = rasterDataRepository.findById(id)
+            .orElseThrow(() -> new IllegalArgumentException("未找到ID为" + id + "的栅格数据"));
+        if (rasterData.getLoOid() == null) {
+            throw new IllegalStateException("数据库未保存大对象 OID，无法切片");
+        }
+        return rasterData;
+    }
+
+    private String cachePrefix(Long id) {
+        return cachePrefixes.computeIfAbsent(id, key -> cachePrefix(getRasterData(key)));
+    }
+
+    private static String cachePrefix(RasterData rasterData) {
+        return rasterData.getContentHash() != null ? rasterData.getContentHash() : "lo" + rasterData.getLoOid();
+    }
+
+    /**
+     * 清除某个栅格的全部缓存瓦片；内容相同的其他栅格共用这些瓦片，会在下次请求时重新渲染
+     */
+    public int invalidate(Long id) {
+        String prefix = cachePrefixes.remove(id);
+        if (prefix == null) {
+            prefix = rasterDataRepository.findById(id)
+                .filter(rasterData -> rasterData.getLoOid() != null)
+                .map(RasterTileService::cachePrefix)
+                .orElse(null);
+        }
+        return invalidate(id, prefix);
+    }
+
+    private int invalidate(Long id, String prefix) {
+        sources.remove(id);
+        cachePrefixes.remove(id);
+        int removed = prefix != null ? cache.removePrefix(prefix + "/") : 0;
+        log.info("已清除栅格 {} 的 {} 个缓存瓦片", id, removed);
+        return removed;
+    }
+
+    /**
+     * 与影像不相交时返回的透明瓦片，始终是同一个数组
+     */
+    public byte[] getEmptyTile() {
+        return emptyTile;
+    }
+
+    public Map<String, Object> getCacheStats() {
+        return cache.getStats();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void handleRasterDataDeletedEvent(RasterDataDeletedEvent event) {
+        // 记录已删除，按事件携带的内容哈希清除；未访问过的旧记录没有哈希时只丢弃内存中的状态
+        String prefix = cachePrefixes.get(event.getRasterDataId());
+        invalidate(event.getRasterDataId(), prefix != null ? prefix : event.getContentHash());
+    }
+
+    /**
+     * 存储迁移后数据源持有的旧句柄已删除，丢弃数据源；内容不变，按内容哈希缓存的瓦片仍然有效，
+     * 只有没有哈希、按旧句柄缓存的瓦片需要清除
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void handleRasterStorageMigratedEvent(RasterStorageMigratedEvent event) {
+        for (Long id : event.getRasterDataIds()) {
+            sources.remove(id);
+            String prefix = cachePrefixes.get(id);
+            if (prefix != null && prefix.equals("lo" + event.getOldHandle())) {
+                invalidate(id, prefix);
+            }
+        }
+    }
+
+    /**
+     * 全分辨率统计算出后改用其拉伸范围，此前按抽样范围渲染的瓦片需要丢弃
+     */
+    @EventListener
+    public void handleRasterBandStatsComputedEvent(RasterBandStatsComputedEvent event) {
+        invalidate(event.getRasterDataId());
+    }
+}
@@ -0,0 +1,175 @@
+package sanqibackend.sanqibackend.service;
+
+import sanqibackend.sanqibackend.utils.CrsTransforms;
+import sanqibackend.sanqibackend.utils.GeoTiffHeader;
+import sanqibackend.sanqibackend.utils.RasterImages;
+import sanqibackend.sanqibackend.utils.WebMercator;
+
+import javax.imageio.ImageReader;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 切片渲染所需的栅格静态信息：地理参考、Web Mercator 外包框、金字塔层级以及灰度拉伸范围
+ *
+ * 每个栅格只需构建一次，之后的瓦片请求可以不访问数据库就判断是否与影像相交。
+ */
+public class RasterTileSource {
+
+    private static final int STRETCH_SAMPLE_SIZE = 512;
+    private static final int EDGE_SAMPLES = 16;
+
+    private final long loOid;
+    private final GeoTiffHeader header;
+    private final int epsg;
+    private final double[] geoTransform;
+    private final double[] mercatorBounds;
+    private final List<int[]> levels;
+    private final double[] stretch;
+
+    private RasterTileSource(long loOid, GeoTiffHeader header, int epsg, double[] mercatorBounds,
+                             List<int[]> levels, double[] stretch) {
+        this.loOid = loOid;
+        this.header = header;
+        this.epsg = epsg;
+        this.geoTransform = header.getGeoTransform();
+        this.mercatorBounds = mercatorBounds;
+        this.levels = levels;
+        this.stretch = stretch;
+    }
+
+    /**
+     * 读取头信息、层级尺寸并确定拉伸范围，reader 需已绑定到同一影像流
+     *
+     * @param knownStretch 已保存的波段统计给出的拉伸范围，为 null 时从抽稀像元估算
+     */
+    public static RasterTileSource create(long loOid, GeoTiffHeader header, ImageReader reader, double[] knownStretch)
+            throws IOException {
+        Integer epsg = header.getEpsgCode();
+        if (!header.isGeoreferenced() || epsg == null) {
+            throw new IllegalStateException("影像缺少地理参考或 EPSG 坐标系信息，无法切片");
+        }
+        double[] mercatorBounds = toMercatorBounds(header, epsg);
+
+        // 记录每个可用的分辨率层级：[图像序号, 宽, 高]，原图为第一层
+        List<int[]> levels = new ArrayList<>();
+        levels.add(new int[]{0, header.getWidth(), header.getHeight()});
+        int count = reader.getNumImages(true);
+        for (int i = 1; i < count; i++) {
+            int w = reader.getWidth(i);
+            int h = reader.getHeight(i);
+            if (RasterImages.isOverview(reader, i)) {
+                levels.add(new int[]{i, w, h});
+            }
+        }
+
+        double[] stretch = null;
+        if (!isRgb(header) && knownStretch != null) {
+            stretch = knownStretch;
+        } else if (!isRgb(header)) {
+            BufferedImage preview = RasterImages.readDecimated(reader, STRETCH_SAMPLE_SIZE);
+            Double noData = header.getNoData();
+            double[] valid = Arrays.stream(RasterImages.bandValues(preview.getRaster(), 0))
+                    .filter(v -> Double.isFinite(v) && (noData == null || v != noData))
+                    .toArray();
+            Arrays.sort(valid);
+            stretch = valid.length == 0 ? new double[]{0, 1}
+                    : new double[]{RasterImages.percentile(valid, 2), RasterImages.percentile(valid, 98)};
+        }
+        return new RasterTileSource(loOid, header, epsg, mercatorBounds, levels, stretch);
+    }
+
+    /**
+     * 8 位三波段及以上按真彩色渲染，其余按第一波段灰度拉伸
+     */
+    static boolean isRgb(GeoTiffHeader header) {
+        return header.getSamplesPerPixel() >= 3 && header.getBitsPerSample()[0] == 8;
+    }
+
+    /**
+     * 沿影像四边加密采样后投影到 EPSG:3857，得到影像在 Web Mercator 下的外包框
+     */
+    private static double[] toMercatorBounds(GeoTiffHeader header, int epsg) throws IOException {
+        int w = header.getWidth();
+        int h = header.getHeight();
+        double[] xy = new double[EDGE_SAMPLES * 4 * 2];
+        int n = 0;
+        for (int i = 0; i < EDGE_SAMPLES; i++) {
+            double t = (double) i / (EDGE_SAMPLES - 1);
+            double[][] edge = {{t * w, 0}, {t * w, h}, {0, t * h}, {w, t * h}};
+            for (double[] p : edge) {
+                xy[n++] = p[0];
+                xy[n++] = p[1];
+            }
+        }
+        int count = n / 2;
+        GeoTiffHeader.pixelToWorld(header.getGeoTransform(), xy, count);
+        if (epsg == CrsTransforms.WGS84) {
+            for (int i = 0; i < count; i++) {
+                xy[2 * i + 1] = Math.max(-85.0511, Math.min(85.0511, xy[2 * i + 1]));
+            }
+        }
+        CrsTransforms.transform(epsg, CrsTransforms.WEB_MERCATOR, xy, count);
+        double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i < count; i++) {
+            double x = xy[2 * i];
+            double y = xy[2 * i + 1];
+            if (!Double.isFinite(x) || !Double.isFinite(y)) {
+                continue;
+            }
+            bounds[0] = Math.min(bounds[0], x);
+            bounds[1] = Math.min(bounds[1], y);
+            bounds[2] = Math.max(bounds[2], x);
+            bounds[3] = Math.max(bounds[3], y);
+        }
+        bounds[1] = Math.max(bounds[1], -WebMercator.ORIGIN_SHIFT);
+        bounds[3] = Math.min(bounds[3], WebMercator.ORIGIN_SHIFT);
+        return bounds;
+    }
+
+    /**
+     * 瓦片是否与影像外包框相交
+     */
+    public boolean intersects(double[] tileBounds) {
+        return tileBounds[0] < mercatorBounds[2] && tileBounds[2] > mercatorBounds[0]
+                && tileBounds[1] < mercatorBounds[3] && tileBounds[3] > mercatorBounds[1];
+    }
+
+    public long getLoOid() {
+        return loOid;
+    }
+
+    public GeoTiffHeader getHeader() {
+        return header;
+    }
+
+    public int getEpsg() {
+        return epsg;
+    }
+
+    public double[] getGeoTransform() {
+        return geoTransform;
+    }
+
+    public double[] getMercatorBounds() {
+        return mercatorBounds;
+    }
+
+    /**
+     * 可用分辨率层级，元素为 [图像序号, 宽, 高]
+     */
+    public List<int[]> getLevels() {
+        return levels;
+    }
+
+    /**
+     * 灰度拉伸范围 [min, max]，真彩色影像为 null
+     */
+    public double[] getStretch() {
+        return stretch;
+    }
+}
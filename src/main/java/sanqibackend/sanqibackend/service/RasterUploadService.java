@@ -0,0 +1,285 @@
+package sanqibackend.sanqibackend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import sanqibackend.sanqibackend.entity.RasterData;
+import sanqibackend.sanqibackend.entity.RasterUpload;
+import sanqibackend.sanqibackend.repository.RasterUploadRepository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 分块上传服务
+ *
+ * 流程：init 创建会话和目标大对象 -> 客户端可多路并发 PUT 各个分块（按偏移写入同一大对象）
+ * -> complete 校验分块齐全后登记栅格数据。已接收的分块持久化在 raster_upload_chunk 中，
+ * 连接中断后客户端可查询状态，只补传缺失的分块。
+ * 写入分块时持有会话行的共享锁，complete / abort 的行锁会等待进行中的分块写完，之后到达的分块一律拒绝。
+ * 超过有效期没有新分块的会话由定时任务删除并释放大对象。
+ */
+@Service
+public class RasterUploadService {
+
+    private static final Logger log = LoggerFactory.getLogger(RasterUploadService.class);
+
+    @Autowired
+    private RasterUploadRepository rasterUploadRepository;
+
+    @Autowired
+    private RasterDataService rasterDataService;
+
+    @Autowired
+    private RasterStorage rasterStorage;
+
+    @Autowired
+    private RasterBlobService rasterBlobService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${raster.upload.default-chunk-size:8388608}")
+    private long defaultChunkSize;
+
+    @Value("${raster.upload.max-chunk-size:67108864}")
+    private long maxChunkSize;
+
+    @Value("${raster.upload.expire-hours:24}")
+    private long expireHours;
+
+    /**
+     * 创建分块上传会话
+     */
+    public RasterUpload initUpload(String name, String description, long totalSize, Long chunkSize) throws IOException {
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("文件名不能为空");
+        }
+        if (totalSize <= 0) {
+            throw new IllegalArgumentException("文件大小必须大于0");
+        }
+        long size = chunkSize != null ? chunkSize : defaultChunkSize;
+        // 各分块写入不同的 pg_largeobject 页，才能在多个事务中并发写入同一个大对象
+        if (size <= 0 || size > maxChunkSize || size % LargeObjectStore.PAGE_SIZE != 0) {
+            throw new IllegalArgumentException("分块大小必须是 " + LargeObjectStore.PAGE_SIZE
+                    + " 的整数倍且不超过 " + maxChunkSize + " 字节");
+        }
+        long chunkCount = (totalSize + size - 1) / size;
+        if (chunkCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("分块数量过多，请增大分块大小");
+        }
+
+        RasterUpload upload = new RasterUpload();
+        upload.setId(UUID.randomUUID().toString());
+        upload.setName(name);
+        upload.setDescription(description);
+        upload.setTotalSize(totalSize);
+        upload.setChunkSize(size);
+        upload.setChunkCount((int) chunkCount);
+        upload.setStatus(RasterUpload.STATUS_UPLOADING);
+        upload.setLoOid(rasterStorage.create());
+        RasterUpload saved = rasterUploadRepository.save(upload);
+        log.info("创建分块上传会话: {}, 文件: {}, 大小: {}, 分块数: {}", saved.getId(), name, totalSize, chunkCount);
+        return saved;
+    }
+
+    /**
+     * 写入第 index 个分块，重复上传同一分块会覆盖原有内容
+     */
+    public void writeChunk(String uploadId, int index, InputStream body) throws IOException {
+        RasterUpload upload = getUpload(uploadId);
+        if (index < 0 || index >= upload.getChunkCount()) {
+            throw new IllegalArgumentException("分块序号超出范围: " + index);
+        }
+        long offset = index * upload.getChunkSize();
+        long expected = Math.min(upload.getChunkSize(), upload.getTotalSize() - offset);
+
+        // 共享锁允许多个分块并发写入，同时阻止 complete 在写入过程中开始计算哈希并导入
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                List<String> current = jdbcTemplate.queryForList(
+                        "SELECT status FROM raster_upload WHERE id = ? FOR SHARE", String.class, uploadId);
+                if (current.isEmpty()) {
+                    throw new IllegalArgumentException("未找到上传会话: " + uploadId);
+                }
+                if (!RasterUpload.STATUS_UPLOADING.equals(current.get(0))) {
+                    throw new IllegalStateException("上传会话已完成或正在完成，不能继续写入分块");
+                }
+                long written;
+                try {
+                    written = rasterStorage.write(upload.getLoOid(), offset, body, expected);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (written != expected) {
+                    throw new UncheckedIOException(new IOException(
+                            "分块 " + index + " 大小不一致，期望: " + expected + ", 实际: " + written));
+                }
+                jdbcTemplate.update(
+                        "INSERT INTO raster_upload_chunk (upload_id, chunk_index, chunk_size, received_at) VALUES (?, ?, ?, ?) " +
+                        "ON CONFLICT (upload_id, chunk_index) DO UPDATE SET chunk_size = EXCLUDED.chunk_size, received_at = EXCLUDED.received_at",
+                        uploadId, index, written, Timestamp.valueOf(LocalDateTime.now()));
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        log.debug("分块上传 {} 已接收分块 {} ({} 字节)", uploadId, index, expected);
+    }
+
+    /**
+     * 查询已接收的分块序号
+     */
+    public List<Integer> getReceivedChunks(String uploadId) {
+        return jdbcTemplate.queryForList(
+                "SELECT chunk_index FROM raster_upload_chunk WHERE upload_id = ? ORDER BY chunk_index",
+                Integer.class, uploadId);
+    }
+
+    /**
+     * 查询尚未接收的分块序号
+     */
+    public List<Integer> getMissingChunks(RasterUpload upload) {
+        Set<Integer> received = new HashSet<>(getReceivedChunks(upload.getId()));
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < upload.getChunkCount(); i++) {
+            if (!received.contains(i)) {
+                missing.add(i);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 完成上传：校验分块齐全后登记栅格数据，重复调用返回同一条记录
+     *
+     * @param cog          是否转写为 COG，为空时使用配置默认值
+     * @param keepOriginal 转写为 COG 后是否保留原始文件，为空时使用配置默认值
+     */
+    public RasterData completeUpload(String uploadId, Boolean cog, Boolean keepOriginal) throws IOException {
+        // 锁定会话行后把状态改为 COMPLETING，并发的 complete 只有一个能继续导入
+        RasterUpload upload = transactionTemplate.execute(status -> {
+            List<String> rows = jdbcTemplate.queryForList(
+                    "SELECT status FROM raster_upload WHERE id = ? FOR UPDATE", String.class, uploadId);
+            if (rows.isEmpty()) {
+                throw new IllegalArgumentException("未找到上传会话: " + uploadId);
+            }
+            String current = rows.get(0);
+            if (RasterUpload.STATUS_UPLOADING.equals(current)) {
+                jdbcTemplate.update("UPDATE raster_upload SET status = ?, updated_at = ? WHERE id = ?",
+                        RasterUpload.STATUS_COMPLETING, Timestamp.valueOf(LocalDateTime.now()), uploadId);
+            } else if (RasterUpload.STATUS_COMPLETING.equals(current)) {
+                throw new IllegalStateException("上传正在完成中，请稍后查询状态");
+            }
+            return getUpload(uploadId);
+        });
+        if (RasterUpload.STATUS_COMPLETED.equals(upload.getStatus())) {
+            // raster_id 随栅格 id 重排级联更新，栅格删除后置空
+            if (upload.getRasterId() == null) {
+                throw new IllegalStateException("上传会话对应的栅格数据已被删除");
+            }
+            return rasterDataService.getRasterDataById(upload.getRasterId());
+        }
+
+        RasterData rasterData;
+        try {
+            List<Integer> missing = getMissingChunks(upload);
+            if (!missing.isEmpty()) {
+                throw new IllegalStateException("仍有 " + missing.size() + " 个分块未上传");
+            }
+            long actualSize = rasterStorage.size(upload.getLoOid());
+            if (actualSize != upload.getTotalSize()) {
+                throw new IOException("上传文件大小不一致，期望: " + upload.getTotalSize() + ", 实际: " + actualSize);
+            }
+            rasterData = rasterDataService.importStoredRaster(
+                    upload.getName(), upload.getDescription(), upload.getLoOid(), upload.getTotalSize(),
+                    rasterBlobService.digest(upload.getLoOid(), upload.getTotalSize()), null, 0, cog, keepOriginal);
+        } catch (IOException | RuntimeException e) {
+            // 导入失败时恢复为上传中，客户端可补传后重试
+            jdbcTemplate.update("UPDATE raster_upload SET status = ?, updated_at = ? WHERE id = ? AND status = ?",
+                    RasterUpload.STATUS_UPLOADING, Timestamp.valueOf(LocalDateTime.now()), uploadId,
+                    RasterUpload.STATUS_COMPLETING);
+            throw e;
+        }
+        jdbcTemplate.update("UPDATE raster_upload SET status = ?, raster_id = ?, updated_at = ? WHERE id = ?",
+                RasterUpload.STATUS_COMPLETED, rasterData.getId(), Timestamp.valueOf(LocalDateTime.now()), uploadId);
+        jdbcTemplate.update("DELETE FROM raster_upload_chunk WHERE upload_id = ?", uploadId);
+        log.info("分块上传完成: {}, 栅格数据ID: {}", uploadId, rasterData.getId());
+        return rasterData;
+    }
+
+    /**
+     * 放弃未完成的上传，删除已写入的大对象
+     */
+    public void abortUpload(String uploadId) throws IOException {
+        RasterUpload upload = getUpload(uploadId);
+        // 只删除仍在上传中的会话，避免与正在进行的 complete 竞争
+        int deleted = jdbcTemplate.update("DELETE FROM raster_upload WHERE id = ? AND status = ?",
+                uploadId, RasterUpload.STATUS_UPLOADING);
+        if (deleted == 0) {
+            throw new IllegalStateException("上传会话已完成或正在完成，不能取消");
+        }
+        rasterStorage.unlink(upload.getLoOid());
+        log.info("已取消分块上传: {}", uploadId);
+    }
+
+    /**
+     * 清理过期的上传会话：上传中的会话在最后一次收到分块（或创建）后超过有效期即删除并释放大对象；
+     * 已完成的会话只删除记录，大对象已归栅格数据所有。完成中途进程中断遗留的会话只删除记录，
+     * 其大对象是否仍被引用由孤立大对象回收判断
+     */
+    @Scheduled(initialDelayString = "${raster.upload.cleanup-interval-ms:3600000}",
+            fixedDelayString = "${raster.upload.cleanup-interval-ms:3600000}")
+    public void cleanupExpiredUploads() {
+        Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minusHours(expireHours));
+        List<Map<String, Object>> expired = jdbcTemplate.queryForList(
+                "SELECT u.id, u.lo_oid, u.status FROM raster_upload u "
+                        + "WHERE GREATEST(u.created_at, u.updated_at, (SELECT max(c.received_at) FROM raster_upload_chunk c "
+                        + "WHERE c.upload_id = u.id)) < ?", cutoff);
+        int removed = 0;
+        for (Map<String, Object> row : expired) {
+            String id = (String) row.get("id");
+            String status = (String) row.get("status");
+            // 删除前再次确认没有新的分块或状态变化
+            int deleted = jdbcTemplate.update("DELETE FROM raster_upload u WHERE u.id = ? AND u.status = ? "
+                    + "AND GREATEST(u.created_at, u.updated_at, (SELECT max(c.received_at) FROM raster_upload_chunk c "
+                    + "WHERE c.upload_id = u.id)) < ?", id, status, cutoff);
+            if (deleted == 0) {
+                continue;
+            }
+            removed++;
+            if (RasterUpload.STATUS_UPLOADING.equals(status)) {
+                try {
+                    rasterStorage.unlink(((Number) row.get("lo_oid")).longValue());
+                } catch (IOException | RuntimeException e) {
+                    // 记录已删除，大对象留给孤立大对象回收处理
+                    log.warn("释放过期上传 {} 的大对象失败: {}", id, e.getMessage());
+                }
+            }
+        }
+        if (removed > 0) {
+            log.info("已清理 {} 个过期的分块上传会话", removed);
+        }
+    }
+
+    public RasterUpload getUpload(String uploadId) {
+        return rasterUploadRepository.findById(uploadId)
+            .orElseThrow(() -> new IllegalArgumentException("未找到上传会话: " + uploadId));
+    }
+}
@@ -0,0 +1,795 @@
+package sanqibackend.sanqibackend.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import sanqibackend.sanqibackend.entity.RasterData;
+import sanqibackend.sanqibackend.entity.RasterWarp;
+import sanqibackend.sanqibackend.event.RasterDataDeletedEvent;
+import sanqibackend.sanqibackend.utils.CrsTransforms;
+import sanqibackend.sanqibackend.utils.GeoTiffHeader;
+import sanqibackend.sanqibackend.utils.PolygonRasterizer;
+import sanqibackend.sanqibackend.utils.RasterImages;
+import sanqibackend.sanqibackend.utils.Resampling;
+import sanqibackend.sanqibackend.utils.StreamingGeoTiffWriter;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import java.awt.Rectangle;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把栅格重投影到指定 EPSG 坐标系与分辨率
+ *
+ * 输出按 block-size 行分成条带、条带内按 block-size 列分块，每块把输出像元中心反算到源影像，
+ * 只读取覆盖的源窗口（输出分辨率较粗时改读概览层并抽稀），再按最近邻、双线性或三次卷积取样。
+ * 多个工作线程各自持有一个读取器并行处理条带，写出线程按顺序取回条带写入 GeoTIFF，
+ * 领先写出的条带数有上限，内存占用与输出大小无关。
+ * 多幅影像可按优先级镶嵌到同一输出网格，每个条带只读取与之相交的影像。
+ * 整幅重投影的结果保存到存储中并登记在 raster_warp，相同 (栅格, 坐标系, 分辨率, 重采样方法) 直接复用。
+ */
+@Service
+public class RasterWarpService {
+
+    private static final Logger log = LoggerFactory.getLogger(RasterWarpService.class);
+
+    /**
+     * 影像每条边加密的点数，用于计算影像在目标坐标系中的外包框
+     */
+    private static final int EDGE_SAMPLES = 32;
+
+    private static final String COLUMNS = "raster_id, epsg, resolution, resampling, lo_oid, file_size, created_at";
+
+    @Autowired
+    private RasterDataService rasterDataService;
+
+    @Autowired
+    private RasterStorage rasterStorage;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${raster.warp.parallelism:4}")
+    private int parallelism;
+
+    @Value("${raster.warp.block-size:256}")
+    private int blockSize;
+
+    @Value("${raster.warp.max-output-pixels:1000000000}")
+    private long maxOutputPixels;
+
+    private ExecutorService workers;
+
+    private ExecutorService generators;
+
+    private final Map<String, CompletableFuture<RasterWarp>> generating = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        parallelism = Math.max(1, parallelism);
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "raster-warp-" + workerCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        generators = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "raster-warp-writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+        generators.shutdownNow();
+    }
+
+    /**
+     * 确定输出网格
+     *
+     * @param targetEpsg 目标坐标系
+     * @param resolution 输出像元大小（目标坐标系单位），为空时按影像中心处的源像元大小估算
+     * @param clipRings  裁剪多边形（目标坐标系坐标），为空时输出整幅影像
+     * @param mask       是否把裁剪多边形以外的像元写为 nodata
+     */
+    public WarpPlan plan(Long rasterId, int targetEpsg, Double resolution, Resampling resampling,
+                         List<double[]> clipRings, boolean mask) throws IOException {
+        return plan(List.of(rasterId), targetEpsg, resolution, resampling, clipRings, mask);
+    }
+
+    /**
+     * 把多幅影像重投影到同一输出网格（镶嵌），靠前的影像优先，其有效像元覆盖靠后的影像
+     *
+     * 各影像的波段数和数据类型必须一致；未指定分辨率时取各影像估算值中最精细的一个。
+     */
+    public WarpPlan plan(List<Long> rasterIds, int targetEpsg, Double resolution, Resampling resampling,
+                         List<double[]> clipRings, boolean mask) throws IOException {
+        if (resolution != null && !(resolution > 0 && Double.isFinite(resolution))) {
+            throw new IllegalArgumentException("分辨率须为正数");
+        }
+        List<WarpSource> sources = new ArrayList<>(rasterIds.size());
+        String name = null;
+        double[] extent = null;
+        double res = resolution != null ? resolution : Double.POSITIVE_INFINITY;
+        for (Long rasterId : rasterIds) {
+            RasterData rasterData = rasterDataService.getRasterDataById(rasterId);
+            if (rasterData.getLoOid() == null) {
+                throw new IllegalStateException("数据库未保存大对象 OID，无法重投影, ID: " + rasterId);
+            }
+            GeoTiffHeader header = rasterStorage.readImage(rasterData.getLoOid(), GeoTiffHeader::read);
+            Integer sourceEpsg = header.getEpsgCode();
+            if (!header.isGeoreferenced() || sourceEpsg == null) {
+                throw new IllegalStateException("影像缺少地理参考或 EPSG 坐标系信息，无法重投影, ID: " + rasterId);
+            }
+            if (header.getBitsPerSample()[0] < 8) {
+                throw new IllegalStateException("不支持重投影 " + header.getDataType() + " 类型的影像");
+            }
+            if (!sources.isEmpty() && !sameLayout(sources.get(0).header, header)) {
+                throw new IllegalStateException("影像 " + rasterId + " 的波段数或数据类型与其他影像不一致");
+            }
+            WarpSource source = new WarpSource();
+            source.oid = rasterData.getLoOid();
+            source.header = header;
+            source.epsg = sourceEpsg;
+            source.extent = targetExtent(header, header.getGeoTransform(), sourceEpsg, targetEpsg);
+            sources.add(source);
+            extent = extent == null ? source.extent.clone() : new double[]{
+                    Math.min(extent[0], source.extent[0]), Math.min(extent[1], source.extent[1]),
+                    Math.max(extent[2], source.extent[2]), Math.max(extent[3], source.extent[3])};
+            if (resolution == null) {
+                res = Math.min(res, estimateResolution(header, header.getGeoTransform(), sourceEpsg, targetEpsg));
+            }
+            if (name == null) {
+                name = rasterData.getName().replaceFirst("\\.[^.]*$", "");
+            }
+        }
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("没有可重投影的影像");
+        }
+        if (clipRings != null) {
+            double[] clip = envelope(clipRings);
+            extent = new double[]{Math.max(extent[0], clip[0]), Math.max(extent[1], clip[1]),
+                    Math.min(extent[2], clip[2]), Math.min(extent[3], clip[3])};
+            if (!(extent[0] < extent[2] && extent[1] < extent[3])) {
+                throw new IllegalArgumentException("裁剪范围与影像不相交");
+            }
+            double[] window = extent;
+            sources.removeIf(source -> !intersects(source.extent, window));
+        }
+        long width = Math.max(1, (long) Math.ceil((extent[2] - extent[0]) / res));
+        long height = Math.max(1, (long) Math.ceil((extent[3] - extent[1]) / res));
+        if (width * height > maxOutputPixels || width > Integer.MAX_VALUE || height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("输出影像 " + width + "x" + height + " 超出像元数上限 " + maxOutputPixels
+                    + "，请增大分辨率数值或缩小范围");
+        }
+
+        GeoTiffHeader header = sources.get(0).header;
+        WarpPlan plan = new WarpPlan();
+        plan.sources = sources;
+        plan.header = header;
+        plan.targetEpsg = targetEpsg;
+        plan.resolution = res;
+        plan.resampling = resampling;
+        plan.width = (int) width;
+        plan.height = (int) height;
+        plan.geoTransform = new double[]{extent[0], res, 0, extent[3], 0, -res};
+        Double nodata = header.getNoData();
+        if (nodata == null) {
+            // 影像范围以外需要一个 nodata 值：浮点数据用 NaN，整数数据用 0
+            nodata = header.getSampleFormat() == 3 ? Double.NaN : 0.0;
+        }
+        plan.fill = nodata;
+        if (mask && clipRings != null) {
+            plan.maskRings = new ArrayList<>();
+            for (double[] ring : clipRings) {
+                double[] pixels = ring.clone();
+                GeoTiffHeader.worldToPixel(plan.geoTransform, pixels, pixels.length / 2);
+                plan.maskRings.add(pixels);
+            }
+        }
+        plan.writer = new StreamingGeoTiffWriter(plan.width, plan.height, header.getSamplesPerPixel(),
+                header.getBitsPerSample()[0], header.getSampleFormat(), header.getPhotometric());
+        plan.writer.setGeoTransform(plan.geoTransform);
+        plan.writer.setGeoKeys(geoKeys(targetEpsg));
+        plan.writer.setNoData(nodata);
+        plan.fileName = name + "_EPSG" + targetEpsg + ".tif";
+        return plan;
+    }
+
+    /**
+     * 并行重投影并顺序写出 GeoTIFF
+     */
+    public void write(WarpPlan plan, OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        int strips = (plan.height + blockSize - 1) / blockSize;
+        int workerCount = Math.min(parallelism, strips);
+        List<CompletableFuture<WritableRaster>> results = new ArrayList<>(strips);
+        for (int i = 0; i < strips; i++) {
+            results.add(new CompletableFuture<>());
+        }
+        // 工作线程最多领先写出线程 2 × 线程数 个条带
+        Semaphore ahead = new Semaphore(workerCount * 2);
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        List<Future<?>> tasks = new ArrayList<>(workerCount);
+        for (int w = 0; w < workerCount; w++) {
+            tasks.add(workers.submit(() -> runWorker(plan, results, ahead, next, cancelled)));
+        }
+        try {
+            StreamingGeoTiffWriter writer = plan.writer;
+            writer.begin(out);
+            for (int i = 0; i < strips; i++) {
+                WritableRaster strip;
+                try {
+                    strip = results.get(i).join();
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException io ? io : new IOException("重投影失败: " + cause.getMessage(), cause);
+                }
+                results.set(i, null);
+                for (int r = 0; r < strip.getHeight(); r++) {
+                    writer.writeRow(strip, 0, r, null, plan.fill);
+                }
+                ahead.release();
+            }
+            writer.finish();
+        } finally {
+            cancelled.set(true);
+            ahead.release(strips + workerCount);
+            tasks.forEach(task -> task.cancel(false));
+        }
+        log.info("重投影完成: {} -> EPSG:{}, 源影像 {} 幅, 输出 {}x{}, 分辨率 {}, {}, 耗时 {} ms", plan.fileName,
+                plan.targetEpsg, plan.sources.size(), plan.width, plan.height, plan.resolution, plan.resampling,
+                System.currentTimeMillis() - start);
+    }
+
+    private void runWorker(WarpPlan plan, List<CompletableFuture<WritableRaster>> results, Semaphore ahead,
+                           AtomicInteger next, AtomicBoolean cancelled) {
+        try {
+            if (plan.sources.size() == 1) {
+                // 单幅影像：整个工作线程共用一个读取器
+                WarpSource source = plan.sources.get(0);
+                rasterStorage.readImage(source.oid, in -> {
+                    ImageReader reader = RasterImages.openReader(in);
+                    try {
+                        List<int[]> levels = levels(reader, source.header);
+                        computeStrips(plan, results, ahead, next, cancelled,
+                                (strip, row0, filled) -> warpStrip(reader, levels, plan, source, strip, row0, filled));
+                    } finally {
+                        reader.dispose();
+                    }
+                    return null;
+                });
+            } else {
+                // 镶嵌：每个条带只打开与之相交的源影像，按优先级依次填充尚无有效值的像元
+                computeStrips(plan, results, ahead, next, cancelled, (strip, row0, filled) -> {
+                    double[] stripExtent = extentOf(plan, 0, row0, plan.width, strip.getHeight());
+                    for (WarpSource source : plan.sources) {
+                        if (!intersects(source.extent, stripExtent)) {
+                            continue;
+                        }
+                        rasterStorage.readImage(source.oid, in -> {
+                            ImageReader reader = RasterImages.openReader(in);
+                            try {
+                                warpStrip(reader, levels(reader, source.header), plan, source, strip, row0, filled);
+                            } finally {
+                                reader.dispose();
+                            }
+                            return null;
+                        });
+                        if (filled.cardinality() == plan.width * strip.getHeight()) {
+                            break;
+                        }
+                    }
+                });
+            }
+        } catch (Exception e) {
+            // 打开影像失败时让写出线程尽快得到错误
+            for (CompletableFuture<WritableRaster> result : results) {
+                if (result != null) {
+                    result.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    private void computeStrips(WarpPlan plan, List<CompletableFuture<WritableRaster>> results, Semaphore ahead,
+                               AtomicInteger next, AtomicBoolean cancelled, StripFiller filler) {
+        try {
+            while (!cancelled.get()) {
+                ahead.acquire();
+                int i = next.getAndIncrement();
+                if (i >= results.size() || cancelled.get()) {
+                    break;
+                }
+                try {
+                    results.get(i).complete(computeStrip(plan, i, filler));
+                } catch (IOException | RuntimeException e) {
+                    results.get(i).completeExceptionally(e);
+                    cancelled.set(true);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private WritableRaster computeStrip(WarpPlan plan, int index, StripFiller filler) throws IOException {
+        int row0 = index * blockSize;
+        int rows = Math.min(blockSize, plan.height - row0);
+        WritableRaster strip = createRaster(plan, plan.width, rows);
+        filler.fill(strip, row0, plan.sources.size() > 1 ? new BitSet(plan.width * rows) : null);
+        if (plan.maskRings != null) {
+            PolygonRasterizer rasterizer = new PolygonRasterizer(plan.maskRings);
+            int bands = strip.getNumBands();
+            for (int r = 0; r < rows; r++) {
+                int row = r;
+                int[] last = {0};
+                rasterizer.spans(row0 + r, 0, plan.width, (s, e) -> {
+                    fill(strip, last[0], s, row, bands, plan.fill);
+                    last[0] = e;
+                });
+                fill(strip, last[0], plan.width, row, bands, plan.fill);
+            }
+        }
+        return strip;
+    }
+
+    private void warpStrip(ImageReader reader, List<int[]> levels, WarpPlan plan, WarpSource source,
+                           WritableRaster strip, int row0, BitSet filled) throws IOException {
+        int rows = strip.getHeight();
+        for (int c0 = 0; c0 < plan.width; c0 += blockSize) {
+            int cols = Math.min(blockSize, plan.width - c0);
+            if (intersects(source.extent, extentOf(plan, c0, row0, cols, rows))) {
+                warpBlock(reader, levels, plan, source, strip, c0, row0, cols, rows, filled);
+            }
+        }
+    }
+
+    /**
+     * 重投影一个输出块：反算像元中心、读取覆盖的源窗口、逐像元取样
+     *
+     * @param filled 镶嵌时已有有效值的像元（按条带内行优先编号），单幅影像时为 null
+     */
+    private void warpBlock(ImageReader reader, List<int[]> levels, WarpPlan plan, WarpSource source,
+                           WritableRaster strip, int c0, int row0, int cols, int rows, BitSet filled)
+            throws IOException {
+        double[] gt = plan.geoTransform;
+        double[] coords = new double[cols * rows * 2];
+        int n = 0;
+        for (int r = 0; r < rows; r++) {
+            double y = gt[3] + (row0 + r + 0.5) * gt[5];
+            for (int c = 0; c < cols; c++) {
+                coords[n++] = gt[0] + (c0 + c + 0.5) * gt[1];
+                coords[n++] = y;
+            }
+        }
+        int count = cols * rows;
+        CrsTransforms.transform(plan.targetEpsg, source.epsg, coords, count);
+        GeoTiffHeader.worldToPixel(source.header.getGeoTransform(), coords, count);
+
+        int width = source.header.getWidth();
+        int height = source.header.getHeight();
+        double minCol = Double.POSITIVE_INFINITY, maxCol = Double.NEGATIVE_INFINITY;
+        double minRow = Double.POSITIVE_INFINITY, maxRow = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            double col = coords[2 * i];
+            double row = coords[2 * i + 1];
+            if (col >= 0 && col < width && row >= 0 && row < height
+                    && (filled == null || !filled.get(i / cols * plan.width + c0 + i % cols))) {
+                minCol = Math.min(minCol, col);
+                maxCol = Math.max(maxCol, col);
+                minRow = Math.min(minRow, row);
+                maxRow = Math.max(maxRow, row);
+            }
+        }
+        if (minCol > maxCol) {
+            return;
+        }
+
+        // 输出像元对应的源像元数决定读取哪一层概览以及抽稀步长
+        double spp = sourcePixelsPerOutputPixel(coords, cols, rows);
+        int[] level = levels.get(0);
+        double factor = 1;
+        for (int[] candidate : levels) {
+            double f = (double) width / candidate[1];
+            if (f <= spp && f > factor) {
+                level = candidate;
+                factor = f;
+            }
+        }
+        int step = Math.max(1, (int) Math.floor(spp / factor));
+        int margin = plan.resampling.getRadius() * step;
+        int lx0 = clamp((int) Math.floor(minCol / factor) - margin, 0, level[1] - 1);
+        int lx1 = clamp((int) Math.floor(maxCol / factor) + margin, 0, level[1] - 1);
+        int ly0 = clamp((int) Math.floor(minRow / factor) - margin, 0, level[2] - 1);
+        int ly1 = clamp((int) Math.floor(maxRow / factor) + margin, 0, level[2] - 1);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(lx0, ly0, lx1 - lx0 + 1, ly1 - ly0 + 1));
+        param.setSourceSubsampling(step, step, 0, 0);
+        Raster data = reader.read(level[0], param).getRaster();
+
+        Double nodata = source.header.getNoData();
+        int bands = Math.min(strip.getNumBands(), data.getNumBands());
+        boolean integral = plan.header.getSampleFormat() != 3;
+        double[] range = integral ? sampleRange(plan.header) : null;
+        double[] values = new double[bands];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int i = r * cols + c;
+                double col = coords[2 * i];
+                double row = coords[2 * i + 1];
+                int bit = r * plan.width + c0 + c;
+                if (!(col >= 0 && col < width && row >= 0 && row < height) || filled != null && filled.get(bit)) {
+                    continue;
+                }
+                double x = (col / factor - 0.5 - lx0) / step + 0.5;
+                double y = (row / factor - 0.5 - ly0) / step + 0.5;
+                for (int b = 0; b < bands; b++) {
+                    values[b] = plan.resampling.sample(data, b, x, y, nodata);
+                }
+                if (filled != null) {
+                    // 镶嵌时 nodata 像元留给后面的影像填充
+                    if (Double.isNaN(values[0]) || nodata != null && values[0] == nodata) {
+                        continue;
+                    }
+                    filled.set(bit);
+                }
+                for (int b = 0; b < bands; b++) {
+                    if (integral) {
+                        strip.setSample(c0 + c, r, b, (int) (long) Math.max(range[0], Math.min(range[1], Math.rint(values[b]))));
+                    } else {
+                        strip.setSample(c0 + c, r, b, values[b]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取整幅影像的重投影结果，已缓存时直接返回，否则生成并保存到存储中
+     */
+    public RasterWarp getWarped(Long rasterId, int targetEpsg, Double resolution, Resampling resampling)
+            throws IOException {
+        WarpPlan plan = plan(rasterId, targetEpsg, resolution, resampling, null, false);
+        RasterWarp cached = find(rasterId, targetEpsg, plan.resolution, resampling);
+        if (cached != null) {
+            return cached;
+        }
+        String key = rasterId + ":" + targetEpsg + ":" + plan.resolution + ":" + resampling;
+        CompletableFuture<RasterWarp> future = new CompletableFuture<>();
+        CompletableFuture<RasterWarp> existing = generating.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw new IOException("重投影失败: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        try {
+            RasterWarp warp = generate(rasterId, plan);
+            future.complete(warp);
+            return warp;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            generating.remove(key);
+        }
+    }
+
+    /**
+     * 在生成线程中写出 GeoTIFF，经管道写入新的存储对象，完成后登记
+     */
+    private RasterWarp generate(Long rasterId, WarpPlan plan) throws IOException {
+        long oid = rasterStorage.create();
+        try (PipedInputStream in = new PipedInputStream(1 << 20)) {
+            PipedOutputStream pipe = new PipedOutputStream(in);
+            Future<?> producer = generators.submit(() -> {
+                try (pipe) {
+                    write(plan, pipe);
+                }
+                return null;
+            });
+            long written;
+            try {
+                written = rasterStorage.write(oid, 0, in, plan.getLength());
+                producer.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException io ? io : new IOException("重投影失败: " + cause.getMessage(), cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("重投影被中断", e);
+            } finally {
+                producer.cancel(true);
+            }
+            if (written != plan.getLength()) {
+                throw new IOException("重投影结果长度不一致，预期 " + plan.getLength() + " 字节，实际 " + written + " 字节");
+            }
+        } catch (IOException | RuntimeException e) {
+            rasterStorage.unlink(oid);
+            throw e;
+        }
+        List<RasterWarp> inserted = jdbcTemplate.query(
+                "INSERT INTO raster_warp (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, now()) "
+                        + "ON CONFLICT DO NOTHING RETURNING " + COLUMNS,
+                new BeanPropertyRowMapper<>(RasterWarp.class), rasterId, plan.targetEpsg, plan.resolution,
+                plan.resampling.name(), oid, plan.getLength());
+        if (inserted.isEmpty()) {
+            // 其他实例已登记了相同结果
+            rasterStorage.unlink(oid);
+            return find(rasterId, plan.targetEpsg, plan.resolution, plan.resampling);
+        }
+        return inserted.get(0);
+    }
+
+    private RasterWarp find(Long rasterId, int epsg, double resolution, Resampling resampling) {
+        List<RasterWarp> rows = jdbcTemplate.query(
+                "SELECT " + COLUMNS + " FROM raster_warp WHERE raster_id = ? AND epsg = ? AND resolution = ? AND resampling = ?",
+                new BeanPropertyRowMapper<>(RasterWarp.class), rasterId, epsg, resolution, resampling.name());
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * 栅格删除时删除其全部缓存的重投影结果
+     *
+     * 在删除栅格的事务中执行：raster_warp 的记录会随外键级联删除，须在此之前取出存储句柄；
+     * 存储对象随事务提交才删除，删除回滚时保留。
+     */
+    @EventListener
+    public void handleRasterDataDeletedEvent(RasterDataDeletedEvent event) {
+        List<Long> oids = jdbcTemplate.queryForList(
+                "DELETE FROM raster_warp WHERE raster_id = ? RETURNING lo_oid", Long.class, event.getRasterDataId());
+        oids.forEach(rasterStorage::unlinkInTransaction);
+    }
+
+    /**
+     * 影像边界加密后投影到目标坐标系的外包框 [minX, minY, maxX, maxY]
+     */
+    private static double[] targetExtent(GeoTiffHeader header, double[] gt, int sourceEpsg, int targetEpsg)
+            throws IOException {
+        int w = header.getWidth();
+        int h = header.getHeight();
+        int n = EDGE_SAMPLES * 4;
+        double[] xy = new double[n * 2];
+        for (int i = 0; i < EDGE_SAMPLES; i++) {
+            double t = (double) i / EDGE_SAMPLES;
+            double[][] points = {{t * w, 0}, {w, t * h}, {w - t * w, h}, {0, h - t * h}};
+            for (int e = 0; e < 4; e++) {
+                int k = e * EDGE_SAMPLES + i;
+                xy[2 * k] = points[e][0];
+                xy[2 * k + 1] = points[e][1];
+            }
+        }
+        GeoTiffHeader.pixelToWorld(gt, xy, n);
+        CrsTransforms.transform(sourceEpsg, targetEpsg, xy, n);
+        double[] extent = envelope(List.of(xy));
+        if (!(extent[0] < extent[2] && extent[1] < extent[3])) {
+            throw new IOException("影像无法投影到 EPSG:" + targetEpsg);
+        }
+        return extent;
+    }
+
+    /**
+     * 影像中心处相邻源像元在目标坐标系中的平均间距
+     */
+    private static double estimateResolution(GeoTiffHeader header, double[] gt, int sourceEpsg, int targetEpsg)
+            throws IOException {
+        double cx = header.getWidth() / 2.0;
+        double cy = header.getHeight() / 2.0;
+        double[] xy = {cx, cy, cx + 1, cy, cx, cy + 1};
+        GeoTiffHeader.pixelToWorld(gt, xy, 3);
+        CrsTransforms.transform(sourceEpsg, targetEpsg, xy, 3);
+        double res = (Math.hypot(xy[2] - xy[0], xy[3] - xy[1]) + Math.hypot(xy[4] - xy[0], xy[5] - xy[1])) / 2;
+        if (!(res > 0 && Double.isFinite(res))) {
+            throw new IOException("无法估算 EPSG:" + targetEpsg + " 下的分辨率，请指定 resolution");
+        }
+        return res;
+    }
+
+    /**
+     * 输出网格中一个像元窗口在目标坐标系中的范围 [minX, minY, maxX, maxY]
+     */
+    private static double[] extentOf(WarpPlan plan, int col, int row, int cols, int rows) {
+        double[] gt = plan.geoTransform;
+        return new double[]{gt[0] + col * gt[1], gt[3] + (row + rows) * gt[5],
+                gt[0] + (col + cols) * gt[1], gt[3] + row * gt[5]};
+    }
+
+    private static boolean intersects(double[] a, double[] b) {
+        return a[0] < b[2] && a[2] > b[0] && a[1] < b[3] && a[3] > b[1];
+    }
+
+    private static boolean sameLayout(GeoTiffHeader a, GeoTiffHeader b) {
+        return a.getSamplesPerPixel() == b.getSamplesPerPixel()
+                && a.getBitsPerSample()[0] == b.getBitsPerSample()[0]
+                && a.getSampleFormat() == b.getSampleFormat();
+    }
+
+    private static double[] envelope(List<double[]> rings) {
+        double[] env = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (double[] ring : rings) {
+            for (int i = 0; i + 1 < ring.length; i += 2) {
+                if (Double.isFinite(ring[i]) && Double.isFinite(ring[i + 1])) {
+                    env[0] = Math.min(env[0], ring[i]);
+                    env[1] = Math.min(env[1], ring[i + 1]);
+                    env[2] = Math.max(env[2], ring[i]);
+                    env[3] = Math.max(env[3], ring[i + 1]);
+                }
+            }
+        }
+        return env;
+    }
+
+    /**
+     * 目标坐标系的地理键：地理坐标系写 GeographicType，投影坐标系写 ProjectedCSType
+     */
+    private static Map<Integer, Object> geoKeys(int epsg) throws IOException {
+        Map<Integer, Object> keys = new HashMap<>();
+        keys.put(GeoTiffHeader.KEY_RASTER_TYPE, 1);
+        if (CrsTransforms.isGeographic(epsg)) {
+            keys.put(GeoTiffHeader.KEY_MODEL_TYPE, 2);
+            keys.put(GeoTiffHeader.KEY_GEOGRAPHIC_TYPE, epsg);
+        } else {
+            keys.put(GeoTiffHeader.KEY_MODEL_TYPE, 1);
+            keys.put(GeoTiffHeader.KEY_PROJECTED_CS_TYPE, epsg);
+        }
+        return keys;
+    }
+
+    /**
+     * 源影像的分辨率层级 [图像序号, 宽, 高]，原图为第一层
+     */
+    private static List<int[]> levels(ImageReader reader, GeoTiffHeader header) throws IOException {
+        List<int[]> levels = new ArrayList<>();
+        levels.add(new int[]{0, header.getWidth(), header.getHeight()});
+        int count = reader.getNumImages(true);
+        for (int i = 1; i < count; i++) {
+            if (RasterImages.isOverview(reader, i)) {
+                levels.add(new int[]{i, reader.getWidth(i), reader.getHeight(i)});
+            }
+        }
+        return levels;
+    }
+
+    private static WritableRaster createRaster(WarpPlan plan, int width, int height) {
+        GeoTiffHeader header = plan.header;
+        int bits = header.getBitsPerSample()[0];
+        int type;
+        if (header.getSampleFormat() == 3) {
+            type = bits == 64 ? DataBuffer.TYPE_DOUBLE : DataBuffer.TYPE_FLOAT;
+        } else if (bits == 8) {
+            type = DataBuffer.TYPE_BYTE;
+        } else if (bits == 16) {
+            type = header.getSampleFormat() == 2 ? DataBuffer.TYPE_SHORT : DataBuffer.TYPE_USHORT;
+        } else {
+            type = DataBuffer.TYPE_INT;
+        }
+        int bands = header.getSamplesPerPixel();
+        WritableRaster raster = Raster.createWritableRaster(new BandedSampleModel(type, width, height, bands), null);
+        if (plan.fill != 0) {
+            for (int r = 0; r < height; r++) {
+                fill(raster, 0, width, r, bands, plan.fill);
+            }
+        }
+        return raster;
+    }
+
+    private static void fill(WritableRaster raster, int from, int to, int row, int bands, double value) {
+        if (to <= from) {
+            return;
+        }
+        double[] samples = new double[to - from];
+        Arrays.fill(samples, value);
+        for (int b = 0; b < bands; b++) {
+            raster.setSamples(from, row, to - from, 1, b, samples);
+        }
+    }
+
+    /**
+     * 整数类型的取值范围，插值结果四舍五入后截断到该范围
+     */
+    private static double[] sampleRange(GeoTiffHeader header) {
+        int bits = header.getBitsPerSample()[0];
+        if (header.getSampleFormat() == 2) {
+            return new double[]{-Math.pow(2, bits - 1), Math.pow(2, bits - 1) - 1};
+        }
+        return new double[]{0, Math.pow(2, bits) - 1};
+    }
+
+    private static double sourcePixelsPerOutputPixel(double[] coords, int cols, int rows) {
+        int c = cols / 2;
+        int r = rows / 2;
+        int i = r * cols + c;
+        double best = 0;
+        if (c + 1 < cols) {
+            best = Math.max(best, Math.hypot(coords[2 * (i + 1)] - coords[2 * i], coords[2 * (i + 1) + 1] - coords[2 * i + 1]));
+        }
+        if (r + 1 < rows) {
+            int j = i + cols;
+            best = Math.max(best, Math.hypot(coords[2 * j] - coords[2 * i], coords[2 * j + 1] - coords[2 * i + 1]));
+        }
+        return Double.isFinite(best) && best > 0 ? best : 1;
+    }
+
+    private static int clamp(int v, int min, int max) {
+        return Math.max(min, Math.min(max, v));
+    }
+
+    /**
+     * 填充一个输出条带
+     */
+    private interface StripFiller {
+        void fill(WritableRaster strip, int row0, BitSet filled) throws IOException;
+    }
+
+    /**
+     * 一幅源影像及其在目标坐标系中的外包框
+     */
+    private static class WarpSource {
+        private long oid;
+        private GeoTiffHeader header;
+        private int epsg;
+        private double[] extent;
+    }
+
+    /**
+     * 重投影计划：源影像（按优先级排列）、目标网格与输出写入器
+     */
+    public static class WarpPlan {
+        private List<WarpSource> sources;
+        private GeoTiffHeader header;
+        private int targetEpsg;
+        private double resolution;
+        private Resampling resampling;
+        private int width;
+        private int height;
+        private double[] geoTransform;
+        private double fill;
+        private List<double[]> maskRings;
+        private StreamingGeoTiffWriter writer;
+        private String fileName;
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getLength() {
+            return writer.length();
+        }
+    }
+}
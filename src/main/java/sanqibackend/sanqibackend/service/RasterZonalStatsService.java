@@ -0,0 +1,449 @@
+package sanqibackend.sanqibackend.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import sanqibackend.sanqibackend.entity.RasterData;
+import sanqibackend.sanqibackend.entity.SanqiRegion;
+import sanqibackend.sanqibackend.entity.ZonalBandStats;
+import sanqibackend.sanqibackend.entity.ZonalStats;
+import sanqibackend.sanqibackend.event.RasterDataDeletedEvent;
+import sanqibackend.sanqibackend.mapper.SanqiRegionMapper;
+import sanqibackend.sanqibackend.utils.CrsTransforms;
+import sanqibackend.sanqibackend.utils.GeoTiffHeader;
+import sanqibackend.sanqibackend.utils.PolygonRasterizer;
+import sanqibackend.sanqibackend.utils.RasterImages;
+import sanqibackend.sanqibackend.utils.WeightedLruCache;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 栅格在三七种植区域上的分区统计
+ *
+ * 各区域按外包框所在行排序后分组，交给 ForkJoin 线程池并行计算。每个工作线程独立打开大对象流，
+ * 只读取区域外包框覆盖的影像窗口，并用扫描线把区域多边形栅格化为掩膜，逐行累加被覆盖的像元。
+ * 结果按（栅格、大对象、区域集合版本、分箱参数）缓存，区域或栅格内容变化后自然失效。
+ */
+@Service
+public class RasterZonalStatsService {
+
+    private static final Logger log = LoggerFactory.getLogger(RasterZonalStatsService.class);
+
+    // 单次窗口读取的像元数上限，按分块高度取整
+    private static final long READ_WINDOW_PIXELS = 4L * 1024 * 1024;
+
+    @Autowired
+    private RasterDataService rasterDataService;
+
+    @Autowired
+    private RasterStorage rasterStorage;
+
+    @Autowired
+    private SanqiRegionMapper sanqiRegionMapper;
+
+    @Value("${raster.zonal.parallelism:4}")
+    private int parallelism;
+
+    @Value("${raster.zonal.max-bins:1024}")
+    private int maxBins;
+
+    @Value("${raster.zonal.cache-max-bytes:16777216}")
+    private long cacheMaxBytes;
+
+    private ForkJoinPool pool;
+
+    private WeightedLruCache<String, List<ZonalStats>> cache;
+
+    @PostConstruct
+    public void init() {
+        pool = new ForkJoinPool(Math.max(1, parallelism));
+        cache = new WeightedLruCache<>(cacheMaxBytes, RasterZonalStatsService::estimateBytes);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * 计算所有区域的统计值
+     *
+     * @param bins         直方图分箱数
+     * @param histogramMin 直方图下限，与 histogramMax 同时为空时按数据范围确定
+     * @param histogramMax 直方图上限
+     */
+    public List<ZonalStats> compute(Long rasterId, int bins, Double histogramMin, Double histogramMax)
+            throws IOException {
+        if (bins < 1 || bins > maxBins) {
+            throw new IllegalArgumentException("直方图分箱数须在 1 到 " + maxBins + " 之间");
+        }
+        if ((histogramMin == null) != (histogramMax == null)
+                || (histogramMin != null && !(histogramMin < histogramMax))) {
+            throw new IllegalArgumentException("直方图范围须同时给出且下限小于上限");
+        }
+        RasterData rasterData = rasterDataService.getRasterDataById(rasterId);
+        if (rasterData.getLoOid() == null) {
+            throw new IllegalStateException("数据库未保存大对象 OID，无法统计");
+        }
+        long oid = rasterData.getLoOid();
+        String key = rasterId + ":" + oid + ":" + sanqiRegionMapper.findVersion() + ":" + bins
+                + ":" + histogramMin + ":" + histogramMax;
+        List<ZonalStats> cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        long start = System.currentTimeMillis();
+        GeoTiffHeader header = rasterStorage.readImage(oid, GeoTiffHeader::read);
+        if (!header.isGeoreferenced()) {
+            throw new IOException("影像缺少地理参考，无法进行分区统计");
+        }
+        Integer epsg = header.getEpsgCode();
+        if (epsg == null) {
+            throw new IOException("影像坐标系不是 EPSG 坐标系，无法进行分区统计");
+        }
+        List<Zone> zones = loadZones(header, epsg);
+
+        // 使用调用方指定的范围；8 位数据直接用 0-255；其他类型需先扫描一遍得到区域内的最值
+        double[] range = histogramMin != null ? new double[]{histogramMin, histogramMax}
+                : "Byte".equals(header.getDataType()) ? new double[]{0, 255} : null;
+        List<ZonalStats> results = computeParallel(oid, header, zones, bins, range);
+        cache.put(key, results);
+        log.info("分区统计完成, 栅格ID: {}, 区域数: {}, 耗时: {} ms",
+                rasterId, zones.size(), System.currentTimeMillis() - start);
+        return results;
+    }
+
+    public Map<String, Object> getCacheStats() {
+        return cache.getStats();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void handleRasterDataDeletedEvent(RasterDataDeletedEvent event) {
+        String prefix = event.getRasterDataId() + ":";
+        cache.removeIf(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * 读取区域几何并转换为影像像素坐标
+     */
+    private List<Zone> loadZones(GeoTiffHeader header, int epsg) throws IOException {
+        WKTReader wktReader = new WKTReader();
+        double[] gt = header.getGeoTransform();
+        List<Zone> zones = new ArrayList<>();
+        for (SanqiRegion region : sanqiRegionMapper.findAllWkt()) {
+            List<double[]> rings = new ArrayList<>();
+            if (region.getGeom() != null) {
+                Geometry geometry;
+                try {
+                    geometry = wktReader.read(region.getGeom());
+                } catch (ParseException e) {
+                    throw new IOException("区域几何解析失败, gid: " + region.getGid() + ": " + e.getMessage(), e);
+                }
+                for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                    Polygon polygon = (Polygon) geometry.getGeometryN(i);
+                    rings.add(toPixels(polygon.getExteriorRing(), epsg, gt));
+                    for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+                        rings.add(toPixels(polygon.getInteriorRingN(j), epsg, gt));
+                    }
+                }
+            }
+            Zone zone = new Zone(region, rings);
+            zone.bounds = new PolygonRasterizer(rings).pixelBounds(header.getWidth(), header.getHeight());
+            zones.add(zone);
+        }
+        return zones;
+    }
+
+    private static double[] toPixels(LineString ring, int epsg, double[] gt) throws IOException {
+        int n = ring.getNumPoints();
+        double[] xy = new double[n * 2];
+        for (int i = 0; i < n; i++) {
+            xy[2 * i] = ring.getCoordinateN(i).x;
+            xy[2 * i + 1] = ring.getCoordinateN(i).y;
+        }
+        CrsTransforms.transform(CrsTransforms.WGS84, epsg, xy, n);
+        GeoTiffHeader.worldToPixel(gt, xy, n);
+        return xy;
+    }
+
+    /**
+     * 区域按外包框起始行排序后交错分成若干组，每组由一个工作线程用同一个读取器依次处理
+     */
+    private List<ZonalStats> computeParallel(long oid, GeoTiffHeader header, List<Zone> zones, int bins,
+                                             double[] range) throws IOException {
+        List<Zone> pending = new ArrayList<>();
+        for (Zone zone : zones) {
+            if (!zone.isEmpty()) {
+                pending.add(zone);
+            }
+        }
+        pending.sort(Comparator.comparingInt(zone -> zone.bounds[1]));
+        int groups = Math.min(pending.size(), pool.getParallelism());
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int g = 0; g < groups; g++) {
+            List<Zone> group = new ArrayList<>();
+            for (int i = g; i < pending.size(); i += groups) {
+                group.add(pending.get(i));
+            }
+            tasks.add(pool.submit(() -> {
+                try {
+                    rasterStorage.readImage(oid, in -> computeGroup(in, header, group, bins, range));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        try {
+            for (ForkJoinTask<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("分区统计被中断", e);
+        } catch (ExecutionException e) {
+            tasks.forEach(task -> task.cancel(true));
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            throw new IOException("分区统计失败: " + cause.getMessage(), cause);
+        }
+
+        List<ZonalStats> results = new ArrayList<>(zones.size());
+        int bandCount = header.getSamplesPerPixel();
+        for (Zone zone : zones) {
+            ZonalStats stats = new ZonalStats();
+            stats.setGid(zone.region.getGid());
+            stats.setName(zone.region.getName());
+            stats.setPixelCount(zone.pixelCount);
+            List<ZonalBandStats> bands = new ArrayList<>(bandCount);
+            for (int b = 0; b < bandCount; b++) {
+                bands.add(zone.accumulators != null ? zone.accumulators[b].toStats(b + 1)
+                        : new Accumulator(bins, range).toStats(b + 1));
+            }
+            stats.setBands(bands);
+            results.add(stats);
+        }
+        return results;
+    }
+
+    private Void computeGroup(ImageInputStream in, GeoTiffHeader header, List<Zone> group, int bins,
+                              double[] range) throws IOException {
+        ImageReader reader = RasterImages.openReader(in);
+        try {
+            int bandCount = header.getSamplesPerPixel();
+            Double nodata = header.getNoData();
+            for (Zone zone : group) {
+                Accumulator[] accumulators = new Accumulator[bandCount];
+                for (int b = 0; b < bandCount; b++) {
+                    accumulators[b] = new Accumulator(bins, range);
+                }
+                zone.pixelCount = scan(reader, header, zone, accumulators, nodata, false);
+                if (range == null && zone.pixelCount > 0) {
+                    // 第二遍：按区域内的最值确定直方图范围
+                    for (Accumulator accumulator : accumulators) {
+                        accumulator.fixRange();
+                    }
+                    scan(reader, header, zone, accumulators, nodata, true);
+                }
+                zone.accumulators = accumulators;
+            }
+        } finally {
+            reader.dispose();
+        }
+        return null;
+    }
+
+    /**
+     * 按分块高度对齐逐段读取区域外包框窗口，累加掩膜覆盖的像元，返回覆盖像元数
+     */
+    private long scan(ImageReader reader, GeoTiffHeader header, Zone zone, Accumulator[] accumulators,
+                      Double nodata, boolean histogramOnly) throws IOException {
+        int[] bounds = zone.bounds;
+        int windowWidth = bounds[2] - bounds[0];
+        int blockHeight = Math.max(1, header.getBlockHeight());
+        int rowsPerRead = (int) Math.max(blockHeight,
+                READ_WINDOW_PIXELS / windowWidth / blockHeight * blockHeight);
+        PolygonRasterizer rasterizer = new PolygonRasterizer(zone.rings);
+        ImageReadParam param = reader.getDefaultReadParam();
+        SpanAccumulator spans = new SpanAccumulator(accumulators, nodata, histogramOnly, windowWidth);
+        for (int row = bounds[1]; row < bounds[3]; ) {
+            int end = Math.min(bounds[3], (row / rowsPerRead + 1) * rowsPerRead);
+            Rectangle window = new Rectangle(bounds[0], row, windowWidth, end - row);
+            param.setSourceRegion(window);
+            spans.raster = reader.canReadRaster() ? reader.readRaster(0, param) : reader.read(0, param).getRaster();
+            spans.offsetX = spans.raster.getMinX() - window.x;
+            for (int r = row; r < end; r++) {
+                spans.y = spans.raster.getMinY() + r - window.y;
+                rasterizer.spans(r, bounds[0], bounds[2], spans);
+            }
+            row = end;
+        }
+        return spans.pixels;
+    }
+
+    private static long estimateBytes(List<ZonalStats> results) {
+        long bytes = 64;
+        for (ZonalStats stats : results) {
+            bytes += 128;
+            for (ZonalBandStats band : stats.getBands()) {
+                bytes += 96 + (band.getHistogram() != null ? band.getHistogram().length * 8L : 0);
+            }
+        }
+        return bytes;
+    }
+
+    private static class Zone {
+        final SanqiRegion region;
+        final List<double[]> rings;
+        int[] bounds;
+        long pixelCount;
+        Accumulator[] accumulators;
+
+        Zone(SanqiRegion region, List<double[]> rings) {
+            this.region = region;
+            this.rings = rings;
+        }
+
+        boolean isEmpty() {
+            return bounds[2] <= bounds[0] || bounds[3] <= bounds[1];
+        }
+    }
+
+    /**
+     * 把一行中的像元区间送入各波段的累加器
+     */
+    private static class SpanAccumulator implements PolygonRasterizer.SpanConsumer {
+        final Accumulator[] accumulators;
+        final Double nodata;
+        final boolean histogramOnly;
+        final double[] buffer;
+        Raster raster;
+        int offsetX;
+        int y;
+        long pixels;
+
+        SpanAccumulator(Accumulator[] accumulators, Double nodata, boolean histogramOnly, int maxWidth) {
+            this.accumulators = accumulators;
+            this.nodata = nodata;
+            this.histogramOnly = histogramOnly;
+            this.buffer = new double[maxWidth];
+        }
+
+        @Override
+        public void accept(int startCol, int endCol) {
+            int w = endCol - startCol;
+            pixels += w;
+            for (int b = 0; b < Math.min(accumulators.length, raster.getNumBands()); b++) {
+                raster.getSamples(startCol + offsetX, y, w, 1, b, buffer);
+                Accumulator accumulator = accumulators[b];
+                for (int i = 0; i < w; i++) {
+                    double v = buffer[i];
+                    if (Double.isNaN(v) || (nodata != null && v == nodata)) {
+                        continue;
+                    }
+                    if (histogramOnly) {
+                        accumulator.addToHistogram(v);
+                    } else {
+                        accumulator.add(v);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 单波段累加器：Welford 算法计算均值和方差，直方图范围已知时同时计数
+     */
+    private static class Accumulator {
+        final long[] histogram;
+        double histogramMin;
+        double histogramMax;
+        boolean rangeKnown;
+        long count;
+        double mean;
+        double m2;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        Accumulator(int bins, double[] range) {
+            this.histogram = new long[bins];
+            if (range != null) {
+                this.histogramMin = range[0];
+                this.histogramMax = range[1];
+                this.rangeKnown = true;
+            }
+        }
+
+        void add(double v) {
+            count++;
+            double delta = v - mean;
+            mean += delta / count;
+            m2 += delta * (v - mean);
+            if (v < min) {
+                min = v;
+            }
+            if (v > max) {
+                max = v;
+            }
+            if (rangeKnown) {
+                addToHistogram(v);
+            }
+        }
+
+        void fixRange() {
+            histogramMin = min;
+            histogramMax = max;
+            rangeKnown = true;
+        }
+
+        void addToHistogram(double v) {
+            if (v < histogramMin || v > histogramMax) {
+                return;
+            }
+            int bins = histogram.length;
+            int bin = histogramMax > histogramMin
+                    ? (int) ((v - histogramMin) / (histogramMax - histogramMin) * bins) : 0;
+            histogram[Math.min(bin, bins - 1)]++;
+        }
+
+        ZonalBandStats toStats(int band) {
+            ZonalBandStats stats = new ZonalBandStats();
+            stats.setBand(band);
+            stats.setCount(count);
+            if (count > 0) {
+                stats.setMin(min);
+                stats.setMax(max);
+                stats.setMean(mean);
+                stats.setStddev(Math.sqrt(m2 / count));
+            }
+            if (rangeKnown) {
+                stats.setHistogramMin(histogramMin);
+                stats.setHistogramMax(histogramMax);
+            }
+            stats.setHistogram(histogram);
+            return stats;
+        }
+    }
+}
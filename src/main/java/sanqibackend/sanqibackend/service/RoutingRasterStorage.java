@@ -0,0 +1,137 @@
+package sanqibackend.sanqibackend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 业务代码使用的栅格存储：新对象写入 raster.storage.type 指定的后端，
+ * 其余操作按句柄范围转发到对象所在的后端，因此切换后端或迁移进行到一半时，已有数据仍可正常读取
+ */
+@Primary
+@Component
+public class RoutingRasterStorage implements RasterStorage {
+
+    private static final Logger log = LoggerFactory.getLogger(RoutingRasterStorage.class);
+
+    public static final String TYPE_POSTGRES = "postgres";
+    public static final String TYPE_FILESYSTEM = "filesystem";
+
+    @Autowired
+    private LargeObjectStore largeObjectStore;
+
+    @Autowired
+    private FileSystemRasterStorage fileSystemRasterStorage;
+
+    @Value("${raster.storage.type:postgres}")
+    private String type;
+
+    @PostConstruct
+    public void init() {
+        backend(type);
+        log.info("栅格存储后端: {}", type);
+    }
+
+    /**
+     * 按名称获取后端（postgres / filesystem）
+     */
+    public RasterStorage backend(String name) {
+        if (TYPE_POSTGRES.equalsIgnoreCase(name)) {
+            return largeObjectStore;
+        }
+        if (TYPE_FILESYSTEM.equalsIgnoreCase(name)) {
+            return fileSystemRasterStorage;
+        }
+        throw new IllegalArgumentException("未知的存储后端: " + name + "，可选 postgres、filesystem");
+    }
+
+    /**
+     * 句柄所在的后端
+     */
+    public RasterStorage backendOf(long handle) {
+        return fileSystemRasterStorage.owns(handle) ? fileSystemRasterStorage : largeObjectStore;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public long create() throws IOException {
+        return backend(type).create();
+    }
+
+    @Override
+    public long write(long handle, long offset, InputStream in, long maxBytes) throws IOException {
+        return backendOf(handle).write(handle, offset, in, maxBytes);
+    }
+
+    @Override
+    public void read(long handle, long offset, long length, OutputStream out) throws IOException {
+        backendOf(handle).read(handle, offset, length, out);
+    }
+
+    @Override
+    public Path localFile(long handle) throws IOException {
+        return backendOf(handle).localFile(handle);
+    }
+
+    @Override
+    public <T> T readStream(long handle, StreamCallback<T> callback) throws IOException {
+        return backendOf(handle).readStream(handle, callback);
+    }
+
+    @Override
+    public <T> T readImage(long handle, ImageStreamCallback<T> callback) throws IOException {
+        return backendOf(handle).readImage(handle, callback);
+    }
+
+    /**
+     * 转写结果与源对象位于同一后端，之后可由迁移工具统一搬迁
+     */
+    @Override
+    public long transform(long sourceHandle, ImageTransformCallback callback) throws IOException {
+        return backendOf(sourceHandle).transform(sourceHandle, callback);
+    }
+
+    @Override
+    public long size(long handle) throws IOException {
+        return backendOf(handle).size(handle);
+    }
+
+    @Override
+    public void unlink(long handle) throws IOException {
+        backendOf(handle).unlink(handle);
+    }
+
+    @Override
+    public void unlinkInTransaction(long handle) {
+        backendOf(handle).unlinkInTransaction(handle);
+    }
+
+    /**
+     * 两个后端的对象都列出，迁移前后残留的孤立对象都能被回收
+     */
+    @Override
+    public List<Long> listObjects() throws IOException {
+        List<Long> handles = new ArrayList<>(largeObjectStore.listObjects());
+        handles.addAll(fileSystemRasterStorage.listObjects());
+        return handles;
+    }
+
+    @Override
+    public boolean owns(long handle) {
+        return largeObjectStore.owns(handle) || fileSystemRasterStorage.owns(handle);
+    }
+}
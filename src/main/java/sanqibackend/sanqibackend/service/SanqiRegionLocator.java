@@ -0,0 +1,273 @@
+package sanqibackend.sanqibackend.service;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import sanqibackend.sanqibackend.entity.SamplePoint;
+import sanqibackend.sanqibackend.entity.SanqiRegion;
+import sanqibackend.sanqibackend.entity.SanqiRegionChange;
+import sanqibackend.sanqibackend.entity.SanqiRegionLocation;
+import sanqibackend.sanqibackend.mapper.SanqiRegionMapper;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按经纬度查找点所在的三七种植区域
+ *
+ * 去重叠后的区域几何（sanqi_resolved）预处理为 PreparedGeometry 后放入 STRtree，查询只访问内存。
+ * 索引定时根据区域变更日志更新：复制当前的区域表，只重新读取变化的区域，建好新树后整体替换，
+ * 查询始终看到某一个完整的快照，不需要加锁；日志中断或全量重算时重新加载全部区域。
+ */
+@Service
+public class SanqiRegionLocator {
+  private static final Logger logger = LoggerFactory.getLogger(SanqiRegionLocator.class);
+
+  // 单次拉取的变更日志条数
+  private static final int CHANGE_BATCH = 1000;
+
+  // 一次变化的区域超过该数量时直接全量加载
+  private static final int MAX_INCREMENTAL_REGIONS = 10000;
+
+  private final GeometryFactory geometryFactory = new GeometryFactory();
+
+  @Autowired
+  private SanqiRegionMapper sanqiMapper;
+
+  @Value("${sanqi.region.locate.max-points:100000}")
+  private int maxPoints;
+
+  private volatile RegionIndex index;
+
+  // 当前快照已包含的最大变更日志 id，只在持有本对象锁的 refresh 中读写
+  private long cursor = -1;
+
+  /**
+   * 查找点所在的区域，不在任何区域内时返回 null
+   */
+  public SanqiRegionLocation locate(double lon, double lat) {
+    RegionIndex snapshot = requireIndex();
+    checkCoordinate(lon, lat);
+    return locate(snapshot, null, lon, lat);
+  }
+
+  /**
+   * 批量查找，结果与输入顺序一致；整批使用同一个索引快照
+   */
+  public List<SanqiRegionLocation> locate(List<SamplePoint> points) {
+    if (points == null || points.isEmpty()) {
+      throw new IllegalArgumentException("查询点不能为空");
+    }
+    if (points.size() > maxPoints) {
+      throw new IllegalArgumentException("查询点数量超过上限 " + maxPoints);
+    }
+    for (SamplePoint point : points) {
+      if (point.getLon() == null || point.getLat() == null) {
+        throw new IllegalArgumentException("查询点缺少经纬度: " + point.getId());
+      }
+      checkCoordinate(point.getLon(), point.getLat());
+    }
+    RegionIndex snapshot = requireIndex();
+    List<SanqiRegionLocation> results = new ArrayList<>(points.size());
+    for (SamplePoint point : points) {
+      results.add(locate(snapshot, point.getId(), point.getLon(), point.getLat()));
+    }
+    return results;
+  }
+
+  public Map<String, Object> getStats() {
+    RegionIndex snapshot = index;
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("loaded", snapshot != null);
+    stats.put("regions", snapshot != null ? snapshot.regions.size() : 0);
+    stats.put("changeId", snapshot != null ? snapshot.changeId : null);
+    stats.put("refreshedAt", snapshot != null ? snapshot.refreshedAt : null);
+    return stats;
+  }
+
+  @Scheduled(fixedDelayString = "${sanqi.region.locate.refresh-interval-ms:5000}")
+  public void scheduledRefresh() {
+    try {
+      refresh();
+    } catch (RuntimeException e) {
+      logger.warn("更新区域索引失败: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * 根据变更日志更新索引，首次调用时全量加载
+   */
+  public synchronized void refresh() {
+    long latest = sanqiMapper.findLatestChangeId();
+    if (index == null) {
+      reload(latest);
+      return;
+    }
+    if (latest <= cursor) {
+      return;
+    }
+    Long oldest = sanqiMapper.findOldestChangeId();
+    if (oldest != null && oldest > cursor + 1) {
+      logger.info("区域变更日志 {} 之后的部分已被清理，重新加载区域索引", cursor);
+      reload(latest);
+      return;
+    }
+
+    Set<Long> changed = new LinkedHashSet<>();
+    long last = cursor;
+    List<SanqiRegionChange> changes;
+    do {
+      changes = sanqiMapper.findChangesAfter(last, CHANGE_BATCH);
+      for (SanqiRegionChange change : changes) {
+        if (change.getGid() == null || changed.size() >= MAX_INCREMENTAL_REGIONS) {
+          reload(latest);
+          return;
+        }
+        changed.add(change.getGid());
+        last = change.getId();
+      }
+    } while (changes.size() == CHANGE_BATCH);
+    if (changed.isEmpty()) {
+      cursor = last;
+      return;
+    }
+
+    // 先复制再修改，未变化的区域沿用已预处理的几何
+    Map<Long, Region> regions = new HashMap<>(index.regions);
+    changed.forEach(regions::remove);
+    WKTReader reader = new WKTReader(geometryFactory);
+    for (SanqiRegion sanqi : sanqiMapper.findWktByIds(changed.toArray(new Long[0]))) {
+      Region region = toRegion(reader, sanqi);
+      if (region != null) {
+        regions.put(region.gid, region);
+      }
+    }
+    publish(regions, last);
+    logger.info("区域索引已更新 {} 个区域，共 {} 个区域", changed.size(), regions.size());
+  }
+
+  private void reload(long latest) {
+    long start = System.currentTimeMillis();
+    Map<Long, Region> regions = new HashMap<>();
+    WKTReader reader = new WKTReader(geometryFactory);
+    for (SanqiRegion sanqi : sanqiMapper.findAllWkt()) {
+      Region region = toRegion(reader, sanqi);
+      if (region != null) {
+        regions.put(region.gid, region);
+      }
+    }
+    publish(regions, latest);
+    logger.info("区域索引已加载，共 {} 个区域，耗时 {} ms", regions.size(), System.currentTimeMillis() - start);
+  }
+
+  private void publish(Map<Long, Region> regions, long changeId) {
+    STRtree tree = new STRtree();
+    for (Region region : regions.values()) {
+      tree.insert(region.prepared.getGeometry().getEnvelopeInternal(), region);
+    }
+    // 建树后只读，可供多个线程同时查询
+    tree.build();
+    index = new RegionIndex(Collections.unmodifiableMap(regions), tree, changeId);
+    cursor = changeId;
+  }
+
+  private Region toRegion(WKTReader reader, SanqiRegion sanqi) {
+    if (sanqi.getGeom() == null) {
+      return null;
+    }
+    try {
+      Geometry geometry = reader.read(sanqi.getGeom());
+      if (geometry.isEmpty()) {
+        return null;
+      }
+      return new Region(sanqi.getGid(), sanqi.getName(), PreparedGeometryFactory.prepare(geometry));
+    } catch (ParseException e) {
+      logger.error("区域几何解析失败, gid: {}: {}", sanqi.getGid(), e.getMessage());
+      return null;
+    }
+  }
+
+  private SanqiRegionLocation locate(RegionIndex snapshot, String id, double lon, double lat) {
+    SanqiRegionLocation location = new SanqiRegionLocation();
+    location.setId(id);
+    location.setLon(lon);
+    location.setLat(lat);
+    Point point = geometryFactory.createPoint(new Coordinate(lon, lat));
+    Region found = null;
+    for (Object candidate : snapshot.tree.query(new Envelope(lon, lon, lat, lat))) {
+      Region region = (Region) candidate;
+      // 区域已去除重叠，只有点落在公共边界上时才会有多个结果，取 gid 最小的一个
+      if ((found == null || region.gid < found.gid) && region.prepared.intersects(point)) {
+        found = region;
+      }
+    }
+    if (found != null) {
+      location.setGid(found.gid);
+      location.setName(found.name);
+    }
+    return location;
+  }
+
+  private RegionIndex requireIndex() {
+    RegionIndex snapshot = index;
+    if (snapshot == null) {
+      throw new IllegalStateException("区域索引尚未加载");
+    }
+    return snapshot;
+  }
+
+  private static void checkCoordinate(double lon, double lat) {
+    if (!(lon >= -180 && lon <= 180 && lat >= -90 && lat <= 90)) {
+      throw new IllegalArgumentException("经纬度超出范围: " + lon + ", " + lat);
+    }
+  }
+
+  private static class Region {
+    final long gid;
+    final String name;
+    final PreparedGeometry prepared;
+
+    Region(long gid, String name, PreparedGeometry prepared) {
+      this.gid = gid;
+      this.name = name;
+      this.prepared = prepared;
+    }
+  }
+
+  /**
+   * 不可变的索引快照
+   */
+  private static class RegionIndex {
+    final Map<Long, Region> regions;
+    final STRtree tree;
+    final long changeId;
+    final LocalDateTime refreshedAt = LocalDateTime.now();
+
+    RegionIndex(Map<Long, Region> regions, STRtree tree, long changeId) {
+      this.regions = regions;
+      this.tree = tree;
+      this.changeId = changeId;
+    }
+  }
+}
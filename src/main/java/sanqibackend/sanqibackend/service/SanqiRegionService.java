@@ -1,72 +1,187 @@
 package sanqibackend.sanqibackend.service;
 
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import jakarta.annotation.PostConstruct;
+import org.apache.ibatis.session.ResultHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.transaction.annotation.Transactional;
 
-import sanqibackend.sanqibackend.entity.GeoJsonFeature;
-import sanqibackend.sanqibackend.entity.GeoJsonResponse;
 import sanqibackend.sanqibackend.entity.SanqiRegion;
 import sanqibackend.sanqibackend.mapper.SanqiRegionMapper;
+import sanqibackend.sanqibackend.utils.ByteLruCache;
 
-import java.util.List;
-import java.util.stream.Collectors;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.function.Consumer;
 
+/**
+ * 三七种植区域的 GeoJSON 输出
+ *
+ * PostGIS 生成的几何 GeoJSON 作为原始 JSON 直接写入输出流，不再解析成 Map 后重新序列化；
+ * 查询结果在事务内经数据库游标逐行回调写出，内存占用与区域数量无关。
+ */
 @Service
 public class SanqiRegionService {
   private static final Logger logger = LoggerFactory.getLogger(SanqiRegionService.class);
 
+  // 原始几何的 GeoJSON 坐标精度
+  private static final int FULL_PRECISION = 15;
+
+  private static final int MAX_ZOOM = 24;
+
   @Autowired
   private SanqiRegionMapper sanqiMapper;
 
-  private ObjectMapper objectMapper = new ObjectMapper();
+  @Value("${sanqi.region.cache-max-bytes:67108864}")
+  private long cacheMaxBytes;
+
+  // 输出流由调用方负责关闭
+  private final JsonFactory jsonFactory = JsonFactory.builder()
+      .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+      .build();
+
+  // 不带范围的简化层级的完整输出，按（区域集合版本、简化层级、坐标精度）缓存，区域变化后版本号变化自然失效
+  private ByteLruCache<String> cache;
+
+  @PostConstruct
+  public void init() {
+    cache = new ByteLruCache<>(cacheMaxBytes);
+  }
+
+  /**
+   * 按范围与缩放级别把区域以 GeoJSON FeatureCollection 写到输出流
+   *
+   * 缩放级别选用预先简化的几何层级（见 sanqi_simplify_level），坐标精度未指定时按该级别的像元大小确定；
+   * 两者都未指定时返回原始几何与 15 位精度。参数校验在写出任何内容之前完成。
+   *
+   * @param bbox      查询范围 minX,minY,maxX,maxY，为空时返回全部区域
+   * @param srid      范围坐标的 EPSG 代码
+   * @param zoom      地图缩放级别，为空时使用原始几何
+   * @param precision GeoJSON 坐标保留的小数位数
+   */
+  @Transactional(readOnly = true)
+  public void writeSanqis(double[] bbox, int srid, Integer zoom, Integer precision, OutputStream out)
+      throws IOException {
+    if (zoom != null && (zoom < 0 || zoom > MAX_ZOOM)) {
+      throw new IllegalArgumentException("缩放级别须在 0 到 " + MAX_ZOOM + " 之间");
+    }
+    if (precision != null && (precision < 0 || precision > FULL_PRECISION)) {
+      throw new IllegalArgumentException("坐标精度须在 0 到 " + FULL_PRECISION + " 之间");
+    }
+    if (bbox != null && !(bbox[0] < bbox[2] && bbox[1] < bbox[3])) {
+      throw new IllegalArgumentException("bbox 须满足 minX < maxX 且 minY < maxY");
+    }
+    Integer level = zoom != null ? sanqiMapper.findSimplifyLevel(zoom) : null;
+    int digits = precision != null ? precision : zoom != null ? precisionForZoom(zoom) : FULL_PRECISION;
+    if (bbox != null) {
+      // 范围随地图平移不断变化，直接输出不缓存
+      writeCollection(out, handler -> sanqiMapper.streamSimplifiedInBbox(
+          bbox[0], bbox[1], bbox[2], bbox[3], srid, level, digits, handler));
+      return;
+    }
+    if (level == null) {
+      // 原始几何体积大，直接输出不缓存；15 位精度时使用预先生成的 GeoJSON
+      if (digits == FULL_PRECISION) {
+        writeCollection(out, sanqiMapper::streamAll);
+      } else {
+        writeCollection(out, handler -> sanqiMapper.streamSimplified(null, digits, handler));
+      }
+      return;
+    }
 
-  public GeoJsonResponse getAllSanqis() {
-    List<SanqiRegion> sanqis = sanqiMapper.findAll();
-    GeoJsonResponse response = new GeoJsonResponse();
-    response.setFeatures(sanqis.stream()
-        .map(this::convertToGeoJsonFeature)
-        .collect(Collectors.toList()));
-    return response;
+    String key = sanqiMapper.findVersion() + ":" + level + ":" + digits;
+    byte[] cached = cache.get(key);
+    if (cached == null) {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      writeCollection(buffer, handler -> sanqiMapper.streamSimplified(level, digits, handler));
+      cached = buffer.toByteArray();
+      cache.put(key, cached);
+      logger.info("区域简化层级已缓存, 层级: {}, 精度: {}, 大小: {} 字节", level, digits, cached.length);
+    }
+    out.write(cached);
   }
 
-  public GeoJsonFeature getSanqiById(Long id) {
+  /**
+   * 把单个区域以 GeoJSON Feature 写到输出流
+   */
+  public void writeSanqi(Long id, OutputStream out) throws IOException {
     SanqiRegion sanqi = sanqiMapper.findById(id);
-    return convertToGeoJsonFeature(sanqi);
+    if (sanqi == null) {
+      throw new IllegalArgumentException("未找到ID为" + id + "的区域");
+    }
+    try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+      writeFeature(generator, sanqi);
+    }
   }
 
-  private GeoJsonFeature convertToGeoJsonFeature(SanqiRegion sanqi) {
-    GeoJsonFeature feature = new GeoJsonFeature();
+  public Map<String, Object> getCacheStats() {
+    return cache.getStats();
+  }
 
-    try {
-      // 设置属性
-      Map<String, Object> properties = new HashMap<>();
-      properties.put("gid", sanqi.getGid().longValue());
-      properties.put("name", sanqi.getName());
+  /**
+   * 全量重算去重叠后的区域几何，通常由触发器增量维护，仅在批量导入或触发器缺失后使用
+   *
+   * @return 重算的区域数
+   */
+  public int rebuildResolved() {
+    long start = System.currentTimeMillis();
+    int count = sanqiMapper.rebuildResolved();
+    logger.info("区域几何全量重算完成，共 {} 个区域，耗时 {} ms", count, System.currentTimeMillis() - start);
+    return count;
+  }
 
-      feature.setProperties(properties);
+  /**
+   * 缩放级别下保留到约十分之一像元的小数位数：赤道处一个像元约 360 / (256 * 2^zoom) 度
+   */
+  static int precisionForZoom(int zoom) {
+    double pixelsPerDegree = 256.0 * (1L << zoom) / 360.0;
+    int digits = (int) Math.ceil(Math.log10(pixelsPerDegree)) + 1;
+    return Math.max(0, Math.min(FULL_PRECISION, digits));
+  }
 
-      // 解析几何数据
-      if (sanqi.getGeom() != null) {
-        @SuppressWarnings("unchecked")
-        Map<String, Object> geometry = objectMapper.readValue(sanqi.getGeom(), Map.class);
-        if (geometry == null || !geometry.containsKey("coordinates")) {
-          logger.error("Invalid geometry data for region: {}", sanqi.getName());
+  private void writeCollection(OutputStream out, Consumer<ResultHandler<SanqiRegion>> query) throws IOException {
+    try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+      generator.writeStartObject();
+      generator.writeStringField("type", "FeatureCollection");
+      generator.writeArrayFieldStart("features");
+      query.accept(context -> {
+        try {
+          writeFeature(generator, context.getResultObject());
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
         }
-        feature.setGeometry(geometry);
-      } else {
-        logger.error("Null geometry data for region: {}", sanqi.getName());
-      }
-    } catch (Exception e) {
-      logger.error("Error converting region data: {} - {}", sanqi.getName(), e.getMessage());
-      e.printStackTrace();
+      });
+      generator.writeEndArray();
+      generator.writeEndObject();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
     }
+  }
 
-    return feature;
+  private void writeFeature(JsonGenerator generator, SanqiRegion sanqi) throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField("type", "Feature");
+    generator.writeObjectFieldStart("properties");
+    generator.writeNumberField("gid", sanqi.getGid());
+    generator.writeStringField("name", sanqi.getName());
+    generator.writeEndObject();
+    generator.writeFieldName("geometry");
+    if (sanqi.getGeom() != null) {
+      generator.writeRawValue(sanqi.getGeom());
+    } else {
+      logger.error("Null geometry data for region: {}", sanqi.getName());
+      generator.writeNull();
+    }
+    generator.writeEndObject();
   }
-}
\ No newline at end of file
+}
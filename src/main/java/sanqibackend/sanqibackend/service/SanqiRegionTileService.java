@@ -0,0 +1,255 @@
+package sanqibackend.sanqibackend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import sanqibackend.sanqibackend.entity.SanqiRegionChange;
+import sanqibackend.sanqibackend.mapper.SanqiRegionMapper;
+import sanqibackend.sanqibackend.utils.TieredByteCache;
+import sanqibackend.sanqibackend.utils.WebMercator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 三七种植区域的 Mapbox 矢量瓦片服务
+ *
+ * 瓦片由 PostGIS 的 ST_AsMVT 从去重叠后的区域几何生成（按缩放级别选用简化层级），写入内存 + 磁盘两级缓存。
+ * 区域变化由 sanqi_resolved_change 日志定时拉取，只清除与变化前后外包框相交的瓦片；
+ * 已处理到的日志 id 保存在磁盘缓存目录旁，重启后继续处理，日志中断时清空全部瓦片。
+ */
+@Service
+public class SanqiRegionTileService {
+  private static final Logger logger = LoggerFactory.getLogger(SanqiRegionTileService.class);
+
+  // 单次拉取的变更日志条数
+  private static final int CHANGE_BATCH = 1000;
+
+  @Autowired
+  private SanqiRegionMapper sanqiMapper;
+
+  @Value("${sanqi.region.tile.extent:4096}")
+  private int extent;
+
+  @Value("${sanqi.region.tile.buffer:64}")
+  private int buffer;
+
+  @Value("${sanqi.region.tile.memory-cache-max-bytes:67108864}")
+  private long memoryCacheMaxBytes;
+
+  @Value("${sanqi.region.tile.disk-cache-dir:${java.io.tmpdir}/sanqi/region-tile-cache}")
+  private String diskCacheDir;
+
+  @Value("${sanqi.region.tile.disk-cache-max-bytes:1073741824}")
+  private long diskCacheMaxBytes;
+
+  private TieredByteCache cache;
+
+  private Path cursorFile;
+
+  // 已处理的最大变更日志 id，-1 表示未知（首次启动或游标文件丢失）
+  private long cursor = -1;
+
+  // 每次清除缓存后加一，生成期间发生过清除的瓦片不写入缓存，避免缓存变化前的结果
+  private final AtomicLong generation = new AtomicLong();
+
+  private final Map<String, CompletableFuture<byte[]>> rendering = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  public void init() throws IOException {
+    Path root = Paths.get(diskCacheDir);
+    cache = new TieredByteCache(memoryCacheMaxBytes, root, diskCacheMaxBytes);
+    cursorFile = root.resolveSibling(root.getFileName() + ".cursor");
+    try {
+      cursor = Long.parseLong(Files.readString(cursorFile, StandardCharsets.UTF_8).trim());
+    } catch (IOException | NumberFormatException e) {
+      cursor = -1;
+    }
+  }
+
+  /**
+   * 获取矢量瓦片，没有区域时返回空数组
+   */
+  public byte[] getTile(int z, int x, int y) {
+    if (!WebMercator.isValidTile(z, x, y)) {
+      throw new IllegalArgumentException("无效的瓦片行列号: " + z + "/" + x + "/" + y);
+    }
+    String key = z + "/" + x + "/" + y + ".mvt";
+    byte[] cached = cache.get(key);
+    if (cached != null) {
+      return cached;
+    }
+
+    CompletableFuture<byte[]> future = new CompletableFuture<>();
+    CompletableFuture<byte[]> existing = rendering.putIfAbsent(key, future);
+    if (existing != null) {
+      try {
+        return existing.join();
+      } catch (CompletionException e) {
+        throw new IllegalStateException("矢量瓦片生成失败: " + e.getCause().getMessage(), e.getCause());
+      }
+    }
+    try {
+      long startGeneration = generation.get();
+      byte[] tile = sanqiMapper.findTile(z, x, y, sanqiMapper.findSimplifyLevel(z), extent, buffer);
+      if (tile == null) {
+        tile = new byte[0];
+      }
+      if (generation.get() == startGeneration) {
+        cache.put(key, tile);
+        // 写入的同时发生了清除，撤回刚写入的瓦片
+        if (generation.get() != startGeneration) {
+          cache.removeIf(key::equals);
+        }
+      }
+      future.complete(tile);
+      return tile;
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      rendering.remove(key);
+    }
+  }
+
+  /**
+   * 瓦片内容的 ETag
+   */
+  public static String etag(byte[] tile) {
+    return "\"" + DigestUtils.md5DigestAsHex(tile) + "\"";
+  }
+
+  /**
+   * 清除与区域当前范围相交的瓦片；区域已删除时由变更日志处理
+   *
+   * @return 清除的瓦片数
+   */
+  public int invalidateRegion(Long gid) {
+    SanqiRegionChange bounds = sanqiMapper.findExtentById(gid);
+    if (bounds == null) {
+      throw new IllegalArgumentException("未找到ID为" + gid + "的区域");
+    }
+    int removed = invalidate(List.of(bounds));
+    logger.info("已清除区域 {} 的 {} 个矢量瓦片", gid, removed);
+    return removed;
+  }
+
+  /**
+   * 清除全部矢量瓦片
+   */
+  public int invalidateAll() {
+    generation.incrementAndGet();
+    int removed = cache.removeIf(key -> true);
+    logger.info("已清除全部 {} 个矢量瓦片", removed);
+    return removed;
+  }
+
+  /**
+   * 拉取区域变更日志并清除受影响的瓦片
+   */
+  @Scheduled(initialDelayString = "${sanqi.region.tile.poll-interval-ms:5000}",
+      fixedDelayString = "${sanqi.region.tile.poll-interval-ms:5000}")
+  public void pollChanges() {
+    try {
+      syncChanges();
+    } catch (RuntimeException e) {
+      logger.warn("拉取区域变更日志失败: {}", e.getMessage());
+    }
+  }
+
+  synchronized void syncChanges() {
+    long latest = sanqiMapper.findLatestChangeId();
+    if (cursor < 0) {
+      // 不知道缓存中的瓦片对应哪个版本，全部清除
+      invalidateAll();
+      saveCursor(latest);
+      return;
+    }
+    if (latest <= cursor) {
+      return;
+    }
+    Long oldest = sanqiMapper.findOldestChangeId();
+    if (oldest != null && oldest > cursor + 1) {
+      logger.info("区域变更日志 {} 之后的部分已被清理，清除全部矢量瓦片", cursor);
+      invalidateAll();
+      saveCursor(latest);
+      return;
+    }
+    int removed = 0;
+    List<SanqiRegionChange> changes;
+    do {
+      changes = sanqiMapper.findChangesAfter(cursor, CHANGE_BATCH);
+      if (changes.isEmpty()) {
+        break;
+      }
+      if (changes.stream().anyMatch(change -> change.getGid() == null)) {
+        removed += invalidateAll();
+      } else {
+        removed += invalidate(changes);
+      }
+      saveCursor(changes.get(changes.size() - 1).getId());
+    } while (changes.size() == CHANGE_BATCH);
+    logger.info("区域变更日志已处理到 {}，清除 {} 个矢量瓦片", cursor, removed);
+  }
+
+  private int invalidate(List<SanqiRegionChange> changes) {
+    List<double[]> boxes = new ArrayList<>(changes.size());
+    for (SanqiRegionChange change : changes) {
+      double[] min = WebMercator.fromLonLat(change.getMinLon(), change.getMinLat());
+      double[] max = WebMercator.fromLonLat(change.getMaxLon(), change.getMaxLat());
+      boxes.add(new double[]{min[0], min[1], max[0], max[1]});
+    }
+    generation.incrementAndGet();
+    return cache.removeIf(key -> intersectsAny(key, boxes));
+  }
+
+  /**
+   * 瓦片（含缓冲区）是否与任一外包框相交，缓存键为 z/x/y.mvt
+   */
+  private boolean intersectsAny(String key, List<double[]> boxes) {
+    String[] parts = key.substring(0, key.length() - ".mvt".length()).split("/");
+    if (parts.length != 3) {
+      return true;
+    }
+    double[] tile = WebMercator.tileBounds(
+        Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+    double margin = (tile[2] - tile[0]) * buffer / extent;
+    for (double[] box : boxes) {
+      if (box[0] <= tile[2] + margin && box[2] >= tile[0] - margin
+          && box[1] <= tile[3] + margin && box[3] >= tile[1] - margin) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void saveCursor(long id) {
+    cursor = id;
+    try {
+      Files.createDirectories(cursorFile.getParent());
+      Files.writeString(cursorFile, Long.toString(id), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      logger.warn("保存区域变更日志游标失败: {}", e.getMessage());
+    }
+  }
+
+  public Map<String, Object> getCacheStats() {
+    return cache.getStats();
+  }
+}
@@ -0,0 +1,172 @@
+package sanqibackend.sanqibackend.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import sanqibackend.sanqibackend.entity.ThumbnailJob;
+import sanqibackend.sanqibackend.event.RasterDataImportedEvent;
+import sanqibackend.sanqibackend.repository.ThumbnailJobRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 缩略图后台任务队列
+ *
+ * 导入完成（事务提交）后把缩略图生成放入有界线程池执行，上传请求不再等待缩略图。
+ * 同一栅格在排队或执行中时重复提交会被合并，队列满时任务直接记为失败，避免突发导入占满资源。
+ */
+@Service
+public class ThumbnailJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailJobService.class);
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    @Autowired
+    private ThumbnailJobRepository thumbnailJobRepository;
+
+    @Autowired
+    private RasterThumbnailService rasterThumbnailService;
+
+    @Value("${raster.thumbnail.workers:2}")
+    private int workers;
+
+    @Value("${raster.thumbnail.queue-capacity:100}")
+    private int queueCapacity;
+
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "thumbnail-worker-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        log.info("缩略图任务队列已启动, 线程数: {}, 队列容量: {}", workers, queueCapacity);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 导入事务提交后再提交任务，保证工作线程能读到新记录
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void handleRasterDataImportedEvent(RasterDataImportedEvent event) {
+        submit(event.getRasterDataId());
+    }
+
+    /**
+     * 重启后恢复上次未完成的任务
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePendingJobs() {
+        List<ThumbnailJob> pending = thumbnailJobRepository.findByStatusIn(
+                List.of(ThumbnailJob.STATUS_QUEUED, ThumbnailJob.STATUS_RUNNING));
+        if (!pending.isEmpty()) {
+            log.info("恢复 {} 个未完成的缩略图任务", pending.size());
+            pending.forEach(job -> submit(job.getRasterId()));
+        }
+    }
+
+    /**
+     * 提交缩略图任务；该栅格已在排队或执行中时直接返回当前任务
+     */
+    public ThumbnailJob submit(Long rasterId) {
+        if (!inFlight.add(rasterId)) {
+            return thumbnailJobRepository.findById(rasterId).orElse(null);
+        }
+        ThumbnailJob job = new ThumbnailJob();
+        job.setRasterId(rasterId);
+        job.setStatus(ThumbnailJob.STATUS_QUEUED);
+        job.setQueuedAt(LocalDateTime.now());
+        job = thumbnailJobRepository.save(job);
+        try {
+            executor.execute(() -> run(rasterId));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(rasterId);
+            log.warn("缩略图任务队列已满，拒绝任务, ID: {}", rasterId);
+            job.setStatus(ThumbnailJob.STATUS_FAILED);
+            job.setFinishedAt(LocalDateTime.now());
+            job.setErrorMessage("缩略图任务队列已满，请稍后重试");
+            job = thumbnailJobRepository.save(job);
+        }
+        return job;
+    }
+
+    public Optional<ThumbnailJob> getJob(Long rasterId) {
+        return thumbnailJobRepository.findById(rasterId);
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    private void run(Long rasterId) {
+        ThumbnailJob job = thumbnailJobRepository.findById(rasterId).orElseGet(() -> {
+            ThumbnailJob created = new ThumbnailJob();
+            created.setRasterId(rasterId);
+            created.setQueuedAt(LocalDateTime.now());
+            return created;
+        });
+        LocalDateTime startedAt = LocalDateTime.now();
+        try {
+            job.setStatus(ThumbnailJob.STATUS_RUNNING);
+            job.setStartedAt(startedAt);
+            job.setFinishedAt(null);
+            job.setDurationMs(null);
+            job.setErrorMessage(null);
+            job = thumbnailJobRepository.save(job);
+
+            rasterThumbnailService.generateAndSaveThumbnail(rasterId);
+
+            job.setStatus(ThumbnailJob.STATUS_DONE);
+            log.info("缩略图生成成功, ID: {}", rasterId);
+        } catch (Exception e) {
+            log.error("缩略图生成失败, ID: {}: {}", rasterId, e.getMessage(), e);
+            job.setStatus(ThumbnailJob.STATUS_FAILED);
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+            job.setErrorMessage(message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message);
+        } finally {
+            LocalDateTime finishedAt = LocalDateTime.now();
+            job.setFinishedAt(finishedAt);
+            job.setDurationMs(Duration.between(startedAt, finishedAt).toMillis());
+            try {
+                thumbnailJobRepository.save(job);
+            } catch (Exception e) {
+                log.error("保存缩略图任务状态失败, ID: {}", rasterId, e);
+            }
+            inFlight.remove(rasterId);
+        }
+    }
+}
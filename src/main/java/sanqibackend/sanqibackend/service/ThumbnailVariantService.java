@@ -0,0 +1,279 @@
+package sanqibackend.sanqibackend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import sanqibackend.sanqibackend.entity.RasterData;
+import sanqibackend.sanqibackend.entity.RasterThumbnail;
+import sanqibackend.sanqibackend.event.RasterDataDeletedEvent;
+import sanqibackend.sanqibackend.repository.RasterDataRepository;
+import sanqibackend.sanqibackend.utils.WeightedLruCache;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 按需生成不同尺寸/格式的缩略图变体
+ *
+ * 请求的宽高先向上取到配置的边长档位，变体种类和渲染尺寸因此有限，不会因任意尺寸的请求撑满缓存或反复整图解码。
+ * 目标尺寸不超过已存缩略图时直接由其缩放，否则从影像的内部概览（或抽稀像元）重新渲染。
+ * 生成结果放入按字节数限定容量的 LRU 缓存；配置为常用尺寸的变体同时持久化到 raster_thumbnail_variant，
+ * 重启后无需重新生成。变体以所依据的基础缩略图哈希为版本，基础缩略图更新后旧变体自动失效。
+ */
+@Service
+public class ThumbnailVariantService {
+
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailVariantService.class);
+
+    private static final String NO_SOURCE = "-";
+
+    @Autowired
+    private RasterThumbnailService rasterThumbnailService;
+
+    @Autowired
+    private RasterThumbnailRenderer thumbnailRenderer;
+
+    @Autowired
+    private RasterDataRepository rasterDataRepository;
+
+    @Autowired
+    private RasterStorage rasterStorage;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${raster.thumbnail.variant.cache-max-bytes:134217728}")
+    private long cacheMaxBytes;
+
+    @Value("${raster.thumbnail.variant.sizes:64,128,160,256,320,512,800,1024,2048}")
+    private List<Integer> sizes;
+
+    @Value("${raster.thumbnail.variant.persisted:160x160.jpeg,320x320.jpeg}")
+    private List<String> persistedVariants;
+
+    @Value("${raster.thumbnail.variant.max-concurrent-renders:2}")
+    private int maxConcurrentRenders;
+
+    private WeightedLruCache<String, RasterThumbnail> cache;
+    private Set<String> persisted;
+    private Semaphore renderPermits;
+    // 升序排列的边长档位，最后一个即最大边长
+    private int[] buckets;
+    private int maxSize;
+
+    @PostConstruct
+    public void init() {
+        cache = new WeightedLruCache<>(cacheMaxBytes, variant -> variant.getImage().length);
+        persisted = new HashSet<>();
+        for (String key : persistedVariants) {
+            if (!key.isBlank()) {
+                persisted.add(key.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        renderPermits = new Semaphore(maxConcurrentRenders);
+        buckets = sizes.stream().filter(size -> size != null && size > 0).mapToInt(Integer::intValue)
+                .distinct().sorted().toArray();
+        if (buckets.length == 0) {
+            throw new IllegalStateException("raster.thumbnail.variant.sizes 至少需要配置一个正的边长");
+        }
+        maxSize = buckets[buckets.length - 1];
+    }
+
+    /**
+     * 变体标识，如 320x320.jpeg；宽或高为 0 表示该方向不限制
+     */
+    public static String variantKey(int width, int height, String format) {
+        return width + "x" + height + "." + format;
+    }
+
+    /**
+     * 规范化输出格式，只接受 jpeg/jpg/png
+     */
+    public static String normalizeFormat(String format) {
+        if (format == null || format.isBlank()) {
+            return "jpeg";
+        }
+        String f = format.trim().toLowerCase(Locale.ROOT);
+        if ("jpg".equals(f) || "jpeg".equals(f)) {
+            return "jpeg";
+        }
+        if ("png".equals(f)) {
+            return "png";
+        }
+        throw new IllegalArgumentException("不支持的缩略图格式: " + format);
+    }
+
+    /**
+     * 获取缩放到 width x height 范围内（保持宽高比）的缩略图变体，影像不存在时返回 null
+     *
+     * 宽高分别向上取到不小于它的边长档位，返回的图像可能比请求的略大；
+     * 返回对象的 contentHash 为变体内容的 SHA-256，可作为 ETag
+     */
+    public RasterThumbnail getVariant(Long rasterId, int width, int height, String format) throws IOException {
+        width = snapToBucket(width);
+        height = snapToBucket(height);
+        String key = variantKey(width, height, format);
+        RasterThumbnail base = rasterThumbnailService.getThumbnail(rasterId);
+        String sourceHash = base != null ? base.getContentHash() : NO_SOURCE;
+        String cacheKey = rasterId + ":" + sourceHash + ":" + key;
+
+        RasterThumbnail variant = cache.get(cacheKey);
+        if (variant != null) {
+            return variant;
+        }
+        boolean persist = persisted.contains(key) && base != null;
+        if (persist) {
+            variant = loadPersisted(rasterId, key, sourceHash);
+        }
+        if (variant == null) {
+            variant = generate(rasterId, base, width, height, format);
+            if (variant == null) {
+                return null;
+            }
+            if (persist) {
+                savePersisted(rasterId, key, sourceHash, variant);
+            }
+        }
+        cache.put(cacheKey, variant);
+        return variant;
+    }
+
+    private RasterThumbnail generate(Long rasterId, RasterThumbnail base, int width, int height, String format)
+            throws IOException {
+        long start = System.currentTimeMillis();
+        BufferedImage baseImage = base != null ? ImageIO.read(new ByteArrayInputStream(base.getImage())) : null;
+        BufferedImage image;
+        String source;
+        if (baseImage != null && fitsWithin(baseImage, width, height)) {
+            image = baseImage;
+            source = "缩略图";
+        } else {
+            RasterData rasterData = rasterDataRepository.findById(rasterId).orElse(null);
+            if (rasterData == null || rasterData.getLoOid() == null) {
+                return null;
+            }
+            int target = Math.max(width, height);
+            if (target == 0) {
+                target = baseImage != null ? Math.max(baseImage.getWidth(), baseImage.getHeight()) : maxSize;
+            }
+            int longSide = target;
+            renderPermits.acquireUninterruptibly();
+            try {
+                image = rasterStorage.readImage(rasterData.getLoOid(), in -> thumbnailRenderer.renderImage(in, longSide));
+            } finally {
+                renderPermits.release();
+            }
+            source = "影像概览";
+        }
+
+        int[] size = fitSize(image.getWidth(), image.getHeight(), width, height);
+        byte[] bytes = thumbnailRenderer.encode(thumbnailRenderer.resize(image, size[0], size[1]), format);
+        MessageDigest digest = RasterBlobService.newDigest();
+        digest.update(bytes);
+
+        RasterThumbnail variant = new RasterThumbnail();
+        variant.setRasterId(rasterId);
+        variant.setContentHash(RasterBlobService.toHex(digest));
+        variant.setContentType("png".equals(format) ? "image/png" : "image/jpeg");
+        variant.setImage(bytes);
+        variant.setCreatedAt(LocalDateTime.now());
+        variant.setUpdatedAt(base != null ? base.getUpdatedAt() : variant.getCreatedAt());
+        log.debug("生成缩略图变体 {} {}x{}.{}（来源: {}），耗时 {} ms",
+                rasterId, size[0], size[1], format, source, System.currentTimeMillis() - start);
+        return variant;
+    }
+
+    /**
+     * 取不小于 size 的最小边长档位，0 表示不限制，保持为 0
+     */
+    private int snapToBucket(int size) {
+        if (size < 0 || size > maxSize) {
+            throw new IllegalArgumentException("缩略图尺寸必须在 0~" + maxSize + " 之间");
+        }
+        if (size == 0) {
+            return 0;
+        }
+        int i = Arrays.binarySearch(buckets, size);
+        return buckets[i >= 0 ? i : -i - 1];
+    }
+
+    /**
+     * 已有图像是否足够大，可以直接缩小得到目标尺寸
+     */
+    private boolean fitsWithin(BufferedImage image, int width, int height) {
+        int[] size = fitSize(image.getWidth(), image.getHeight(), width, height);
+        return size[0] <= image.getWidth() && size[1] <= image.getHeight();
+    }
+
+    /**
+     * 按宽高比缩放到 width x height 范围内的尺寸，0 表示该方向不限制，两者都为 0 时保持原尺寸
+     */
+    static int[] fitSize(int imageWidth, int imageHeight, int width, int height) {
+        double ratio = Math.min(width > 0 ? (double) width / imageWidth : Double.POSITIVE_INFINITY,
+                height > 0 ? (double) height / imageHeight : Double.POSITIVE_INFINITY);
+        if (Double.isInfinite(ratio)) {
+            return new int[]{imageWidth, imageHeight};
+        }
+        return new int[]{Math.max(1, (int) Math.round(imageWidth * ratio)), Math.max(1, (int) Math.round(imageHeight * ratio))};
+    }
+
+    private RasterThumbnail loadPersisted(Long rasterId, String key, String sourceHash) {
+        List<RasterThumbnail> rows = jdbcTemplate.query(
+                "SELECT content_hash, content_type, image, created_at FROM raster_thumbnail_variant "
+                        + "WHERE raster_id = ? AND variant_key = ? AND source_hash = ?",
+                (rs, i) -> {
+                    RasterThumbnail variant = new RasterThumbnail();
+                    variant.setRasterId(rasterId);
+                    variant.setContentHash(rs.getString("content_hash"));
+                    variant.setContentType(rs.getString("content_type"));
+                    variant.setImage(rs.getBytes("image"));
+                    Timestamp createdAt = rs.getTimestamp("created_at");
+                    variant.setCreatedAt(createdAt != null ? createdAt.toLocalDateTime() : null);
+                    variant.setUpdatedAt(variant.getCreatedAt());
+                    return variant;
+                },
+                rasterId, key, sourceHash);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    private void savePersisted(Long rasterId, String key, String sourceHash, RasterThumbnail variant) {
+        jdbcTemplate.update(
+                "INSERT INTO raster_thumbnail_variant (raster_id, variant_key, source_hash, content_hash, content_type, image, created_at) "
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?) "
+                        + "ON CONFLICT (raster_id, variant_key) DO UPDATE SET source_hash = EXCLUDED.source_hash, "
+                        + "content_hash = EXCLUDED.content_hash, content_type = EXCLUDED.content_type, "
+                        + "image = EXCLUDED.image, created_at = EXCLUDED.created_at",
+                rasterId, key, sourceHash, variant.getContentHash(), variant.getContentType(), variant.getImage(),
+                Timestamp.valueOf(variant.getCreatedAt()));
+    }
+
+    public Map<String, Object> getCacheStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * 栅格删除后持久化的变体随外键级联删除，这里只需清理缓存
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void handleRasterDataDeletedEvent(RasterDataDeletedEvent event) {
+        String prefix = event.getRasterDataId() + ":";
+        cache.removeIf(key -> key.startsWith(prefix));
+    }
+}
@@ -0,0 +1,11 @@
+package sanqibackend.sanqibackend.utils;
+
+/**
+ * 按字节数限定容量的内存 LRU 缓存，超出容量时淘汰最久未访问的条目
+ */
+public class ByteLruCache<K> extends WeightedLruCache<K, byte[]> {
+
+    public ByteLruCache(long maxBytes) {
+        super(maxBytes, value -> value.length);
+    }
+}
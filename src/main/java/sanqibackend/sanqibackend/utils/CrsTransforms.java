@@ -0,0 +1,125 @@
+package sanqibackend.sanqibackend.utils;
+
+import org.geotools.referencing.CRS;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.crs.GeographicCRS;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于 GeoTools（gt-epsg-hsql）的 EPSG 坐标转换，转换对象按 (源, 目标) 缓存复用
+ *
+ * 所有坐标系均按经度在前、纬度在后的轴顺序处理，与 GeoJSON / PostGIS 一致。
+ */
+public final class CrsTransforms {
+
+    public static final int WGS84 = 4326;
+    public static final int WEB_MERCATOR = 3857;
+
+    private static final Map<Integer, CoordinateReferenceSystem> CRS_CACHE = new ConcurrentHashMap<>();
+    private static final Map<Long, MathTransform> TRANSFORM_CACHE = new ConcurrentHashMap<>();
+
+    private CrsTransforms() {
+    }
+
+    public static CoordinateReferenceSystem decode(int epsg) throws IOException {
+        CoordinateReferenceSystem crs = CRS_CACHE.get(epsg);
+        if (crs == null) {
+            try {
+                crs = CRS.decode("EPSG:" + epsg, true);
+            } catch (FactoryException e) {
+                throw new IOException("不支持的坐标系 EPSG:" + epsg + ": " + e.getMessage(), e);
+            }
+            CRS_CACHE.put(epsg, crs);
+        }
+        return crs;
+    }
+
+    /**
+     * 是否为地理坐标系（经纬度），否则视为投影坐标系
+     */
+    public static boolean isGeographic(int epsg) throws IOException {
+        return decode(epsg) instanceof GeographicCRS;
+    }
+
+    public static MathTransform find(int sourceEpsg, int targetEpsg) throws IOException {
+        long key = ((long) sourceEpsg << 32) | (targetEpsg & 0xffffffffL);
+        MathTransform transform = TRANSFORM_CACHE.get(key);
+        if (transform == null) {
+            try {
+                transform = CRS.findMathTransform(decode(sourceEpsg), decode(targetEpsg), true);
+            } catch (FactoryException e) {
+                throw new IOException("无法建立坐标转换 EPSG:" + sourceEpsg + " -> EPSG:" + targetEpsg
+                        + ": " + e.getMessage(), e);
+            }
+            TRANSFORM_CACHE.put(key, transform);
+        }
+        return transform;
+    }
+
+    /**
+     * 批量转换交错存放的 (x, y) 坐标，结果写回原数组；源与目标相同时不做任何处理
+     */
+    public static void transform(int sourceEpsg, int targetEpsg, double[] xy, int count) throws IOException {
+        if (sourceEpsg == targetEpsg || count == 0) {
+            return;
+        }
+        try {
+            find(sourceEpsg, targetEpsg).transform(xy, 0, xy, 0, count);
+        } catch (TransformException e) {
+            throw new IOException("坐标转换失败 EPSG:" + sourceEpsg + " -> EPSG:" + targetEpsg
+                    + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 与 transform 相同，但超出目标投影定义域等无法转换的点置为 NaN，其余点照常转换
+     *
+     * 批量转换抛出异常时，已写入的结果不可信（可能只完成了部分步骤），因此从原始坐标逐点重新转换
+     */
+    public static void transformOrNaN(int sourceEpsg, int targetEpsg, double[] xy, int count) throws IOException {
+        if (sourceEpsg == targetEpsg || count == 0) {
+            return;
+        }
+        MathTransform transform = find(sourceEpsg, targetEpsg);
+        double[] source = Arrays.copyOf(xy, count * 2);
+        try {
+            transform.transform(source, 0, xy, 0, count);
+            return;
+        } catch (TransformException e) {
+            // 逐点重试
+        }
+        double[] point = new double[2];
+        for (int i = 0; i < count; i++) {
+            try {
+                transform.transform(source, 2 * i, point, 0, 1);
+                xy[2 * i] = point[0];
+                xy[2 * i + 1] = point[1];
+            } catch (TransformException e) {
+                xy[2 * i] = Double.NaN;
+                xy[2 * i + 1] = Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * 解析 "EPSG:4326" 或 "4326" 形式的坐标系代码
+     */
+    public static int parseEpsg(String crs) {
+        String text = crs.trim();
+        if (text.regionMatches(true, 0, "EPSG:", 0, 5)) {
+            text = text.substring(5);
+        }
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无法识别的坐标系: " + crs);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package sanqibackend.sanqibackend.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * 按字节数限定容量的磁盘 LRU 缓存
+ *
+ * 键为相对路径（如 12/3/4/5.png），内容按键保存在根目录下。启动时按文件修改时间重建索引，
+ * 写入先写临时文件再原子替换，读写可并发进行。
+ */
+public class DiskLruCache {
+
+    private static final Logger log = LoggerFactory.getLogger(DiskLruCache.class);
+
+    private final Path root;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(1024, 0.75f, true);
+    private long currentBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public DiskLruCache(Path root, long maxBytes) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        Files.createDirectories(this.root);
+        loadIndex();
+    }
+
+    private void loadIndex() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.filter(Files::isRegularFile)
+                .filter(p -> !p.getFileName().toString().endsWith(".tmp"))
+                .forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(p -> {
+            try {
+                return Files.readAttributes(p, BasicFileAttributes.class).lastModifiedTime().toMillis();
+            } catch (IOException e) {
+                return 0L;
+            }
+        }));
+        synchronized (this) {
+            for (Path file : files) {
+                long size = Files.size(file);
+                index.put(root.relativize(file).toString().replace('\\', '/'), size);
+                currentBytes += size;
+            }
+            evict();
+        }
+        log.info("磁盘缓存 {} 已加载 {} 个文件, 共 {} 字节", root, index.size(), currentBytes);
+    }
+
+    public byte[] get(String key) {
+        synchronized (this) {
+            if (index.get(key) == null) {
+                misses++;
+                return null;
+            }
+        }
+        try {
+            byte[] data = Files.readAllBytes(resolve(key));
+            synchronized (this) {
+                hits++;
+            }
+            return data;
+        } catch (IOException e) {
+            synchronized (this) {
+                Long size = index.remove(key);
+                if (size != null) {
+                    currentBytes -= size;
+                }
+                misses++;
+            }
+            return null;
+        }
+    }
+
+    public void put(String key, byte[] data) {
+        if (data == null || data.length > maxBytes) {
+            return;
+        }
+        Path target = resolve(key);
+        try {
+            Files.createDirectories(target.getParent());
+            Path tmp = Files.createTempFile(target.getParent(), "cache", ".tmp");
+            Files.write(tmp, data);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("写入磁盘缓存失败: {}: {}", key, e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            Long previous = index.put(key, (long) data.length);
+            if (previous != null) {
+                currentBytes -= previous;
+            }
+            currentBytes += data.length;
+            evict();
+        }
+    }
+
+    public void remove(String key) {
+        removeIf(key::equals);
+    }
+
+    /**
+     * 删除所有满足条件的条目，返回删除数量
+     */
+    public int removeIf(Predicate<String> predicate) {
+        List<String> removed = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> entry = it.next();
+                if (predicate.test(entry.getKey())) {
+                    currentBytes -= entry.getValue();
+                    removed.add(entry.getKey());
+                    it.remove();
+                }
+            }
+        }
+        removed.forEach(this::deleteQuietly);
+        return removed.size();
+    }
+
+    /**
+     * 命中、未命中、淘汰次数及当前占用
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entries", index.size());
+        stats.put("bytes", currentBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        return stats;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            currentBytes -= eldest.getValue();
+            it.remove();
+            evictions++;
+            deleteQuietly(eldest.getKey());
+        }
+    }
+
+    private void deleteQuietly(String key) {
+        try {
+            Files.deleteIfExists(resolve(key));
+        } catch (NoSuchFileException e) {
+            // 已被删除
+        } catch (IOException e) {
+            log.warn("删除磁盘缓存文件失败: {}: {}", key, e.getMessage());
+        }
+    }
+
+    private Path resolve(String key) {
+        Path path = root.resolve(key).normalize();
+        if (!path.startsWith(root)) {
+            throw new IllegalArgumentException("非法的缓存键: " + key);
+        }
+        return path;
+    }
+}
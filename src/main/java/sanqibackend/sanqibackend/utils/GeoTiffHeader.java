@@ -0,0 +1,437 @@
+package sanqibackend.sanqibackend.utils;
+
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * TIFF / BigTIFF 首个 IFD 及 GeoTIFF 地理键的解析结果
+ *
+ * 只读取渲染和元数据所需的少量标签，条带/瓦片偏移表等大数组不会被读取，
+ * 因此对大对象只产生几次小范围的随机读。
+ */
+public class GeoTiffHeader {
+
+    private static final int TAG_IMAGE_WIDTH = 256;
+    private static final int TAG_IMAGE_LENGTH = 257;
+    private static final int TAG_BITS_PER_SAMPLE = 258;
+    private static final int TAG_COMPRESSION = 259;
+    private static final int TAG_PHOTOMETRIC = 262;
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+    private static final int TAG_ROWS_PER_STRIP = 278;
+    private static final int TAG_PLANAR_CONFIG = 284;
+    private static final int TAG_TILE_WIDTH = 322;
+    private static final int TAG_TILE_LENGTH = 323;
+    private static final int TAG_SAMPLE_FORMAT = 339;
+    private static final int TAG_MODEL_PIXEL_SCALE = 33550;
+    private static final int TAG_MODEL_TIEPOINT = 33922;
+    private static final int TAG_MODEL_TRANSFORMATION = 34264;
+    private static final int TAG_GEO_KEY_DIRECTORY = 34735;
+    private static final int TAG_GEO_DOUBLE_PARAMS = 34736;
+    private static final int TAG_GEO_ASCII_PARAMS = 34737;
+    private static final int TAG_GDAL_NODATA = 42113;
+
+    public static final int KEY_MODEL_TYPE = 1024;
+    public static final int KEY_RASTER_TYPE = 1025;
+    public static final int KEY_GEOGRAPHIC_TYPE = 2048;
+    public static final int KEY_PROJECTED_CS_TYPE = 3072;
+
+    private static final int USER_DEFINED = 32767;
+    private static final int RASTER_PIXEL_IS_POINT = 2;
+
+    private boolean bigTiff;
+    private ByteOrder byteOrder;
+    private int width;
+    private int height;
+    private int samplesPerPixel = 1;
+    private int[] bitsPerSample = {1};
+    private int sampleFormat = 1;
+    private int compression = 1;
+    private int photometric = -1;
+    private int planarConfig = 1;
+    private int rowsPerStrip;
+    private int tileWidth;
+    private int tileHeight;
+    private double[] pixelScale;
+    private double[] tiepoints;
+    private double[] modelTransformation;
+    private final Map<Integer, Object> geoKeys = new HashMap<>();
+    private Double noData;
+
+    /**
+     * 从流的当前内容解析 TIFF 头，不是 TIFF 文件时抛出 IOException
+     */
+    public static GeoTiffHeader read(ImageInputStream in) throws IOException {
+        GeoTiffHeader header = new GeoTiffHeader();
+        header.parse(in);
+        return header;
+    }
+
+    /**
+     * 判断文件开头是否为 TIFF / BigTIFF 标识
+     */
+    public static boolean isTiff(byte[] head, int length) {
+        if (length < 4) {
+            return false;
+        }
+        boolean little = head[0] == 'I' && head[1] == 'I' && head[3] == 0 && (head[2] == 42 || head[2] == 43);
+        boolean big = head[0] == 'M' && head[1] == 'M' && head[2] == 0 && (head[3] == 42 || head[3] == 43);
+        return little || big;
+    }
+
+    private void parse(ImageInputStream in) throws IOException {
+        ByteOrder original = in.getByteOrder();
+        try {
+            in.seek(0);
+            int b0 = in.read();
+            int b1 = in.read();
+            if (b0 == 'I' && b1 == 'I') {
+                byteOrder = ByteOrder.LITTLE_ENDIAN;
+            } else if (b0 == 'M' && b1 == 'M') {
+                byteOrder = ByteOrder.BIG_ENDIAN;
+            } else {
+                throw new IOException("不是 TIFF 文件");
+            }
+            in.setByteOrder(byteOrder);
+            int magic = in.readUnsignedShort();
+            long ifdOffset;
+            if (magic == 42) {
+                ifdOffset = in.readUnsignedInt();
+            } else if (magic == 43) {
+                bigTiff = true;
+                in.readUnsignedShort(); // 偏移字节数，固定为 8
+                in.readUnsignedShort();
+                ifdOffset = in.readLong();
+            } else {
+                throw new IOException("不是 TIFF 文件");
+            }
+            parseIfd(in, ifdOffset);
+        } finally {
+            in.setByteOrder(original);
+        }
+        if (width <= 0 || height <= 0) {
+            throw new IOException("TIFF 文件缺少影像尺寸信息");
+        }
+    }
+
+    private void parseIfd(ImageInputStream in, long ifdOffset) throws IOException {
+        in.seek(ifdOffset);
+        long count = bigTiff ? in.readLong() : in.readUnsignedShort();
+        int entrySize = bigTiff ? 20 : 12;
+        int inlineSize = bigTiff ? 8 : 4;
+        double[] geoKeyDirectory = null;
+        double[] geoDoubleParams = null;
+        String geoAsciiParams = null;
+
+        for (long i = 0; i < count; i++) {
+            long entryPos = ifdOffset + (bigTiff ? 8 : 2) + i * entrySize;
+            in.seek(entryPos);
+            int tag = in.readUnsignedShort();
+            int type = in.readUnsignedShort();
+            long valueCount = bigTiff ? in.readLong() : in.readUnsignedInt();
+            long valuePos = in.getStreamPosition();
+            int typeSize = typeSize(type);
+            if (typeSize == 0 || !isWanted(tag)) {
+                continue;
+            }
+            if (valueCount * typeSize > inlineSize) {
+                valuePos = bigTiff ? in.readLong() : in.readUnsignedInt();
+            }
+            in.seek(valuePos);
+            switch (tag) {
+                case TAG_IMAGE_WIDTH -> width = (int) readNumbers(in, type, 1)[0];
+                case TAG_IMAGE_LENGTH -> height = (int) readNumbers(in, type, 1)[0];
+                case TAG_BITS_PER_SAMPLE -> {
+                    double[] bits = readNumbers(in, type, (int) valueCount);
+                    bitsPerSample = new int[bits.length];
+                    for (int b = 0; b < bits.length; b++) {
+                        bitsPerSample[b] = (int) bits[b];
+                    }
+                }
+                case TAG_COMPRESSION -> compression = (int) readNumbers(in, type, 1)[0];
+                case TAG_PHOTOMETRIC -> photometric = (int) readNumbers(in, type, 1)[0];
+                case TAG_SAMPLES_PER_PIXEL -> samplesPerPixel = (int) readNumbers(in, type, 1)[0];
+                case TAG_ROWS_PER_STRIP -> rowsPerStrip = (int) Math.min(Integer.MAX_VALUE, readNumbers(in, type, 1)[0]);
+                case TAG_PLANAR_CONFIG -> planarConfig = (int) readNumbers(in, type, 1)[0];
+                case TAG_TILE_WIDTH -> tileWidth = (int) readNumbers(in, type, 1)[0];
+                case TAG_TILE_LENGTH -> tileHeight = (int) readNumbers(in, type, 1)[0];
+                case TAG_SAMPLE_FORMAT -> sampleFormat = (int) readNumbers(in, type, 1)[0];
+                case TAG_MODEL_PIXEL_SCALE -> pixelScale = readNumbers(in, type, (int) valueCount);
+                case TAG_MODEL_TIEPOINT -> tiepoints = readNumbers(in, type, (int) valueCount);
+                case TAG_MODEL_TRANSFORMATION -> modelTransformation = readNumbers(in, type, (int) valueCount);
+                case TAG_GEO_KEY_DIRECTORY -> geoKeyDirectory = readNumbers(in, type, (int) valueCount);
+                case TAG_GEO_DOUBLE_PARAMS -> geoDoubleParams = readNumbers(in, type, (int) valueCount);
+                case TAG_GEO_ASCII_PARAMS -> geoAsciiParams = readAscii(in, (int) valueCount);
+                case TAG_GDAL_NODATA -> {
+                    String text = readAscii(in, (int) valueCount).trim();
+                    try {
+                        noData = "nan".equalsIgnoreCase(text) ? Double.NaN : Double.parseDouble(text);
+                    } catch (NumberFormatException e) {
+                        noData = null;
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        if (rowsPerStrip <= 0) {
+            rowsPerStrip = height;
+        }
+        if (geoKeyDirectory != null) {
+            parseGeoKeys(geoKeyDirectory, geoDoubleParams, geoAsciiParams);
+        }
+    }
+
+    private void parseGeoKeys(double[] dir, double[] doubles, String ascii) {
+        if (dir.length < 4) {
+            return;
+        }
+        int numKeys = (int) dir[3];
+        for (int k = 0; k < numKeys && 4 + k * 4 + 3 < dir.length; k++) {
+            int keyId = (int) dir[4 + k * 4];
+            int location = (int) dir[4 + k * 4 + 1];
+            int count = (int) dir[4 + k * 4 + 2];
+            int valueOffset = (int) dir[4 + k * 4 + 3];
+            if (location == 0) {
+                geoKeys.put(keyId, valueOffset);
+            } else if (location == TAG_GEO_DOUBLE_PARAMS && doubles != null && valueOffset + count <= doubles.length) {
+                geoKeys.put(keyId, count == 1 ? doubles[valueOffset]
+                        : Arrays.copyOfRange(doubles, valueOffset, valueOffset + count));
+            } else if (location == TAG_GEO_ASCII_PARAMS && ascii != null && valueOffset + count <= ascii.length()) {
+                String value = ascii.substring(valueOffset, valueOffset + count);
+                geoKeys.put(keyId, value.endsWith("|") ? value.substring(0, value.length() - 1) : value);
+            }
+        }
+    }
+
+    private boolean isWanted(int tag) {
+        switch (tag) {
+            case TAG_IMAGE_WIDTH, TAG_IMAGE_LENGTH, TAG_BITS_PER_SAMPLE, TAG_COMPRESSION, TAG_PHOTOMETRIC,
+                    TAG_SAMPLES_PER_PIXEL, TAG_ROWS_PER_STRIP, TAG_PLANAR_CONFIG, TAG_TILE_WIDTH, TAG_TILE_LENGTH,
+                    TAG_SAMPLE_FORMAT, TAG_MODEL_PIXEL_SCALE, TAG_MODEL_TIEPOINT, TAG_MODEL_TRANSFORMATION,
+                    TAG_GEO_KEY_DIRECTORY, TAG_GEO_DOUBLE_PARAMS, TAG_GEO_ASCII_PARAMS, TAG_GDAL_NODATA:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static int typeSize(int type) {
+        switch (type) {
+            case 1, 2, 6, 7:
+                return 1;
+            case 3, 8:
+                return 2;
+            case 4, 9, 11:
+                return 4;
+            case 5, 10, 12, 16, 17, 18:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    private static double[] readNumbers(ImageInputStream in, int type, int count) throws IOException {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            switch (type) {
+                case 1, 7 -> values[i] = in.readUnsignedByte();
+                case 6 -> values[i] = in.readByte();
+                case 3 -> values[i] = in.readUnsignedShort();
+                case 8 -> values[i] = in.readShort();
+                case 4 -> values[i] = in.readUnsignedInt();
+                case 9 -> values[i] = in.readInt();
+                case 5 -> values[i] = (double) in.readUnsignedInt() / in.readUnsignedInt();
+                case 10 -> values[i] = (double) in.readInt() / in.readInt();
+                case 11 -> values[i] = in.readFloat();
+                case 12 -> values[i] = in.readDouble();
+                default -> values[i] = in.readLong();
+            }
+        }
+        return values;
+    }
+
+    private static String readAscii(ImageInputStream in, int count) throws IOException {
+        byte[] bytes = new byte[count];
+        in.readFully(bytes);
+        int end = count;
+        while (end > 0 && bytes[end - 1] == 0) {
+            end--;
+        }
+        return new String(bytes, 0, end, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * 是否带有可用的地理参考（仿射变换参数）
+     */
+    public boolean isGeoreferenced() {
+        return modelTransformation != null && modelTransformation.length >= 16
+                || pixelScale != null && pixelScale.length >= 2 && tiepoints != null && tiepoints.length >= 6;
+    }
+
+    /**
+     * GDAL 约定的六参数仿射变换：[原点X, 像元宽, 行旋转, 原点Y, 列旋转, 像元高(通常为负)]
+     */
+    public double[] getGeoTransform() {
+        double[] gt;
+        if (modelTransformation != null && modelTransformation.length >= 16) {
+            double[] m = modelTransformation;
+            gt = new double[]{m[3], m[0], m[1], m[7], m[4], m[5]};
+        } else if (isGeoreferenced()) {
+            double sx = pixelScale[0];
+            double sy = pixelScale[1];
+            gt = new double[]{tiepoints[3] - tiepoints[0] * sx, sx, 0, tiepoints[4] + tiepoints[1] * sy, 0, -sy};
+        } else {
+            return null;
+        }
+        Object rasterType = geoKeys.get(KEY_RASTER_TYPE);
+        if (rasterType instanceof Integer && (Integer) rasterType == RASTER_PIXEL_IS_POINT) {
+            // PixelIsPoint 时坐标指向像元中心，换算为像元左上角
+            gt[0] -= 0.5 * gt[1] + 0.5 * gt[2];
+            gt[3] -= 0.5 * gt[4] + 0.5 * gt[5];
+        }
+        return gt;
+    }
+
+    /**
+     * 像元坐标（列、行，可为小数）转换为地图坐标，结果写回数组
+     */
+    public static void pixelToWorld(double[] gt, double[] xy, int count) {
+        for (int i = 0; i < count; i++) {
+            double col = xy[2 * i];
+            double row = xy[2 * i + 1];
+            xy[2 * i] = gt[0] + col * gt[1] + row * gt[2];
+            xy[2 * i + 1] = gt[3] + col * gt[4] + row * gt[5];
+        }
+    }
+
+    /**
+     * 地图坐标转换为像元坐标（列、行，可为小数），结果写回数组
+     */
+    public static void worldToPixel(double[] gt, double[] xy, int count) {
+        double det = gt[1] * gt[5] - gt[2] * gt[4];
+        for (int i = 0; i < count; i++) {
+            double dx = xy[2 * i] - gt[0];
+            double dy = xy[2 * i + 1] - gt[3];
+            xy[2 * i] = (dx * gt[5] - dy * gt[2]) / det;
+            xy[2 * i + 1] = (dy * gt[1] - dx * gt[4]) / det;
+        }
+    }
+
+    /**
+     * 影像外包框 [minX, minY, maxX, maxY]（影像自身坐标系）
+     */
+    public double[] getBounds() {
+        double[] gt = getGeoTransform();
+        if (gt == null) {
+            return null;
+        }
+        double[] corners = {0, 0, width, 0, 0, height, width, height};
+        pixelToWorld(gt, corners, 4);
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < 4; i++) {
+            minX = Math.min(minX, corners[2 * i]);
+            maxX = Math.max(maxX, corners[2 * i]);
+            minY = Math.min(minY, corners[2 * i + 1]);
+            maxY = Math.max(maxY, corners[2 * i + 1]);
+        }
+        return new double[]{minX, minY, maxX, maxY};
+    }
+
+    /**
+     * EPSG 代码，自定义坐标系或缺少地理键时返回 null
+     */
+    public Integer getEpsgCode() {
+        Object projected = geoKeys.get(KEY_PROJECTED_CS_TYPE);
+        if (projected instanceof Integer && (Integer) projected > 0 && (Integer) projected != USER_DEFINED) {
+            return (Integer) projected;
+        }
+        Object geographic = geoKeys.get(KEY_GEOGRAPHIC_TYPE);
+        if (geographic instanceof Integer && (Integer) geographic > 0 && (Integer) geographic != USER_DEFINED) {
+            return (Integer) geographic;
+        }
+        return null;
+    }
+
+    /**
+     * GDAL 风格的数据类型名称，如 Byte、UInt16、Float32
+     */
+    public String getDataType() {
+        int bits = bitsPerSample.length > 0 ? bitsPerSample[0] : 1;
+        switch (sampleFormat) {
+            case 3:
+                return bits == 64 ? "Float64" : "Float32";
+            case 2:
+                return bits == 8 ? "Int8" : "Int" + bits;
+            default:
+                return bits == 8 ? "Byte" : bits < 8 ? "Bit" + bits : "UInt" + bits;
+        }
+    }
+
+    /**
+     * 内部分块宽度：瓦片组织时为瓦片宽，条带组织时为整幅宽
+     */
+    public int getBlockWidth() {
+        return tileWidth > 0 ? tileWidth : width;
+    }
+
+    /**
+     * 内部分块高度：瓦片组织时为瓦片高，条带组织时为每条带行数
+     */
+    public int getBlockHeight() {
+        return tileWidth > 0 ? tileHeight : Math.min(rowsPerStrip, height);
+    }
+
+    public boolean isTiled() {
+        return tileWidth > 0 && tileHeight > 0;
+    }
+
+    public boolean isBigTiff() {
+        return bigTiff;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getSamplesPerPixel() {
+        return samplesPerPixel;
+    }
+
+    public int[] getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    public int getSampleFormat() {
+        return sampleFormat;
+    }
+
+    public int getCompression() {
+        return compression;
+    }
+
+    public int getPhotometric() {
+        return photometric;
+    }
+
+    public int getPlanarConfig() {
+        return planarConfig;
+    }
+
+    public Double getNoData() {
+        return noData;
+    }
+
+    public Map<Integer, Object> getGeoKeys() {
+        return geoKeys;
+    }
+}
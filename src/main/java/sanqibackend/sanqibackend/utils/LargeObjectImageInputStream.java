@@ -0,0 +1,115 @@
+package sanqibackend.sanqibackend.utils;
+
+import org.postgresql.largeobject.LargeObject;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * 基于 PostgreSQL 大对象的随机访问 ImageInputStream
+ *
+ * ImageIO 读取器按需 seek 到 TIFF 的 IFD、条带或瓦片，只有真正访问到的区间才会通过 seek64 + read
+ * 从数据库取回，并按缓冲区大小预读以减少往返次数。大对象由调用方打开和关闭。
+ */
+public class LargeObjectImageInputStream extends ImageInputStreamImpl {
+
+    private final LargeObject largeObject;
+    private final long length;
+    private final byte[] buffer;
+    private long bufferStart;
+    private int bufferLength;
+
+    public LargeObjectImageInputStream(LargeObject largeObject, int bufferSize) throws IOException {
+        this.largeObject = largeObject;
+        this.buffer = new byte[bufferSize];
+        try {
+            this.length = largeObject.size64();
+        } catch (SQLException e) {
+            throw new IOException("读取大对象长度失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (!fill()) {
+            return -1;
+        }
+        int b = buffer[(int) (streamPos - bufferStart)] & 0xff;
+        streamPos++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        // 大块读取（如整条带、整瓦片）直接读入目标数组，避免二次拷贝
+        if (len >= buffer.length && !buffered(streamPos)) {
+            int n = readAt(streamPos, b, off, (int) Math.min(len, length - streamPos));
+            if (n > 0) {
+                streamPos += n;
+            }
+            return n;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = (int) Math.min(len, bufferStart + bufferLength - streamPos);
+        System.arraycopy(buffer, (int) (streamPos - bufferStart), b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public boolean isCached() {
+        return true;
+    }
+
+    @Override
+    public boolean isCachedMemory() {
+        return true;
+    }
+
+    private boolean buffered(long pos) {
+        return pos >= bufferStart && pos < bufferStart + bufferLength;
+    }
+
+    private boolean fill() throws IOException {
+        if (streamPos >= length) {
+            return false;
+        }
+        if (buffered(streamPos)) {
+            return true;
+        }
+        int n = readAt(streamPos, buffer, 0, (int) Math.min(buffer.length, length - streamPos));
+        bufferStart = streamPos;
+        bufferLength = Math.max(n, 0);
+        return n > 0;
+    }
+
+    private int readAt(long pos, byte[] b, int off, int len) throws IOException {
+        try {
+            largeObject.seek64(pos, LargeObject.SEEK_SET);
+            return largeObject.read(b, off, len);
+        } catch (SQLException e) {
+            throw new IOException("读取大对象失败: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package sanqibackend.sanqibackend.utils;
+
+import org.postgresql.largeobject.LargeObject;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * 基于 PostgreSQL 大对象的可随机读写 ImageOutputStream
+ *
+ * 连续的小块写入先合并到缓冲区再一次写入数据库，写入位置跳转（如回填 IFD 偏移）或读取前会先刷出缓冲。
+ * 大对象由调用方打开和关闭。
+ */
+public class LargeObjectImageOutputStream extends ImageOutputStreamImpl {
+
+    private final LargeObject largeObject;
+    private final byte[] buffer;
+    private long bufferStart;
+    private int bufferLength;
+    private long length;
+
+    public LargeObjectImageOutputStream(LargeObject largeObject, int bufferSize) throws IOException {
+        this.largeObject = largeObject;
+        this.buffer = new byte[bufferSize];
+        try {
+            this.length = largeObject.size64();
+        } catch (SQLException e) {
+            throw new IOException("读取大对象长度失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        flushBits();
+        if (len == 0) {
+            return;
+        }
+        if (bufferLength > 0 && (streamPos != bufferStart + bufferLength || bufferLength + len > buffer.length)) {
+            flushBuffer();
+        }
+        if (len >= buffer.length) {
+            writeAt(streamPos, b, off, len);
+        } else {
+            if (bufferLength == 0) {
+                bufferStart = streamPos;
+            }
+            System.arraycopy(b, off, buffer, bufferLength, len);
+            bufferLength += len;
+        }
+        streamPos += len;
+        length = Math.max(length, streamPos);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n <= 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        flushBuffer();
+        if (streamPos >= length) {
+            return -1;
+        }
+        try {
+            largeObject.seek64(streamPos, LargeObject.SEEK_SET);
+            int n = largeObject.read(b, off, (int) Math.min(len, length - streamPos));
+            if (n > 0) {
+                streamPos += n;
+            }
+            return n;
+        } catch (SQLException e) {
+            throw new IOException("读取大对象失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+        super.close();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (bufferLength > 0) {
+            writeAt(bufferStart, buffer, 0, bufferLength);
+            bufferLength = 0;
+        }
+    }
+
+    private void writeAt(long pos, byte[] b, int off, int len) throws IOException {
+        try {
+            largeObject.seek64(pos, LargeObject.SEEK_SET);
+            largeObject.write(b, off, len);
+        } catch (SQLException e) {
+            throw new IOException("写入大对象失败: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package sanqibackend.sanqibackend.utils;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 基于内存映射文件的随机访问 ImageInputStream
+ *
+ * 文件按 1 GB 分段映射（单个 MappedByteBuffer 最大 2 GB），读取直接命中页缓存，
+ * 不经过用户态缓冲区也不占用数据库连接。映射区域在缓冲区被回收后才解除，文件通道由调用方关闭。
+ */
+public class MappedFileImageInputStream extends ImageInputStreamImpl {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private final MappedByteBuffer[] segments;
+    private final long length;
+
+    public MappedFileImageInputStream(FileChannel channel) throws IOException {
+        this.length = channel.size();
+        int count = (int) ((length + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        this.segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << SEGMENT_SHIFT, length - start));
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        int b = segments[(int) (streamPos >>> SEGMENT_SHIFT)].get((int) (streamPos & SEGMENT_MASK)) & 0xff;
+        streamPos++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        // 只读到当前分段末尾，跨段的读取由调用方（readFully 等）继续
+        MappedByteBuffer segment = segments[(int) (streamPos >>> SEGMENT_SHIFT)];
+        int position = (int) (streamPos & SEGMENT_MASK);
+        int n = (int) Math.min(len, Math.min(length - streamPos, segment.capacity() - position));
+        segment.get(position, b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+}
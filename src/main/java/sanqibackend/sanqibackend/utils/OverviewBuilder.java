@@ -0,0 +1,118 @@
+package sanqibackend.sanqibackend.utils;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * 由上一级影像的条带生成下一级 2 倍缩小的概览
+ *
+ * 作为 StripCachedImage 的条带监听器，在上一级写出的同时按最近邻取偶数行、偶数列，
+ * 结果逐行追加到临时文件，finish 后得到可供写出的 StripFileImage。
+ * 每一级只读取上一级一次，源影像只在写出主影像时解码一次。
+ */
+public class OverviewBuilder implements Consumer<Raster>, Closeable {
+
+    private final ImageTypeSpecifier type;
+    private final int sourceWidth;
+    private final int width;
+    private final int height;
+    private final int numDataElements;
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteBuffer rowBuffer;
+    private Object sourceRow;
+    private Object row;
+    private int nextSourceY;
+    private int rows;
+    private boolean finished;
+
+    public OverviewBuilder(ImageTypeSpecifier type, int sourceWidth, int sourceHeight) throws IOException {
+        this.type = type;
+        this.sourceWidth = sourceWidth;
+        this.width = (sourceWidth + 1) / 2;
+        this.height = (sourceHeight + 1) / 2;
+        SampleModel sm = type.getSampleModel(width, 1);
+        this.numDataElements = sm.getNumDataElements();
+        this.rowBuffer = ByteBuffer.allocate(width * numDataElements * StripFileImage.elementBytes(sm.getTransferType()))
+                .order(ByteOrder.nativeOrder());
+        this.file = Files.createTempFile("cog-overview-", ".raw");
+        FileChannel opened = null;
+        try {
+            opened = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } finally {
+            if (opened == null) {
+                Files.deleteIfExists(file);
+            }
+        }
+        this.channel = opened;
+    }
+
+    /**
+     * 接收上一级影像的一个整宽条带，条带须按从上到下的顺序依次到达
+     */
+    @Override
+    public void accept(Raster strip) {
+        if (strip.getMinY() != nextSourceY || strip.getMinX() != 0 || strip.getWidth() != sourceWidth) {
+            throw new IllegalStateException("概览条带顺序错误: 期望第 " + nextSourceY + " 行，实际第 " + strip.getMinY() + " 行");
+        }
+        int n = numDataElements;
+        try {
+            for (int y = strip.getMinY(); y < strip.getMinY() + strip.getHeight(); y++) {
+                if (y % 2 != 0) {
+                    continue;
+                }
+                sourceRow = strip.getDataElements(0, y, sourceWidth, 1, sourceRow);
+                if (row == null) {
+                    row = strip.getDataElements(0, y, width, 1, null);
+                }
+                for (int x = 0; x < width; x++) {
+                    System.arraycopy(sourceRow, 2 * x * n, row, x * n, n);
+                }
+                rowBuffer.clear();
+                StripFileImage.putArray(rowBuffer, row, width * n);
+                rowBuffer.flip();
+                while (rowBuffer.hasRemaining()) {
+                    channel.write(rowBuffer);
+                }
+                rows++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入概览临时文件失败: " + e.getMessage(), e);
+        }
+        nextSourceY += strip.getHeight();
+    }
+
+    /**
+     * 上一级全部条带到达后，得到本级概览；临时文件此后由返回的影像负责删除
+     */
+    public StripFileImage finish(int tileSize) throws IOException {
+        if (rows != height) {
+            throw new IOException("概览数据不完整: 已生成 " + rows + " 行，应为 " + height + " 行");
+        }
+        finished = true;
+        return new StripFileImage(type, width, height, tileSize, channel, file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (finished) {
+            return;
+        }
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
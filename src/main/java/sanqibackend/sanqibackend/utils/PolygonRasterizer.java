@@ -0,0 +1,142 @@
+package sanqibackend.sanqibackend.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 扫描线多边形栅格化（奇偶规则），坐标为像素坐标
+ *
+ * 像元中心 (col + 0.5, row + 0.5) 落在多边形内即视为被覆盖；洞和多个部分都以环的形式给出，
+ * 由奇偶规则自然处理。边按起始行排序并维护活动边表，逐行调用 {@link #spans} 时行号须递增，
+ * 每行只计算与该行相交的边。实例不是线程安全的。
+ */
+public class PolygonRasterizer {
+
+    /**
+     * 一行中连续被覆盖的像元区间 [startCol, endCol)
+     */
+    public interface SpanConsumer {
+        void accept(int startCol, int endCol);
+    }
+
+    private final double[] edgeX0;
+    private final double[] edgeY0;
+    private final double[] edgeSlope;
+    private final double[] edgeY1;
+    private final Integer[] order;
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+
+    private int next;
+    private int lastRow = Integer.MIN_VALUE;
+    private int[] active = new int[16];
+    private int activeCount;
+    private double[] crossings = new double[16];
+
+    /**
+     * @param rings 每个环为交错存放的 (x, y) 像素坐标，首尾是否重复均可
+     */
+    public PolygonRasterizer(List<double[]> rings) {
+        List<double[]> edges = new ArrayList<>();
+        double x0 = Double.POSITIVE_INFINITY;
+        double y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY;
+        double y1 = Double.NEGATIVE_INFINITY;
+        for (double[] ring : rings) {
+            int n = ring.length / 2;
+            for (int i = 0; i < n; i++) {
+                double ax = ring[2 * i];
+                double ay = ring[2 * i + 1];
+                double bx = ring[2 * ((i + 1) % n)];
+                double by = ring[2 * ((i + 1) % n) + 1];
+                x0 = Math.min(x0, ax);
+                y0 = Math.min(y0, ay);
+                x1 = Math.max(x1, ax);
+                y1 = Math.max(y1, ay);
+                if (ay != by) {
+                    edges.add(ay < by ? new double[]{ax, ay, bx, by} : new double[]{bx, by, ax, ay});
+                }
+            }
+        }
+        int count = edges.size();
+        edgeX0 = new double[count];
+        edgeY0 = new double[count];
+        edgeY1 = new double[count];
+        edgeSlope = new double[count];
+        order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            double[] e = edges.get(i);
+            edgeX0[i] = e[0];
+            edgeY0[i] = e[1];
+            edgeY1[i] = e[3];
+            edgeSlope[i] = (e[2] - e[0]) / (e[3] - e[1]);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(edgeY0[a], edgeY0[b]));
+        minX = x0;
+        minY = y0;
+        maxX = x1;
+        maxY = y1;
+    }
+
+    /**
+     * 多边形覆盖的像元行列范围 {minCol, minRow, maxColExclusive, maxRowExclusive}，已裁剪到 width × height
+     */
+    public int[] pixelBounds(int width, int height) {
+        if (order.length == 0) {
+            return new int[]{0, 0, 0, 0};
+        }
+        int col0 = (int) Math.max(0, Math.ceil(minX - 0.5));
+        int row0 = (int) Math.max(0, Math.ceil(minY - 0.5));
+        int col1 = (int) Math.min(width, Math.ceil(maxX - 0.5));
+        int row1 = (int) Math.min(height, Math.ceil(maxY - 0.5));
+        return new int[]{col0, row0, Math.max(col0, col1), Math.max(row0, row1)};
+    }
+
+    /**
+     * 输出第 row 行中被覆盖且位于 [minCol, maxCol) 内的像元区间
+     */
+    public void spans(int row, int minCol, int maxCol, SpanConsumer consumer) {
+        if (row < lastRow) {
+            throw new IllegalStateException("扫描行号必须递增");
+        }
+        lastRow = row;
+        double yc = row + 0.5;
+
+        // 加入起点不晚于本行中心的边，移除终点不晚于本行中心的边
+        while (next < order.length && edgeY0[order[next]] <= yc) {
+            if (activeCount == active.length) {
+                active = Arrays.copyOf(active, activeCount * 2);
+            }
+            active[activeCount++] = order[next++];
+        }
+        int n = 0;
+        int kept = 0;
+        for (int i = 0; i < activeCount; i++) {
+            int e = active[i];
+            if (edgeY1[e] <= yc) {
+                continue;
+            }
+            active[kept++] = e;
+            if (n == crossings.length) {
+                crossings = Arrays.copyOf(crossings, n * 2);
+            }
+            crossings[n++] = edgeX0[e] + (yc - edgeY0[e]) * edgeSlope[e];
+        }
+        activeCount = kept;
+        if (n < 2) {
+            return;
+        }
+        Arrays.sort(crossings, 0, n);
+        for (int i = 0; i + 1 < n; i += 2) {
+            int start = (int) Math.max(minCol, Math.ceil(crossings[i] - 0.5));
+            int end = (int) Math.min(maxCol, Math.ceil(crossings[i + 1] - 0.5));
+            if (start < end) {
+                consumer.accept(start, end);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package sanqibackend.sanqibackend.utils;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * 栅格影像读取的通用工具方法
+ */
+public final class RasterImages {
+
+    private RasterImages() {
+    }
+
+    /**
+     * 为输入流创建 ImageIO 读取器（忽略元数据、允许随机访问），读取器需由调用方 dispose
+     */
+    public static ImageReader openReader(ImageInputStream in) throws IOException {
+        in.seek(0);
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            throw new IOException("不支持的栅格文件格式");
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, false, true);
+        return reader;
+    }
+
+    /**
+     * 选择长边不小于 targetSize 的最小分辨率层级（TIFF 内部概览），没有合适概览时返回 0
+     */
+    public static int selectImageIndex(ImageReader reader, int targetSize) throws IOException {
+        int count = reader.getNumImages(true);
+        int best = 0;
+        long bestPixels = (long) reader.getWidth(0) * reader.getHeight(0);
+        for (int i = 1; i < count; i++) {
+            int w = reader.getWidth(i);
+            int h = reader.getHeight(i);
+            if (Math.max(w, h) >= targetSize && (long) w * h < bestPixels && isOverview(reader, i)) {
+                best = i;
+                bestPixels = (long) w * h;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 第 index 个子图像是否为原图的缩小层：宽高比和波段数与原图一致，排除内部掩膜等其他子图像
+     */
+    public static boolean isOverview(ImageReader reader, int index) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        int w = reader.getWidth(index);
+        int h = reader.getHeight(index);
+        if (index == 0 || w >= width || h >= height) {
+            return false;
+        }
+        if (Math.abs((double) w / h - (double) width / height) > 0.02 * width / height) {
+            return false;
+        }
+        ImageTypeSpecifier baseType = reader.getRawImageType(0);
+        ImageTypeSpecifier type = reader.getRawImageType(index);
+        return baseType == null || type == null || type.getNumBands() == baseType.getNumBands();
+    }
+
+    /**
+     * 以抽稀方式读取整幅影像，使长边约为 targetSize（不小于 targetSize），内存占用与原图大小无关
+     */
+    public static BufferedImage readDecimated(ImageReader reader, int targetSize) throws IOException {
+        int index = selectImageIndex(reader, targetSize);
+        int w = reader.getWidth(index);
+        int h = reader.getHeight(index);
+        int step = Math.max(1, Math.max(w, h) / targetSize);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(step, step, 0, 0);
+        return reader.read(index, param);
+    }
+
+    /**
+     * 以 double 数组取出某一波段的全部像元值
+     */
+    public static double[] bandValues(Raster raster, int band) {
+        return raster.getSamples(raster.getMinX(), raster.getMinY(), raster.getWidth(), raster.getHeight(),
+                band, (double[]) null);
+    }
+
+    /**
+     * 已排序数组的百分位数（线性插值，与 numpy.percentile 默认方式一致）
+     */
+    public static double percentile(double[] sorted, double percent) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        double pos = percent / 100.0 * (sorted.length - 1);
+        int lower = (int) Math.floor(pos);
+        int upper = Math.min(lower + 1, sorted.length - 1);
+        return sorted[lower] + (sorted[upper] - sorted[lower]) * (pos - lower);
+    }
+
+    /**
+     * 编码为 PNG 字节（不经过 ImageIO 的磁盘缓存）
+     */
+    public static byte[] encodePng(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), writer.getDefaultWriteParam());
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
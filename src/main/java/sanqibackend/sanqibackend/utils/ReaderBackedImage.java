@@ -0,0 +1,63 @@
+package sanqibackend.sanqibackend.utils;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+
+/**
+ * 按需从 ImageReader 读取像元的 RenderedImage
+ *
+ * 像元只在被请求时读取（可按 factor 抽稀），按条带缓存，源影像的每个条带/瓦片只解码一次。
+ */
+public class ReaderBackedImage extends StripCachedImage {
+
+    private final ImageReader reader;
+    private final int imageIndex;
+    private final int factor;
+    private final int sourceWidth;
+    private final int sourceHeight;
+
+    public ReaderBackedImage(ImageReader reader, int imageIndex, int factor, int tileSize) throws IOException {
+        this(reader, imageIndex, factor, tileSize, reader.getWidth(imageIndex), reader.getHeight(imageIndex));
+    }
+
+    private ReaderBackedImage(ImageReader reader, int imageIndex, int factor, int tileSize,
+                              int sourceWidth, int sourceHeight) throws IOException {
+        super(imageType(reader, imageIndex), (sourceWidth + factor - 1) / factor,
+                (sourceHeight + factor - 1) / factor, tileSize);
+        this.reader = reader;
+        this.imageIndex = imageIndex;
+        this.factor = factor;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+    }
+
+    private static ImageTypeSpecifier imageType(ImageReader reader, int imageIndex) throws IOException {
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(imageIndex);
+        if (!types.hasNext()) {
+            throw new IOException("无法确定影像的像元类型");
+        }
+        return types.next();
+    }
+
+    @Override
+    protected Raster read(Rectangle r) {
+        ImageReadParam param = reader.getDefaultReadParam();
+        int sx = r.x * factor;
+        int sy = r.y * factor;
+        param.setSourceRegion(new Rectangle(sx, sy,
+                Math.min(r.width * factor, sourceWidth - sx), Math.min(r.height * factor, sourceHeight - sy)));
+        param.setSourceSubsampling(factor, factor, 0, 0);
+        param.setDestinationType(type);
+        try {
+            return reader.read(imageIndex, param).getRaster().createTranslatedChild(r.x, r.y);
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取影像窗口失败: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package sanqibackend.sanqibackend.utils;
+
+import java.awt.image.Raster;
+
+/**
+ * 重采样方法：最近邻、双线性、三次卷积（Keys, a = -0.5）
+ *
+ * 取样坐标为相对栅格左上角的连续像元坐标，像元 i 的中心位于 i + 0.5。邻域超出栅格时取边缘像元；
+ * 邻域中含有 nodata 或 NaN 时退回最近邻，避免无效值被插值进有效像元。
+ */
+public enum Resampling {
+    NEAREST(0),
+    BILINEAR(1),
+    CUBIC(2);
+
+    private final int radius;
+
+    Resampling(int radius) {
+        this.radius = radius;
+    }
+
+    /**
+     * 解析 nearest / bilinear / cubic（不区分大小写），为空时返回最近邻
+     */
+    public static Resampling parse(String name) {
+        if (name == null || name.isBlank()) {
+            return NEAREST;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("不支持的重采样方法: " + name + "，可选 nearest、bilinear、cubic");
+        }
+    }
+
+    /**
+     * 插值所需的邻域半径（像元），读取窗口需向外扩展该宽度
+     */
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * 在栅格内 (x, y) 处对指定波段取样
+     */
+    public double sample(Raster raster, int band, double x, double y, Double nodata) {
+        int w = raster.getWidth();
+        int h = raster.getHeight();
+        int minX = raster.getMinX();
+        int minY = raster.getMinY();
+        if (this == NEAREST) {
+            return raster.getSampleDouble(minX + clamp((int) Math.floor(x), w), minY + clamp((int) Math.floor(y), h), band);
+        }
+        double fx = x - 0.5;
+        double fy = y - 0.5;
+        int x0 = (int) Math.floor(fx);
+        int y0 = (int) Math.floor(fy);
+        double tx = fx - x0;
+        double ty = fy - y0;
+        double sum = 0;
+        for (int j = 1 - radius; j <= radius; j++) {
+            double wy = weight(j - ty);
+            int sy = minY + clamp(y0 + j, h);
+            for (int i = 1 - radius; i <= radius; i++) {
+                double v = raster.getSampleDouble(minX + clamp(x0 + i, w), sy, band);
+                if (Double.isNaN(v) || nodata != null && v == nodata) {
+                    return NEAREST.sample(raster, band, x, y, nodata);
+                }
+                sum += v * weight(i - tx) * wy;
+            }
+        }
+        return sum;
+    }
+
+    private double weight(double d) {
+        double t = Math.abs(d);
+        if (this == BILINEAR) {
+            return t < 1 ? 1 - t : 0;
+        }
+        if (t < 1) {
+            return (1.5 * t - 2.5) * t * t + 1;
+        }
+        if (t < 2) {
+            return ((-0.5 * t + 2.5) * t - 4) * t + 2;
+        }
+        return 0;
+    }
+
+    private static int clamp(int v, int size) {
+        return v < 0 ? 0 : v >= size ? size - 1 : v;
+    }
+}
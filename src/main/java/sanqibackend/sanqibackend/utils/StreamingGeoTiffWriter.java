@@ -0,0 +1,398 @@
+package sanqibackend.sanqibackend.utils;
+
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 顺序写出的未压缩 GeoTIFF
+ *
+ * 不压缩时每个条带的长度在写出前就已确定，因此可以先写出文件头和 IFD（含全部条带偏移），
+ * 再按行顺序写出像元，整个过程不需要回写，可以直接写入 HTTP 响应流，内存只占一行像元。
+ * 输出为像元交错（PlanarConfiguration=1）、大端字节序，总长度超出 4 GB 时自动使用 BigTIFF。
+ */
+public class StreamingGeoTiffWriter {
+
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_DOUBLE = 12;
+    private static final int TYPE_LONG8 = 16;
+
+    private static final int TARGET_STRIP_BYTES = 256 * 1024;
+
+    private final int width;
+    private final int height;
+    private final int bands;
+    private final int bitsPerSample;
+    private final int sampleFormat;
+    private final int photometric;
+    private final int rowBytes;
+    private final int rowsPerStrip;
+
+    private double[] geoTransform;
+    private Map<Integer, Object> geoKeys;
+    private Double noData;
+
+    private boolean bigTiff;
+    private boolean forceBigTiff;
+    private List<Entry> entries;
+    private long dataStart;
+
+    private OutputStream out;
+    private ByteBuffer rowBuffer;
+    private int[] intRow;
+    private float[] floatRow;
+    private double[] doubleRow;
+    private int rowsWritten;
+
+    /**
+     * @param bitsPerSample 8、16、32 或 64
+     * @param sampleFormat  1 无符号整数、2 有符号整数、3 浮点
+     * @param photometric   1 MinIsBlack 或 2 RGB
+     */
+    public StreamingGeoTiffWriter(int width, int height, int bands, int bitsPerSample, int sampleFormat,
+                                  int photometric) {
+        if (bitsPerSample != 8 && bitsPerSample != 16 && bitsPerSample != 32 && bitsPerSample != 64
+                || bitsPerSample == 64 && sampleFormat != 3) {
+            throw new IllegalArgumentException("不支持的像元位数: " + bitsPerSample);
+        }
+        if ((long) width * bands * (bitsPerSample / 8) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("输出影像过宽");
+        }
+        this.width = width;
+        this.height = height;
+        this.bands = bands;
+        this.bitsPerSample = bitsPerSample;
+        this.sampleFormat = sampleFormat;
+        this.photometric = photometric == 2 && bands >= 3 ? 2 : 1;
+        this.rowBytes = width * bands * (bitsPerSample / 8);
+        this.rowsPerStrip = Math.max(1, Math.min(height, TARGET_STRIP_BYTES / Math.max(1, rowBytes)));
+    }
+
+    /**
+     * 输出影像的六参数仿射变换（左上角原点，见 GeoTiffHeader.getGeoTransform）
+     */
+    public void setGeoTransform(double[] geoTransform) {
+        this.geoTransform = geoTransform;
+    }
+
+    /**
+     * 地理键，值为 Integer、Double、double[] 或 String（与 GeoTiffHeader.getGeoKeys 相同）
+     */
+    public void setGeoKeys(Map<Integer, Object> geoKeys) {
+        this.geoKeys = geoKeys;
+    }
+
+    public void setNoData(Double noData) {
+        this.noData = noData;
+    }
+
+    /**
+     * 不论文件大小都输出 BigTIFF，须在 length / begin 之前调用；用于在小影像上验证 BigTIFF 布局
+     */
+    void setForceBigTiff(boolean forceBigTiff) {
+        this.forceBigTiff = forceBigTiff;
+    }
+
+    /**
+     * 输出文件的总字节数
+     */
+    public long length() {
+        layout();
+        return dataStart + (long) rowBytes * height;
+    }
+
+    /**
+     * 写出文件头与 IFD，之后按行调用 writeRow
+     */
+    public void begin(OutputStream out) throws IOException {
+        layout();
+        this.out = out;
+        ByteBuffer header = ByteBuffer.allocate((int) dataStart);
+        header.put((byte) 'M').put((byte) 'M');
+        if (bigTiff) {
+            header.putShort((short) 43).putShort((short) 8).putShort((short) 0).putLong(16);
+            header.putLong(entries.size());
+        } else {
+            header.putShort((short) 42).putInt(8);
+            header.putShort((short) entries.size());
+        }
+        int inlineSize = bigTiff ? 8 : 4;
+        long valueOffset = ifdEnd();
+        for (Entry entry : entries) {
+            header.putShort((short) entry.tag).putShort((short) entry.type);
+            if (bigTiff) {
+                header.putLong(entry.count);
+            } else {
+                header.putInt(entry.count);
+            }
+            if (entry.data.length <= inlineSize) {
+                header.put(entry.data).put(new byte[inlineSize - entry.data.length]);
+            } else {
+                if (bigTiff) {
+                    header.putLong(valueOffset);
+                } else {
+                    header.putInt((int) valueOffset);
+                }
+                valueOffset += padded(entry.data.length);
+            }
+        }
+        if (bigTiff) {
+            header.putLong(0);
+        } else {
+            header.putInt(0);
+        }
+        for (Entry entry : entries) {
+            if (entry.data.length > inlineSize) {
+                header.put(entry.data);
+                if ((entry.data.length & 1) != 0) {
+                    header.put((byte) 0);
+                }
+            }
+        }
+        out.write(header.array());
+        rowBuffer = ByteBuffer.allocate(rowBytes);
+    }
+
+    /**
+     * 写出下一行：取栅格中 (x, y) 起的 width 个像元；mask 不为空时，未置位的列写入 fill
+     */
+    public void writeRow(Raster raster, int x, int y, BitSet mask, double fill) throws IOException {
+        if (rowsWritten >= height) {
+            throw new IllegalStateException("写入行数超出影像高度");
+        }
+        rowBuffer.clear();
+        if (sampleFormat == 3 && bitsPerSample == 32) {
+            floatRow = raster.getPixels(x, y, width, 1, floatRow);
+            for (int i = 0; i < floatRow.length; i++) {
+                rowBuffer.putFloat(masked(mask, i) ? (float) fill : floatRow[i]);
+            }
+        } else if (sampleFormat == 3) {
+            doubleRow = raster.getPixels(x, y, width, 1, doubleRow);
+            for (int i = 0; i < doubleRow.length; i++) {
+                rowBuffer.putDouble(masked(mask, i) ? fill : doubleRow[i]);
+            }
+        } else {
+            intRow = raster.getPixels(x, y, width, 1, intRow);
+            int fillValue = (int) (long) fill;
+            for (int i = 0; i < intRow.length; i++) {
+                int v = masked(mask, i) ? fillValue : intRow[i];
+                switch (bitsPerSample) {
+                    case 8 -> rowBuffer.put((byte) v);
+                    case 16 -> rowBuffer.putShort((short) v);
+                    default -> rowBuffer.putInt(v);
+                }
+            }
+        }
+        out.write(rowBuffer.array(), 0, rowBytes);
+        rowsWritten++;
+    }
+
+    /**
+     * 检查行数是否完整并刷新输出流
+     */
+    public void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IllegalStateException("只写入了 " + rowsWritten + " 行，影像高度为 " + height);
+        }
+        out.flush();
+    }
+
+    private boolean masked(BitSet mask, int sampleIndex) {
+        return mask != null && !mask.get(sampleIndex / bands);
+    }
+
+    /**
+     * 计算标签与条带偏移；先按普通 TIFF 计算，超出 32 位偏移范围时改用 BigTIFF
+     */
+    private void layout() {
+        if (entries != null) {
+            return;
+        }
+        bigTiff = forceBigTiff;
+        buildEntries();
+        if (!bigTiff && dataStart + (long) rowBytes * height > 0xFFFFFFFFL) {
+            bigTiff = true;
+            buildEntries();
+        }
+    }
+
+    private void buildEntries() {
+        int strips = (height + rowsPerStrip - 1) / rowsPerStrip;
+        long[] offsets = new long[strips];
+        long[] counts = new long[strips];
+        for (int s = 0; s < strips; s++) {
+            counts[s] = (long) Math.min(rowsPerStrip, height - s * rowsPerStrip) * rowBytes;
+        }
+        TreeMap<Integer, Entry> tags = new TreeMap<>();
+        put(tags, 256, TYPE_LONG, longs(width));
+        put(tags, 257, TYPE_LONG, longs(height));
+        put(tags, 258, TYPE_SHORT, shorts(repeat(bitsPerSample, bands)));
+        put(tags, 259, TYPE_SHORT, shorts(1));
+        put(tags, 262, TYPE_SHORT, shorts(photometric));
+        put(tags, 277, TYPE_SHORT, shorts(bands));
+        put(tags, 278, TYPE_LONG, longs(rowsPerStrip));
+        put(tags, 284, TYPE_SHORT, shorts(1));
+        int colorBands = photometric == 2 ? 3 : 1;
+        if (bands > colorBands) {
+            put(tags, 338, TYPE_SHORT, shorts(repeat(0, bands - colorBands)));
+        }
+        put(tags, 339, TYPE_SHORT, shorts(repeat(sampleFormat, bands)));
+        if (geoTransform != null) {
+            double[] gt = geoTransform;
+            if (gt[2] == 0 && gt[4] == 0) {
+                put(tags, 33550, TYPE_DOUBLE, doubles(gt[1], -gt[5], 0));
+                put(tags, 33922, TYPE_DOUBLE, doubles(0, 0, 0, gt[0], gt[3], 0));
+            } else {
+                put(tags, 34264, TYPE_DOUBLE, doubles(gt[1], gt[2], 0, gt[0], gt[4], gt[5], 0, gt[3],
+                        0, 0, 0, 0, 0, 0, 0, 1));
+            }
+        }
+        if (geoKeys != null && !geoKeys.isEmpty()) {
+            putGeoKeys(tags);
+        }
+        if (noData != null) {
+            put(tags, 42113, TYPE_ASCII, ascii(formatNoData(noData)));
+        }
+        // 先用占位值确定 IFD 大小，再填入真实偏移（条带偏移数组的长度不受偏移值影响）
+        int offsetType = bigTiff ? TYPE_LONG8 : TYPE_LONG;
+        put(tags, 273, offsetType, offsetType == TYPE_LONG8 ? long8s(offsets) : longs(offsets));
+        put(tags, 279, offsetType, offsetType == TYPE_LONG8 ? long8s(counts) : longs(counts));
+        entries = new ArrayList<>(tags.values());
+        dataStart = ifdEnd();
+        int inlineSize = bigTiff ? 8 : 4;
+        for (Entry entry : entries) {
+            if (entry.data.length > inlineSize) {
+                dataStart += padded(entry.data.length);
+            }
+        }
+        long position = dataStart;
+        for (int s = 0; s < strips; s++) {
+            offsets[s] = position;
+            position += counts[s];
+        }
+        put(tags, 273, offsetType, offsetType == TYPE_LONG8 ? long8s(offsets) : longs(offsets));
+        entries = new ArrayList<>(tags.values());
+    }
+
+    /**
+     * 地理键目录：整数值直接存放，浮点值放入 GeoDoubleParams，字符串放入 GeoAsciiParams；
+     * 输出的仿射变换已按像元左上角计算，RasterType 固定写为 PixelIsArea
+     */
+    private void putGeoKeys(TreeMap<Integer, Entry> tags) {
+        TreeMap<Integer, Object> keys = new TreeMap<>(geoKeys);
+        keys.put(GeoTiffHeader.KEY_RASTER_TYPE, 1);
+        List<Integer> directory = new ArrayList<>(List.of(1, 1, 0, 0));
+        List<Double> doubleParams = new ArrayList<>();
+        StringBuilder asciiParams = new StringBuilder();
+        for (Map.Entry<Integer, Object> key : keys.entrySet()) {
+            Object value = key.getValue();
+            if (value instanceof Integer i) {
+                directory.addAll(List.of(key.getKey(), 0, 1, i));
+            } else if (value instanceof Double d) {
+                directory.addAll(List.of(key.getKey(), 34736, 1, doubleParams.size()));
+                doubleParams.add(d);
+            } else if (value instanceof double[] array) {
+                directory.addAll(List.of(key.getKey(), 34736, array.length, doubleParams.size()));
+                for (double d : array) {
+                    doubleParams.add(d);
+                }
+            } else if (value instanceof String s) {
+                directory.addAll(List.of(key.getKey(), 34737, s.length() + 1, asciiParams.length()));
+                asciiParams.append(s).append('|');
+            } else {
+                continue;
+            }
+            directory.set(3, directory.get(3) + 1);
+        }
+        put(tags, 34735, TYPE_SHORT, shorts(directory.stream().mapToInt(Integer::intValue).toArray()));
+        if (!doubleParams.isEmpty()) {
+            put(tags, 34736, TYPE_DOUBLE, doubles(doubleParams.stream().mapToDouble(Double::doubleValue).toArray()));
+        }
+        if (asciiParams.length() > 0) {
+            put(tags, 34737, TYPE_ASCII, ascii(asciiParams.toString()));
+        }
+    }
+
+    private long ifdEnd() {
+        return bigTiff ? 16 + 8 + entries.size() * 20L + 8 : 8 + 2 + entries.size() * 12L + 4;
+    }
+
+    private static long padded(long length) {
+        return (length + 1) & ~1L;
+    }
+
+    private static String formatNoData(double value) {
+        if (Double.isNaN(value)) {
+            return "nan";
+        }
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static void put(TreeMap<Integer, Entry> tags, int tag, int type, byte[] data) {
+        int size = switch (type) {
+            case TYPE_SHORT -> 2;
+            case TYPE_LONG -> 4;
+            case TYPE_DOUBLE, TYPE_LONG8 -> 8;
+            default -> 1;
+        };
+        tags.put(tag, new Entry(tag, type, data.length / size, data));
+    }
+
+    private static int[] repeat(int value, int count) {
+        int[] values = new int[count];
+        Arrays.fill(values, value);
+        return values;
+    }
+
+    private static byte[] shorts(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 2);
+        for (int v : values) {
+            buffer.putShort((short) v);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] longs(long... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        for (long v : values) {
+            buffer.putInt((int) v);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] long8s(long... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 8);
+        for (long v : values) {
+            buffer.putLong(v);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] doubles(double... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 8);
+        for (double v : values) {
+            buffer.putDouble(v);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] ascii(String value) {
+        byte[] text = value.getBytes(StandardCharsets.US_ASCII);
+        byte[] data = new byte[text.length + 1];
+        System.arraycopy(text, 0, data, 0, text.length);
+        return data;
+    }
+
+    private record Entry(int tag, int type, int count, byte[] data) {
+    }
+}
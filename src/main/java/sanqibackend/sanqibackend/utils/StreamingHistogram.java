@@ -0,0 +1,171 @@
+package sanqibackend.sanqibackend.utils;
+
+/**
+ * 单遍流式统计：Welford 算法计算均值与标准差，等宽直方图作为近似百分位数的草图
+ *
+ * 给定固定范围时（如 8 位数据的 0-255）直方图是精确的；未给定范围时以最初的数据确定范围，
+ * 之后遇到范围外的值就把相邻两箱合并、范围宽度加倍，直到能容纳该值。计数始终精确，
+ * 只是分箱宽度按 2 的幂次变粗，百分位数的误差不超过一个箱宽。NaN 与无穷值会被忽略。
+ */
+public class StreamingHistogram {
+
+    private final long[] bins;
+    private final boolean fixedRange;
+    private double lower;
+    private double width;
+
+    private long count;
+    private double mean;
+    private double m2;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * 范围随数据自动扩展的直方图
+     */
+    public StreamingHistogram(int binCount) {
+        if (binCount < 2) {
+            throw new IllegalArgumentException("直方图分箱数不能小于 2: " + binCount);
+        }
+        this.bins = new long[binCount];
+        this.fixedRange = false;
+    }
+
+    /**
+     * 固定范围 [lower, upper] 的直方图，范围外的值只计入统计量，不计入直方图
+     */
+    public StreamingHistogram(int binCount, double lower, double upper) {
+        this.bins = new long[binCount];
+        this.fixedRange = true;
+        this.lower = lower;
+        this.width = (upper - lower) / binCount;
+    }
+
+    public void add(double v) {
+        if (!Double.isFinite(v)) {
+            return;
+        }
+        count++;
+        double delta = v - mean;
+        mean += delta / count;
+        m2 += delta * (v - mean);
+        if (v < min) {
+            min = v;
+        }
+        if (v > max) {
+            max = v;
+        }
+
+        if (fixedRange) {
+            if (v >= lower && v <= upper()) {
+                bins[Math.min(bins.length - 1, (int) ((v - lower) / width))]++;
+            }
+            return;
+        }
+        if (width == 0) {
+            // 此前的值全部相同（都计在第一箱），出现第二个不同的值时才确定初始范围
+            if (count == 1 || v == lower) {
+                lower = v;
+                bins[0] = count;
+                return;
+            }
+            double constant = lower;
+            long constantCount = bins[0];
+            bins[0] = 0;
+            lower = Math.min(constant, v);
+            width = Math.abs(v - constant) / (bins.length - 1);
+            bins[index(constant)] += constantCount;
+        }
+        while (v < lower || v >= upper()) {
+            grow(v < lower);
+        }
+        bins[index(v)]++;
+    }
+
+    private int index(double v) {
+        return Math.min(bins.length - 1, (int) ((v - lower) / width));
+    }
+
+    private double upper() {
+        return lower + width * bins.length;
+    }
+
+    /**
+     * 范围宽度加倍：相邻两箱合并到一半的位置，向值所在的一侧扩展
+     *
+     * 向下扩展时原第 i 箱在新范围中的偏移为 (n + i) 个旧箱宽，落在新的第 (n + i) / 2 箱，
+     * 分箱数为奇数时同样成立。
+     */
+    private void grow(boolean downward) {
+        int n = bins.length;
+        long[] merged = new long[n];
+        int offset = downward ? n : 0;
+        for (int i = 0; i < n; i++) {
+            merged[(offset + i) / 2] += bins[i];
+        }
+        System.arraycopy(merged, 0, bins, 0, n);
+        if (downward) {
+            lower -= width * n;
+        }
+        width *= 2;
+    }
+
+    /**
+     * 按直方图线性插值估算百分位数（0-100），结果限制在 [min, max] 内
+     */
+    public double percentile(double percent) {
+        long total = 0;
+        for (long c : bins) {
+            total += c;
+        }
+        if (total == 0) {
+            return Double.NaN;
+        }
+        if (width == 0) {
+            return lower;
+        }
+        double target = percent / 100.0 * total;
+        long cumulative = 0;
+        for (int i = 0; i < bins.length; i++) {
+            if (bins[i] > 0 && cumulative + bins[i] >= target) {
+                double fraction = (target - cumulative) / bins[i];
+                double value = lower + width * (i + fraction);
+                return Math.max(min, Math.min(max, value));
+            }
+            cumulative += bins[i];
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getStddev() {
+        return count > 0 ? Math.sqrt(m2 / count) : Double.NaN;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public long[] getBins() {
+        return bins;
+    }
+
+    public double getLower() {
+        return lower;
+    }
+
+    public double getUpper() {
+        return upper();
+    }
+}
@@ -0,0 +1,185 @@
+package sanqibackend.sanqibackend.utils;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Vector;
+import java.util.function.Consumer;
+
+/**
+ * 按条带缓存像元的 RenderedImage 基类
+ *
+ * 写出器按行序逐块请求瓦片，因此每次读取并缓存一整行瓦片高度的条带，源数据的每个条带只读取一次，
+ * 内存占用只与影像宽度和瓦片大小有关，与影像高度无关。可设置条带监听器，
+ * 每个条带按从上到下的顺序各回调一次（用于边写出边生成下一级概览）。
+ */
+public abstract class StripCachedImage implements RenderedImage {
+
+    protected final ImageTypeSpecifier type;
+    protected final int width;
+    protected final int height;
+    protected final int tileSize;
+    private Raster band;
+    private Consumer<Raster> stripListener;
+    private int nextListenerY;
+
+    protected StripCachedImage(ImageTypeSpecifier type, int width, int height, int tileSize) {
+        this.type = type;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * 读取影像中的一个矩形区域，返回的 Raster 坐标与影像坐标一致
+     */
+    protected abstract Raster read(Rectangle r);
+
+    /**
+     * 设置条带监听器，只会收到首次读取、且紧接在上一个已回调条带之后的整宽条带
+     */
+    public void setStripListener(Consumer<Raster> stripListener) {
+        this.stripListener = stripListener;
+        this.nextListenerY = 0;
+    }
+
+    public ImageTypeSpecifier getImageType() {
+        return type;
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        Rectangle r = rect.intersection(new Rectangle(0, 0, width, height));
+        if (r.y / tileSize != (r.y + r.height - 1) / tileSize) {
+            return read(r);
+        }
+        int bandY = r.y / tileSize * tileSize;
+        if (band == null || band.getMinY() != bandY) {
+            band = null;
+            band = read(new Rectangle(0, bandY, width, Math.min(tileSize, height - bandY)));
+            if (stripListener != null && bandY == nextListenerY) {
+                stripListener.accept(band);
+                nextListenerY += band.getHeight();
+            }
+        }
+        // JDK TIFF 写出器对 8 位数据直接读取 DataBuffer 数组、不考虑子 Raster 的偏移，因此复制成独立的 Raster
+        WritableRaster tile = band.createCompatibleWritableRaster(r.x, r.y, r.width, r.height);
+        tile.setRect(band.createChild(r.x, r.y, r.width, r.height, r.x, r.y, null));
+        return tile;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        return getData(new Rectangle(tileX * tileSize, tileY * tileSize, tileSize, tileSize));
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        Rectangle bounds = raster != null ? raster.getBounds() : new Rectangle(0, 0, width, height);
+        WritableRaster target = raster != null ? raster
+                : Raster.createWritableRaster(type.getSampleModel(width, height), null);
+        for (int ty = bounds.y / tileSize; ty * tileSize < bounds.y + bounds.height; ty++) {
+            for (int tx = bounds.x / tileSize; tx * tileSize < bounds.x + bounds.width; tx++) {
+                Rectangle tileRect = new Rectangle(tx * tileSize, ty * tileSize, tileSize, tileSize).intersection(bounds);
+                if (!tileRect.isEmpty()) {
+                    target.setRect(getData(tileRect));
+                }
+            }
+        }
+        return target;
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return java.awt.Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return type.getColorModel();
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return type.getSampleModel(tileSize, tileSize);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return (width + tileSize - 1) / tileSize;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return (height + tileSize - 1) / tileSize;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return tileSize;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return tileSize;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+}
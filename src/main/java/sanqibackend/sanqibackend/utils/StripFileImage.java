@@ -0,0 +1,140 @@
+package sanqibackend.sanqibackend.utils;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 像元按行保存在临时文件中的 RenderedImage，由 OverviewBuilder 生成
+ *
+ * 文件中每个像元按 SampleModel 的传输类型保存 numDataElements 个元素，行与行紧密相接，
+ * 按条带随机读取；关闭时删除临时文件。
+ */
+public class StripFileImage extends StripCachedImage implements Closeable {
+
+    private final FileChannel channel;
+    private final Path file;
+    private final int transferType;
+    private final long rowBytes;
+
+    StripFileImage(ImageTypeSpecifier type, int width, int height, int tileSize, FileChannel channel, Path file) {
+        super(type, width, height, tileSize);
+        this.channel = channel;
+        this.file = file;
+        SampleModel sm = type.getSampleModel(width, 1);
+        this.transferType = sm.getTransferType();
+        this.rowBytes = (long) width * sm.getNumDataElements() * elementBytes(transferType);
+    }
+
+    @Override
+    protected Raster read(Rectangle r) {
+        WritableRaster rows = Raster.createWritableRaster(type.getSampleModel(width, r.height), null);
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(rowBytes * r.height)).order(ByteOrder.nativeOrder());
+        try {
+            long position = rowBytes * r.y;
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("概览临时文件长度不足");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取概览临时文件失败: " + e.getMessage(), e);
+        }
+        buffer.flip();
+        rows.setDataElements(0, 0, width, r.height, toArray(buffer, transferType));
+        return rows.createChild(r.x, 0, r.width, r.height, r.x, r.y, null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    static int elementBytes(int transferType) {
+        switch (transferType) {
+            case DataBuffer.TYPE_BYTE:
+                return 1;
+            case DataBuffer.TYPE_USHORT:
+            case DataBuffer.TYPE_SHORT:
+                return 2;
+            case DataBuffer.TYPE_INT:
+            case DataBuffer.TYPE_FLOAT:
+                return 4;
+            case DataBuffer.TYPE_DOUBLE:
+                return 8;
+            default:
+                throw new IllegalArgumentException("不支持的像元类型: " + transferType);
+        }
+    }
+
+    /**
+     * 把 getDataElements 返回的基本类型数组写入缓冲区
+     */
+    static void putArray(ByteBuffer buffer, Object array, int length) {
+        if (array instanceof byte[]) {
+            buffer.put((byte[]) array, 0, length);
+        } else if (array instanceof short[]) {
+            buffer.asShortBuffer().put((short[]) array, 0, length);
+            buffer.position(buffer.position() + length * 2);
+        } else if (array instanceof int[]) {
+            buffer.asIntBuffer().put((int[]) array, 0, length);
+            buffer.position(buffer.position() + length * 4);
+        } else if (array instanceof float[]) {
+            buffer.asFloatBuffer().put((float[]) array, 0, length);
+            buffer.position(buffer.position() + length * 4);
+        } else if (array instanceof double[]) {
+            buffer.asDoubleBuffer().put((double[]) array, 0, length);
+            buffer.position(buffer.position() + length * 8);
+        } else {
+            throw new IllegalArgumentException("不支持的像元数组: " + array.getClass());
+        }
+    }
+
+    private static Object toArray(ByteBuffer buffer, int transferType) {
+        switch (transferType) {
+            case DataBuffer.TYPE_BYTE: {
+                byte[] array = new byte[buffer.remaining()];
+                buffer.get(array);
+                return array;
+            }
+            case DataBuffer.TYPE_USHORT:
+            case DataBuffer.TYPE_SHORT: {
+                short[] array = new short[buffer.remaining() / 2];
+                buffer.asShortBuffer().get(array);
+                return array;
+            }
+            case DataBuffer.TYPE_INT: {
+                int[] array = new int[buffer.remaining() / 4];
+                buffer.asIntBuffer().get(array);
+                return array;
+            }
+            case DataBuffer.TYPE_FLOAT: {
+                float[] array = new float[buffer.remaining() / 4];
+                buffer.asFloatBuffer().get(array);
+                return array;
+            }
+            case DataBuffer.TYPE_DOUBLE: {
+                double[] array = new double[buffer.remaining() / 8];
+                buffer.asDoubleBuffer().get(array);
+                return array;
+            }
+            default:
+                throw new IllegalArgumentException("不支持的像元类型: " + transferType);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package sanqibackend.sanqibackend.utils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * 内存 LRU + 磁盘 LRU 两级缓存，磁盘命中的内容会回填到内存
+ */
+public class TieredByteCache {
+
+    private final ByteLruCache<String> memory;
+    private final DiskLruCache disk;
+
+    public TieredByteCache(long memoryMaxBytes, Path diskRoot, long diskMaxBytes) throws IOException {
+        this.memory = new ByteLruCache<>(memoryMaxBytes);
+        this.disk = diskMaxBytes > 0 ? new DiskLruCache(diskRoot, diskMaxBytes) : null;
+    }
+
+    public byte[] get(String key) {
+        byte[] value = memory.get(key);
+        if (value == null && disk != null) {
+            value = disk.get(key);
+            if (value != null) {
+                memory.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    public void put(String key, byte[] value) {
+        memory.put(key, value);
+        if (disk != null) {
+            disk.put(key, value);
+        }
+    }
+
+    public int removeIf(Predicate<String> predicate) {
+        int removed = memory.removeIf(predicate);
+        if (disk != null) {
+            removed = Math.max(removed, disk.removeIf(predicate));
+        }
+        return removed;
+    }
+
+    public int removePrefix(String prefix) {
+        return removeIf(key -> key.startsWith(prefix));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("memory", memory.getStats());
+        stats.put("disk", disk != null ? disk.getStats() : null);
+        return stats;
+    }
+}
@@ -0,0 +1,46 @@
+package sanqibackend.sanqibackend.utils;
+
+/**
+ * XYZ 瓦片（Web Mercator，EPSG:3857）的行列号与地图坐标换算
+ */
+public final class WebMercator {
+
+    public static final double ORIGIN_SHIFT = 20037508.342789244;
+    public static final int TILE_SIZE = 256;
+    public static final int MAX_ZOOM = 24;
+    public static final double MAX_LATITUDE = 85.0511287798066;
+
+    private WebMercator() {
+    }
+
+    /**
+     * 校验瓦片行列号是否有效
+     */
+    public static boolean isValidTile(int z, int x, int y) {
+        if (z < 0 || z > MAX_ZOOM) {
+            return false;
+        }
+        long n = 1L << z;
+        return x >= 0 && x < n && y >= 0 && y < n;
+    }
+
+    /**
+     * 瓦片的 EPSG:3857 外包框 [minX, minY, maxX, maxY]
+     */
+    public static double[] tileBounds(int z, int x, int y) {
+        double size = 2 * ORIGIN_SHIFT / (1L << z);
+        double minX = -ORIGIN_SHIFT + x * size;
+        double maxY = ORIGIN_SHIFT - y * size;
+        return new double[]{minX, maxY - size, minX + size, maxY};
+    }
+
+    /**
+     * 经纬度转换为 EPSG:3857 坐标，纬度截断到 Web Mercator 的有效范围
+     */
+    public static double[] fromLonLat(double lon, double lat) {
+        double clamped = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, lat));
+        double x = lon * ORIGIN_SHIFT / 180;
+        double y = Math.log(Math.tan((90 + clamped) * Math.PI / 360)) * ORIGIN_SHIFT / Math.PI;
+        return new double[]{x, y};
+    }
+}
@@ -33,3 +33,214 @@ BEGIN
         new_id := new_id + 1;
     END LOOP;
 END $$;
+
+-- ==========================================
+-- 分块上传会话及已接收分块
+-- ==========================================
+CREATE TABLE IF NOT EXISTS raster_upload (
+    id           VARCHAR(36) PRIMARY KEY,
+    name         VARCHAR(255) NOT NULL,
+    description  VARCHAR(255),
+    lo_oid       BIGINT NOT NULL,
+    total_size   BIGINT NOT NULL,
+    chunk_size   BIGINT NOT NULL,
+    chunk_count  INTEGER NOT NULL,
+    status       VARCHAR(32) NOT NULL,
+    raster_id    BIGINT REFERENCES raster_data (id) ON DELETE SET NULL ON UPDATE CASCADE,
+    created_at   TIMESTAMP(6) WITHOUT TIME ZONE,
+    updated_at   TIMESTAMP(6) WITHOUT TIME ZONE
+);
+
+-- 早期建表时没有外键：已无对应栅格的会话置空 raster_id 后补上，栅格 id 重排时随之更新，栅格删除时置空
+UPDATE raster_upload u SET raster_id = NULL
+WHERE raster_id IS NOT NULL AND NOT EXISTS (SELECT 1 FROM raster_data d WHERE d.id = u.raster_id);
+ALTER TABLE raster_upload DROP CONSTRAINT IF EXISTS raster_upload_raster_id_fkey;
+ALTER TABLE raster_upload ADD CONSTRAINT raster_upload_raster_id_fkey
+    FOREIGN KEY (raster_id) REFERENCES raster_data (id) ON DELETE SET NULL ON UPDATE CASCADE;
+
+CREATE TABLE IF NOT EXISTS raster_upload_chunk (
+    upload_id    VARCHAR(36) NOT NULL REFERENCES raster_upload (id) ON DELETE CASCADE,
+    chunk_index  INTEGER NOT NULL,
+    chunk_size   BIGINT NOT NULL,
+    received_at  TIMESTAMP(6) WITHOUT TIME ZONE,
+    PRIMARY KEY (upload_id, chunk_index)
+);
+
+-- ==========================================
+-- 缩略图后台任务状态
+-- ==========================================
+CREATE TABLE IF NOT EXISTS raster_thumbnail_job (
+    raster_id      BIGINT PRIMARY KEY REFERENCES raster_data (id) ON DELETE CASCADE ON UPDATE CASCADE,
+    status         VARCHAR(32) NOT NULL,
+    queued_at      TIMESTAMP(6) WITHOUT TIME ZONE,
+    started_at     TIMESTAMP(6) WITHOUT TIME ZONE,
+    finished_at    TIMESTAMP(6) WITHOUT TIME ZONE,
+    duration_ms    BIGINT,
+    error_message  VARCHAR(1000)
+);
+
+-- 早期建表时没有外键：清除已无对应栅格的任务记录后补上，栅格 id 重排和删除时随之级联
+DELETE FROM raster_thumbnail_job j WHERE NOT EXISTS (SELECT 1 FROM raster_data d WHERE d.id = j.raster_id);
+ALTER TABLE raster_thumbnail_job DROP CONSTRAINT IF EXISTS raster_thumbnail_job_raster_id_fkey;
+ALTER TABLE raster_thumbnail_job ADD CONSTRAINT raster_thumbnail_job_raster_id_fkey
+    FOREIGN KEY (raster_id) REFERENCES raster_data (id) ON DELETE CASCADE ON UPDATE CASCADE;
+
+-- ==========================================
+-- COG 转写：是否为 COG 布局及保留的原始文件
+-- ==========================================
+ALTER TABLE raster_data ADD COLUMN IF NOT EXISTS cog BOOLEAN DEFAULT FALSE;
+ALTER TABLE raster_data ADD COLUMN IF NOT EXISTS original_lo_oid BIGINT;
+ALTER TABLE raster_data ADD COLUMN IF NOT EXISTS original_file_size BIGINT;
+
+-- ==========================================
+-- 导入时从文件头解析的栅格元数据
+-- ==========================================
+ALTER TABLE raster_data ADD COLUMN IF NOT EXISTS data_type VARCHAR(32);
+ALTER TABLE raster_data ADD COLUMN IF NOT EXISTS width INTEGER;
+ALTER TABLE raster_data ADD COLUMN IF NOT EXISTS height INTEGER;
+ALTER TABLE raster_data ADD COLUMN IF NOT EXISTS pixel_size_x DOUBLE PRECISION;
+ALTER TABLE raster_data ADD COLUMN IF NOT EXISTS pixel_size_y DOUBLE PRECISION;
+ALTER TABLE raster_data ADD COLUMN IF NOT EXISTS crs VARCHAR(64);
+ALTER TABLE raster_data ADD COLUMN IF NOT EXISTS nodata DOUBLE PRECISION;
+ALTER TABLE raster_data ADD COLUMN IF NOT EXISTS min_x DOUBLE PRECISION;
+ALTER TABLE raster_data ADD COLUMN IF NOT EXISTS min_y DOUBLE PRECISION;
+ALTER TABLE raster_data ADD COLUMN IF NOT EXISTS max_x DOUBLE PRECISION;
+ALTER TABLE raster_data ADD COLUMN IF NOT EXISTS max_y DOUBLE PRECISION;
+CREATE INDEX IF NOT EXISTS idx_raster_data_crs ON raster_data (crs);
+CREATE INDEX IF NOT EXISTS idx_raster_data_bbox ON raster_data (min_x, max_x, min_y, max_y);
+
+-- ==========================================
+-- 按内容 SHA-256 去重的大对象及其引用计数
+-- ==========================================
+CREATE TABLE IF NOT EXISTS raster_blob (
+    content_hash        VARCHAR(64) PRIMARY KEY,
+    lo_oid              BIGINT NOT NULL,
+    file_size           BIGINT,
+    cog                 BOOLEAN,
+    original_lo_oid     BIGINT,
+    original_file_size  BIGINT,
+    ref_count           INTEGER NOT NULL,
+    created_at          TIMESTAMP(6) WITHOUT TIME ZONE
+);
+
+ALTER TABLE raster_data ADD COLUMN IF NOT EXISTS content_hash VARCHAR(64);
+CREATE INDEX IF NOT EXISTS idx_raster_data_content_hash ON raster_data (content_hash);
+
+-- ==========================================
+-- 栅格列表键集分页使用的排序索引
+-- ==========================================
+CREATE INDEX IF NOT EXISTS idx_raster_data_created_at_id ON raster_data (created_at, id);
+-- created_at 为空的行按 1970-01-01 参与排序，与 RasterDataQueryService 中的排序表达式一致
+CREATE INDEX IF NOT EXISTS idx_raster_data_created_at_sort ON raster_data ((COALESCE(created_at, TIMESTAMP '1970-01-01 00:00:00')), id);
+CREATE INDEX IF NOT EXISTS idx_raster_data_name_id ON raster_data (name, id);
+CREATE INDEX IF NOT EXISTS idx_raster_data_raster_type ON raster_data (raster_type);
+
+-- ==========================================
+-- 缩略图独立存放，迁移 raster_data.thumbnail 中的旧数据
+-- ==========================================
+CREATE TABLE IF NOT EXISTS raster_thumbnail (
+    raster_id     BIGINT PRIMARY KEY REFERENCES raster_data (id) ON DELETE CASCADE ON UPDATE CASCADE,
+    content_hash  VARCHAR(64) NOT NULL,
+    content_type  VARCHAR(64) NOT NULL,
+    image         BYTEA NOT NULL,
+    created_at    TIMESTAMP(6) WITHOUT TIME ZONE,
+    updated_at    TIMESTAMP(6) WITHOUT TIME ZONE
+);
+
+INSERT INTO raster_thumbnail (raster_id, content_hash, content_type, image, created_at, updated_at)
+SELECT id, encode(sha256(thumbnail), 'hex'), 'image/jpeg', thumbnail, COALESCE(updated_at, now()), COALESCE(updated_at, now())
+FROM raster_data
+WHERE thumbnail IS NOT NULL
+ON CONFLICT (raster_id) DO NOTHING;
+
+UPDATE raster_data SET thumbnail = NULL
+WHERE thumbnail IS NOT NULL AND id IN (SELECT raster_id FROM raster_thumbnail);
+
+-- ==========================================
+-- 常用尺寸的缩略图变体（source_hash 为生成时依据的缩略图哈希）
+-- ==========================================
+CREATE TABLE IF NOT EXISTS raster_thumbnail_variant (
+    raster_id     BIGINT NOT NULL REFERENCES raster_data (id) ON DELETE CASCADE ON UPDATE CASCADE,
+    variant_key   VARCHAR(64) NOT NULL,
+    source_hash   VARCHAR(64) NOT NULL,
+    content_hash  VARCHAR(64) NOT NULL,
+    content_type  VARCHAR(64) NOT NULL,
+    image         BYTEA NOT NULL,
+    created_at    TIMESTAMP(6) WITHOUT TIME ZONE,
+    PRIMARY KEY (raster_id, variant_key)
+);
+
+-- ==========================================
+-- 各波段的全分辨率统计值与直方图，供渲染拉伸和前端使用
+-- ==========================================
+CREATE TABLE IF NOT EXISTS raster_band_stats (
+    raster_id      BIGINT NOT NULL REFERENCES raster_data (id) ON DELETE CASCADE ON UPDATE CASCADE,
+    band           INTEGER NOT NULL,
+    valid_count    BIGINT NOT NULL,
+    nodata_count   BIGINT NOT NULL,
+    min_value      DOUBLE PRECISION,
+    max_value      DOUBLE PRECISION,
+    mean_value     DOUBLE PRECISION,
+    stddev_value   DOUBLE PRECISION,
+    p2             DOUBLE PRECISION,
+    p98            DOUBLE PRECISION,
+    histogram_min  DOUBLE PRECISION,
+    histogram_max  DOUBLE PRECISION,
+    histogram      BIGINT[] NOT NULL,
+    computed_at    TIMESTAMP(6) WITHOUT TIME ZONE,
+    PRIMARY KEY (raster_id, band)
+);
+
+-- ==========================================
+-- 孤立大对象候选：首次发现未被任何记录引用的时间，超过宽限期仍未被引用才删除
+-- ==========================================
+CREATE TABLE IF NOT EXISTS raster_lo_orphan (
+    oid            BIGINT PRIMARY KEY,
+    first_seen_at  TIMESTAMP(6) WITHOUT TIME ZONE NOT NULL
+);
+
+-- ==========================================
+-- 重投影结果缓存：按 (栅格, 目标坐标系, 分辨率, 重采样方法) 保存生成的 GeoTIFF
+-- ==========================================
+CREATE TABLE IF NOT EXISTS raster_warp (
+    raster_id    BIGINT NOT NULL REFERENCES raster_data (id) ON DELETE CASCADE ON UPDATE CASCADE,
+    epsg         INTEGER NOT NULL,
+    resolution   DOUBLE PRECISION NOT NULL,
+    resampling   VARCHAR(16) NOT NULL,
+    lo_oid       BIGINT NOT NULL,
+    file_size    BIGINT NOT NULL,
+    created_at   TIMESTAMP(6) WITHOUT TIME ZONE,
+    PRIMARY KEY (raster_id, epsg, resolution, resampling)
+);
+
+-- 早期建表时没有外键：清除已无对应栅格的结果记录（其存储对象由孤儿回收任务删除）后补上，栅格 id 重排和删除时随之级联
+DELETE FROM raster_warp w WHERE NOT EXISTS (SELECT 1 FROM raster_data d WHERE d.id = w.raster_id);
+ALTER TABLE raster_warp DROP CONSTRAINT IF EXISTS raster_warp_raster_id_fkey;
+ALTER TABLE raster_warp ADD CONSTRAINT raster_warp_raster_id_fkey
+    FOREIGN KEY (raster_id) REFERENCES raster_data (id) ON DELETE CASCADE ON UPDATE CASCADE;
+
+-- ==========================================
+-- 虚拟镶嵌：多幅栅格按顺序组成的逻辑影像，不生成合并文件；
+-- 成员外包框（EPSG:4326）用于建立内存空间索引，sort_order 小的成员优先
+-- ==========================================
+CREATE TABLE IF NOT EXISTS raster_mosaic (
+    id           BIGSERIAL PRIMARY KEY,
+    name         VARCHAR(255) NOT NULL UNIQUE,
+    description  TEXT,
+    created_at   TIMESTAMP(6) WITHOUT TIME ZONE,
+    updated_at   TIMESTAMP(6) WITHOUT TIME ZONE
+);
+
+CREATE TABLE IF NOT EXISTS raster_mosaic_member (
+    mosaic_id    BIGINT NOT NULL REFERENCES raster_mosaic (id) ON DELETE CASCADE,
+    raster_id    BIGINT NOT NULL REFERENCES raster_data (id) ON DELETE CASCADE ON UPDATE CASCADE,
+    sort_order   INTEGER NOT NULL,
+    epsg         INTEGER NOT NULL,
+    min_lon      DOUBLE PRECISION NOT NULL,
+    min_lat      DOUBLE PRECISION NOT NULL,
+    max_lon      DOUBLE PRECISION NOT NULL,
+    max_lat      DOUBLE PRECISION NOT NULL,
+    PRIMARY KEY (mosaic_id, raster_id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_raster_mosaic_member_raster ON raster_mosaic_member (raster_id);
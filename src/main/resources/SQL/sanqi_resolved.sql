@@ -0,0 +1,197 @@
+-- ==========================================
+-- 三七种植区域去重叠后的几何（预计算）
+-- 每个区域减去与之相交的其他区域之并，结果随 public.sanqi 的增删改由触发器增量维护，
+-- 只重算外包框与变更区域（变更前后）相交的区域；查询接口直接读取本表
+--
+-- 函数体中含有分号，本脚本的语句之间用单独一行的分隔符分隔（见 SanqiRegionSchemaConfig）
+-- ==========================================
+CREATE TABLE IF NOT EXISTS sanqi_resolved (
+    gid         BIGINT PRIMARY KEY,
+    name        VARCHAR(255),
+    geom        geometry,
+    geojson     TEXT,
+    updated_at  TIMESTAMP(6) WITHOUT TIME ZONE
+)
+@@
+
+CREATE INDEX IF NOT EXISTS idx_sanqi_resolved_geom ON sanqi_resolved USING GIST (geom)
+@@
+
+-- 简化层级：每级按容差（度）预先用 ST_SimplifyPreserveTopology 简化一份几何，
+-- 查询时按缩放级别选用 max_zoom 不小于该级别的最粗一级，超过所有层级时使用原始几何。
+-- 容差约为该级最大缩放级别下半个到一个屏幕像元；修改层级后需调用 sanqi_rebuild() 重算
+CREATE TABLE IF NOT EXISTS sanqi_simplify_level (
+    level       INTEGER PRIMARY KEY,
+    tolerance   DOUBLE PRECISION NOT NULL,
+    max_zoom    INTEGER NOT NULL
+)
+@@
+
+INSERT INTO sanqi_simplify_level (level, tolerance, max_zoom) VALUES
+    (1, 0.01, 6),
+    (2, 0.001, 9),
+    (3, 0.0002, 12),
+    (4, 0.00002, 15)
+ON CONFLICT (level) DO NOTHING
+@@
+
+CREATE TABLE IF NOT EXISTS sanqi_resolved_simplified (
+    gid         BIGINT NOT NULL REFERENCES sanqi_resolved (gid) ON DELETE CASCADE,
+    level       INTEGER NOT NULL,
+    geom        geometry,
+    PRIMARY KEY (gid, level)
+)
+@@
+
+-- 区域变更日志：每次重算前后区域的经纬度外包框，供矢量瓦片缓存按范围失效；gid 为空表示全部区域都已变化。
+-- 区域写入由咨询锁串行化，日志 id 按提交顺序递增，读取方记录已处理的最大 id 即可；超过 7 天的日志自动删除
+CREATE TABLE IF NOT EXISTS sanqi_resolved_change (
+    id          BIGSERIAL PRIMARY KEY,
+    gid         BIGINT,
+    min_lon     DOUBLE PRECISION,
+    min_lat     DOUBLE PRECISION,
+    max_lon     DOUBLE PRECISION,
+    max_lat     DOUBLE PRECISION,
+    changed_at  TIMESTAMP(6) WITHOUT TIME ZONE
+)
+@@
+
+-- 区域集合的版本号，每次重算后加一，供分区统计等缓存判断区域是否变化
+CREATE TABLE IF NOT EXISTS sanqi_resolved_version (
+    id          INTEGER PRIMARY KEY,
+    version     BIGINT NOT NULL,
+    updated_at  TIMESTAMP(6) WITHOUT TIME ZONE
+)
+@@
+
+INSERT INTO sanqi_resolved_version (id, version, updated_at) VALUES (1, 0, now())
+ON CONFLICT (id) DO NOTHING
+@@
+
+-- 重算指定区域：已不存在的区域只删除，其余按原查询接口的几何处理重新计算，并生成各简化层级
+CREATE OR REPLACE FUNCTION sanqi_resolve(p_gids BIGINT[]) RETURNS INTEGER AS $$
+DECLARE
+    resolved INTEGER;
+BEGIN
+    INSERT INTO sanqi_resolved_change (gid, min_lon, min_lat, max_lon, max_lat, changed_at)
+    SELECT gid, ST_XMin(geom), ST_YMin(geom), ST_XMax(geom), ST_YMax(geom), now()
+    FROM sanqi_resolved
+    WHERE gid = ANY (p_gids) AND NOT ST_IsEmpty(geom);
+    DELETE FROM sanqi_resolved WHERE gid = ANY (p_gids);
+    INSERT INTO sanqi_resolved (gid, name, geom, geojson, updated_at)
+    SELECT r.gid, r.name, r.geom, ST_AsGeoJSON(r.geom, 15, 2), now()
+    FROM (
+        SELECT s.gid::BIGINT AS gid, s.name,
+               ST_Multi(
+                   ST_CollectionExtract(
+                       ST_MakeValid(
+                           ST_Difference(
+                               ST_Transform(ST_SetSRID(s.geom, 4326), 4326),
+                               COALESCE(
+                                   (SELECT ST_Union(ST_Transform(ST_SetSRID(s2.geom, 4326), 4326))
+                                    FROM public.sanqi s2
+                                    WHERE s2.gid != s.gid
+                                    AND ST_Intersects(s2.geom, s.geom)),
+                                   ST_GeomFromText('POLYGON EMPTY')
+                               )
+                           )
+                       ),
+                       3
+                   )
+               ) AS geom
+        FROM public.sanqi s
+        WHERE s.gid = ANY (p_gids)
+    ) r;
+    GET DIAGNOSTICS resolved = ROW_COUNT;
+    -- 旧的简化几何随 sanqi_resolved 的删除级联删除
+    INSERT INTO sanqi_resolved_simplified (gid, level, geom)
+    SELECT r.gid, l.level, ST_Multi(ST_SimplifyPreserveTopology(r.geom, l.tolerance))
+    FROM sanqi_resolved r
+    CROSS JOIN sanqi_simplify_level l
+    WHERE r.gid = ANY (p_gids);
+    INSERT INTO sanqi_resolved_change (gid, min_lon, min_lat, max_lon, max_lat, changed_at)
+    SELECT gid, ST_XMin(geom), ST_YMin(geom), ST_XMax(geom), ST_YMax(geom), now()
+    FROM sanqi_resolved
+    WHERE gid = ANY (p_gids) AND NOT ST_IsEmpty(geom);
+    DELETE FROM sanqi_resolved_change WHERE changed_at < now() - INTERVAL '7 days';
+    UPDATE sanqi_resolved_version SET version = version + 1, updated_at = now() WHERE id = 1;
+    RETURN resolved;
+END;
+$$ LANGUAGE plpgsql
+@@
+
+-- 全量重算
+CREATE OR REPLACE FUNCTION sanqi_rebuild() RETURNS INTEGER AS $$
+BEGIN
+    PERFORM pg_advisory_xact_lock(hashtext('sanqi_resolved'));
+    DELETE FROM sanqi_resolved;
+    INSERT INTO sanqi_resolved_change (gid, changed_at) VALUES (NULL, now());
+    RETURN sanqi_resolve(ARRAY(SELECT gid::BIGINT FROM public.sanqi));
+END;
+$$ LANGUAGE plpgsql
+@@
+
+-- 行级触发器：收集变更前后外包框相交的区域并重算；只改属性不改几何时只重算该区域本身。
+-- 区域写入之间用事务级咨询锁串行化，避免并发修改相邻区域时基于过期的邻居计算
+CREATE OR REPLACE FUNCTION sanqi_resolved_sync() RETURNS TRIGGER AS $$
+DECLARE
+    gids BIGINT[] := '{}';
+BEGIN
+    PERFORM pg_advisory_xact_lock(hashtext('sanqi_resolved'));
+    IF TG_OP = 'UPDATE' AND ST_AsEWKB(OLD.geom) IS NOT DISTINCT FROM ST_AsEWKB(NEW.geom) THEN
+        gids := ARRAY[OLD.gid::BIGINT, NEW.gid::BIGINT];
+    ELSE
+        IF TG_OP IN ('UPDATE', 'DELETE') THEN
+            gids := gids || OLD.gid::BIGINT
+                || ARRAY(SELECT gid::BIGINT FROM public.sanqi WHERE geom && OLD.geom);
+        END IF;
+        IF TG_OP IN ('UPDATE', 'INSERT') THEN
+            gids := gids || NEW.gid::BIGINT
+                || ARRAY(SELECT gid::BIGINT FROM public.sanqi WHERE geom && NEW.geom);
+        END IF;
+    END IF;
+    PERFORM sanqi_resolve(ARRAY(SELECT DISTINCT unnest(gids)));
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql
+@@
+
+CREATE OR REPLACE FUNCTION sanqi_resolved_truncate() RETURNS TRIGGER AS $$
+BEGIN
+    PERFORM pg_advisory_xact_lock(hashtext('sanqi_resolved'));
+    DELETE FROM sanqi_resolved;
+    INSERT INTO sanqi_resolved_change (gid, changed_at) VALUES (NULL, now());
+    UPDATE sanqi_resolved_version SET version = version + 1, updated_at = now() WHERE id = 1;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql
+@@
+
+DROP TRIGGER IF EXISTS sanqi_resolved_sync ON public.sanqi
+@@
+
+CREATE TRIGGER sanqi_resolved_sync
+    AFTER INSERT OR UPDATE OR DELETE ON public.sanqi
+    FOR EACH ROW EXECUTE FUNCTION sanqi_resolved_sync()
+@@
+
+DROP TRIGGER IF EXISTS sanqi_resolved_truncate ON public.sanqi
+@@
+
+CREATE TRIGGER sanqi_resolved_truncate
+    AFTER TRUNCATE ON public.sanqi
+    FOR EACH STATEMENT EXECUTE FUNCTION sanqi_resolved_truncate()
+@@
+
+-- 首次部署时填充
+SELECT sanqi_rebuild() WHERE NOT EXISTS (SELECT 1 FROM sanqi_resolved)
+@@
+
+-- 补齐缺少的简化层级：sanqi_resolved 由未建简化表的旧版本填充过时不会重算，新增的层级也从这里生成
+INSERT INTO sanqi_resolved_simplified (gid, level, geom)
+SELECT r.gid, l.level, ST_Multi(ST_SimplifyPreserveTopology(r.geom, l.tolerance))
+FROM sanqi_resolved r
+CROSS JOIN sanqi_simplify_level l
+WHERE NOT EXISTS (SELECT 1 FROM sanqi_resolved_simplified s WHERE s.gid = r.gid AND s.level = l.level)
+ON CONFLICT (gid, level) DO NOTHING
+@@
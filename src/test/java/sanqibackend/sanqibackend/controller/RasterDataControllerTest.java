@@ -0,0 +1,60 @@
+package sanqibackend.sanqibackend.controller;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RasterDataControllerTest {
+
+    private static final long SIZE = 1000;
+
+    @Test
+    void parsesSingleRanges() {
+        assertArrayEquals(new long[]{0, 99}, RasterDataController.parseSingleRange("bytes=0-99", SIZE));
+        assertArrayEquals(new long[]{500, 999}, RasterDataController.parseSingleRange("bytes=500-", SIZE));
+        assertArrayEquals(new long[]{900, 999}, RasterDataController.parseSingleRange("bytes=-100", SIZE));
+    }
+
+    @Test
+    void clampsRangeEndToFileSize() {
+        assertArrayEquals(new long[]{990, 999}, RasterDataController.parseSingleRange("bytes=990-5000", SIZE));
+        assertArrayEquals(new long[]{0, 999}, RasterDataController.parseSingleRange("bytes=-5000", SIZE));
+    }
+
+    @Test
+    void unsatisfiableRangeStartsAtOrBeyondEnd() {
+        assertArrayEquals(new long[]{1000, 999}, RasterDataController.parseSingleRange("bytes=1000-1100", SIZE));
+        assertArrayEquals(new long[]{0, -1}, RasterDataController.parseSingleRange("bytes=-10", 0));
+    }
+
+    @Test
+    void ignoresMalformedAndMultipartRanges() {
+        assertNull(RasterDataController.parseSingleRange("bytes=abc", SIZE));
+        assertNull(RasterDataController.parseSingleRange("items=0-10", SIZE));
+        assertNull(RasterDataController.parseSingleRange("bytes=0-9,20-29", SIZE));
+        assertNull(RasterDataController.parseSingleRange("bytes=5-2", SIZE));
+    }
+
+    @Test
+    void ifRangeMatchesEtagOrLastModified() {
+        String etag = "\"42-1000\"";
+        long lastModified = ZonedDateTime.of(2024, 5, 1, 12, 0, 0, 0, ZoneOffset.UTC).toInstant().toEpochMilli();
+        String httpDate = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.of(2024, 5, 1, 12, 0, 0, 0, ZoneOffset.UTC));
+
+        assertTrue(RasterDataController.isIfRangeSatisfied(null, etag, lastModified));
+        assertTrue(RasterDataController.isIfRangeSatisfied(etag, etag, lastModified));
+        assertFalse(RasterDataController.isIfRangeSatisfied("\"41-1000\"", etag, lastModified));
+        assertFalse(RasterDataController.isIfRangeSatisfied("W/\"42-1000\"", etag, lastModified));
+        assertTrue(RasterDataController.isIfRangeSatisfied(httpDate, etag, lastModified + 500));
+        assertFalse(RasterDataController.isIfRangeSatisfied(httpDate, etag, lastModified + 1000));
+        assertFalse(RasterDataController.isIfRangeSatisfied(httpDate, etag, -1));
+        assertFalse(RasterDataController.isIfRangeSatisfied("不是日期", etag, lastModified));
+    }
+}
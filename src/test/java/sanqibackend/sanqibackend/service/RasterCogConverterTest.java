@@ -0,0 +1,165 @@
+package sanqibackend.sanqibackend.service;
+
+import org.junit.jupiter.api.Test;
+import sanqibackend.sanqibackend.utils.GeoTiffHeader;
+import sanqibackend.sanqibackend.utils.StreamingGeoTiffWriter;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.plugins.tiff.BaselineTIFFTagSet;
+import javax.imageio.plugins.tiff.TIFFDirectory;
+import javax.imageio.plugins.tiff.TIFFField;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RasterCogConverterTest {
+
+    private static final int BLOCK = 64;
+
+    @Test
+    void overviewCountHalvesUntilOneBlock() throws ReflectiveOperationException {
+        RasterCogConverter converter = converter();
+
+        assertEquals(0, converter.overviewCount(64, 10));
+        assertEquals(1, converter.overviewCount(65, 10));
+        assertEquals(3, converter.overviewCount(300, 200));
+        assertEquals(2, converter.overviewCount(10, 256));
+    }
+
+    @Test
+    void convertsGeoTiffToTiledCogWithOverviews() throws Exception {
+        int width = 300;
+        int height = 200;
+        double[] gt = {500000, 30, 0, 3000000, 0, -30};
+        WritableRaster source = Raster.createWritableRaster(
+                new BandedSampleModel(DataBuffer.TYPE_USHORT, width, height, 1), null);
+        fill(source, 0xffff);
+        StreamingGeoTiffWriter writer = new StreamingGeoTiffWriter(width, height, 1, 16, 1, 1);
+        writer.setGeoTransform(gt);
+        writer.setGeoKeys(Map.of(GeoTiffHeader.KEY_MODEL_TYPE, 1, GeoTiffHeader.KEY_PROJECTED_CS_TYPE, 32649));
+        writer.setNoData(0.0);
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        writer.begin(tiff);
+        for (int y = 0; y < height; y++) {
+            writer.writeRow(source, 0, y, null, 0);
+        }
+        writer.finish();
+
+        byte[] cog = convert(tiff.toByteArray());
+
+        GeoTiffHeader header = GeoTiffHeader.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(cog)));
+        assertTrue(header.isTiled());
+        assertEquals(BLOCK, header.getBlockWidth());
+        assertEquals(BLOCK, header.getBlockHeight());
+        assertEquals(width, header.getWidth());
+        assertArrayEquals(gt, header.getGeoTransform(), 0);
+        assertEquals(32649, header.getEpsgCode());
+        assertEquals(0.0, header.getNoData(), 0);
+        assertLevels(cog, source, 4);
+    }
+
+    @Test
+    void convertsRgbImage() throws Exception {
+        int width = 130;
+        int height = 70;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        fill(image.getRaster(), 0xff);
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        ImageIO.write(image, "tiff", tiff);
+
+        byte[] cog = convert(tiff.toByteArray());
+
+        assertLevels(cog, image.getRaster(), 3);
+    }
+
+    @Test
+    void rejectsNonTiffInput() throws ReflectiveOperationException {
+        RasterCogConverter converter = converter();
+
+        assertThrows(Exception.class, () -> converter.convert(
+                new MemoryCacheImageInputStream(new ByteArrayInputStream(new byte[]{'n', 'o', 't', ' ', 't', 'i', 'f'})),
+                new MemoryCacheImageOutputStream(new ByteArrayOutputStream())));
+    }
+
+    /**
+     * 第 i 级概览为原图每 2^i 个像元取一个的最近邻抽稀，概览 IFD 标记为缩小分辨率且不带地理标签
+     */
+    private static void assertLevels(byte[] cog, Raster source, int expectedLevels) throws IOException {
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(cog))) {
+            ImageReader reader = ImageIO.getImageReaders(in).next();
+            reader.setInput(in);
+            assertEquals(expectedLevels, reader.getNumImages(true));
+            for (int i = 0; i < expectedLevels; i++) {
+                int factor = 1 << i;
+                Raster level = reader.read(i).getRaster();
+                assertEquals((source.getWidth() + factor - 1) / factor, level.getWidth());
+                assertEquals((source.getHeight() + factor - 1) / factor, level.getHeight());
+                assertEquals(BLOCK, reader.getTileWidth(i));
+                for (int y = 0; y < level.getHeight(); y++) {
+                    for (int x = 0; x < level.getWidth(); x++) {
+                        for (int b = 0; b < source.getNumBands(); b++) {
+                            assertEquals(source.getSample(x * factor, y * factor, b), level.getSample(x, y, b));
+                        }
+                    }
+                }
+                if (i > 0) {
+                    TIFFDirectory dir = TIFFDirectory.createFromMetadata(reader.getImageMetadata(i));
+                    TIFFField subfileType = dir.getTIFFField(BaselineTIFFTagSet.TAG_NEW_SUBFILE_TYPE);
+                    assertEquals(BaselineTIFFTagSet.NEW_SUBFILE_TYPE_REDUCED_RESOLUTION, subfileType.getAsInt(0));
+                    assertNull(dir.getTIFFField(34735));
+                }
+            }
+            reader.dispose();
+        }
+    }
+
+    private static byte[] convert(byte[] tiff) throws Exception {
+        ByteArrayOutputStream cog = new ByteArrayOutputStream();
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(tiff));
+             ImageOutputStream out = new MemoryCacheImageOutputStream(cog)) {
+            converter().convert(in, out);
+        }
+        return cog.toByteArray();
+    }
+
+    private static RasterCogConverter converter() throws ReflectiveOperationException {
+        RasterCogConverter converter = new RasterCogConverter();
+        set(converter, "blockSize", BLOCK);
+        set(converter, "compression", "Deflate");
+        return converter;
+    }
+
+    private static void set(RasterCogConverter converter, String name, Object value) throws ReflectiveOperationException {
+        Field field = RasterCogConverter.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(converter, value);
+    }
+
+    private static void fill(WritableRaster raster, int mask) {
+        for (int y = 0; y < raster.getHeight(); y++) {
+            for (int x = 0; x < raster.getWidth(); x++) {
+                for (int b = 0; b < raster.getNumBands(); b++) {
+                    raster.setSample(x, y, b, (x * 7 + y * 13 + b * 5) & mask);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package sanqibackend.sanqibackend.service;
+
+import org.junit.jupiter.api.Test;
+import sanqibackend.sanqibackend.entity.RasterDataSummary;
+import sanqibackend.sanqibackend.service.RasterDataQueryService.SortKey;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RasterDataQueryServiceTest {
+
+    @Test
+    void createdAtCursorRoundTrip() {
+        LocalDateTime createdAt = LocalDateTime.of(2024, 3, 5, 8, 30, 15, 123456000);
+        String cursor = RasterDataQueryService.encodeCursor(SortKey.CREATED_AT, summary(42L, "a", createdAt));
+
+        assertArrayEquals(new Object[]{Timestamp.valueOf(createdAt), 42L},
+                RasterDataQueryService.decodeCursor(SortKey.CREATED_AT, cursor));
+    }
+
+    @Test
+    void nullCreatedAtCursorUsesSortPlaceholder() {
+        String cursor = RasterDataQueryService.encodeCursor(SortKey.CREATED_AT, summary(7L, "a", null));
+
+        assertArrayEquals(new Object[]{Timestamp.valueOf(RasterDataQueryService.NULL_CREATED_AT), 7L},
+                RasterDataQueryService.decodeCursor(SortKey.CREATED_AT, cursor));
+    }
+
+    @Test
+    void nameCursorKeepsSeparatorInValue() {
+        String cursor = RasterDataQueryService.encodeCursor(SortKey.NAME, summary(3L, "区域:2024", null));
+
+        assertArrayEquals(new Object[]{"区域:2024", 3L}, RasterDataQueryService.decodeCursor(SortKey.NAME, cursor));
+    }
+
+    @Test
+    void idCursorIgnoresSortValue() {
+        String cursor = RasterDataQueryService.encodeCursor(SortKey.ID, summary(9L, "a", LocalDateTime.now()));
+
+        assertArrayEquals(new Object[]{null, 9L}, RasterDataQueryService.decodeCursor(SortKey.ID, cursor));
+    }
+
+    @Test
+    void malformedCursorIsRejected() {
+        String emptyTime = Base64.getUrlEncoder().withoutPadding().encodeToString("5:".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IllegalArgumentException.class, () -> RasterDataQueryService.decodeCursor(SortKey.CREATED_AT, emptyTime));
+        assertThrows(IllegalArgumentException.class, () -> RasterDataQueryService.decodeCursor(SortKey.ID, "不是游标"));
+        assertThrows(IllegalArgumentException.class, () -> RasterDataQueryService.decodeCursor(SortKey.NAME, "bm9zZXA"));
+    }
+
+    private static RasterDataSummary summary(Long id, String name, LocalDateTime createdAt) {
+        RasterDataSummary summary = new RasterDataSummary();
+        summary.setId(id);
+        summary.setName(name);
+        summary.setCreatedAt(createdAt);
+        return summary;
+    }
+}
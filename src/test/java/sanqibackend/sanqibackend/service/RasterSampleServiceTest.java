@@ -0,0 +1,111 @@
+package sanqibackend.sanqibackend.service;
+
+import org.junit.jupiter.api.Test;
+import sanqibackend.sanqibackend.entity.RasterSampleResult;
+import sanqibackend.sanqibackend.entity.SamplePoint;
+import sanqibackend.sanqibackend.utils.GeoTiffHeader;
+import sanqibackend.sanqibackend.utils.StreamingGeoTiffWriter;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RasterSampleServiceTest {
+
+    private static final int SIZE = 4;
+
+    @Test
+    void samplesPointInsideRaster() throws IOException {
+        RasterSampleService.SampleBatch batch = sample(4326, new double[]{100, 1, 0, 40, 0, -1},
+                point(101.5, 38.5), point(99.5, 38.5), point(101.5, 36));
+
+        List<RasterSampleResult> results = batch.getResults();
+        assertTrue(results.get(0).isInside());
+        assertEquals(1, results.get(0).getCol());
+        assertEquals(1, results.get(0).getRow());
+        assertArrayEquals(new double[]{5}, results.get(0).getValues(), 0);
+        assertFalse(results.get(1).isInside());
+        // 恰好落在下边界上的点属于影像外
+        assertFalse(results.get(2).isInside());
+        assertEquals(1, batch.getBlocksRead());
+    }
+
+    @Test
+    void nonFiniteCoordinatesAreOutside() throws IOException {
+        RasterSampleService.SampleBatch batch = sample(4326, new double[]{100, 1, 0, 40, 0, -1},
+                point(Double.NaN, 38.5), point(101.5, Double.POSITIVE_INFINITY),
+                point(Double.NEGATIVE_INFINITY, 38.5), point(100.5, 39.5));
+
+        List<RasterSampleResult> results = batch.getResults();
+        for (int i = 0; i < 3; i++) {
+            assertFalse(results.get(i).isInside());
+            assertNull(results.get(i).getValues());
+        }
+        assertTrue(results.get(3).isInside());
+        assertArrayEquals(new double[]{0}, results.get(3).getValues(), 0);
+    }
+
+    @Test
+    void pointOutsideProjectionDomainIsOutside() throws IOException {
+        // Web 墨卡托下 (-2000, 2000) 起 1000 米的像元，极点及越界纬度无法投影
+        RasterSampleService.SampleBatch batch = sample(3857, new double[]{-2000, 1000, 0, 2000, 0, -1000},
+                point(0, 90), point(0.005, 0.005), point(10, -95));
+
+        List<RasterSampleResult> results = batch.getResults();
+        assertFalse(results.get(0).isInside());
+        assertTrue(results.get(1).isInside());
+        assertEquals(2, results.get(1).getCol());
+        assertEquals(1, results.get(1).getRow());
+        assertArrayEquals(new double[]{6}, results.get(1).getValues(), 0);
+        assertFalse(results.get(2).isInside());
+    }
+
+    private static RasterSampleService.SampleBatch sample(int epsg, double[] geoTransform, SamplePoint... points)
+            throws IOException {
+        StreamingGeoTiffWriter writer = new StreamingGeoTiffWriter(SIZE, SIZE, 1, 32, 3, 1);
+        writer.setGeoTransform(geoTransform);
+        writer.setGeoKeys(epsg == 4326
+                ? Map.of(GeoTiffHeader.KEY_MODEL_TYPE, 2, GeoTiffHeader.KEY_RASTER_TYPE, 1,
+                        GeoTiffHeader.KEY_GEOGRAPHIC_TYPE, epsg)
+                : Map.of(GeoTiffHeader.KEY_MODEL_TYPE, 1, GeoTiffHeader.KEY_RASTER_TYPE, 1,
+                        GeoTiffHeader.KEY_PROJECTED_CS_TYPE, epsg));
+        WritableRaster raster = Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_FLOAT, SIZE, SIZE, 1), null);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                raster.setSample(x, y, 0, y * SIZE + x);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.begin(out);
+        for (int y = 0; y < SIZE; y++) {
+            writer.writeRow(raster, 0, y, null, 0);
+        }
+        writer.finish();
+
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            return RasterSampleService.sample(in, new ArrayList<>(List.of(points)), 4326);
+        }
+    }
+
+    private static SamplePoint point(double lon, double lat) {
+        SamplePoint point = new SamplePoint();
+        point.setLon(lon);
+        point.setLat(lat);
+        return point;
+    }
+}
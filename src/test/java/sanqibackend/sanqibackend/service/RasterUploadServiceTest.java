@@ -0,0 +1,393 @@
+package sanqibackend.sanqibackend.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import sanqibackend.sanqibackend.entity.RasterData;
+import sanqibackend.sanqibackend.entity.RasterUpload;
+import sanqibackend.sanqibackend.repository.RasterUploadRepository;
+
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分块上传协议：raster_upload / raster_upload_chunk 与存储后端由内存实现代替，
+ * 导入过程中可插入并发的分块写入或取消，模拟它们与 complete 的竞争
+ */
+class RasterUploadServiceTest {
+
+    private static final long CHUNK = LargeObjectStore.PAGE_SIZE;
+
+    private final UploadTables tables = new UploadTables();
+    private final MemoryStorage storage = new MemoryStorage();
+    private final List<String> imported = new ArrayList<>();
+    private Runnable duringImport = () -> { };
+    private RasterUploadService service;
+
+    @BeforeEach
+    void setUp() throws ReflectiveOperationException {
+        service = new RasterUploadService();
+        RasterDataService rasterDataService = new RasterDataService() {
+            @Override
+            public RasterData importStoredRaster(String name, String description, Long oid, long fileSize,
+                                                 String contentHash, byte[] head, int headLength,
+                                                 Boolean cog, Boolean keepOriginal) {
+                duringImport.run();
+                imported.add(contentHash);
+                RasterData rasterData = new RasterData();
+                rasterData.setId(100L + imported.size());
+                rasterData.setName(name);
+                return rasterData;
+            }
+
+            @Override
+            public RasterData getRasterDataById(Long id) {
+                RasterData rasterData = new RasterData();
+                rasterData.setId(id);
+                return rasterData;
+            }
+        };
+        RasterBlobService rasterBlobService = new RasterBlobService() {
+            @Override
+            public String digest(long oid, long size) {
+                return "hash-" + storage.content(oid).length;
+            }
+        };
+        TransactionTemplate transactionTemplate = new TransactionTemplate() {
+            @Override
+            public <T> T execute(TransactionCallback<T> action) {
+                TransactionStatus status = new SimpleTransactionStatus();
+                return action.doInTransaction(status);
+            }
+        };
+        RasterUploadRepository repository = (RasterUploadRepository) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{RasterUploadRepository.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findById":
+                            return Optional.ofNullable(tables.copy((String) args[0]));
+                        case "save":
+                            tables.uploads.put(((RasterUpload) args[0]).getId(), (RasterUpload) args[0]);
+                            return args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        inject("rasterUploadRepository", repository);
+        inject("rasterDataService", rasterDataService);
+        inject("rasterStorage", storage);
+        inject("rasterBlobService", rasterBlobService);
+        inject("jdbcTemplate", tables);
+        inject("transactionTemplate", transactionTemplate);
+        inject("defaultChunkSize", CHUNK);
+        inject("maxChunkSize", CHUNK * 4);
+    }
+
+    @Test
+    void chunksUploadedOutOfOrderAreAssembledByOffset() throws IOException {
+        RasterUpload upload = service.initUpload("a.tif", null, CHUNK * 2 + 10, null);
+        byte[] data = pattern((int) (CHUNK * 2 + 10));
+
+        service.writeChunk(upload.getId(), 2, slice(data, 2));
+        assertEquals(List.of(0, 1), service.getMissingChunks(service.getUpload(upload.getId())));
+        service.writeChunk(upload.getId(), 0, slice(data, 0));
+        service.writeChunk(upload.getId(), 1, slice(data, 1));
+        // 重传同一分块覆盖原内容
+        service.writeChunk(upload.getId(), 1, slice(data, 1));
+
+        RasterData rasterData = service.completeUpload(upload.getId(), null, null);
+        assertArrayEquals(data, storage.content(upload.getLoOid()));
+        assertEquals(List.of("hash-" + data.length), imported);
+        assertEquals(RasterUpload.STATUS_COMPLETED, tables.uploads.get(upload.getId()).getStatus());
+        assertEquals(rasterData.getId(), tables.uploads.get(upload.getId()).getRasterId());
+        assertTrue(service.getReceivedChunks(upload.getId()).isEmpty());
+    }
+
+    @Test
+    void completeWithMissingChunksRestoresUploading() throws IOException {
+        RasterUpload upload = service.initUpload("a.tif", null, CHUNK * 2, null);
+        service.writeChunk(upload.getId(), 1, new ByteArrayInputStream(new byte[(int) CHUNK]));
+
+        assertThrows(IllegalStateException.class, () -> service.completeUpload(upload.getId(), null, null));
+        assertEquals(RasterUpload.STATUS_UPLOADING, tables.uploads.get(upload.getId()).getStatus());
+        assertTrue(imported.isEmpty());
+
+        service.writeChunk(upload.getId(), 0, new ByteArrayInputStream(new byte[(int) CHUNK]));
+        service.completeUpload(upload.getId(), null, null);
+        assertEquals(1, imported.size());
+    }
+
+    @Test
+    void repeatedCompleteReturnsSameRasterWithoutImportingAgain() throws IOException {
+        RasterUpload upload = uploadedSession();
+        RasterData first = service.completeUpload(upload.getId(), null, null);
+        RasterData second = service.completeUpload(upload.getId(), null, null);
+
+        assertEquals(first.getId(), second.getId());
+        assertEquals(1, imported.size());
+    }
+
+    @Test
+    void completeAfterRasterDeletedFails() throws IOException {
+        RasterUpload upload = uploadedSession();
+        service.completeUpload(upload.getId(), null, null);
+        // 栅格删除时外键把 raster_id 置空
+        tables.uploads.get(upload.getId()).setRasterId(null);
+
+        assertThrows(IllegalStateException.class, () -> service.completeUpload(upload.getId(), null, null));
+    }
+
+    @Test
+    void concurrentCompleteIsRejectedWhileImporting() throws IOException {
+        RasterUpload upload = uploadedSession();
+        List<Exception> raced = new ArrayList<>();
+        duringImport = () -> raced.add(assertThrows(IllegalStateException.class,
+                () -> service.completeUpload(upload.getId(), null, null)));
+
+        service.completeUpload(upload.getId(), null, null);
+        assertEquals(1, raced.size());
+        assertEquals(1, imported.size());
+    }
+
+    @Test
+    void abortRacingCompleteIsRejectedAndKeepsObject() throws IOException {
+        RasterUpload upload = uploadedSession();
+        duringImport = () -> assertThrows(IllegalStateException.class, () -> service.abortUpload(upload.getId()));
+
+        service.completeUpload(upload.getId(), null, null);
+        assertTrue(storage.exists(upload.getLoOid()));
+        assertThrows(IllegalStateException.class, () -> service.abortUpload(upload.getId()));
+        assertEquals(RasterUpload.STATUS_COMPLETED, tables.uploads.get(upload.getId()).getStatus());
+    }
+
+    @Test
+    void abortBeforeCompleteRemovesSessionAndObject() throws IOException {
+        RasterUpload upload = uploadedSession();
+        service.abortUpload(upload.getId());
+
+        assertFalse(storage.exists(upload.getLoOid()));
+        assertNull(tables.uploads.get(upload.getId()));
+        assertThrows(IllegalArgumentException.class, () -> service.completeUpload(upload.getId(), null, null));
+    }
+
+    @Test
+    void lateChunkDuringCompleteIsRejected() throws IOException {
+        RasterUpload upload = uploadedSession();
+        byte[] before = storage.content(upload.getLoOid()).clone();
+        duringImport = () -> assertThrows(IllegalStateException.class, () -> service.writeChunk(upload.getId(), 0,
+                new ByteArrayInputStream(new byte[(int) CHUNK])));
+
+        service.completeUpload(upload.getId(), null, null);
+        assertArrayEquals(before, storage.content(upload.getLoOid()));
+    }
+
+    @Test
+    void rejectsWrongChunkSizeAndIndex() throws IOException {
+        RasterUpload upload = service.initUpload("a.tif", null, CHUNK + 1, null);
+
+        assertThrows(IllegalArgumentException.class, () -> service.writeChunk(upload.getId(), 2,
+                new ByteArrayInputStream(new byte[1])));
+        assertThrows(IOException.class, () -> service.writeChunk(upload.getId(), 1,
+                new ByteArrayInputStream(new byte[0])));
+        assertEquals(List.of(0, 1), service.getMissingChunks(service.getUpload(upload.getId())));
+    }
+
+    private RasterUpload uploadedSession() throws IOException {
+        RasterUpload upload = service.initUpload("a.tif", null, CHUNK + 5, null);
+        byte[] data = pattern((int) (CHUNK + 5));
+        service.writeChunk(upload.getId(), 0, slice(data, 0));
+        service.writeChunk(upload.getId(), 1, slice(data, 1));
+        return upload;
+    }
+
+    private void inject(String name, Object value) throws ReflectiveOperationException {
+        Field field = RasterUploadService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(service, value);
+    }
+
+    private static byte[] pattern(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31 + i / 7);
+        }
+        return data;
+    }
+
+    private static InputStream slice(byte[] data, int index) {
+        int from = (int) (index * CHUNK);
+        return new ByteArrayInputStream(data, from, (int) Math.min(CHUNK, data.length - from));
+    }
+
+    /**
+     * 按 RasterUploadService 使用的语句模拟 raster_upload 与 raster_upload_chunk
+     */
+    private static class UploadTables extends JdbcTemplate {
+        final Map<String, RasterUpload> uploads = new HashMap<>();
+        final Map<String, TreeMap<Integer, Long>> chunks = new HashMap<>();
+
+        RasterUpload copy(String id) {
+            RasterUpload upload = uploads.get(id);
+            if (upload == null) {
+                return null;
+            }
+            RasterUpload copy = new RasterUpload();
+            copy.setId(upload.getId());
+            copy.setName(upload.getName());
+            copy.setDescription(upload.getDescription());
+            copy.setLoOid(upload.getLoOid());
+            copy.setTotalSize(upload.getTotalSize());
+            copy.setChunkSize(upload.getChunkSize());
+            copy.setChunkCount(upload.getChunkCount());
+            copy.setStatus(upload.getStatus());
+            copy.setRasterId(upload.getRasterId());
+            return copy;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> List<T> queryForList(String sql, Class<T> elementType, Object... args) {
+            if (sql.startsWith("SELECT status FROM raster_upload WHERE id = ?")) {
+                RasterUpload upload = uploads.get((String) args[0]);
+                return upload != null ? List.of((T) upload.getStatus()) : List.of();
+            }
+            if (sql.startsWith("SELECT chunk_index FROM raster_upload_chunk")) {
+                return new ArrayList<>((Collection<T>) chunks.getOrDefault((String) args[0], new TreeMap<>()).keySet());
+            }
+            throw new UnsupportedOperationException(sql);
+        }
+
+        @Override
+        public int update(String sql, Object... args) {
+            if (sql.startsWith("INSERT INTO raster_upload_chunk")) {
+                chunks.computeIfAbsent((String) args[0], id -> new TreeMap<>()).put((Integer) args[1], (Long) args[2]);
+                return 1;
+            }
+            if (sql.startsWith("DELETE FROM raster_upload_chunk WHERE upload_id = ?")) {
+                chunks.remove((String) args[0]);
+                return 1;
+            }
+            if (sql.startsWith("DELETE FROM raster_upload WHERE id = ? AND status = ?")) {
+                RasterUpload upload = uploads.get((String) args[0]);
+                if (upload == null || !upload.getStatus().equals(args[1])) {
+                    return 0;
+                }
+                uploads.remove((String) args[0]);
+                chunks.remove((String) args[0]);
+                return 1;
+            }
+            if (sql.startsWith("UPDATE raster_upload SET status = ?, raster_id = ?")) {
+                RasterUpload upload = uploads.get((String) args[3]);
+                upload.setStatus((String) args[0]);
+                upload.setRasterId((Long) args[1]);
+                return 1;
+            }
+            if (sql.startsWith("UPDATE raster_upload SET status = ?, updated_at = ? WHERE id = ?")) {
+                RasterUpload upload = uploads.get((String) args[2]);
+                if (upload == null || (args.length > 3 && !upload.getStatus().equals(args[3]))) {
+                    return 0;
+                }
+                upload.setStatus((String) args[0]);
+                return 1;
+            }
+            throw new UnsupportedOperationException(sql);
+        }
+    }
+
+    private static class MemoryStorage implements RasterStorage {
+        private final Map<Long, byte[]> contents = new HashMap<>();
+        private long next = 1;
+
+        boolean exists(long handle) {
+            return contents.containsKey(handle);
+        }
+
+        byte[] content(long handle) {
+            return contents.get(handle);
+        }
+
+        @Override
+        public long create() {
+            contents.put(next, new byte[0]);
+            return next++;
+        }
+
+        @Override
+        public long write(long handle, long offset, InputStream in, long maxBytes) throws IOException {
+            byte[] data = in.readNBytes((int) maxBytes);
+            byte[] current = contents.get(handle);
+            byte[] grown = Arrays.copyOf(current, Math.max(current.length, (int) offset + data.length));
+            System.arraycopy(data, 0, grown, (int) offset, data.length);
+            contents.put(handle, grown);
+            return data.length;
+        }
+
+        @Override
+        public void read(long handle, long offset, long length, OutputStream out) throws IOException {
+            out.write(contents.get(handle), (int) offset, (int) length);
+        }
+
+        @Override
+        public <T> T readStream(long handle, StreamCallback<T> callback) throws IOException {
+            return callback.doWithStream(new ByteArrayInputStream(contents.get(handle)));
+        }
+
+        @Override
+        public <T> T readImage(long handle, ImageStreamCallback<T> callback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transform(long sourceHandle, ImageTransformCallback callback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long size(long handle) {
+            return contents.get(handle).length;
+        }
+
+        @Override
+        public void unlink(long handle) {
+            contents.remove(handle);
+        }
+
+        @Override
+        public void unlinkInTransaction(long handle) {
+            unlink(handle);
+        }
+
+        @Override
+        public List<Long> listObjects() {
+            return new ArrayList<>(contents.keySet());
+        }
+
+        @Override
+        public boolean owns(long handle) {
+            return true;
+        }
+    }
+}
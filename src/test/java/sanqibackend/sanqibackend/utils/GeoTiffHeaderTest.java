@@ -0,0 +1,213 @@
+package sanqibackend.sanqibackend.utils;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeoTiffHeaderTest {
+
+    private static final int SHORT = 3;
+    private static final int LONG = 4;
+    private static final int DOUBLE = 12;
+    private static final int ASCII = 2;
+
+    @Test
+    void readsLittleEndianTiledGeoTiff() throws IOException {
+        for (boolean bigTiff : new boolean[]{false, true}) {
+            byte[] bytes = tiff(bigTiff, List.of(
+                    entry(256, LONG, 1000),
+                    entry(257, LONG, 600),
+                    entry(258, SHORT, 16, 16, 16),
+                    entry(259, SHORT, 8),
+                    entry(277, SHORT, 3),
+                    entry(322, SHORT, 256),
+                    entry(323, SHORT, 128),
+                    entry(339, SHORT, 2, 2, 2),
+                    doubles(33550, 30, 30, 0),
+                    doubles(33922, 0, 0, 0, 500000, 3000000, 0),
+                    entry(34735, SHORT, 1, 1, 0, 5,
+                            1024, 0, 1, 1,
+                            1025, 0, 1, 1,
+                            3072, 0, 1, 32649,
+                            3076, 34737, 6, 0,
+                            3088, 34736, 1, 0),
+                    doubles(34736, 111.0),
+                    ascii(34737, "metre|"),
+                    ascii(42113, "-32768")));
+
+            GeoTiffHeader header = read(bytes);
+            assertEquals(bigTiff, header.isBigTiff());
+            assertEquals(1000, header.getWidth());
+            assertEquals(600, header.getHeight());
+            assertEquals(3, header.getSamplesPerPixel());
+            assertEquals("Int16", header.getDataType());
+            assertEquals(8, header.getCompression());
+            assertTrue(header.isTiled());
+            assertEquals(256, header.getBlockWidth());
+            assertEquals(128, header.getBlockHeight());
+            assertArrayEquals(new double[]{500000, 30, 0, 3000000, 0, -30}, header.getGeoTransform(), 0);
+            assertArrayEquals(new double[]{500000, 3000000 - 600 * 30, 500000 + 1000 * 30, 3000000},
+                    header.getBounds(), 0);
+            assertEquals(32649, header.getEpsgCode());
+            assertEquals("metre", header.getGeoKeys().get(3076));
+            assertEquals(111.0, header.getGeoKeys().get(3088));
+            assertEquals(-32768.0, header.getNoData(), 0);
+        }
+    }
+
+    @Test
+    void pixelIsPointShiftsOriginToCorner() throws IOException {
+        GeoTiffHeader header = read(tiff(false, List.of(
+                entry(256, SHORT, 10),
+                entry(257, SHORT, 10),
+                entry(258, SHORT, 8),
+                doubles(33550, 2, 2, 0),
+                doubles(33922, 0, 0, 0, 100, 200, 0),
+                entry(34735, SHORT, 1, 1, 0, 2,
+                        1025, 0, 1, 2,
+                        2048, 0, 1, 4326),
+                ascii(42113, "nan"))));
+
+        assertArrayEquals(new double[]{99, 2, 0, 201, 0, -2}, header.getGeoTransform(), 0);
+        assertEquals(4326, header.getEpsgCode());
+        assertTrue(Double.isNaN(header.getNoData()));
+        // 无分块标签时按条带组织，未给出每条带行数时为整幅
+        assertFalse(header.isTiled());
+        assertEquals(10, header.getBlockWidth());
+        assertEquals(10, header.getBlockHeight());
+        assertEquals("Byte", header.getDataType());
+    }
+
+    @Test
+    void userDefinedCrsAndMissingGeoreference() throws IOException {
+        GeoTiffHeader header = read(tiff(false, List.of(
+                entry(256, SHORT, 4),
+                entry(257, SHORT, 4),
+                entry(34735, SHORT, 1, 1, 0, 1,
+                        3072, 0, 1, 32767))));
+
+        assertFalse(header.isGeoreferenced());
+        assertNull(header.getGeoTransform());
+        assertNull(header.getBounds());
+        assertNull(header.getEpsgCode());
+        assertNull(header.getNoData());
+    }
+
+    @Test
+    void worldToPixelInvertsPixelToWorld() {
+        double[] gt = {116.0, 0.001, 0.0002, 40.0, 0.0001, -0.001};
+        double[] xy = {0, 0, 12.5, 7.25, 1000, 3};
+        double[] original = xy.clone();
+
+        GeoTiffHeader.pixelToWorld(gt, xy, 3);
+        assertEquals(116.0, xy[0], 0);
+        assertEquals(40.0, xy[1], 0);
+        GeoTiffHeader.worldToPixel(gt, xy, 3);
+        assertArrayEquals(original, xy, 1e-9);
+    }
+
+    @Test
+    void recognisesTiffSignatures() {
+        assertTrue(GeoTiffHeader.isTiff(new byte[]{'I', 'I', 42, 0}, 4));
+        assertTrue(GeoTiffHeader.isTiff(new byte[]{'M', 'M', 0, 43}, 4));
+        assertFalse(GeoTiffHeader.isTiff(new byte[]{'I', 'I', 42, 0}, 3));
+        assertFalse(GeoTiffHeader.isTiff(new byte[]{(byte) 0x89, 'P', 'N', 'G'}, 4));
+        assertThrows(IOException.class, () -> read("not a tiff".getBytes(StandardCharsets.US_ASCII)));
+        // 合法的文件头但缺少尺寸标签
+        assertThrows(IOException.class, () -> read(tiff(false, List.<Object[]>of(entry(259, SHORT, 1)))));
+    }
+
+    private static GeoTiffHeader read(byte[] bytes) throws IOException {
+        return GeoTiffHeader.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * 按标签顺序写出小端字节序的单 IFD 文件，放不进条目的值依次存放在 IFD 之后
+     */
+    private static byte[] tiff(boolean bigTiff, List<Object[]> entries) {
+        int inline = bigTiff ? 8 : 4;
+        int ifdStart = bigTiff ? 16 : 8;
+        int ifdSize = bigTiff ? 8 + entries.size() * 20 + 8 : 2 + entries.size() * 12 + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 'I').put((byte) 'I');
+        if (bigTiff) {
+            buffer.putShort((short) 43).putShort((short) 8).putShort((short) 0).putLong(ifdStart);
+            buffer.putLong(entries.size());
+        } else {
+            buffer.putShort((short) 42).putInt(ifdStart);
+            buffer.putShort((short) entries.size());
+        }
+        int valueOffset = ifdStart + ifdSize;
+        List<byte[]> outOfLine = new ArrayList<>();
+        for (Object[] entry : entries) {
+            byte[] data = (byte[]) entry[3];
+            buffer.putShort((short) (int) entry[0]).putShort((short) (int) entry[1]);
+            if (bigTiff) {
+                buffer.putLong((int) entry[2]);
+            } else {
+                buffer.putInt((int) entry[2]);
+            }
+            if (data.length <= inline) {
+                buffer.put(data).put(new byte[inline - data.length]);
+            } else {
+                if (bigTiff) {
+                    buffer.putLong(valueOffset);
+                } else {
+                    buffer.putInt(valueOffset);
+                }
+                valueOffset += data.length;
+                outOfLine.add(data);
+            }
+        }
+        if (bigTiff) {
+            buffer.putLong(0);
+        } else {
+            buffer.putInt(0);
+        }
+        for (byte[] data : outOfLine) {
+            buffer.put(data);
+        }
+        byte[] bytes = new byte[buffer.position()];
+        buffer.flip().get(bytes);
+        return bytes;
+    }
+
+    private static Object[] entry(int tag, int type, int... values) {
+        ByteBuffer data = ByteBuffer.allocate(values.length * (type == SHORT ? 2 : 4)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int v : values) {
+            if (type == SHORT) {
+                data.putShort((short) v);
+            } else {
+                data.putInt(v);
+            }
+        }
+        return new Object[]{tag, type, values.length, data.array()};
+    }
+
+    private static Object[] doubles(int tag, double... values) {
+        ByteBuffer data = ByteBuffer.allocate(values.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (double v : values) {
+            data.putDouble(v);
+        }
+        return new Object[]{tag, DOUBLE, values.length, data.array()};
+    }
+
+    private static Object[] ascii(int tag, String value) {
+        byte[] text = (value + "\0").getBytes(StandardCharsets.US_ASCII);
+        return new Object[]{tag, ASCII, text.length, text};
+    }
+}
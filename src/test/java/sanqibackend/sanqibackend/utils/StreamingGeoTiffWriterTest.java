@@ -0,0 +1,161 @@
+package sanqibackend.sanqibackend.utils;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingGeoTiffWriterTest {
+
+    private static final int WIDTH = 7;
+    private static final int HEIGHT = 5;
+
+    @Test
+    void classicTiffRoundTrip() throws IOException {
+        double[] gt = {500000, 30, 0, 3000000, 0, -30};
+        StreamingGeoTiffWriter writer = new StreamingGeoTiffWriter(WIDTH, HEIGHT, 2, 16, 1, 1);
+        writer.setGeoTransform(gt);
+        writer.setGeoKeys(Map.of(GeoTiffHeader.KEY_MODEL_TYPE, 1, GeoTiffHeader.KEY_PROJECTED_CS_TYPE, 32649,
+                3073, "WGS 84 / UTM zone 49N", 3088, 111.5));
+        writer.setNoData(65535.0);
+        WritableRaster raster = raster(DataBuffer.TYPE_USHORT, 2);
+        byte[] bytes = write(writer, raster, null);
+
+        assertEquals(writer.length(), bytes.length);
+        GeoTiffHeader header = header(bytes);
+        assertFalse(header.isBigTiff());
+        assertEquals(WIDTH, header.getWidth());
+        assertEquals(HEIGHT, header.getHeight());
+        assertEquals(2, header.getSamplesPerPixel());
+        assertEquals("UInt16", header.getDataType());
+        assertArrayEquals(gt, header.getGeoTransform(), 0);
+        assertEquals(65535.0, header.getNoData(), 0);
+        assertEquals(32649, header.getEpsgCode());
+        assertEquals("WGS 84 / UTM zone 49N", header.getGeoKeys().get(3073));
+        assertEquals(111.5, header.getGeoKeys().get(3088));
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+        assertEquals(WIDTH, image.getWidth());
+        assertEquals(HEIGHT, image.getHeight());
+        assertRasterEquals(raster, image.getRaster());
+    }
+
+    @Test
+    void forcedBigTiffRoundTrip() throws IOException {
+        // 带旋转的仿射变换写入 ModelTransformation 标签
+        double[] gt = {116.0, 0.001, 0.0002, 40.0, 0.0001, -0.001};
+        StreamingGeoTiffWriter writer = new StreamingGeoTiffWriter(WIDTH, HEIGHT, 1, 32, 3, 1);
+        writer.setForceBigTiff(true);
+        writer.setGeoTransform(gt);
+        writer.setGeoKeys(Map.of(GeoTiffHeader.KEY_MODEL_TYPE, 2, GeoTiffHeader.KEY_GEOGRAPHIC_TYPE, 4326));
+        writer.setNoData(Double.NaN);
+        WritableRaster raster = raster(DataBuffer.TYPE_FLOAT, 1);
+        byte[] bytes = write(writer, raster, null);
+
+        assertEquals(writer.length(), bytes.length);
+        GeoTiffHeader header = header(bytes);
+        assertTrue(header.isBigTiff());
+        assertEquals(WIDTH, header.getWidth());
+        assertEquals(HEIGHT, header.getHeight());
+        assertEquals("Float32", header.getDataType());
+        assertArrayEquals(gt, header.getGeoTransform(), 1e-12);
+        assertTrue(Double.isNaN(header.getNoData()));
+        assertEquals(4326, header.getEpsgCode());
+
+        // JDK 的 TIFF 读取器不支持 BigTIFF：像元紧接在文件头之后按行存放，直接按大端浮点读取
+        ByteBuffer data = ByteBuffer.wrap(bytes, bytes.length - WIDTH * HEIGHT * 4, WIDTH * HEIGHT * 4);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(raster.getSampleFloat(x, y, 0), data.getFloat(), 0);
+            }
+        }
+    }
+
+    @Test
+    void maskedColumnsAreWrittenAsFill() throws IOException {
+        StreamingGeoTiffWriter writer = new StreamingGeoTiffWriter(WIDTH, HEIGHT, 1, 8, 1, 1);
+        BitSet mask = new BitSet();
+        mask.set(2, 5);
+        byte[] bytes = write(writer, raster(DataBuffer.TYPE_BYTE, 1), mask);
+
+        Raster read = ImageIO.read(new ByteArrayInputStream(bytes)).getRaster();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int expected = mask.get(x) ? value(x, y, 0) & 0xff : 200;
+                assertEquals(expected, read.getSample(x, y, 0));
+            }
+        }
+    }
+
+    @Test
+    void finishRejectsIncompleteImage() throws IOException {
+        StreamingGeoTiffWriter writer = new StreamingGeoTiffWriter(WIDTH, HEIGHT, 1, 8, 1, 1);
+        writer.begin(new ByteArrayOutputStream());
+        writer.writeRow(raster(DataBuffer.TYPE_BYTE, 1), 0, 0, null, 0);
+
+        assertThrows(IllegalStateException.class, writer::finish);
+        assertThrows(IllegalArgumentException.class, () -> new StreamingGeoTiffWriter(1, 1, 1, 12, 1, 1));
+    }
+
+    private static byte[] write(StreamingGeoTiffWriter writer, Raster raster, BitSet mask) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.begin(out);
+        for (int y = 0; y < HEIGHT; y++) {
+            writer.writeRow(raster, 0, y, mask, 200);
+        }
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    private static WritableRaster raster(int dataType, int bands) {
+        WritableRaster raster = Raster.createWritableRaster(
+                new BandedSampleModel(dataType, WIDTH, HEIGHT, bands), null);
+        for (int b = 0; b < bands; b++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    if (dataType == DataBuffer.TYPE_FLOAT) {
+                        raster.setSample(x, y, b, value(x, y, b) / 8f - 3.25f);
+                    } else {
+                        raster.setSample(x, y, b, value(x, y, b));
+                    }
+                }
+            }
+        }
+        return raster;
+    }
+
+    private static int value(int x, int y, int band) {
+        return (y * WIDTH + x) * 37 + band * 1000;
+    }
+
+    private static GeoTiffHeader header(byte[] bytes) throws IOException {
+        return GeoTiffHeader.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static void assertRasterEquals(Raster expected, Raster actual) {
+        for (int b = 0; b < expected.getNumBands(); b++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    assertEquals(expected.getSample(x, y, b), actual.getSample(x, y, b));
+                }
+            }
+        }
+    }
+}
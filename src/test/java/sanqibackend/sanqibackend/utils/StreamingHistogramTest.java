@@ -0,0 +1,127 @@
+package sanqibackend.sanqibackend.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingHistogramTest {
+
+    @Test
+    void oddBinCountGrowsInBothDirections() {
+        StreamingHistogram histogram = new StreamingHistogram(7);
+        double[] values = {10, 11, 5, 30, -100, 1000, -5000, 12};
+        for (double v : values) {
+            histogram.add(v);
+        }
+
+        assertEquals(values.length, sum(histogram.getBins()));
+        assertTrue(histogram.getLower() <= -5000);
+        assertTrue(histogram.getUpper() > 1000);
+        assertEquals(-5000, histogram.percentile(0), 0);
+        assertEquals(1000, histogram.percentile(100), 0);
+    }
+
+    @Test
+    void everyValueStaysInItsBinAfterGrowing() {
+        for (int binCount : new int[]{2, 3, 7, 64, 101}) {
+            StreamingHistogram histogram = new StreamingHistogram(binCount);
+            List<Double> values = shuffledRange(-2000, 3000, binCount);
+            for (double v : values) {
+                histogram.add(v);
+            }
+            long[] bins = histogram.getBins();
+            double width = (histogram.getUpper() - histogram.getLower()) / bins.length;
+            double eps = width * 1e-9;
+            long cumulative = 0;
+            for (int k = 1; k <= bins.length; k++) {
+                // 前 k 箱的计数等于小于第 k 条箱边界的值的个数（边界上的值允许浮点误差）
+                cumulative += bins[k - 1];
+                double edge = histogram.getLower() + width * k;
+                long below = values.stream().filter(v -> v < edge - eps).count();
+                long belowOrOn = k == bins.length ? values.size() : values.stream().filter(v -> v < edge + eps).count();
+                assertTrue(cumulative >= below && cumulative <= belowOrOn,
+                        binCount + " 箱第 " + k + " 条边界: " + cumulative + " 不在 [" + below + ", " + belowOrOn + "]");
+            }
+        }
+    }
+
+    @Test
+    void percentileWithinOneBinWidth() {
+        StreamingHistogram histogram = new StreamingHistogram(101);
+        for (double v : shuffledRange(0, 10000, 42)) {
+            histogram.add(v);
+        }
+        double width = (histogram.getUpper() - histogram.getLower()) / histogram.getBins().length;
+
+        assertEquals(10000, histogram.getCount());
+        assertEquals(2500, histogram.percentile(25), width);
+        assertEquals(5000, histogram.percentile(50), width);
+        assertEquals(9900, histogram.percentile(99), width);
+        assertEquals(4999.5, histogram.getMean(), 1e-9);
+        assertEquals(Math.sqrt((10000.0 * 10000 - 1) / 12), histogram.getStddev(), 1e-6);
+    }
+
+    @Test
+    void fixedRangeIsExactAndIgnoresOutliersInBins() {
+        StreamingHistogram histogram = new StreamingHistogram(256, 0, 256);
+        for (int v = 0; v < 256; v++) {
+            histogram.add(v);
+            histogram.add(v);
+        }
+        histogram.add(-1);
+        histogram.add(300);
+
+        long[] bins = histogram.getBins();
+        for (long c : bins) {
+            assertEquals(2, c);
+        }
+        assertEquals(514, histogram.getCount());
+        assertEquals(-1, histogram.getMin(), 0);
+        assertEquals(300, histogram.getMax(), 0);
+    }
+
+    @Test
+    void constantValuesAndNonFiniteValues() {
+        StreamingHistogram histogram = new StreamingHistogram(16);
+        histogram.add(Double.NaN);
+        for (int i = 0; i < 5; i++) {
+            histogram.add(3.5);
+        }
+        histogram.add(Double.POSITIVE_INFINITY);
+
+        assertEquals(5, histogram.getCount());
+        assertEquals(3.5, histogram.percentile(50), 0);
+        assertEquals(0, histogram.getStddev(), 0);
+        assertTrue(Double.isNaN(new StreamingHistogram(16).percentile(50)));
+    }
+
+    @Test
+    void rejectsTooFewBins() {
+        assertThrows(IllegalArgumentException.class, () -> new StreamingHistogram(1));
+        assertThrows(IllegalArgumentException.class, () -> new StreamingHistogram(0));
+    }
+
+    private static List<Double> shuffledRange(int from, int to, long seed) {
+        List<Double> values = new ArrayList<>();
+        for (int v = from; v < to; v++) {
+            values.add((double) v);
+        }
+        Collections.shuffle(values, new Random(seed));
+        return values;
+    }
+
+    private static long sum(long[] bins) {
+        long total = 0;
+        for (long c : bins) {
+            total += c;
+        }
+        return total;
+    }
+}